@@ -4,6 +4,7 @@
  */
 package org.geoserver.flow;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -11,7 +12,12 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.geoserver.flow.config.DefaultControlFlowConfigurator;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairShareFlowController;
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.HttpErrorCodeException;
 import org.geoserver.ows.Request;
@@ -37,6 +43,16 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
     
     static NestedRequestSentinel SENTINEL = new NestedRequestSentinel();
 
+    /**
+     * Name under which the scheduler statistics are published, if a scheduler is configured
+     */
+    static final String SCHEDULER_MBEAN = "org.geoserver:type=ControlFlowScheduler";
+
+    /**
+     * Name under which the cost budget statistics are published, if a cost budget is configured
+     */
+    static final String COST_MBEAN = "org.geoserver:type=ControlFlowCost";
+
     List<FlowController> controllers = Collections.emptyList();
     long timeout = -1;
 
@@ -144,6 +160,7 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                     .buildFlowControllers());
             Collections.sort(newControllers, new ControllerPriorityComparator());
             controllers = newControllers;
+            publishStatistics(newControllers);
             int controllersCount = controllers.size();
             if(controllersCount > 0) {
                 LOGGER.info("Control-flow active with " + controllersCount + " flow controllers");
@@ -156,6 +173,32 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         }
     }
 
+    /**
+     * Publishes the statistics of the configured scheduler and cost budget, if any, through JMX
+     */
+    void publishStatistics(List<FlowController> controllers) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName scheduler = new ObjectName(SCHEDULER_MBEAN);
+            ObjectName cost = new ObjectName(COST_MBEAN);
+            for (ObjectName name : new ObjectName[] { scheduler, cost }) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            }
+            for (FlowController controller : controllers) {
+                if (controller instanceof FairShareFlowController
+                        && !server.isRegistered(scheduler)) {
+                    server.registerMBean(controller, scheduler);
+                } else if (controller instanceof CostFlowController && !server.isRegistered(cost)) {
+                    server.registerMBean(controller, cost);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not publish the control-flow statistics", e);
+        }
+    }
+
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         // look for a ControlFlowConfigurator in the application context, if none is found, use the
         // default one
@@ -6,7 +6,11 @@ package org.geoserver.flow.config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.logging.Logger;
@@ -14,8 +18,13 @@ import java.util.logging.Logger;
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairShareFlowController;
+import org.geoserver.flow.controller.FairShareFlowController.FlowKey;
+import org.geoserver.flow.controller.FairShareFlowController.PriorityRule;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
+import org.geoserver.flow.controller.RequestCostEstimator;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
 import org.geoserver.security.PropertyFileWatcher;
@@ -54,12 +63,22 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        Properties scheduler = new Properties();
+        Properties cost = new Properties();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
             LOGGER.info("Loading control-flow configuration: " + key + "=" + value);
 
             String[] keys = key.split("\\s*\\.\\s*");
+            if ("scheduler".equals(keys[0])) {
+                // the scheduler is configured by a group of rules, handled at the end
+                scheduler.put(key, value.trim());
+                continue;
+            } else if ("cost".equals(keys[0])) {
+                cost.put(key, value.trim());
+                continue;
+            }
 
             int queueSize = 0;
             StringTokenizer tokenizer = new StringTokenizer(value, ",");
@@ -115,9 +134,144 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
             }
         }
 
+        if (scheduler.containsKey("scheduler")) {
+            FlowController controller = buildScheduler(scheduler);
+            if (controller != null) {
+                newControllers.add(controller);
+            }
+        }
+
+        if (cost.containsKey("cost")) {
+            FlowController controller = buildCostController(cost);
+            if (controller != null) {
+                newControllers.add(controller);
+            }
+        }
+
         return newControllers;
     }
 
+    /**
+     * Builds the {@link CostFlowController} out of the following rules:
+     * <ul>
+     * <li><code>cost=budget</code>: the total cost of the requests running in parallel, where a
+     * cost unit is roughly a 256x256 GetMap of a single layer</li>
+     * <li><code>cost.tile=pixels</code>: the GetMap output pixels making up a cost unit</li>
+     * <li><code>cost.features=n</code>: the GetFeature features making up a cost unit</li>
+     * <li><code>cost.starvation=seconds</code>: how long a waiting request can be overtaken by
+     * cheaper ones</li>
+     * </ul>
+     */
+    FlowController buildCostController(Properties p) {
+        try {
+            int budget = Integer.parseInt(p.getProperty("cost"));
+            int tilePixels = Integer.parseInt(p.getProperty("cost.tile",
+                    String.valueOf(RequestCostEstimator.DEFAULT_TILE_PIXELS)));
+            int unitFeatures = Integer.parseInt(p.getProperty("cost.features",
+                    String.valueOf(RequestCostEstimator.DEFAULT_UNIT_FEATURES)));
+            long starvation = p.containsKey("cost.starvation") ? Long.parseLong(p
+                    .getProperty("cost.starvation")) * 1000
+                    : CostFlowController.DEFAULT_STARVATION_TIME;
+            for (Object key : p.keySet()) {
+                if (!"cost".equals(key) && !"cost.tile".equals(key)
+                        && !"cost.features".equals(key) && !"cost.starvation".equals(key)) {
+                    LOGGER.severe("Could not parse rule '" + key + "=" + p.get(key));
+                }
+            }
+            return new CostFlowController(budget, starvation, new RequestCostEstimator(
+                    tilePixels, unitFeatures));
+        } catch (NumberFormatException e) {
+            LOGGER.severe("The cost rules should be assigned a number, instead they are " + p);
+            return null;
+        } catch (IllegalArgumentException e) {
+            LOGGER.severe(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the {@link FairShareFlowController} out of the following rules:
+     * <ul>
+     * <li><code>scheduler=limit[,min,max]</code>: the number of requests running in parallel,
+     * adapting between min and max based on the observed latency if those are provided</li>
+     * <li><code>scheduler.key=ip|user|layer</code>: how requests are grouped in flows sharing the
+     * server fairly, defaults to ip</li>
+     * <li><code>scheduler.weight.&lt;flow&gt;=n</code>: gives a flow n times the share of the
+     * others</li>
+     * <li><code>scheduler.priority.ows.&lt;service&gt;[.&lt;request&gt;]=n</code> and
+     * <code>scheduler.priority.ip.&lt;ip&gt;=n</code>: requests with higher priority are served
+     * first, the default priority is zero. E.g., tile seeding can be moved below interactive
+     * requests with <code>scheduler.priority.ip.127.0.0.1=-1</code>, as GWC dispatches its
+     * requests as a local client</li>
+     * </ul>
+     */
+    FlowController buildScheduler(Properties p) {
+        int limit, min, max;
+        try {
+            String[] limits = p.getProperty("scheduler").split("\\s*,\\s*");
+            limit = Integer.parseInt(limits[0]);
+            min = limits.length > 1 ? Integer.parseInt(limits[1]) : limit;
+            max = limits.length > 2 ? Integer.parseInt(limits[2]) : Math.max(min, limit);
+        } catch (NumberFormatException e) {
+            LOGGER.severe("The scheduler rule should be limit[,min,max], instead it is "
+                    + p.getProperty("scheduler"));
+            return null;
+        }
+
+        FlowKey flowKey = FlowKey.IP;
+        String keyName = p.getProperty("scheduler.key");
+        if (keyName != null) {
+            try {
+                flowKey = FlowKey.valueOf(keyName.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.severe("Unknown scheduler key " + keyName + ", using ip instead");
+            }
+        }
+
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        List<PriorityRule> priorities = new ArrayList<PriorityRule>();
+        for (Object okey : p.keySet()) {
+            String key = (String) okey;
+            try {
+                if (key.startsWith("scheduler.weight.")) {
+                    weights.put(key.substring("scheduler.weight.".length()),
+                            Integer.parseInt(p.getProperty(key)));
+                } else if (key.startsWith("scheduler.priority.ip.")) {
+                    priorities.add(new PriorityRule(null, null, key
+                            .substring("scheduler.priority.ip.".length()), Integer.parseInt(p
+                            .getProperty(key))));
+                } else if (key.startsWith("scheduler.priority.ows.")) {
+                    String[] ows = key.substring("scheduler.priority.ows.".length()).split(
+                            "\\s*\\.\\s*");
+                    priorities.add(new PriorityRule(ows[0], ows.length > 1 ? ows[1] : null,
+                            null, Integer.parseInt(p.getProperty(key))));
+                } else if (!"scheduler".equals(key) && !"scheduler.key".equals(key)) {
+                    LOGGER.severe("Could not parse rule '" + key + "=" + p.getProperty(key));
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.severe("Rule " + key + " should be assigned a number, instead it is "
+                        + p.getProperty(key));
+            }
+        }
+        // the most specific rules are checked first
+        Collections.sort(priorities, new Comparator<PriorityRule>() {
+            public int compare(PriorityRule r1, PriorityRule r2) {
+                return specificity(r2) - specificity(r1);
+            }
+
+            int specificity(PriorityRule rule) {
+                return rule.getIp() != null ? 2 : (rule.getRequest() != null ? 1 : 0);
+            }
+        });
+
+        try {
+            return new FairShareFlowController(flowKey, limit, min, max, weights, priorities);
+        } catch (IllegalArgumentException e) {
+            LOGGER.severe(e.getMessage());
+            return null;
+        }
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
@@ -0,0 +1,309 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller admitting requests against a shared cost budget, instead of counting them.
+ * <p>
+ * The cost of each request is estimated before it runs by a {@link RequestCostEstimator}, and
+ * the request runs only if its cost fits in what is left of the budget. A request costing more
+ * than the whole budget is considered as costing exactly the budget, so that it can run, alone.
+ * </p>
+ * <p>
+ * Waiting requests are admitted as soon as they fit, so cheap requests can go ahead of expensive
+ * ones queued before them. To avoid starving the expensive requests, once the oldest waiting
+ * request has been in queue longer than the starvation time no other request can overtake it.
+ * </p>
+ */
+public class CostFlowController implements FlowController, CostFlowControllerMXBean {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Default time after which the oldest waiting request cannot be overtaken anymore
+     */
+    public static final long DEFAULT_STARVATION_TIME = 5000;
+
+    /**
+     * Thread local holding the current request ticket
+     */
+    static ThreadLocal<Ticket> TICKET = new ThreadLocal<Ticket>();
+
+    int budget;
+
+    long starvationTime;
+
+    RequestCostEstimator estimator;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final LinkedList<Ticket> waiting = new LinkedList<Ticket>();
+
+    double used;
+
+    int running;
+
+    // statistics
+    long admitted;
+
+    long rejected;
+
+    long maxWait;
+
+    public CostFlowController(int budget) {
+        this(budget, DEFAULT_STARVATION_TIME, new RequestCostEstimator());
+    }
+
+    /**
+     * Builds a new cost based controller
+     *
+     * @param budget the total cost of the requests allowed to run in parallel
+     * @param starvationTime the time, in milliseconds, after which the oldest waiting request
+     *        cannot be overtaken by cheaper ones
+     * @param estimator the estimator of the request costs
+     */
+    public CostFlowController(int budget, long starvationTime, RequestCostEstimator estimator) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("The cost budget should be positive, instead it is "
+                    + budget);
+        }
+        this.budget = budget;
+        this.starvationTime = starvationTime;
+        this.estimator = estimator;
+    }
+
+    public int getPriority() {
+        return budget;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        // estimating might require a feature count, do it before locking
+        double estimate = estimator.estimate(request);
+        double cost = Math.min(budget, estimator.correct(request, estimate));
+        long now = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            Ticket ticket = new Ticket(estimate, cost, now, lock.newCondition());
+            TICKET.set(ticket);
+            if (fits(ticket) && !isStarving(now)) {
+                admit(ticket, now);
+                return true;
+            }
+
+            waiting.add(ticket);
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (!ticket.admitted) {
+                    if (timeout > 0) {
+                        if (nanos <= 0) {
+                            waiting.remove(ticket);
+                            TICKET.remove();
+                            rejected++;
+                            // the head of the queue might have been waiting for this one
+                            dispatch(System.currentTimeMillis());
+                            return false;
+                        }
+                        nanos = ticket.condition.awaitNanos(nanos);
+                    } else {
+                        ticket.condition.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unexpected interruption while waiting for the "
+                        + "request cost to fit in the budget");
+                Thread.currentThread().interrupt();
+                if (!ticket.admitted) {
+                    // its cost was never taken from the budget, the request must not proceed
+                    waiting.remove(ticket);
+                    TICKET.remove();
+                    dispatch(System.currentTimeMillis());
+                    return false;
+                }
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " cost in use " + used + ", waiting " + waiting.size());
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void requestComplete(Request request) {
+        Ticket ticket = TICKET.get();
+        TICKET.remove();
+        if (ticket == null || !ticket.admitted) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        estimator.record(request, ticket.estimate, now - ticket.admittedAt);
+        lock.lock();
+        try {
+            running--;
+            used -= ticket.cost;
+            if (running == 0) {
+                // clear the floating point rounding errors
+                used = 0;
+            }
+            dispatch(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean fits(Ticket ticket) {
+        return used + ticket.cost <= budget;
+    }
+
+    boolean isStarving(long now) {
+        return !waiting.isEmpty() && now - waiting.getFirst().arrived >= starvationTime;
+    }
+
+    void admit(Ticket ticket, long now) {
+        ticket.admitted = true;
+        ticket.admittedAt = now;
+        used += ticket.cost;
+        running++;
+        admitted++;
+        maxWait = Math.max(maxWait, now - ticket.arrived);
+    }
+
+    /**
+     * Admits the waiting requests fitting in the budget left. Must be called while holding the
+     * lock.
+     */
+    void dispatch(long now) {
+        boolean starving = isStarving(now);
+        for (Iterator<Ticket> it = waiting.iterator(); it.hasNext();) {
+            Ticket ticket = it.next();
+            if (fits(ticket)) {
+                it.remove();
+                admit(ticket, now);
+                ticket.condition.signal();
+            } else if (starving) {
+                // keep the budget for the oldest request
+                break;
+            }
+            if (used >= budget) {
+                break;
+            }
+        }
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public long getStarvationTime() {
+        return starvationTime;
+    }
+
+    public RequestCostEstimator getEstimator() {
+        return estimator;
+    }
+
+    public double getCostInUse() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWaitTime() {
+        lock.lock();
+        try {
+            return maxWait;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CostFlowController(" + budget + ")";
+    }
+
+    /**
+     * A request waiting to run, or running
+     */
+    static class Ticket {
+        /**
+         * The cost estimated out of the request parameters alone
+         */
+        final double estimate;
+
+        /**
+         * The cost charged against the budget
+         */
+        final double cost;
+
+        final long arrived;
+
+        final Condition condition;
+
+        boolean admitted;
+
+        long admittedAt;
+
+        Ticket(double estimate, double cost, long arrived, Condition condition) {
+            this.estimate = estimate;
+            this.cost = cost;
+            this.arrived = arrived;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+/**
+ * Management interface exposing the {@link CostFlowController} statistics through JMX.
+ */
+public interface CostFlowControllerMXBean {
+
+    /**
+     * Total cost of the requests allowed to run in parallel.
+     */
+    int getBudget();
+
+    /**
+     * Cost of the requests currently running.
+     */
+    double getCostInUse();
+
+    /**
+     * Number of requests currently running.
+     */
+    int getRunning();
+
+    /**
+     * Number of requests currently waiting for their cost to fit in the budget.
+     */
+    int getQueued();
+
+    /**
+     * Number of requests that have been admitted so far.
+     */
+    long getAdmittedCount();
+
+    /**
+     * Number of requests that timed out while waiting.
+     */
+    long getRejectedCount();
+
+    /**
+     * Longest time an admitted request waited in queue, in milliseconds.
+     */
+    long getMaxWaitTime();
+}
@@ -0,0 +1,587 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * A flow controller scheduling the requests instead of just queueing them in arrival order.
+ * <p>
+ * Requests are grouped in flows, by user, IP address or layer, and the waiting requests are
+ * served in weighted fair share order across the flows (start time fair queuing), so that a single
+ * client flooding the server cannot starve the others. Priority rules can put some requests ahead
+ * of others regardless of the flows, e.g., interactive GetMap before tile seeding.
+ * </p>
+ * <p>
+ * The number of requests running in parallel can be fixed, or adapt between a minimum and a
+ * maximum based on the observed latency, using a gradient algorithm: the limit grows while the
+ * latency stays close to the no load one, and shrinks proportionally when it starts rising.
+ * </p>
+ */
+public class FairShareFlowController implements FlowController, FairShareFlowControllerMXBean {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The request property used to group requests in flows
+     */
+    public enum FlowKey {
+        /**
+         * The authenticated user name, or the IP address for anonymous requests
+         */
+        USER,
+        /**
+         * The IP address of the client
+         */
+        IP,
+        /**
+         * The layers requested
+         */
+        LAYER
+    }
+
+    /**
+     * Number of latency samples used for each adjustment of the limit
+     */
+    static final int WINDOW = 10;
+
+    /**
+     * How much the latency can grow over the no load one before the limit starts shrinking
+     */
+    static final double TOLERANCE = 1.5;
+
+    /**
+     * Weight of a new limit estimate against the current limit
+     */
+    static final double SMOOTHING = 0.2;
+
+    /**
+     * Number of windows after which the no load latency is estimated again, so that a permanent
+     * change in the workload is eventually accepted
+     */
+    static final int MIN_LATENCY_RESET = 100;
+
+    static final String[] LAYER_KEYS = { "LAYERS", "LAYER", "TYPENAME", "TYPENAMES", "COVERAGE",
+            "COVERAGEID", "QUERY_LAYERS" };
+
+    /**
+     * Thread local holding the current request ticket
+     */
+    static ThreadLocal<Ticket> TICKET = new ThreadLocal<Ticket>();
+
+    FlowKey flowKey;
+
+    int minLimit;
+
+    int maxLimit;
+
+    Map<String, Integer> weights;
+
+    List<PriorityRule> priorities;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+
+    final Map<String, Flow> flows = new HashMap<String, Flow>();
+
+    volatile double limit;
+
+    int running;
+
+    double virtualTime;
+
+    long sequence;
+
+    // latency tracking
+    long windowSamples;
+
+    long windowLatency;
+
+    int windowMaxRunning;
+
+    long windows;
+
+    double minLatency;
+
+    double lastLatency;
+
+    // statistics
+    long admitted;
+
+    long rejected;
+
+    long totalWait;
+
+    long maxWait;
+
+    /**
+     * Builds a scheduler with a fixed limit, grouping requests by IP
+     *
+     * @param limit the maximum number of requests running in parallel
+     */
+    public FairShareFlowController(int limit) {
+        this(FlowKey.IP, limit, limit, limit, null, null);
+    }
+
+    /**
+     * Builds a new scheduler
+     *
+     * @param flowKey how requests are grouped in flows
+     * @param limit the initial number of requests running in parallel
+     * @param minLimit the minimum number of requests running in parallel
+     * @param maxLimit the maximum number of requests running in parallel, if equal to minLimit the
+     *        limit is fixed
+     * @param weights the flow weights, flows not listed have weight one
+     * @param priorities the priority rules, requests not matching any have priority zero
+     */
+    public FairShareFlowController(FlowKey flowKey, int limit, int minLimit, int maxLimit,
+            Map<String, Integer> weights, List<PriorityRule> priorities) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits, should be 1 <= min <= max, but "
+                    + "they are min " + minLimit + " and max " + maxLimit);
+        }
+        this.flowKey = flowKey;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        this.weights = weights != null ? weights : Collections.<String, Integer> emptyMap();
+        this.priorities = priorities != null ? priorities : new ArrayList<PriorityRule>();
+    }
+
+    public int getPriority() {
+        return maxLimit;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Ticket ticket = newTicket(request, now);
+            TICKET.set(ticket);
+            if (waiting.isEmpty() && running < getLimit()) {
+                admit(ticket, now);
+                return true;
+            }
+
+            waiting.add(ticket);
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (!ticket.admitted) {
+                    if (timeout > 0) {
+                        if (nanos <= 0) {
+                            waiting.remove(ticket);
+                            release(ticket);
+                            TICKET.remove();
+                            rejected++;
+                            return false;
+                        }
+                        nanos = ticket.condition.awaitNanos(nanos);
+                    } else {
+                        ticket.condition.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unexpected interruption while "
+                        + "waiting to be scheduled");
+                Thread.currentThread().interrupt();
+                if (!ticket.admitted) {
+                    // never counted as running, the request must not proceed
+                    waiting.remove(ticket);
+                    release(ticket);
+                    TICKET.remove();
+                    return false;
+                }
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " running " + running + ", waiting " + waiting.size());
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void requestComplete(Request request) {
+        Ticket ticket = TICKET.get();
+        TICKET.remove();
+        if (ticket == null || !ticket.admitted) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            running--;
+            release(ticket);
+            sample(now - ticket.admittedAt, running + 1);
+            dispatch(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Builds the ticket of a new request, assigning it its virtual start time in its flow. Must be
+     * called while holding the lock.
+     */
+    Ticket newTicket(Request request, long now) {
+        String key = getFlowKey(request);
+        Flow flow = flows.get(key);
+        if (flow == null) {
+            Integer weight = weights.get(key);
+            flow = new Flow(key, weight != null && weight > 0 ? weight : 1);
+            flows.put(key, flow);
+        }
+        flow.active++;
+
+        // start time fair queuing, each request of a flow starts after the previous one
+        // finished, in virtual time, and lasts inversely to the weight of the flow
+        double start = Math.max(virtualTime, flow.finish);
+        flow.finish = start + 1d / flow.weight;
+        return new Ticket(flow, getPriority(request), start, sequence++, now,
+                lock.newCondition());
+    }
+
+    void admit(Ticket ticket, long now) {
+        ticket.admitted = true;
+        ticket.admittedAt = now;
+        virtualTime = Math.max(virtualTime, ticket.start);
+        running++;
+        windowMaxRunning = Math.max(windowMaxRunning, running);
+
+        long wait = now - ticket.arrived;
+        admitted++;
+        totalWait += wait;
+        maxWait = Math.max(maxWait, wait);
+    }
+
+    void release(Ticket ticket) {
+        Flow flow = ticket.flow;
+        flow.active--;
+        if (flow.active <= 0) {
+            flows.remove(flow.key);
+        }
+    }
+
+    void dispatch(long now) {
+        while (running < getLimit() && !waiting.isEmpty()) {
+            Ticket ticket = waiting.poll();
+            admit(ticket, now);
+            ticket.condition.signal();
+        }
+    }
+
+    /**
+     * Records the latency of a request and adjusts the limit once enough samples have been
+     * collected. Must be called while holding the lock.
+     */
+    void sample(long latency, int inflight) {
+        windowSamples++;
+        windowLatency += latency;
+        windowMaxRunning = Math.max(windowMaxRunning, inflight);
+        if (windowSamples < WINDOW) {
+            return;
+        }
+
+        // use at least a millisecond to avoid divisions by zero with very fast requests
+        double average = Math.max(1, (double) windowLatency / windowSamples);
+        boolean saturated = windowMaxRunning >= limit / 2;
+        windowSamples = 0;
+        windowLatency = 0;
+        windowMaxRunning = running;
+        windows++;
+        lastLatency = average;
+        if (minLatency == 0 || average < minLatency || windows % MIN_LATENCY_RESET == 0) {
+            minLatency = average;
+        }
+        if (minLimit == maxLimit) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1, TOLERANCE * minLatency / average));
+        double estimate = limit * gradient + Math.sqrt(limit);
+        // don't grow the limit if the requests are not even using it
+        if (estimate > limit && !saturated) {
+            return;
+        }
+        double newLimit = limit * (1 - SMOOTHING) + estimate * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(this + " average latency " + average + "ms, no load latency "
+                    + minLatency + "ms, limit now " + limit);
+        }
+    }
+
+    String getFlowKey(Request request) {
+        if (flowKey == FlowKey.LAYER) {
+            Map kvp = request.getRawKvp();
+            if (kvp != null) {
+                for (String name : LAYER_KEYS) {
+                    Object value = kvp.get(name);
+                    if (value != null) {
+                        return String.valueOf(value);
+                    }
+                }
+            }
+            return "";
+        } else if (flowKey == FlowKey.USER) {
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth != null && !(auth instanceof AnonymousAuthenticationToken)
+                    && auth.getName() != null) {
+                return auth.getName();
+            }
+        }
+        if (request.getHttpRequest() == null) {
+            return "";
+        }
+        String ip = IpFlowController.getRemoteAddr(request.getHttpRequest());
+        return ip != null ? ip : "";
+    }
+
+    int getPriority(Request request) {
+        for (PriorityRule rule : priorities) {
+            if (rule.matches(request)) {
+                return rule.priority;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The current limit, as a whole number of requests
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public FlowKey getFlowKey() {
+        return flowKey;
+    }
+
+    public Map<String, Integer> getWeights() {
+        return weights;
+    }
+
+    public List<PriorityRule> getPriorities() {
+        return priorities;
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getAverageWaitTime() {
+        lock.lock();
+        try {
+            return admitted > 0 ? (double) totalWait / admitted : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWaitTime() {
+        lock.lock();
+        try {
+            return maxWait;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getLatency() {
+        lock.lock();
+        try {
+            return lastLatency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getNoLoadLatency() {
+        lock.lock();
+        try {
+            return minLatency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FairShareFlowController(" + flowKey + "," + minLimit + "," + maxLimit + ")";
+    }
+
+    /**
+     * Assigns a priority to the requests matching a service, and optionally request, or coming
+     * from a given IP address. Higher priorities are served first.
+     */
+    public static class PriorityRule {
+        String service;
+
+        String request;
+
+        String ip;
+
+        int priority;
+
+        public PriorityRule(String service, String request, String ip, int priority) {
+            this.service = service;
+            this.request = request;
+            this.ip = ip;
+            this.priority = priority;
+        }
+
+        boolean matches(Request request) {
+            if (ip != null) {
+                return request.getHttpRequest() != null
+                        && ip.equals(IpFlowController.getRemoteAddr(request.getHttpRequest()));
+            }
+            if (!service.equalsIgnoreCase(request.getService())) {
+                return false;
+            }
+            return this.request == null || this.request.equalsIgnoreCase(request.getRequest());
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public String getRequest() {
+            return request;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * A group of requests sharing the same flow key
+     */
+    static class Flow {
+        final String key;
+
+        final int weight;
+
+        /**
+         * Virtual finish time of the last request of the flow
+         */
+        double finish;
+
+        /**
+         * Number of requests of this flow waiting or running
+         */
+        int active;
+
+        Flow(String key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A request waiting to run, or running
+     */
+    static class Ticket implements Comparable<Ticket> {
+        final Flow flow;
+
+        final int priority;
+
+        final double start;
+
+        final long sequence;
+
+        final long arrived;
+
+        final Condition condition;
+
+        boolean admitted;
+
+        long admittedAt;
+
+        Ticket(Flow flow, int priority, double start, long sequence, long arrived,
+                Condition condition) {
+            this.flow = flow;
+            this.priority = priority;
+            this.start = start;
+            this.sequence = sequence;
+            this.arrived = arrived;
+            this.condition = condition;
+        }
+
+        public int compareTo(Ticket other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            if (start != other.start) {
+                return start < other.start ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+}
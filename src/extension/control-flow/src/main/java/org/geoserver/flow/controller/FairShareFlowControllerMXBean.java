@@ -0,0 +1,66 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+/**
+ * Management interface exposing the {@link FairShareFlowController} statistics through JMX.
+ */
+public interface FairShareFlowControllerMXBean {
+
+    /**
+     * Current number of requests allowed to run in parallel.
+     */
+    int getLimit();
+
+    /**
+     * Lower bound of the adaptive limit.
+     */
+    int getMinLimit();
+
+    /**
+     * Upper bound of the adaptive limit.
+     */
+    int getMaxLimit();
+
+    /**
+     * Number of requests currently running.
+     */
+    int getRunning();
+
+    /**
+     * Number of requests currently waiting to be scheduled.
+     */
+    int getQueued();
+
+    /**
+     * Number of requests that have been scheduled so far.
+     */
+    long getAdmittedCount();
+
+    /**
+     * Number of requests that timed out while waiting to be scheduled.
+     */
+    long getRejectedCount();
+
+    /**
+     * Average time the scheduled requests waited in queue, in milliseconds.
+     */
+    double getAverageWaitTime();
+
+    /**
+     * Longest time a scheduled request waited in queue, in milliseconds.
+     */
+    long getMaxWaitTime();
+
+    /**
+     * Average latency of the requests in the last sampling window, in milliseconds.
+     */
+    double getLatency();
+
+    /**
+     * Estimated latency of the requests when the server is not loaded, in milliseconds.
+     */
+    double getNoLoadLatency();
+}
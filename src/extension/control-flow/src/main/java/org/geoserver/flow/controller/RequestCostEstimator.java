@@ -0,0 +1,367 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Estimates how expensive a request is going to be before it gets executed, in cost units.
+ * <p>
+ * A unit is roughly the cost of rendering a 256x256 tile of a single layer. GetMap requests cost
+ * proportionally to the output pixels and the number of layers, GetFeature requests to the
+ * number of features they can return, as reported by the feature sources. Every other request
+ * costs a single unit.
+ * </p>
+ * <p>
+ * Features are counted up to {@link #MAX_COUNTED_UNITS} units, so that estimating does not scan
+ * the whole feature type, and the counts are cached, so that estimating does not hit the stores
+ * for every request. Requests with a FILTER, CQL_FILTER or BBOX are not counted, the count of the
+ * whole feature type is an upper bound for them, capped at the fixed cost used for the stores
+ * that cannot count cheaply.
+ * </p>
+ * <p>
+ * The estimate is then corrected with the history of each layer: the time taken by the completed
+ * requests is recorded per layer, so that layers slower than the average, e.g. with complex
+ * styles or slow stores, are considered more expensive than their size alone suggests.
+ * </p>
+ * <p>
+ * Only the names found in the catalog are cached and tracked, and both caches are bounded, so
+ * that requests for made up layers cannot grow them.
+ * </p>
+ */
+public class RequestCostEstimator {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Number of pixels of a single cost unit, a 256x256 tile
+     */
+    public static final int DEFAULT_TILE_PIXELS = 256 * 256;
+
+    /**
+     * Number of features of a single cost unit
+     */
+    public static final int DEFAULT_UNIT_FEATURES = 1000;
+
+    /**
+     * Cost assigned to the feature types whose feature count cannot be computed cheaply
+     */
+    static final double UNKNOWN_COUNT_COST = 10;
+
+    /**
+     * Features are counted up to this many cost units, requests returning more would exceed any
+     * sensible budget anyways
+     */
+    static final int MAX_COUNTED_UNITS = 100;
+
+    /**
+     * How long the feature counts are cached, in milliseconds
+     */
+    static final long COUNT_TTL = 5 * 60 * 1000;
+
+    /**
+     * Maximum number of layers whose feature count and history are kept
+     */
+    static final int MAX_LAYERS = 10000;
+
+    /**
+     * Number of completed requests needed before the history of a layer is taken into account
+     */
+    static final int MIN_SAMPLES = 5;
+
+    /**
+     * Weight of a new sample in the per layer time averages
+     */
+    static final double SMOOTHING = 0.1;
+
+    /**
+     * Bounds of the correction applied to the estimate based on the layer history
+     */
+    static final double MIN_FACTOR = 0.25;
+
+    static final double MAX_FACTOR = 16;
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    int tilePixels;
+
+    int unitFeatures;
+
+    final Cache<String, Long> counts = CacheBuilder.newBuilder().maximumSize(MAX_LAYERS)
+            .expireAfterWrite(COUNT_TTL, TimeUnit.MILLISECONDS).build();
+
+    final Cache<String, LayerHistory> histories = CacheBuilder.newBuilder()
+            .maximumSize(MAX_LAYERS).build();
+
+    final LayerHistory global = new LayerHistory();
+
+    public RequestCostEstimator() {
+        this(DEFAULT_TILE_PIXELS, DEFAULT_UNIT_FEATURES);
+    }
+
+    /**
+     * @param tilePixels the number of output pixels making up a cost unit
+     * @param unitFeatures the number of features making up a cost unit
+     */
+    public RequestCostEstimator(int tilePixels, int unitFeatures) {
+        if (tilePixels < 1 || unitFeatures < 1) {
+            throw new IllegalArgumentException("The pixels and features of a cost unit should "
+                    + "be positive, instead they are " + tilePixels + " and " + unitFeatures);
+        }
+        this.tilePixels = tilePixels;
+        this.unitFeatures = unitFeatures;
+    }
+
+    public int getTilePixels() {
+        return tilePixels;
+    }
+
+    public int getUnitFeatures() {
+        return unitFeatures;
+    }
+
+    /**
+     * Estimates the cost of the request, based only on its parameters
+     */
+    public double estimate(Request request) {
+        Map kvp = request.getRawKvp();
+        if (kvp == null) {
+            return 1;
+        }
+        String operation = request.getRequest();
+        if ("GetMap".equalsIgnoreCase(operation)) {
+            List<String> layers = getLayers(request);
+            long pixels = (long) getInt(kvp, "WIDTH", 0) * getInt(kvp, "HEIGHT", 0);
+            return Math.max(1d, (double) pixels / tilePixels) * Math.max(1, layers.size());
+        } else if ("GetFeature".equalsIgnoreCase(operation)) {
+            List<String> layers = getLayers(request);
+            int max = getInt(kvp, "MAXFEATURES", getInt(kvp, "COUNT", -1));
+            double cost = 0;
+            for (int i = 0; i < layers.size(); i++) {
+                long count = getFeatureCount(layers.get(i), max);
+                if (count < 0) {
+                    cost += UNKNOWN_COUNT_COST;
+                } else {
+                    double layerCost = Math.max(1d, (double) count / unitFeatures);
+                    if (getFilter(request, i) != Filter.INCLUDE) {
+                        // counting the filtered features would cost a query per request
+                        layerCost = Math.min(layerCost, UNKNOWN_COUNT_COST);
+                    }
+                    cost += layerCost;
+                }
+            }
+            return Math.max(1d, cost);
+        }
+        return 1;
+    }
+
+    /**
+     * Corrects the estimated cost of a request based on how long its layers took to be served in
+     * the past, compared to the average layer
+     */
+    public double correct(Request request, double cost) {
+        List<String> layers = getLayers(request);
+        double globalTime = global.getUnitTime();
+        if (layers.isEmpty() || globalTime <= 0) {
+            return cost;
+        }
+
+        double factor = 0;
+        for (String layer : layers) {
+            LayerHistory history = histories.getIfPresent(layer);
+            double layerTime = history != null ? history.getUnitTime() : 0;
+            factor += layerTime > 0 ? layerTime / globalTime : 1;
+        }
+        factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor / layers.size()));
+        return cost * factor;
+    }
+
+    /**
+     * Records how long a request took to run, given the cost estimated out of its parameters
+     */
+    public void record(Request request, double cost, long elapsed) {
+        double unitTime = elapsed / Math.max(1d, cost);
+        global.add(unitTime);
+        for (String layer : getLayers(request)) {
+            LayerHistory history = histories.getIfPresent(layer);
+            if (history == null) {
+                if (!exists(layer)) {
+                    continue;
+                }
+                history = new LayerHistory();
+                LayerHistory existing = histories.asMap().putIfAbsent(layer, history);
+                if (existing != null) {
+                    history = existing;
+                }
+            }
+            history.add(unitTime);
+        }
+    }
+
+    /**
+     * Returns the number of features in the feature type, up to the specified max features, or -1
+     * if it is not known or too expensive to compute. The counts are cached.
+     */
+    long getFeatureCount(String typeName, int maxFeatures) {
+        int limit = unitFeatures * MAX_COUNTED_UNITS;
+        if (maxFeatures >= 0) {
+            limit = Math.min(limit, maxFeatures);
+        }
+
+        Long count = counts.getIfPresent(typeName);
+        if (count == null) {
+            if (!exists(typeName)) {
+                return -1;
+            }
+            Query query = new Query(null, Filter.INCLUDE, unitFeatures * MAX_COUNTED_UNITS,
+                    Query.ALL_NAMES, null);
+            count = count(typeName, query);
+            counts.put(typeName, count);
+        }
+        return count < 0 ? count : Math.min(count, limit);
+    }
+
+    /**
+     * Returns true if the name is the one of a layer, layer group or feature type in the catalog
+     */
+    boolean exists(String name) {
+        Catalog catalog = (Catalog) GeoServerExtensions.bean("rawCatalog");
+        if (catalog == null) {
+            return false;
+        }
+        return catalog.getLayerByName(name) != null || catalog.getLayerGroupByName(name) != null
+                || catalog.getFeatureTypeByName(name) != null;
+    }
+
+    /**
+     * Counts the features matching the query, returns -1 if the store cannot do it cheaply
+     */
+    long count(String typeName, Query query) {
+        Catalog catalog = (Catalog) GeoServerExtensions.bean("rawCatalog");
+        if (catalog == null) {
+            return -1;
+        }
+        try {
+            FeatureTypeInfo ft = catalog.getFeatureTypeByName(typeName);
+            if (ft == null) {
+                return -1;
+            }
+            FeatureSource source = ft.getFeatureSource(null, null);
+            return source.getCount(query);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the feature count of " + typeName, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the filter the request applies to the layer at the specified index, out of the
+     * parsed FILTER, CQL_FILTER and BBOX parameters
+     */
+    Filter getFilter(Request request, int index) {
+        Map kvp = request.getKvp();
+        if (kvp == null) {
+            return Filter.INCLUDE;
+        }
+        List<Filter> filters = new ArrayList<Filter>();
+        for (String name : new String[] { "FILTER", "CQL_FILTER" }) {
+            Object value = kvp.get(name);
+            if (value instanceof List) {
+                // one filter per layer, or a single one for all of them
+                List list = (List) value;
+                value = list.size() > index ? list.get(index) : list.size() == 1 ? list.get(0)
+                        : null;
+            }
+            if (value instanceof Filter && value != Filter.INCLUDE) {
+                filters.add((Filter) value);
+            }
+        }
+        Object bbox = kvp.get("BBOX");
+        if (bbox instanceof Envelope) {
+            filters.add(FF.bbox(FF.property(""), ReferencedEnvelope.reference((Envelope) bbox)));
+        }
+        if (filters.isEmpty()) {
+            return Filter.INCLUDE;
+        }
+        return filters.size() == 1 ? filters.get(0) : FF.and(filters);
+    }
+
+    List<String> getLayers(Request request) {
+        Map kvp = request.getRawKvp();
+        if (kvp == null) {
+            return Collections.emptyList();
+        }
+        Object value = kvp.get("LAYERS");
+        if (value == null) {
+            value = kvp.get("TYPENAME");
+        }
+        if (value == null) {
+            value = kvp.get("TYPENAMES");
+        }
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<String> layers = new ArrayList<String>();
+        for (String name : String.valueOf(value).split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                layers.add(name);
+            }
+        }
+        return layers;
+    }
+
+    int getInt(Map kvp, String key, int defaultValue) {
+        Object value = kvp.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Exponentially weighted average of the time a layer takes to serve a cost unit
+     */
+    static class LayerHistory {
+        int samples;
+
+        double unitTime;
+
+        synchronized void add(double time) {
+            unitTime = samples == 0 ? time : unitTime * (1 - SMOOTHING) + time * SMOOTHING;
+            samples++;
+        }
+
+        synchronized double getUnitTime() {
+            return samples >= MIN_SAMPLES ? unitTime : 0;
+        }
+    }
+}
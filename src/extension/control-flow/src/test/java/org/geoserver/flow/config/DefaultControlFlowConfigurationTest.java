@@ -14,6 +14,10 @@ import java.util.Properties;
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairShareFlowController;
+import org.geoserver.flow.controller.FairShareFlowController.FlowKey;
+import org.geoserver.flow.controller.FairShareFlowController.PriorityRule;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
@@ -67,6 +71,66 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(14, ipSc.getPriority());
     }
 
+    @Test
+    public void testParsingScheduler() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.global", "100");
+        p.put("scheduler", "16,4,64");
+        p.put("scheduler.key", "user");
+        p.put("scheduler.weight.admin", "4");
+        p.put("scheduler.priority.ows.wms", "5");
+        p.put("scheduler.priority.ows.wms.getmap", "10");
+        p.put("scheduler.priority.ip.127.0.0.1", "-1");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+
+        assertEquals(2, controllers.size());
+        assertTrue(controllers.get(0) instanceof FairShareFlowController);
+        FairShareFlowController scheduler = (FairShareFlowController) controllers.get(0);
+        assertEquals(64, scheduler.getPriority());
+        assertEquals(16, scheduler.getLimit());
+        assertEquals(4, scheduler.getMinLimit());
+        assertEquals(64, scheduler.getMaxLimit());
+        assertEquals(FlowKey.USER, scheduler.getFlowKey());
+        assertEquals(Integer.valueOf(4), scheduler.getWeights().get("admin"));
+
+        // most specific rules first
+        List<PriorityRule> rules = scheduler.getPriorities();
+        assertEquals(3, rules.size());
+        assertEquals("127.0.0.1", rules.get(0).getIp());
+        assertEquals(-1, rules.get(0).getPriority());
+        assertEquals("getmap", rules.get(1).getRequest());
+        assertEquals(10, rules.get(1).getPriority());
+        assertEquals("wms", rules.get(2).getService());
+        assertNull(rules.get(2).getRequest());
+        assertEquals(5, rules.get(2).getPriority());
+    }
+
+    @Test
+    public void testParsingCost() throws Exception {
+        Properties p = new Properties();
+        p.put("cost", "200");
+        p.put("cost.tile", "1000000");
+        p.put("cost.features", "5000");
+        p.put("cost.starvation", "3");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof CostFlowController);
+        CostFlowController controller = (CostFlowController) controllers.get(0);
+        assertEquals(200, controller.getBudget());
+        assertEquals(200, controller.getPriority());
+        assertEquals(3000, controller.getStarvationTime());
+        assertEquals(1000000, controller.getEstimator().getTilePixels());
+        assertEquals(5000, controller.getEstimator().getUnitFeatures());
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,309 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.KvpMap;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.filter.And;
+import org.opengis.filter.BBOX;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+public class CostFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    /**
+     * An estimator with fixed layers and feature counts, not needing a catalog
+     */
+    static class FixedCountEstimator extends RequestCostEstimator {
+        Map<String, Long> featureCounts = new HashMap<String, Long>();
+
+        Set<String> layers = new HashSet<String>();
+
+        List<Query> queries = new ArrayList<Query>();
+
+        @Override
+        boolean exists(String name) {
+            return layers.contains(name) || featureCounts.containsKey(name);
+        }
+
+        @Override
+        long count(String typeName, Query query) {
+            queries.add(query);
+            Long count = featureCounts.get(typeName);
+            return count != null ? Math.min(count, query.getMaxFeatures()) : -1;
+        }
+    }
+
+    Request getMap(String layers, int width, int height) {
+        KvpMap kvp = new KvpMap();
+        kvp.put("layers", layers);
+        kvp.put("width", String.valueOf(width));
+        kvp.put("height", String.valueOf(height));
+        return request("wms", "GetMap", kvp);
+    }
+
+    Request getFeature(String typeName, Integer maxFeatures) {
+        KvpMap kvp = new KvpMap();
+        kvp.put("typeName", typeName);
+        if (maxFeatures != null) {
+            kvp.put("maxFeatures", String.valueOf(maxFeatures));
+        }
+        return request("wfs", "GetFeature", kvp);
+    }
+
+    Request request(String service, String operation, Map kvp) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(operation);
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    @Test
+    public void testEstimate() {
+        FixedCountEstimator estimator = new FixedCountEstimator();
+        estimator.featureCounts.put("topp:roads", 50000l);
+
+        // pixels times layers
+        assertEquals(1d, estimator.estimate(getMap("topp:states", 256, 256)), 1e-6);
+        assertEquals(1d, estimator.estimate(getMap("topp:states", 10, 10)), 1e-6);
+        assertEquals(8d, estimator.estimate(getMap("topp:states,topp:roads", 512, 512)), 1e-6);
+
+        // features, limited by the max features, or a fixed cost if unknown
+        assertEquals(50d, estimator.estimate(getFeature("topp:roads", null)), 1e-6);
+        assertEquals(1d, estimator.estimate(getFeature("topp:roads", 100)), 1e-6);
+        assertEquals(RequestCostEstimator.UNKNOWN_COUNT_COST,
+                estimator.estimate(getFeature("topp:states", null)), 1e-6);
+        // names not in the catalog are not cached
+        assertNull(estimator.counts.getIfPresent("topp:states"));
+        assertEquals(1, estimator.queries.size());
+
+        // anything else
+        assertEquals(1d, estimator.estimate(request("wms", "GetCapabilities", new KvpMap())),
+                1e-6);
+    }
+
+    @Test
+    public void testFilteredCount() {
+        FixedCountEstimator estimator = new FixedCountEstimator();
+        estimator.featureCounts.put("topp:roads", 50000l);
+
+        // whole layer counts are cached, and limited
+        estimator.estimate(getFeature("topp:roads", null));
+        estimator.estimate(getFeature("topp:roads", 10));
+        assertEquals(1, estimator.queries.size());
+        assertEquals(Filter.INCLUDE, estimator.queries.get(0).getFilter());
+        assertEquals(RequestCostEstimator.DEFAULT_UNIT_FEATURES
+                * RequestCostEstimator.MAX_COUNTED_UNITS, estimator.queries.get(0)
+                .getMaxFeatures());
+
+        // filtered requests are not counted, the whole layer count bounds them, up to the
+        // fixed cost
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        Filter filter = ff.equals(ff.property("type"), ff.literal("highway"));
+        Request request = getFeature("topp:roads,topp:roads", 100);
+        KvpMap kvp = new KvpMap();
+        kvp.put("CQL_FILTER", Collections.singletonList(filter));
+        request.setKvp(kvp);
+        estimator.queries.clear();
+        assertEquals(2d, estimator.estimate(request), 1e-6);
+        request = getFeature("topp:roads", null);
+        request.setKvp(kvp);
+        assertEquals(RequestCostEstimator.UNKNOWN_COUNT_COST, estimator.estimate(request), 1e-6);
+        assertEquals(0, estimator.queries.size());
+
+        // the bbox is combined with the other filters
+        kvp.put("BBOX", new ReferencedEnvelope(0, 10, 0, 10, null));
+        assertTrue(estimator.getFilter(request, 0) instanceof And);
+        kvp.remove("CQL_FILTER");
+        assertTrue(estimator.getFilter(request, 0) instanceof BBOX);
+    }
+
+    @Test
+    public void testCorrection() {
+        FixedCountEstimator estimator = new FixedCountEstimator();
+        estimator.layers.add("topp:states");
+        estimator.layers.add("topp:roads");
+        Request fast = getMap("topp:states", 256, 256);
+        Request slow = getMap("topp:roads", 256, 256);
+        // no history, no correction
+        assertEquals(1d, estimator.correct(slow, 1), 1e-6);
+
+        for (int i = 0; i < 20; i++) {
+            estimator.record(fast, 1, 10);
+            estimator.record(slow, 1, 100);
+        }
+        // the slow layer costs more than the average, the fast one less
+        assertTrue(estimator.correct(slow, 1) > 1);
+        assertTrue(estimator.correct(fast, 1) < 1);
+        // unknown layers are average
+        assertEquals(4d, estimator.correct(getMap("topp:tasmania", 512, 512), 4), 1e-6);
+
+        // layers not in the catalog are not tracked
+        estimator.record(getMap("topp:doesNotExist", 256, 256), 1, 100);
+        assertNull(estimator.histories.getIfPresent("topp:doesNotExist"));
+        assertEquals(2, estimator.histories.size());
+    }
+
+    @Test
+    public void testCheapOvertakes() {
+        CostFlowController controller = new CostFlowController(10, 60000,
+                new RequestCostEstimator());
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(getMap("topp:states",
+                1024, 512), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(getMap("topp:states",
+                1024, 512), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(getMap("topp:states",
+                256, 256), 0, Long.MAX_VALUE, controller);
+        try {
+            // the first big request runs, the second waits
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(8d, controller.getCostInUse(), 1e-6);
+
+            // the small one still fits and goes ahead
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(1, controller.getQueued());
+            assertEquals(2, controller.getRunning());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testStarvation() {
+        // no overtaking at all
+        CostFlowController controller = new CostFlowController(10, 0, new RequestCostEstimator());
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(getMap("topp:states",
+                1024, 512), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(getMap("topp:states",
+                1024, 512), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(getMap("topp:states",
+                256, 256), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(2, controller.getQueued());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testOverBudget() {
+        // a request larger than the budget still runs, alone
+        CostFlowController controller = new CostFlowController(4);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(getMap("topp:states",
+                2048, 2048), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(getMap("topp:states",
+                256, 256), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(4d, controller.getCostInUse(), 1e-6);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+        assertEquals(0d, controller.getCostInUse(), 1e-6);
+        assertEquals(0, controller.getRunning());
+    }
+
+    @Test
+    public void testTimeout() {
+        CostFlowController controller = new CostFlowController(4);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(getMap("topp:states",
+                512, 512), 100, 400, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(getMap("topp:states",
+                512, 512), 100, 400, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+
+            waitTerminated(t1, MAX_WAIT);
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(1, controller.getRejectedCount());
+            assertEquals(0, controller.getQueued());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testInterruptedWhileWaiting() {
+        CostFlowController controller = new CostFlowController(4);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(getMap("topp:states",
+                1024, 512), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(getMap("topp:states",
+                1024, 512), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t2.state);
+
+            // t2 gets interrupted while queued, it must not be let through
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(0, controller.getQueued());
+            assertEquals(1, controller.getRunning());
+            assertEquals(4d, controller.getCostInUse(), 1e-6);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+        assertEquals(0d, controller.getCostInUse(), 1e-6);
+        assertEquals(0, controller.getRunning());
+    }
+}
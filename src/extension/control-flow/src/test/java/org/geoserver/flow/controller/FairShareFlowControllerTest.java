@@ -0,0 +1,239 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static junit.framework.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FairShareFlowController.FlowKey;
+import org.geoserver.flow.controller.FairShareFlowController.PriorityRule;
+import org.geoserver.flow.controller.FairShareFlowController.Ticket;
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class FairShareFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    Request request(String ip, String service, String operation) {
+        MockHttpServletRequest http = new MockHttpServletRequest();
+        http.setRemoteAddr(ip);
+        Request request = new Request();
+        request.setHttpRequest(http);
+        request.setService(service);
+        request.setRequest(operation);
+        return request;
+    }
+
+    @Test
+    public void testPriority() {
+        FairShareFlowController controller = new FairShareFlowController(FlowKey.IP, 4, 2, 16,
+                null, null);
+        // priority == max limit
+        assertEquals(16, controller.getPriority());
+    }
+
+    @Test
+    public void testFairOrder() {
+        FairShareFlowController controller = new FairShareFlowController(1);
+        List<Ticket> tickets = new ArrayList<Ticket>();
+        Ticket a1 = controller.newTicket(request("10.0.0.1", "wms", "GetMap"), 0);
+        Ticket a2 = controller.newTicket(request("10.0.0.1", "wms", "GetMap"), 0);
+        Ticket a3 = controller.newTicket(request("10.0.0.1", "wms", "GetMap"), 0);
+        Ticket b1 = controller.newTicket(request("10.0.0.2", "wms", "GetMap"), 0);
+        tickets.addAll(Arrays.asList(a1, a2, a3, b1));
+        Collections.sort(tickets);
+
+        // the second client does not have to wait for all the requests of the first one
+        assertEquals(Arrays.asList(a1, b1, a2, a3), tickets);
+    }
+
+    @Test
+    public void testWeights() {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("10.0.0.1", 2);
+        FairShareFlowController controller = new FairShareFlowController(FlowKey.IP, 1, 1, 1,
+                weights, null);
+        List<Ticket> tickets = new ArrayList<Ticket>();
+        Ticket a1 = controller.newTicket(request("10.0.0.1", "wms", "GetMap"), 0);
+        Ticket a2 = controller.newTicket(request("10.0.0.1", "wms", "GetMap"), 0);
+        Ticket a3 = controller.newTicket(request("10.0.0.1", "wms", "GetMap"), 0);
+        Ticket b1 = controller.newTicket(request("10.0.0.2", "wms", "GetMap"), 0);
+        Ticket b2 = controller.newTicket(request("10.0.0.2", "wms", "GetMap"), 0);
+        tickets.addAll(Arrays.asList(a1, a2, a3, b1, b2));
+        Collections.sort(tickets);
+
+        // the first client gets twice the share of the second
+        assertEquals(Arrays.asList(a1, b1, a2, a3, b2), tickets);
+    }
+
+    @Test
+    public void testPriorityRules() {
+        List<PriorityRule> rules = new ArrayList<PriorityRule>();
+        rules.add(new PriorityRule(null, null, "127.0.0.1", -1));
+        rules.add(new PriorityRule("wms", "GetMap", null, 10));
+        FairShareFlowController controller = new FairShareFlowController(FlowKey.IP, 1, 1, 1,
+                null, rules);
+        List<Ticket> tickets = new ArrayList<Ticket>();
+        Ticket seed = controller.newTicket(request("127.0.0.1", "wms", "GetMap"), 0);
+        Ticket features = controller.newTicket(request("10.0.0.1", "wfs", "GetFeature"), 0);
+        Ticket map = controller.newTicket(request("10.0.0.2", "wms", "GetMap"), 0);
+        tickets.addAll(Arrays.asList(seed, features, map));
+        Collections.sort(tickets);
+
+        assertEquals(Arrays.asList(map, features, seed), tickets);
+    }
+
+    @Test
+    public void testAdaptiveLimit() {
+        FairShareFlowController controller = new FairShareFlowController(FlowKey.IP, 10, 2, 100,
+                null, null);
+        // steady latency under load, the limit grows
+        for (int i = 0; i < 20 * FairShareFlowController.WINDOW; i++) {
+            controller.sample(100, controller.getLimit());
+        }
+        int grown = controller.getLimit();
+        assertTrue(grown > 10);
+        assertEquals(100d, controller.getNoLoadLatency());
+
+        // latency going up, the limit shrinks
+        for (int i = 0; i < 5 * FairShareFlowController.WINDOW; i++) {
+            controller.sample(1000, controller.getLimit());
+        }
+        assertTrue(controller.getLimit() < grown);
+        assertTrue(controller.getLimit() >= 2);
+        assertEquals(1000d, controller.getLatency());
+    }
+
+    @Test
+    public void testFixedLimit() {
+        FairShareFlowController controller = new FairShareFlowController(4);
+        for (int i = 0; i < 10 * FairShareFlowController.WINDOW; i++) {
+            controller.sample(100, 4);
+        }
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void testSingleDelay() throws Exception {
+        FairShareFlowController controller = new FairShareFlowController(1);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(request("10.0.0.1",
+                "wms", "GetMap"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(request("10.0.0.2",
+                "wms", "GetMap"), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(1, controller.getRunning());
+            assertEquals(1, controller.getQueued());
+
+            // let t1 go, t2 gets scheduled
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            long start = System.currentTimeMillis();
+            while (t2.state != ThreadState.PROCESSING
+                    && System.currentTimeMillis() - start < MAX_WAIT) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            assertEquals(2, controller.getAdmittedCount());
+
+            t2.interrupt();
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+        assertEquals(0, controller.getRunning());
+    }
+
+    @Test
+    public void testTimeout() {
+        FairShareFlowController controller = new FairShareFlowController(1);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(request("10.0.0.1",
+                "wms", "GetMap"), 100, 400, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(request("10.0.0.2",
+                "wms", "GetMap"), 100, 400, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+
+            waitTerminated(t1, MAX_WAIT);
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(1, controller.getRejectedCount());
+            assertEquals(0, controller.getQueued());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testInterruptedWhileWaiting() throws Exception {
+        FairShareFlowController controller = new FairShareFlowController(1);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(request("10.0.0.1",
+                "wms", "GetMap"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(request("10.0.0.2",
+                "wms", "GetMap"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(request("10.0.0.3",
+                "wms", "GetMap"), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t2.state);
+
+            // t2 gets interrupted while queued, it must not be let through
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(1, controller.getRunning());
+            assertEquals(0, controller.getQueued());
+
+            // the slot accounting is still right, t3 goes in once t1 is done
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t3.state);
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            long start = System.currentTimeMillis();
+            while (t3.state != ThreadState.PROCESSING
+                    && System.currentTimeMillis() - start < MAX_WAIT) {
+                Thread.sleep(10);
+            }
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(1, controller.getRunning());
+
+            t3.interrupt();
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+        assertEquals(0, controller.getRunning());
+    }
+}
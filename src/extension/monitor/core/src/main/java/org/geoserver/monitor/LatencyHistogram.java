@@ -0,0 +1,185 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free, high dynamic range histogram of latencies.
+ * <p>
+ * Values are counted in buckets whose width grows with the value, as in a floating point
+ * representation: each power of two range is split in {@value #SUB_BUCKETS} sub-buckets, so any
+ * percentile is reported with a relative error below 1/{@value #SUB_BUCKETS}, up to
+ * {@link #MAX_VALUE}, in a bounded amount of memory. Recording only increments counters, many
+ * threads can record at the same time without blocking each other.
+ * </p>
+ * <p>
+ * The histogram does not care about the unit of the values, {@link LatencyStatistics} records
+ * microseconds, {@link RequestStatistics} milliseconds. The counters of each power of two range
+ * are allocated the first time a value falls in it, as most histograms only see a few of them.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of sub-buckets each power of two range is split into
+     */
+    static final int SUB_BUCKETS = 16;
+
+    static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /**
+     * Largest value that can be recorded, larger values are recorded as this one
+     */
+    static final long MAX_VALUE = (1L << 36) - 1;
+
+    /**
+     * The bucket counters, by rows of {@link #SUB_BUCKETS}, allocated on demand
+     */
+    final AtomicReferenceArray<AtomicLongArray> rows = new AtomicReferenceArray<AtomicLongArray>(
+            (index(MAX_VALUE) >> SUB_BITS) + 1);
+
+    final AtomicLong count = new AtomicLong();
+
+    final AtomicLong sum = new AtomicLong();
+
+    final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(MAX_VALUE, value));
+        int index = index(value);
+        row(index >> SUB_BITS).incrementAndGet(index & (SUB_BUCKETS - 1));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        updateMax(value);
+    }
+
+    /**
+     * Adds all the values recorded by another histogram to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int r = 0; r < other.rows.length(); r++) {
+            AtomicLongArray source = other.rows.get(r);
+            if (source == null) {
+                continue;
+            }
+            AtomicLongArray target = null;
+            for (int i = 0; i < SUB_BUCKETS; i++) {
+                long n = source.get(i);
+                if (n > 0) {
+                    if (target == null) {
+                        target = row(r);
+                    }
+                    target.addAndGet(i, n);
+                }
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        updateMax(other.max.get());
+    }
+
+    AtomicLongArray row(int r) {
+        AtomicLongArray row = rows.get(r);
+        if (row == null) {
+            rows.compareAndSet(r, null, new AtomicLongArray(SUB_BUCKETS));
+            row = rows.get(r);
+        }
+        return row;
+    }
+
+    void updateMax(long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Average of the recorded values
+     */
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /**
+     * Largest recorded value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values fall, e.g. 0.99 for
+     * the 99th percentile
+     */
+    public long getPercentile(double fraction) {
+        // the counts are read one by one while other threads record, use their own total
+        long[] snapshot = new long[rows.length() * SUB_BUCKETS];
+        long total = 0;
+        for (int r = 0; r < rows.length(); r++) {
+            AtomicLongArray row = rows.get(r);
+            if (row == null) {
+                continue;
+            }
+            for (int i = 0; i < SUB_BUCKETS; i++) {
+                long n = row.get(i);
+                snapshot[(r << SUB_BITS) + i] = n;
+                total += n;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(1, fraction)));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Index of the bucket holding the value. Values below twice {@link #SUB_BUCKETS} have a
+     * bucket each, larger values share a bucket with the others having the same
+     * <code>SUB_BITS + 1</code> most significant bits.
+     */
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >> shift);
+    }
+
+    /**
+     * Largest value held by the bucket at the given index
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
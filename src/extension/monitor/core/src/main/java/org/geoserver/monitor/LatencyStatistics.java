@@ -0,0 +1,208 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.monitor.RequestData.Phase;
+
+/**
+ * Latency distributions of the completed requests since startup, for all requests, per OWS
+ * service, per OWS operation and per layer, both for the whole request and for each of its
+ * {@link Phase}s.
+ * <p>
+ * The distributions are kept in {@link LatencyHistogram}s, so recording does not lock and reading
+ * the percentiles costs the same regardless of the number of requests. The keys are the same as
+ * the {@link RequestStatistics} ones.
+ * </p>
+ */
+public class LatencyStatistics implements LatencyStatisticsMXBean {
+
+    final ConcurrentHashMap<String, Timings> timings = new ConcurrentHashMap<String, Timings>();
+
+    /**
+     * Records a completed request
+     */
+    public void record(RequestData data) {
+        get(RequestStatistics.TOTAL).record(data);
+        if (data.getService() != null) {
+            get(RequestStatistics.serviceKey(data.getService())).record(data);
+            if (data.getOperation() != null) {
+                get(RequestStatistics.operationKey(data.getService(), data.getOperation()))
+                        .record(data);
+            }
+        }
+        if (data.getResources() != null) {
+            for (String layer : data.getResources()) {
+                get(RequestStatistics.layerKey(layer)).record(data);
+            }
+        }
+    }
+
+    Timings get(String key) {
+        Timings t = timings.get(key);
+        if (t == null) {
+            t = new Timings();
+            Timings existing = timings.putIfAbsent(key, t);
+            if (existing != null) {
+                t = existing;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Returns the latency distribution of the whole requests for the given key, or null if no
+     * request has been recorded under it
+     */
+    public LatencyHistogram getHistogram(String key) {
+        Timings t = timings.get(key);
+        return t != null ? t.total : null;
+    }
+
+    /**
+     * Returns the latency distribution of a phase of the requests for the given key, or null if
+     * no request has been recorded under it
+     */
+    public LatencyHistogram getHistogram(String key, Phase phase) {
+        Timings t = timings.get(key);
+        return t != null ? t.phases[phase.ordinal()] : null;
+    }
+
+    public List<LatencySummary> getSummaries() {
+        return getSummaries("");
+    }
+
+    /**
+     * Returns the summaries of all the keys starting with the given prefix, sorted by key, the
+     * whole request first and then the phases the requests went through
+     */
+    public List<LatencySummary> getSummaries(String prefix) {
+        List<String> keys = new ArrayList<String>();
+        for (String key : timings.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys);
+
+        List<LatencySummary> summaries = new ArrayList<LatencySummary>();
+        for (String key : keys) {
+            Timings t = timings.get(key);
+            summaries.add(new LatencySummary(key, null, t.total));
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram h = t.phases[phase.ordinal()];
+                if (h.getCount() > 0) {
+                    summaries.add(new LatencySummary(key, phase, h));
+                }
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * The histograms of a key
+     */
+    static class Timings {
+        final LatencyHistogram total = new LatencyHistogram();
+
+        final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+        Timings() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(RequestData data) {
+            total.record(Math.max(0, data.getTotalTime()) * 1000);
+            for (Phase phase : Phase.values()) {
+                if (data.isPhaseTimed(phase)) {
+                    phases[phase.ordinal()].record(data.getPhaseNanos(phase) / 1000);
+                }
+            }
+        }
+    }
+
+    /**
+     * A snapshot of a latency distribution, times are in milliseconds
+     */
+    public static class LatencySummary {
+        String key;
+
+        String phase;
+
+        long count;
+
+        double mean;
+
+        double max;
+
+        double p50;
+
+        double p90;
+
+        double p99;
+
+        double p999;
+
+        LatencySummary(String key, Phase phase, LatencyHistogram h) {
+            this.key = key;
+            this.phase = phase != null ? phase.name() : null;
+            this.count = h.getCount();
+            this.mean = h.getMean() / 1000;
+            this.max = h.getMax() / 1000d;
+            this.p50 = h.getPercentile(0.5) / 1000d;
+            this.p90 = h.getPercentile(0.9) / 1000d;
+            this.p99 = h.getPercentile(0.99) / 1000d;
+            this.p999 = h.getPercentile(0.999) / 1000d;
+        }
+
+        /**
+         * The statistics key, see {@link RequestStatistics}
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * The request phase, or null for the whole request
+         */
+        public String getPhase() {
+            return phase;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+    }
+}
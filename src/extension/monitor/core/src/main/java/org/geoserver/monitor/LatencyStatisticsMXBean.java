@@ -0,0 +1,20 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.List;
+
+import org.geoserver.monitor.LatencyStatistics.LatencySummary;
+
+/**
+ * Management interface exposing the {@link LatencyStatistics} through JMX.
+ */
+public interface LatencyStatisticsMXBean {
+
+    /**
+     * The latency percentiles of all the keys, for the whole requests and for each phase.
+     */
+    List<LatencySummary> getSummaries();
+}
@@ -9,22 +9,35 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.ows.util.OwsUtils;
 
+/**
+ * Keeps the monitored requests in memory.
+ * <p>
+ * Running requests are indexed by id, the completed ones are kept in a ring buffer of fixed size,
+ * the <code>memory.maxHistory</code> configuration property, so the memory used does not grow
+ * with time. Neither adding nor completing a request takes a lock.
+ * </p>
+ */
 public class MemoryMonitorDAO implements MonitorDAO {
 
     public static final String NAME = "memory";
 
-    Queue<RequestData> live = new ConcurrentLinkedQueue<RequestData>();
-    Queue<RequestData> history = new ConcurrentLinkedQueue<RequestData>();
+    /**
+     * Default number of completed requests kept in memory
+     */
+    public static final int DEFAULT_MAX_HISTORY = 100;
+
+    ConcurrentSkipListMap<Long, RequestData> live = new ConcurrentSkipListMap<Long, RequestData>();
+
+    volatile History history = new History(DEFAULT_MAX_HISTORY);
     
     AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
 
@@ -35,6 +48,10 @@ public class MemoryMonitorDAO implements MonitorDAO {
 
     @Override
     public void init(MonitorConfig config) {
+        Integer maxHistory = config.getProperty(NAME, "maxHistory", Integer.class);
+        if (maxHistory != null && maxHistory > 0 && maxHistory != history.capacity()) {
+            history = new History(maxHistory);
+        }
     }
 
     public RequestData init(RequestData data) {
@@ -43,41 +60,38 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
 
     public void add(RequestData data) {
-        live.add(data);
+        live.put(data.getId(), data);
     }
 
     public void update(RequestData data) {
     }
 
     public void save(RequestData data) {
-        live.remove(data);
+        live.remove(data.getId());
         history.add(data);
-        
-        if (history.size() > 100) {
-            history.poll();
-        }
     }
     
     public RequestData getRequest(long id) {
-        for (RequestData r : getRequests()) {
-            if (r.getId() == id) {
-                return r;
+        RequestData r = live.get(id);
+        if (r != null) {
+            return r;
+        }
+        for (RequestData h : history.snapshot()) {
+            if (h.getId() == id) {
+                return h;
             }
         }
         return null;
     }
     
     public List<RequestData> getRequests() {
-        List<RequestData> requests = new LinkedList();
-        requests.addAll(live);
-        requests.addAll(history);
+        List<RequestData> requests = history.snapshot();
+        requests.addAll(0, live.values());
         return requests;
     }
         
     public List<RequestData> getRequests(Query q) {
-        List<RequestData> requests = getRequests();
-       
-        List<Predicate> predicates = new ArrayList();
+        List<Predicate> predicates = new ArrayList<Predicate>();
         if (q.getFilter() != null) {
             Filter f = q.getFilter();
             predicates.add(new PropertyCompare(f.getLeft(), f.getType(), f.getRight()));
@@ -86,26 +100,14 @@ public class MemoryMonitorDAO implements MonitorDAO {
             predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
         }
         
-        int i = 1, count = 0;
-        
-O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
-            RequestData r = it.next();
+        List<RequestData> requests = new ArrayList<RequestData>();
+O:      for (RequestData r : getRequests()) {
             for (Predicate p : predicates) {
                 if (!p.matches(r)) {
-                    it.remove();
                     continue O;
                 }
             }
-        
-            if (q.getOffset() != null && q.getOffset() >= i++) {
-                it.remove();
-                continue;
-            }
-            if (q.getCount() != null && q.getCount() <= count) {
-                it.remove();
-                continue;       
-            }
-            count++;
+            requests.add(r);
         }
         
         if (q.getSortBy() != null) {
@@ -114,6 +116,16 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
         else if (q.getFromDate() != null || q.getToDate() != null) {
             Collections.sort(requests, new Sorter("startTime", SortOrder.DESC));
         }
+        
+        // page after sorting, as the other storages do
+        int from = q.getOffset() != null ? (int) Math.min(q.getOffset(), requests.size()) : 0;
+        int to = requests.size();
+        if (q.getCount() != null) {
+            to = (int) Math.min(to, from + q.getCount());
+        }
+        if (from > 0 || to < requests.size()) {
+            requests = new ArrayList<RequestData>(requests.subList(from, to));
+        }
         return requests;
     }
     
@@ -169,6 +181,49 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
         history = null;
     }
     
+    /**
+     * Ring buffer of the completed requests, the oldest request is overwritten when full
+     */
+    static class History {
+        final AtomicReferenceArray<RequestData> ring;
+        
+        final AtomicLong next = new AtomicLong();
+        
+        History(int capacity) {
+            ring = new AtomicReferenceArray<RequestData>(capacity);
+        }
+        
+        int capacity() {
+            return ring.length();
+        }
+        
+        void add(RequestData data) {
+            ring.set((int) (next.getAndIncrement() % ring.length()), data);
+        }
+        
+        /**
+         * Copies the requests, from the oldest to the most recent
+         */
+        List<RequestData> snapshot() {
+            long end = next.get();
+            long start = Math.max(0, end - ring.length());
+            List<RequestData> result = new ArrayList<RequestData>((int) (end - start));
+            for (long i = start; i < end; i++) {
+                RequestData r = ring.get((int) (i % ring.length()));
+                if (r != null) {
+                    result.add(r);
+                }
+            }
+            return result;
+        }
+        
+        void clear() {
+            for (int i = 0; i < ring.length(); i++) {
+                ring.set(i, null);
+            }
+        }
+    }
+    
     static interface Predicate {
         boolean matches(RequestData data);
     }
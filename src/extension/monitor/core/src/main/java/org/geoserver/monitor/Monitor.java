@@ -5,10 +5,12 @@
 package org.geoserver.monitor;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.geoserver.config.GeoServer;
 import org.geoserver.monitor.MonitorConfig.Mode;
+import org.geoserver.monitor.RequestStatistics.Resolution;
 import org.geoserver.platform.GeoServerExtensions;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
@@ -44,6 +46,16 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
     
     MonitorConfig config;
     MonitorDAO dao;
+    
+    /**
+     * pre-aggregated statistics of the completed requests
+     */
+    RequestStatistics statistics = new RequestStatistics();
+    
+    /**
+     * latency distributions of the completed requests, per phase
+     */
+    LatencyStatistics latency = new LatencyStatistics();
 
     //info about monitored server
     //JD: look up lazily, using constructor injection causes failure to load main Geoserver
@@ -112,6 +124,8 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
         for (RequestDataListener listener : listeners) {
             listener.requestCompleted(data);
         }
+        statistics.record(data);
+        latency.record(data);
         // have the DAO persist/propagate the change
         dao.save(data);
         REQUEST.remove();
@@ -136,6 +150,30 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
         return dao;
     }
     
+    /**
+     * Returns the rolling statistics of the requests completed since startup
+     */
+    public RequestStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Returns the latency distributions of the requests completed since startup
+     */
+    public LatencyStatistics getLatencyStatistics() {
+        return latency;
+    }
+    
+    /**
+     * Returns true if the statistics can answer for all the requests started since the given date
+     * as well as a query against the DAO would, in which case they should be preferred as they are
+     * much cheaper to read. This is always the case with the in memory DAO, whose history does not
+     * survive a restart and is much shorter than the statistics retention.
+     */
+    public boolean isCoveredByStatistics(Resolution resolution, Date from) {
+        return dao instanceof MemoryMonitorDAO || statistics.covers(resolution, from);
+    }
+
     public GeoServer getServer() {
         return server;
     }
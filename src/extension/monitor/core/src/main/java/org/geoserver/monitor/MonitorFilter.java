@@ -141,7 +141,7 @@ public class MonitorFilter implements GeoServerFilter {
         }
         
         data = monitor.current();
-        
+        data.endPhase();
         
         data.setBody(getBody((MonitorServletRequest) request));
         data.setBodyContentLength(((MonitorServletRequest)request).getBytesRead());
@@ -41,6 +41,32 @@ public class RequestData implements Serializable {
         OWS, REST, OTHER
     };
     
+    /**
+     * Enumeration of the phases of an OWS request, timed separately
+     */
+    public static enum Phase {
+        /**
+         * Reading and parsing the request, up to the operation being dispatched
+         */
+        PARSE,
+        /**
+         * Waiting in the control flow queues
+         */
+        QUEUE,
+        /**
+         * Executing the operation
+         */
+        EXECUTE,
+        /**
+         * Encoding the response and writing it out
+         */
+        ENCODE,
+        /**
+         * From the end of the dispatch to the HTTP response being complete
+         */
+        FLUSH
+    };
+    
     public long internalid = COUNTER.getAndIncrement();
     
     /**
@@ -106,6 +132,34 @@ public class RequestData implements Serializable {
      */
     private long totalTime;
     
+    /**
+     * The time, in milliseconds, spent in each {@link Phase} of the request
+     */
+    private long parseTime;
+    
+    private long queueTime;
+    
+    private long executeTime;
+    
+    private long encodeTime;
+    
+    private long flushTime;
+    
+    /**
+     * The time, in nanoseconds, spent in each {@link Phase}, only available while the request
+     * is being monitored
+     */
+    private transient long[] phaseNanos = new long[Phase.values().length];
+    
+    /**
+     * The phases the request went through, as a bit mask of the phase ordinals
+     */
+    private transient int phases;
+    
+    private transient Phase phase;
+    
+    private transient long phaseStart;
+    
     /**
      * The Internet Protocol (IP) address of the client or last proxy that sent the request.
      */
@@ -188,6 +242,21 @@ public class RequestData implements Serializable {
      */
     private long responseLength;
 
+    /**
+     * The CPU time spent rendering the WMS response, in milliseconds
+     */
+    private long renderingCpuTime;
+
+    /**
+     * The time the request waited for a WMS rendering thread, in milliseconds
+     */
+    private long renderingQueueTime;
+
+    /**
+     * The number of WMS renders that were already queued when the request was submitted
+     */
+    private int renderingQueueDepth;
+
     /**
      * The response content MIME type, might be {@code null}
      */
@@ -328,6 +397,101 @@ public class RequestData implements Serializable {
         this.totalTime = totalTime;
     }
 
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    public void setParseTime(long parseTime) {
+        this.parseTime = parseTime;
+    }
+
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    public void setQueueTime(long queueTime) {
+        this.queueTime = queueTime;
+    }
+
+    public long getExecuteTime() {
+        return executeTime;
+    }
+
+    public void setExecuteTime(long executeTime) {
+        this.executeTime = executeTime;
+    }
+
+    public long getEncodeTime() {
+        return encodeTime;
+    }
+
+    public void setEncodeTime(long encodeTime) {
+        this.encodeTime = encodeTime;
+    }
+
+    public long getFlushTime() {
+        return flushTime;
+    }
+
+    public void setFlushTime(long flushTime) {
+        this.flushTime = flushTime;
+    }
+    
+    /**
+     * Ends the current phase, if any, and starts timing the specified one. A phase can be
+     * entered more than once, the times add up.
+     */
+    public void startPhase(Phase phase) {
+        long now = System.nanoTime();
+        closePhase(now);
+        this.phase = phase;
+        this.phaseStart = now;
+    }
+    
+    /**
+     * Ends the current phase, if any
+     */
+    public void endPhase() {
+        closePhase(System.nanoTime());
+        this.phase = null;
+    }
+    
+    void closePhase(long now) {
+        if (phase == null) {
+            return;
+        }
+        if (phaseNanos == null) {
+            // deserialized
+            phaseNanos = new long[Phase.values().length];
+        }
+        phaseNanos[phase.ordinal()] += now - phaseStart;
+        phases |= 1 << phase.ordinal();
+        
+        long millis = phaseNanos[phase.ordinal()] / 1000000;
+        switch (phase) {
+        case PARSE: parseTime = millis; break;
+        case QUEUE: queueTime = millis; break;
+        case EXECUTE: executeTime = millis; break;
+        case ENCODE: encodeTime = millis; break;
+        case FLUSH: flushTime = millis; break;
+        }
+    }
+    
+    /**
+     * Returns true if the request went through the specified phase while being monitored
+     */
+    public boolean isPhaseTimed(Phase phase) {
+        return (phases & (1 << phase.ordinal())) != 0;
+    }
+    
+    /**
+     * Returns the time spent in the specified phase, in nanoseconds. Only available while the
+     * request is being monitored, the time in milliseconds is kept afterwards.
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos != null ? phaseNanos[phase.ordinal()] : 0;
+    }
+
     public String getRemoteAddr() {
         return remoteAddr;
     }
@@ -465,6 +629,30 @@ public class RequestData implements Serializable {
         this.responseLength = responseLength;
     }
 
+    public long getRenderingCpuTime() {
+        return renderingCpuTime;
+    }
+
+    public void setRenderingCpuTime(long renderingCpuTime) {
+        this.renderingCpuTime = renderingCpuTime;
+    }
+
+    public long getRenderingQueueTime() {
+        return renderingQueueTime;
+    }
+
+    public void setRenderingQueueTime(long renderingQueueTime) {
+        this.renderingQueueTime = renderingQueueTime;
+    }
+
+    public int getRenderingQueueDepth() {
+        return renderingQueueDepth;
+    }
+
+    public void setRenderingQueueDepth(int renderingQueueDepth) {
+        this.renderingQueueDepth = renderingQueueDepth;
+    }
+
     public String getResponseContentType() {
         return responseContentType;
     }
@@ -500,6 +688,11 @@ public class RequestData implements Serializable {
         clone.setStartTime(startTime);
         clone.setEndTime(endTime);
         clone.setTotalTime(totalTime);
+        clone.setParseTime(parseTime);
+        clone.setQueueTime(queueTime);
+        clone.setExecuteTime(executeTime);
+        clone.setEncodeTime(encodeTime);
+        clone.setFlushTime(flushTime);
         clone.setRemoteAddr(remoteAddr);
         clone.setRemoteHost(remoteHost);
         clone.setHost(host);
@@ -511,6 +704,9 @@ public class RequestData implements Serializable {
         clone.setOwsVersion(owsVersion);
         clone.setResources(new ArrayList(resources));
         clone.setResponseLength(responseLength);
+        clone.setRenderingCpuTime(renderingCpuTime);
+        clone.setRenderingQueueTime(renderingQueueTime);
+        clone.setRenderingQueueDepth(renderingQueueDepth);
         clone.setResponseContentType(responseContentType);
         clone.setErrorMessage(errorMessage);
         clone.setError(error);
@@ -0,0 +1,448 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Rolling, pre-aggregated statistics of the completed requests.
+ * <p>
+ * Requests are summed up in fixed time buckets, per minute and per hour, for all requests, per
+ * OWS service, per OWS operation and, with hourly resolution only, per layer. Each bucket keeps
+ * the request count, the bytes returned, the total time, the number of failures and a
+ * {@link LatencyHistogram} of the request times, in milliseconds, used to estimate
+ * percentiles. The buckets are kept in rings of fixed size, the oldest one being recycled when
+ * a new period starts, so the memory used does not grow with the number of requests, and
+ * reading a time series costs as much as the number of buckets it spans.
+ * </p>
+ * <p>
+ * The number of layers is not bounded, so each hourly bucket tracks at most
+ * {@value #MAX_LAYERS} layers, the requests hitting the others being summed up under
+ * {@link #OTHER_LAYERS}, and does not keep the request times of the layers: their percentiles
+ * are not available.
+ * </p>
+ * <p>
+ * Recording does not take any lock, so it can be called by all request threads concurrently.
+ * </p>
+ */
+public class RequestStatistics {
+
+    /**
+     * The key summing up all requests
+     */
+    public static final String TOTAL = "*";
+
+    static final String SERVICE = "service:";
+
+    static final String OPERATION = "operation:";
+
+    static final String LAYER = "layer:";
+
+    /**
+     * The layer summing up the requests hitting the layers beyond {@link #MAX_LAYERS} in a bucket
+     */
+    public static final String OTHER_LAYERS = "*";
+
+    /**
+     * The maximum number of layers tracked by a bucket
+     */
+    static final int MAX_LAYERS = 100;
+
+    /**
+     * Time resolution of the statistics
+     */
+    public static enum Resolution {
+        /**
+         * One bucket per minute, for the last day
+         */
+        MINUTE(60 * 1000, 24 * 60),
+        /**
+         * One bucket per hour, for the last five weeks
+         */
+        HOUR(60 * 60 * 1000, 24 * 35);
+
+        final long length;
+
+        final int buckets;
+
+        Resolution(long length, int buckets) {
+            this.length = length;
+            this.buckets = buckets;
+        }
+
+        /**
+         * Length of a bucket, in milliseconds
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * How far back in time the statistics go, in milliseconds
+         */
+        public long getRetention() {
+            return length * buckets;
+        }
+    }
+
+    final long created;
+
+    final AtomicReferenceArray<Bucket> minutes = new AtomicReferenceArray<Bucket>(
+            Resolution.MINUTE.buckets);
+
+    final AtomicReferenceArray<Bucket> hours = new AtomicReferenceArray<Bucket>(
+            Resolution.HOUR.buckets);
+
+    public RequestStatistics() {
+        this(System.currentTimeMillis());
+    }
+
+    RequestStatistics(long created) {
+        this.created = created;
+    }
+
+    /**
+     * The key summing up the requests of an OWS service
+     */
+    public static String serviceKey(String service) {
+        return SERVICE + service;
+    }
+
+    /**
+     * The key summing up the requests of an OWS operation
+     */
+    public static String operationKey(String service, String operation) {
+        return OPERATION + service + ":" + operation;
+    }
+
+    /**
+     * The key summing up the requests hitting a layer, only available with hourly resolution
+     */
+    public static String layerKey(String layer) {
+        return LAYER + layer;
+    }
+
+    /**
+     * Records a completed request
+     */
+    public void record(RequestData data) {
+        long time = data.getStartTime() != null ? data.getStartTime().getTime() : System
+                .currentTimeMillis();
+        long elapsed = Math.max(0, data.getTotalTime());
+        long bytes = Math.max(0, data.getResponseLength());
+        boolean failed = data.getStatus() == RequestData.Status.FAILED
+                || data.getError() != null;
+
+        Bucket minute = bucket(Resolution.MINUTE, minutes, time);
+        Bucket hour = bucket(Resolution.HOUR, hours, time);
+        record(minute, hour, TOTAL, elapsed, bytes, failed);
+        if (data.getService() != null) {
+            record(minute, hour, serviceKey(data.getService()), elapsed, bytes, failed);
+            if (data.getOperation() != null) {
+                record(minute, hour, operationKey(data.getService(), data.getOperation()),
+                        elapsed, bytes, failed);
+            }
+        }
+        if (hour != null && data.getResources() != null) {
+            for (String layer : data.getResources()) {
+                hour.getLayer(layer).add(elapsed, bytes, failed);
+            }
+        }
+    }
+
+    void record(Bucket minute, Bucket hour, String key, long elapsed, long bytes,
+            boolean failed) {
+        if (minute != null) {
+            minute.get(key).add(elapsed, bytes, failed);
+        }
+        if (hour != null) {
+            hour.get(key).add(elapsed, bytes, failed);
+        }
+    }
+
+    /**
+     * Returns the bucket holding the given time, recycling the ring slot if it belongs to an old
+     * period, or null if the time is too old to be recorded
+     */
+    Bucket bucket(Resolution resolution, AtomicReferenceArray<Bucket> ring, long time) {
+        long period = time / resolution.length;
+        int slot = (int) (period % resolution.buckets);
+        while (true) {
+            Bucket bucket = ring.get(slot);
+            if (bucket != null && bucket.period == period) {
+                return bucket;
+            }
+            if (bucket != null && bucket.period > period) {
+                // a late request, whose period has already been recycled
+                return null;
+            }
+            Bucket fresh = new Bucket(period);
+            if (ring.compareAndSet(slot, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the statistics cover all the requests started since the given time, that
+     * is, the time is neither before the statistics were created nor beyond the retention
+     */
+    public boolean covers(Resolution resolution, Date from) {
+        long now = System.currentTimeMillis();
+        long start = from != null ? from.getTime() : 0;
+        // the oldest bucket is about to be recycled
+        return start >= created && start >= now - resolution.getRetention() + resolution.length;
+    }
+
+    /**
+     * Returns the time series of a key between two dates, indexed by the bucket start time. Empty
+     * buckets are not reported.
+     */
+    public SortedMap<Long, Summary> getSeries(Resolution resolution, Date from, Date to,
+            String key) {
+        SortedMap<Long, Summary> series = new TreeMap<Long, Summary>();
+        AtomicReferenceArray<Bucket> ring = ring(resolution);
+        for (int i = 0; i < ring.length(); i++) {
+            Bucket bucket = ring.get(i);
+            if (bucket == null || !bucket.within(resolution, from, to)) {
+                continue;
+            }
+            Counters counters = bucket.counters.get(key);
+            if (counters != null) {
+                Summary summary = new Summary();
+                summary.add(counters);
+                series.put(bucket.period * resolution.length, summary);
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Sums up a key between two dates
+     */
+    public Summary getSummary(Resolution resolution, Date from, Date to, String key) {
+        Summary summary = new Summary();
+        for (Summary s : getSeries(resolution, from, to, key).values()) {
+            summary.add(s);
+        }
+        return summary;
+    }
+
+    /**
+     * Sums up all the keys starting with the given prefix between two dates, indexed by the
+     * remainder of the key. E.g., <code>getSummaries(HOUR, from, to, serviceKey(""))</code>
+     * returns the summary of each OWS service.
+     */
+    public Map<String, Summary> getSummaries(Resolution resolution, Date from, Date to,
+            String prefix) {
+        Map<String, Summary> summaries = new HashMap<String, Summary>();
+        AtomicReferenceArray<Bucket> ring = ring(resolution);
+        for (int i = 0; i < ring.length(); i++) {
+            Bucket bucket = ring.get(i);
+            if (bucket == null || !bucket.within(resolution, from, to)) {
+                continue;
+            }
+            for (Map.Entry<String, Counters> e : bucket.counters.entrySet()) {
+                if (e.getKey().startsWith(prefix)) {
+                    String name = e.getKey().substring(prefix.length());
+                    Summary summary = summaries.get(name);
+                    if (summary == null) {
+                        summary = new Summary();
+                        summaries.put(name, summary);
+                    }
+                    summary.add(e.getValue());
+                }
+            }
+        }
+        return summaries;
+    }
+
+    AtomicReferenceArray<Bucket> ring(Resolution resolution) {
+        return resolution == Resolution.MINUTE ? minutes : hours;
+    }
+
+    /**
+     * Counters of a time period
+     */
+    static class Bucket {
+        final long period;
+
+        final ConcurrentHashMap<String, Counters> counters =
+                new ConcurrentHashMap<String, Counters>();
+
+        /**
+         * Number of layers tracked by the bucket
+         */
+        final AtomicInteger layers = new AtomicInteger();
+
+        Bucket(long period) {
+            this.period = period;
+        }
+
+        Counters get(String key) {
+            Counters c = counters.get(key);
+            if (c == null) {
+                c = new Counters(true);
+                Counters existing = counters.putIfAbsent(key, c);
+                if (existing != null) {
+                    c = existing;
+                }
+            }
+            return c;
+        }
+
+        /**
+         * Returns the counters of a layer, or the ones of {@link #OTHER_LAYERS} if the bucket
+         * already tracks {@link #MAX_LAYERS} layers. Layer counters have no latency histogram.
+         */
+        Counters getLayer(String layer) {
+            String key = layerKey(layer);
+            Counters c = counters.get(key);
+            if (c != null) {
+                return c;
+            }
+            if (layers.incrementAndGet() > MAX_LAYERS) {
+                layers.decrementAndGet();
+                key = layerKey(OTHER_LAYERS);
+                c = counters.get(key);
+                if (c != null) {
+                    return c;
+                }
+            }
+            c = new Counters(false);
+            Counters existing = counters.putIfAbsent(key, c);
+            if (existing != null) {
+                if (!key.equals(layerKey(OTHER_LAYERS))) {
+                    layers.decrementAndGet();
+                }
+                c = existing;
+            }
+            return c;
+        }
+
+        boolean within(Resolution resolution, Date from, Date to) {
+            long start = period * resolution.length;
+            long end = start + resolution.length;
+            return (from == null || end > from.getTime())
+                    && (to == null || start <= to.getTime());
+        }
+    }
+
+    static class Counters {
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong bytes = new AtomicLong();
+
+        final AtomicLong time = new AtomicLong();
+
+        final AtomicLong failures = new AtomicLong();
+
+        /**
+         * The request times, or null if not tracked
+         */
+        final LatencyHistogram latencies;
+
+        Counters(boolean histogram) {
+            latencies = histogram ? new LatencyHistogram() : null;
+        }
+
+        void add(long elapsed, long bytes, boolean failed) {
+            count.incrementAndGet();
+            this.bytes.addAndGet(bytes);
+            time.addAndGet(elapsed);
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            if (latencies != null) {
+                latencies.record(elapsed);
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the counters of one or more buckets
+     */
+    public static class Summary {
+        long count;
+
+        long bytes;
+
+        long time;
+
+        long failures;
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        void add(Counters c) {
+            count += c.count.get();
+            bytes += c.bytes.get();
+            time += c.time.get();
+            failures += c.failures.get();
+            if (c.latencies != null) {
+                latencies.add(c.latencies);
+            }
+        }
+
+        void add(Summary s) {
+            count += s.count;
+            bytes += s.bytes;
+            time += s.time;
+            failures += s.failures;
+            latencies.add(s.latencies);
+        }
+
+        /**
+         * Number of requests
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Total bytes returned
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Total time spent serving the requests, in milliseconds
+         */
+        public long getTotalTime() {
+            return time;
+        }
+
+        /**
+         * Number of failed requests
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Average time spent serving a request, in milliseconds
+         */
+        public double getAverageTime() {
+            return count > 0 ? (double) time / count : 0;
+        }
+
+        /**
+         * Upper bound of the time needed to serve the given fraction of the requests, e.g. 0.95,
+         * in milliseconds. The estimate is within 1/{@value LatencyHistogram#SUB_BUCKETS} of the
+         * actual time. Not available for layers, returns 0.
+         */
+        public long getPercentile(double fraction) {
+            return latencies.getPercentile(fraction);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.lang.reflect.Proxy;
 
 import org.geoserver.monitor.Monitor;
 import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Phase;
 import org.geoserver.monitor.RequestData.Status;
 import org.geoserver.ows.DispatcherCallback;
 import org.geoserver.ows.util.OwsUtils;
@@ -69,9 +70,11 @@ public class ControlFlowCallbackProxy implements InvocationHandler, BeanPostProc
             }
 
             data.setStatus(Status.WAITING);
+            data.startPhase(Phase.QUEUE);
             monitor.update();
             
             Object result = method.invoke(target, args);
+            data.startPhase(Phase.EXECUTE);
             data.setStatus(Status.RUNNING);
             monitor.update();
             return result;
@@ -13,6 +13,7 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.monitor.Monitor;
 import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.RequestData.Category;
+import org.geoserver.monitor.RequestData.Phase;
 import org.geoserver.monitor.RequestData.Status;
 import org.geoserver.monitor.ows.wcs10.DescribeCoverageHandler;
 import org.geoserver.monitor.ows.wcs10.GetCoverageHandler;
@@ -30,6 +31,8 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.RenderingExecutor;
+import org.geoserver.wms.RenderingExecutor.RenderingStats;
 
 
 public class MonitorCallback implements DispatcherCallback {
@@ -61,6 +64,10 @@ public class MonitorCallback implements DispatcherCallback {
     }
     
     public Request init(Request request) {
+        RequestData data = monitor.current();
+        if (data != null) {
+            data.startPhase(Phase.PARSE);
+        }
         return null;
     }
 
@@ -79,6 +86,7 @@ public class MonitorCallback implements DispatcherCallback {
             //will happen in cases where the filter is not active
             return operation;
         }
+        data.startPhase(Phase.EXECUTE);
         
         data.setCategory(Category.OWS);
         data.setService(operation.getService().getId().toUpperCase());
@@ -102,23 +110,40 @@ public class MonitorCallback implements DispatcherCallback {
     }
     
     public Object operationExecuted(Request request, Operation operation, Object result) {
+        RequestData data = monitor.current();
+        if (data != null) {
+            data.startPhase(Phase.ENCODE);
+        }
         return null;
     }
     
     public void finished(Request request) {
+        RequestData data = monitor.current();
+        if (data == null) {
+            //will happen in cases where the filter is not active
+            return;
+        }
+        data.startPhase(Phase.FLUSH);
+        
+        RenderingStats stats = request.getHttpRequest() != null ? 
+            RenderingExecutor.getRequestStats(request.getHttpRequest()) : null;
+        if (request.getError() == null && stats == null) {
+            return;
+        }
+        
+        if (stats != null) {
+            data.setRenderingCpuTime(stats.getCpuTime());
+            data.setRenderingQueueTime(stats.getQueueTime());
+            data.setRenderingQueueDepth(stats.getQueueDepth());
+        }
+        
         if (request.getError() != null) {
-            RequestData data = monitor.current();
-            if (data == null) {
-                //will happen in cases where the filter is not active
-                return;
-            }
-            
             data.setStatus(Status.FAILED);
             data.setErrorMessage(request.getError().getLocalizedMessage());
             data.setError(request.getError());
-            
-            monitor.update();
         }
+        
+        monitor.update();
     }
     
     Map<String,Map<String,String>> OPS;
@@ -0,0 +1,36 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import org.geoserver.monitor.LatencyStatistics.LatencySummary;
+import org.geoserver.monitor.Monitor;
+import org.geoserver.rest.ReflectiveResource;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Reports the latency percentiles of the requests completed since startup, for the whole
+ * requests and for each of their phases. The optional <code>key</code> parameter restricts the
+ * report to the keys starting with it, e.g. <code>?key=service:</code> for the per service ones.
+ */
+public class LatencyResource extends ReflectiveResource {
+
+    Monitor monitor;
+
+    public LatencyResource(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected Object handleObjectGet() throws Exception {
+        String prefix = getQueryStringValue("key", String.class, "");
+        return monitor.getLatencyStatistics().getSummaries(prefix);
+    }
+
+    @Override
+    protected void configureXStream(XStream xstream) {
+        xstream.alias("latency", LatencySummary.class);
+    }
+}
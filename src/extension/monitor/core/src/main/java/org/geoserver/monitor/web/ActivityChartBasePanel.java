@@ -28,6 +28,9 @@ import org.geoserver.monitor.Monitor;
 import org.geoserver.monitor.Query;
 import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.RequestDataVisitor;
+import org.geoserver.monitor.RequestStatistics;
+import org.geoserver.monitor.RequestStatistics.Resolution;
+import org.geoserver.monitor.RequestStatistics.Summary;
 import org.geoserver.web.GeoServerApplication;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
@@ -100,15 +103,23 @@ public abstract class ActivityChartBasePanel extends Panel {
     }
     
     BufferedDynamicImageResource queryAndRenderChart(Monitor monitor, Date[] range) {
-        Query q = new Query();
-        q.properties("startTime").between(range[0], range[1]);
-        
-        DataGatherer gatherer = new DataGatherer();
-        monitor.query(q, gatherer);
-        
-        HashMap<RegularTimePeriod,Integer> data = gatherer.getData();
+        HashMap<RegularTimePeriod,Integer> data;
+        Resolution resolution = getResolution();
+        if (resolution != null && monitor.isCoveredByStatistics(resolution, range[0])) {
+            data = gatherStatistics(monitor.getStatistics(), resolution, range);
+        }
+        else {
+            resolution = null;
+            Query q = new Query();
+            q.properties("startTime").between(range[0], range[1]);
+            
+            DataGatherer gatherer = new DataGatherer();
+            monitor.query(q, gatherer);
+            
+            data = gatherer.getData();
+        }
         
-        Class timeUnitClass = getTimePeriod(range[0]).getClass();
+        Class timeUnitClass = getTimePeriod(range[0], resolution).getClass();
         TimeSeries series = new TimeSeries("foo", timeUnitClass);
         for (Map.Entry<RegularTimePeriod, Integer> d : data.entrySet()) {
             series.add(new TimeSeriesDataItem(d.getKey(), d.getValue()));
@@ -173,6 +184,22 @@ public abstract class ActivityChartBasePanel extends Panel {
         }
     }
     
+    /**
+     * Sums up the pre-aggregated request counts in the chart time periods
+     */
+    HashMap<RegularTimePeriod,Integer> gatherStatistics(RequestStatistics statistics,
+        Resolution resolution, Date[] range) {
+        HashMap<RegularTimePeriod,Integer> data = new HashMap<RegularTimePeriod, Integer>();
+        for (Map.Entry<Long, Summary> e : statistics.getSeries(resolution, range[0], range[1],
+            RequestStatistics.TOTAL).entrySet()) {
+            RegularTimePeriod period = getTimePeriod(new Date(e.getKey()), resolution);
+            Integer count = data.get(period);
+            int total = (int) e.getValue().getCount() + (count != null ? count : 0);
+            data.put(period, total);
+        }
+        return data;
+    }
+    
     protected String getChartTitle(Date[] range) {
         return "Activity " + FORMAT.format(range[0]) + " - " + FORMAT.format(range[1]);
     }
@@ -181,6 +208,22 @@ public abstract class ActivityChartBasePanel extends Panel {
     
     protected abstract RegularTimePeriod getTimePeriod(Date time);
     
+    /**
+     * The chart time period of a pre-aggregated statistics bucket of the given resolution, or of
+     * a monitored request if the resolution is null. Defaults to {@link #getTimePeriod(Date)}.
+     */
+    protected RegularTimePeriod getTimePeriod(Date time, Resolution resolution) {
+        return getTimePeriod(time);
+    }
+    
+    /**
+     * The resolution of the pre-aggregated statistics to read, it must not be coarser than the
+     * chart time periods. Returns null to always query the monitored requests instead.
+     */
+    protected Resolution getResolution() {
+        return null;
+    }
+    
     
 
 }
@@ -8,7 +8,7 @@ import java.util.Calendar;
 import java.util.Date;
 
 import org.geoserver.monitor.Monitor;
-import org.jfree.data.time.Hour;
+import org.geoserver.monitor.RequestStatistics.Resolution;
 import org.jfree.data.time.Minute;
 import org.jfree.data.time.RegularTimePeriod;
 import org.jfree.data.time.Second;
@@ -36,8 +36,20 @@ public class DailyActivityPanel extends ActivityChartBasePanel {
     @Override
     protected RegularTimePeriod getTimePeriod(Date time) {
         return new Second(time);
-        //return new Minute(time);
-        //return new Hour(time);
+    }
+    
+    @Override
+    protected RegularTimePeriod getTimePeriod(Date time, Resolution resolution) {
+        // the statistics count the requests by minute, plotting them by second would draw spikes
+        if (resolution == Resolution.MINUTE) {
+            return new Minute(time);
+        }
+        return getTimePeriod(time);
+    }
+    
+    @Override
+    protected Resolution getResolution() {
+        return Resolution.MINUTE;
     }
     
     @Override
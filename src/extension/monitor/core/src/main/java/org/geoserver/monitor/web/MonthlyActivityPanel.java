@@ -8,6 +8,7 @@ import java.util.Calendar;
 import java.util.Date;
 
 import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.RequestStatistics.Resolution;
 import org.jfree.data.time.Day;
 import org.jfree.data.time.RegularTimePeriod;
 
@@ -35,4 +36,9 @@ public class MonthlyActivityPanel extends ActivityChartBasePanel {
         return new Day(time);
     }
 
+    @Override
+    protected Resolution getResolution() {
+        return Resolution.HOUR;
+    }
+
 }
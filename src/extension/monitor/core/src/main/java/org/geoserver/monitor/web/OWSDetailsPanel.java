@@ -11,6 +11,7 @@ import org.geoserver.monitor.Monitor;
 import org.geoserver.monitor.Query;
 import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.RequestDataVisitor;
+import org.geoserver.monitor.RequestStatistics;
 import org.geoserver.monitor.Query.Comparison;
 
 public class OWSDetailsPanel extends OWSSummaryChartBasePanel {
@@ -26,6 +27,12 @@ public class OWSDetailsPanel extends OWSSummaryChartBasePanel {
     
     @Override
     protected Map<String, Integer> gatherData(Monitor monitor) {
+        Map<String, Integer> data = 
+            gatherStatistics(monitor, RequestStatistics.operationKey(owsService, ""), true);
+        if (data != null) {
+            return data;
+        }
+        
         DataGatherer g = new DataGatherer();
         monitor.query(new Query().properties("operation")
             .filter("service", owsService, Comparison.EQ), g);
@@ -5,12 +5,15 @@
 package org.geoserver.monitor.web;
 
 import java.awt.Color;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.wicket.markup.html.image.NonCachingImage;
 import org.apache.wicket.markup.html.image.resource.BufferedDynamicImageResource;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.RequestStatistics.Resolution;
+import org.geoserver.monitor.RequestStatistics.Summary;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.data.general.DefaultPieDataset;
@@ -44,6 +47,28 @@ public abstract class OWSSummaryChartBasePanel extends Panel {
 
     protected abstract Map<String, Integer> gatherData(Monitor monitor);
     
+    /**
+     * Reads the request counts of the statistics keys starting with the given prefix, if the
+     * statistics cover the whole monitoring history, otherwise returns null
+     * 
+     * @param lowerCase whether the names should be converted to lower case
+     */
+    protected Map<String, Integer> gatherStatistics(Monitor monitor, String prefix,
+        boolean lowerCase) {
+        if (!monitor.isCoveredByStatistics(Resolution.HOUR, null)) {
+            return null;
+        }
+        
+        Map<String, Integer> data = new HashMap<String, Integer>();
+        for (Map.Entry<String, Summary> e : monitor.getStatistics().getSummaries(
+            Resolution.HOUR, null, null, prefix).entrySet()) {
+            String name = lowerCase ? e.getKey().toLowerCase() : e.getKey();
+            Integer count = data.get(name);
+            data.put(name, (int) e.getValue().getCount() + (count != null ? count : 0));
+        }
+        return data;
+    }
+    
     protected abstract String getChartTitle();
 
 }
@@ -0,0 +1,132 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.monitor.LatencyStatistics.LatencySummary;
+import org.geoserver.monitor.RequestData.Phase;
+import org.junit.Test;
+
+public class LatencyStatisticsTest {
+
+    @Test
+    public void testBuckets() {
+        // every value falls in a bucket whose upper bound is within the relative error
+        for (long value = 0; value < 100000; value += 7) {
+            int index = LatencyHistogram.index(value);
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(highest >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+            assertTrue(highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertTrue(LatencyHistogram.index(LatencyHistogram.MAX_VALUE) < 1024);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i);
+        }
+        assertEquals(10000, h.getCount());
+        assertEquals(5000.5, h.getMean(), 1e-6);
+        assertEquals(10000, h.getMax());
+        assertPercentile(5000, h.getPercentile(0.5));
+        assertPercentile(9900, h.getPercentile(0.99));
+        assertPercentile(9990, h.getPercentile(0.999));
+        assertEquals(10000, h.getPercentile(1));
+        assertEquals(0, new LatencyHistogram().getPercentile(0.5));
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram low = new LatencyHistogram();
+        LatencyHistogram high = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            (i <= 5000 ? low : high).record(i);
+        }
+        LatencyHistogram h = new LatencyHistogram();
+        h.add(low);
+        h.add(high);
+        assertEquals(10000, h.getCount());
+        assertEquals(5000.5, h.getMean(), 1e-6);
+        assertEquals(10000, h.getMax());
+        assertPercentile(5000, h.getPercentile(0.5));
+        assertPercentile(9900, h.getPercentile(0.99));
+        // the sources are left untouched
+        assertEquals(5000, low.getCount());
+        assertEquals(5000, low.getPercentile(1));
+    }
+
+    void assertPercentile(long expected, long actual) {
+        assertTrue(actual >= expected);
+        assertTrue(actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        h.record(j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(80000, h.getCount());
+        assertEquals(9999, h.getMax());
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        RequestData data = new RequestData();
+        data.setService("WMS");
+        data.setOperation("GetMap");
+        data.setResources(Arrays.asList("topp:states"));
+        data.setTotalTime(30);
+
+        data.startPhase(Phase.PARSE);
+        data.startPhase(Phase.EXECUTE);
+        Thread.sleep(20);
+        data.startPhase(Phase.ENCODE);
+        data.endPhase();
+
+        assertTrue(data.isPhaseTimed(Phase.PARSE));
+        assertFalse(data.isPhaseTimed(Phase.QUEUE));
+        assertTrue(data.getExecuteTime() >= 20);
+        assertEquals(data.getPhaseNanos(Phase.EXECUTE) / 1000000, data.getExecuteTime());
+        assertEquals(0, data.getQueueTime());
+
+        LatencyStatistics stats = new LatencyStatistics();
+        stats.record(data);
+        assertEquals(1, stats.getHistogram(RequestStatistics.TOTAL).getCount());
+        assertEquals(1, stats.getHistogram(RequestStatistics.layerKey("topp:states")).getCount());
+        assertEquals(1, stats.getHistogram(RequestStatistics.serviceKey("WMS"), Phase.EXECUTE)
+                .getCount());
+        assertEquals(0, stats.getHistogram(RequestStatistics.serviceKey("WMS"), Phase.QUEUE)
+                .getCount());
+
+        // whole request plus the three phases the request went through
+        List<LatencySummary> summaries = stats.getSummaries(RequestStatistics.serviceKey(""));
+        assertEquals(4, summaries.size());
+        assertNull(summaries.get(0).getPhase());
+        // a single value, the percentiles are capped by the max
+        assertEquals(30, summaries.get(0).getP99(), 1e-6);
+        assertEquals("PARSE", summaries.get(1).getPhase());
+        assertEquals("EXECUTE", summaries.get(2).getPhase());
+        assertTrue(summaries.get(2).getP50() >= 20);
+    }
+}
@@ -4,7 +4,12 @@
  */
 package org.geoserver.monitor;
 
+import static org.junit.Assert.*;
+
+import java.util.List;
+
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
 
@@ -13,4 +18,31 @@ public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
         dao = new MemoryMonitorDAO();
         setUpData();
     }
+
+    @Test
+    public void testHistoryBounded() throws Exception {
+        MonitorConfig config = new MonitorConfig();
+        config.getProperties().put("memory.maxHistory", "5");
+        MemoryMonitorDAO memory = new MemoryMonitorDAO();
+        memory.init(config);
+
+        for (int i = 0; i < 12; i++) {
+            RequestData data = memory.init(new RequestData());
+            memory.add(data);
+            memory.save(data);
+        }
+        RequestData running = memory.init(new RequestData());
+        memory.add(running);
+
+        // the running request first, then the last five completed ones, oldest first
+        List<RequestData> requests = memory.getRequests();
+        assertEquals(6, requests.size());
+        assertSame(running, requests.get(0));
+        for (int i = 1; i < 6; i++) {
+            assertEquals(7 + i, requests.get(i).getId());
+        }
+        assertNull(memory.getRequest(7));
+        assertNotNull(memory.getRequest(8));
+        assertSame(running, memory.getRequest(running.getId()));
+    }
 }
@@ -0,0 +1,178 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.RequestStatistics.Resolution;
+import org.geoserver.monitor.RequestStatistics.Summary;
+import org.junit.Test;
+
+public class RequestStatisticsTest {
+
+    static final long MINUTE = 60 * 1000;
+
+    RequestData request(long start, String service, String operation, long time, long bytes,
+            String... layers) {
+        RequestData data = new RequestData();
+        data.setStartTime(new Date(start));
+        data.setService(service);
+        data.setOperation(operation);
+        data.setTotalTime(time);
+        data.setResponseLength(bytes);
+        data.setStatus(Status.FINISHED);
+        data.setResources(Arrays.asList(layers));
+        return data;
+    }
+
+    @Test
+    public void testSeries() {
+        long now = System.currentTimeMillis();
+        long base = now - now % MINUTE - 10 * MINUTE;
+        RequestStatistics stats = new RequestStatistics(base);
+
+        stats.record(request(base + 1000, "WMS", "GetMap", 10, 100, "topp:states"));
+        stats.record(request(base + 2000, "WMS", "GetMap", 30, 300, "topp:states"));
+        stats.record(request(base + MINUTE, "WFS", "GetFeature", 100, 1000, "topp:roads"));
+        stats.record(request(base + 3 * MINUTE, "WMS", "GetCapabilities", 5, 50));
+
+        SortedMap<Long, Summary> series = stats.getSeries(Resolution.MINUTE, new Date(base),
+                new Date(now), RequestStatistics.TOTAL);
+        assertEquals(3, series.size());
+        assertEquals(2, series.get(base).getCount());
+        assertEquals(400, series.get(base).getBytes());
+        assertEquals(20d, series.get(base).getAverageTime(), 1e-6);
+        assertEquals(1, series.get(base + MINUTE).getCount());
+        assertEquals(1, series.get(base + 3 * MINUTE).getCount());
+
+        // ranges cut the series
+        series = stats.getSeries(Resolution.MINUTE, new Date(base + MINUTE),
+                new Date(base + 2 * MINUTE - 1), RequestStatistics.TOTAL);
+        assertEquals(1, series.size());
+
+        Summary wms = stats.getSummary(Resolution.HOUR, null, null,
+                RequestStatistics.serviceKey("WMS"));
+        assertEquals(3, wms.getCount());
+        assertEquals(45, wms.getTotalTime());
+    }
+
+    @Test
+    public void testSummaries() {
+        long now = System.currentTimeMillis();
+        RequestStatistics stats = new RequestStatistics(now);
+        stats.record(request(now, "WMS", "GetMap", 10, 100, "topp:states", "topp:roads"));
+        stats.record(request(now, "WMS", "GetMap", 10, 100, "topp:states"));
+        stats.record(request(now, "WMS", "GetFeatureInfo", 10, 100, "topp:states"));
+        stats.record(request(now, "WFS", "GetFeature", 10, 100, "topp:roads"));
+
+        Map<String, Summary> services = stats.getSummaries(Resolution.MINUTE, null, null,
+                RequestStatistics.serviceKey(""));
+        assertEquals(2, services.size());
+        assertEquals(3, services.get("WMS").getCount());
+        assertEquals(1, services.get("WFS").getCount());
+
+        Map<String, Summary> operations = stats.getSummaries(Resolution.MINUTE, null, null,
+                RequestStatistics.operationKey("WMS", ""));
+        assertEquals(2, operations.size());
+        assertEquals(2, operations.get("GetMap").getCount());
+
+        // layers are only tracked hourly
+        Map<String, Summary> layers = stats.getSummaries(Resolution.HOUR, null, null,
+                RequestStatistics.layerKey(""));
+        assertEquals(3, layers.get("topp:states").getCount());
+        assertEquals(2, layers.get("topp:roads").getCount());
+        assertTrue(stats.getSummaries(Resolution.MINUTE, null, null,
+                RequestStatistics.layerKey("")).isEmpty());
+    }
+
+    @Test
+    public void testLayersBounded() {
+        long now = System.currentTimeMillis();
+        RequestStatistics stats = new RequestStatistics(now);
+        for (int i = 0; i < RequestStatistics.MAX_LAYERS + 10; i++) {
+            stats.record(request(now, "WMS", "GetMap", 10, 100, "layer" + i));
+        }
+        stats.record(request(now, "WMS", "GetMap", 10, 100, "layer0"));
+
+        Map<String, Summary> layers = stats.getSummaries(Resolution.HOUR, null, null,
+                RequestStatistics.layerKey(""));
+        assertEquals(RequestStatistics.MAX_LAYERS + 1, layers.size());
+        assertEquals(2, layers.get("layer0").getCount());
+        assertEquals(10, layers.get(RequestStatistics.OTHER_LAYERS).getCount());
+        assertNull(layers.get("layer" + RequestStatistics.MAX_LAYERS));
+        // the layers do not keep the request times
+        assertEquals(0, layers.get("layer0").getPercentile(0.5));
+        assertEquals(10, stats.getSummary(Resolution.HOUR, null, null, RequestStatistics.TOTAL)
+                .getPercentile(0.5));
+    }
+
+    @Test
+    public void testPercentiles() {
+        long now = System.currentTimeMillis();
+        RequestStatistics stats = new RequestStatistics(now);
+        for (int i = 0; i < 95; i++) {
+            stats.record(request(now, "WMS", "GetMap", 20, 0));
+        }
+        for (int i = 0; i < 5; i++) {
+            stats.record(request(now, "WMS", "GetMap", 3000, 0));
+        }
+        Summary summary = stats.getSummary(Resolution.MINUTE, null, null,
+                RequestStatistics.TOTAL);
+        assertEquals(20, summary.getPercentile(0.5));
+        assertEquals(3000, summary.getPercentile(0.99));
+    }
+
+    @Test
+    public void testPercentilesSlowRequests() {
+        long now = System.currentTimeMillis();
+        RequestStatistics stats = new RequestStatistics(now);
+        for (int i = 0; i < 90; i++) {
+            stats.record(request(now, "WFS", "GetFeature", 45000, 0));
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.record(request(now, "WFS", "GetFeature", 120000, 0));
+        }
+        Summary summary = stats.getSummary(Resolution.HOUR, null, null,
+                RequestStatistics.TOTAL);
+        // not capped, within 1/16 of the actual time
+        long p50 = summary.getPercentile(0.5);
+        assertTrue(p50 >= 45000 && p50 <= 45000 + 45000 / 16);
+        assertEquals(120000, summary.getPercentile(0.99));
+    }
+
+    @Test
+    public void testRingRecycled() {
+        long now = System.currentTimeMillis();
+        RequestStatistics stats = new RequestStatistics(0);
+        long old = now - Resolution.MINUTE.getRetention();
+        stats.record(request(old, "WMS", "GetMap", 10, 0));
+        // same slot, a day later
+        stats.record(request(old + Resolution.MINUTE.getRetention(), "WMS", "GetMap", 10, 0));
+        // too late to be recorded
+        stats.record(request(old, "WMS", "GetMap", 10, 0));
+
+        assertEquals(1, stats.getSummary(Resolution.MINUTE, null, null, RequestStatistics.TOTAL)
+                .getCount());
+    }
+
+    @Test
+    public void testCovers() {
+        long now = System.currentTimeMillis();
+        RequestStatistics stats = new RequestStatistics(now - 2 * MINUTE);
+        assertTrue(stats.covers(Resolution.MINUTE, new Date(now - MINUTE)));
+        assertFalse(stats.covers(Resolution.MINUTE, new Date(now - 3 * MINUTE)));
+        assertFalse(stats.covers(Resolution.MINUTE, null));
+
+        stats = new RequestStatistics(0);
+        assertTrue(stats.covers(Resolution.HOUR, new Date(now - 24 * 60 * MINUTE)));
+        assertFalse(stats.covers(Resolution.MINUTE, new Date(now - 24 * 60 * MINUTE)));
+    }
+}
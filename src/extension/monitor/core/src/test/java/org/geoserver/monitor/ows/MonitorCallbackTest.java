@@ -9,8 +9,10 @@ import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.Arrays;
+import java.util.concurrent.Callable;
 
 import javax.xml.namespace.QName;
 
@@ -46,6 +48,7 @@ import org.geoserver.monitor.MonitorConfig;
 import org.geoserver.monitor.MonitorDAO;
 import org.geoserver.monitor.MonitorTestData;
 import org.geoserver.monitor.RequestData;
+import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
@@ -53,6 +56,8 @@ import org.geoserver.wms.GetFeatureInfoRequest;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.RenderingExecutor;
+import org.geoserver.wms.RenderingExecutor.RenderingStats;
 import org.geoserver.wms.WMS;
 import org.geotools.feature.NameImpl;
 import org.geotools.filter.text.cql2.CQL;
@@ -71,6 +76,7 @@ import org.opengis.filter.Filter;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.vividsolutions.jts.geom.Envelope;
 
 
@@ -163,6 +169,29 @@ public class MonitorCallbackTest {
         assertEquals("1.2.3", data.getOwsVersion());
     }
     
+    @Test
+    public void testRenderingStats() throws Exception {
+        Request request = new Request();
+        request.setHttpRequest(new MockHttpServletRequest());
+        Dispatcher.REQUEST.set(request);
+        try {
+            new RenderingExecutor().execute(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return null;
+                }
+            });
+        } finally {
+            Dispatcher.REQUEST.remove();
+        }
+        
+        RenderingStats stats = RenderingExecutor.getRequestStats(request.getHttpRequest());
+        callback.finished(request);
+        
+        assertEquals(stats.getCpuTime(), data.getRenderingCpuTime());
+        assertEquals(stats.getQueueTime(), data.getRenderingQueueTime());
+        assertNull(data.getError());
+    }
+    
     @Test
     public void testWFSDescribeFeatureType() throws Exception {
         DescribeFeatureTypeType dft = WfsFactory.eINSTANCE.createDescribeFeatureTypeType();
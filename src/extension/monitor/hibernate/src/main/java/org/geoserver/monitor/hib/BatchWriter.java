@@ -0,0 +1,373 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.RequestData;
+import org.geotools.util.logging.Logging;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.springframework.orm.hibernate3.HibernateCallback;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+
+/**
+ * Write-behind persistence of the monitored requests.
+ * <p>
+ * Requests to be saved are put in a bounded queue, drained by a single writer thread that
+ * persists them in batches, one transaction per batch, so that the request threads never wait on
+ * the monitoring database. A request queued more than once before being written is only written
+ * once, with its latest state. When the queue is full new requests are either dropped or the
+ * request threads wait for room, depending on the {@link Overflow} policy.
+ * </p>
+ */
+public class BatchWriter implements BatchWriterMXBean {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    /**
+     * What to do with a request when the queue is full
+     */
+    public static enum Overflow {
+        /**
+         * Drop the request, it will not be persisted
+         */
+        DROP,
+        /**
+         * Wait for the writer to make room in the queue
+         */
+        BLOCK;
+    }
+
+    HibernateTemplate hib;
+
+    int queueCapacity = 10000;
+
+    int batchSize = 500;
+
+    long flushInterval = 1000;
+
+    Overflow overflow = Overflow.DROP;
+
+    volatile BlockingQueue<RequestData> queue;
+
+    Thread writer;
+
+    volatile boolean running;
+
+    // statistics
+    final AtomicLong maxQueueSize = new AtomicLong();
+
+    final AtomicLong written = new AtomicLong();
+
+    final AtomicLong dropped = new AtomicLong();
+
+    final AtomicLong failed = new AtomicLong();
+
+    final AtomicLong batches = new AtomicLong();
+
+    volatile long lastBatchTime;
+
+    public BatchWriter() {
+        queue = new ArrayBlockingQueue<RequestData>(queueCapacity);
+    }
+
+    /**
+     * Configures the writer from the <code>hibernate.batch.*</code> monitor properties
+     */
+    public void configure(Properties props) {
+        setQueueCapacity(Integer.parseInt(props.getProperty("hibernate.batch.queueSize",
+                String.valueOf(queueCapacity))));
+        batchSize = Integer.parseInt(props.getProperty("hibernate.batch.size",
+                String.valueOf(batchSize)));
+        flushInterval = Long.parseLong(props.getProperty("hibernate.batch.flushInterval",
+                String.valueOf(flushInterval)));
+        overflow = Overflow.valueOf(props.getProperty("hibernate.batch.overflow",
+                overflow.name()).toUpperCase());
+    }
+
+    public void setHibernateTemplate(HibernateTemplate hib) {
+        this.hib = hib;
+    }
+
+    /**
+     * Starts the writer thread, if not already running
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        resize();
+        running = true;
+        writer = new Thread(new Runnable() {
+            public void run() {
+                BatchWriter.this.run();
+            }
+        }, "GeoServer monitor batch writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer thread, after it wrote out the queued requests
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Interrupted while waiting for the monitor batch writer "
+                    + "to write out the queued requests");
+        }
+        writer = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queues a request for persistence
+     *
+     * @return true if the request got queued, false if it was dropped
+     */
+    public boolean add(RequestData data) {
+        boolean queued;
+        if (overflow == Overflow.BLOCK && running) {
+            try {
+                queue.put(data);
+                queued = true;
+            } catch (InterruptedException e) {
+                queued = false;
+            }
+        } else {
+            queued = queue.offer(data);
+        }
+
+        if (!queued) {
+            dropped.incrementAndGet();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Monitor batch queue is full, dropping request " + data.internalid);
+            }
+            return false;
+        }
+
+        long size = queue.size();
+        long max = maxQueueSize.get();
+        while (size > max && !maxQueueSize.compareAndSet(max, size)) {
+            max = maxQueueSize.get();
+        }
+        return true;
+    }
+
+    void run() {
+        List<RequestData> batch = new ArrayList<RequestData>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                RequestData first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // wait for the batch to fill up, for at most the flush interval
+                long deadline = System.currentTimeMillis() + flushInterval;
+                queue.drainTo(batch, batchSize - batch.size());
+                while (running && batch.size() < batchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    RequestData next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // write out what we have
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes out a batch of requests in a single transaction. If the transaction fails the
+     * requests are written one at a time, so that a single bad request does not take down the
+     * others
+     */
+    void write(List<RequestData> batch) {
+        // a request updated more than once needs to be written only once, in its last state
+        final Map<Long, RequestData> requests = new LinkedHashMap<Long, RequestData>();
+        for (RequestData data : batch) {
+            requests.put(data.internalid, data);
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            writeTransaction(requests.values());
+            written.addAndGet(requests.size());
+        } catch (Exception e) {
+            if (requests.size() == 1) {
+                failed.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Failed to persist a monitored request", e);
+            } else {
+                LOGGER.log(Level.WARNING, "Failed to persist a batch of " + requests.size()
+                        + " monitored requests, writing them one at a time", e);
+                for (RequestData data : requests.values()) {
+                    try {
+                        writeTransaction(Collections.singletonList(data));
+                        written.incrementAndGet();
+                    } catch (Exception ex) {
+                        failed.incrementAndGet();
+                        LOGGER.log(Level.WARNING, "Failed to persist monitored request "
+                                + data.internalid, ex);
+                    }
+                }
+            }
+        }
+        batches.incrementAndGet();
+        lastBatchTime = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Writes out the requests in a single transaction
+     */
+    void writeTransaction(final Collection<RequestData> requests) {
+        final List<RequestData> inserted = new ArrayList<RequestData>();
+        try {
+            hib.execute(new HibernateCallback() {
+                public Object doInHibernate(Session session) throws HibernateException,
+                        SQLException {
+                    Transaction tx = session.beginTransaction();
+                    try {
+                        save(requests, session, inserted);
+                        session.flush();
+                        tx.commit();
+                    } catch (HibernateException e) {
+                        tx.rollback();
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            // the rows got rolled back along with the transaction, the requests have to be
+            // inserted again rather than updated
+            for (RequestData data : inserted) {
+                synchronized (data) {
+                    data.setId(-1);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Saves or updates the requests, collecting the ones that got inserted
+     */
+    void save(Collection<RequestData> requests, Session session, List<RequestData> inserted) {
+        for (RequestData data : requests) {
+            synchronized (data) {
+                if (data.getId() == -1) {
+                    data.setId((Long) session.save(data));
+                    inserted.add(data);
+                } else {
+                    session.update(data);
+                }
+            }
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getMaxQueueSize() {
+        return maxQueueSize.get();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public String getOverflow() {
+        return overflow.name();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getLastBatchTime() {
+        return lastBatchTime;
+    }
+
+    /**
+     * Sets the queue capacity. The queue is resized only while empty, otherwise the new capacity
+     * is used the next time it empties out and the writer is started.
+     */
+    public synchronized void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        resize();
+    }
+
+    synchronized void resize() {
+        if (queue.isEmpty() && queue.remainingCapacity() != queueCapacity) {
+            queue = new ArrayBlockingQueue<RequestData>(queueCapacity);
+        }
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+    }
+}
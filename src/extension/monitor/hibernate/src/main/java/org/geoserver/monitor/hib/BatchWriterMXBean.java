@@ -0,0 +1,71 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+/**
+ * Management interface exposing the {@link BatchWriter} statistics through JMX.
+ */
+public interface BatchWriterMXBean {
+
+    /**
+     * Whether the writer thread is running, that is, the monitor is in batch sync mode.
+     */
+    boolean isRunning();
+
+    /**
+     * Number of requests waiting to be written.
+     */
+    int getQueueSize();
+
+    /**
+     * Maximum number of requests waiting to be written.
+     */
+    int getQueueCapacity();
+
+    /**
+     * Highest number of requests that have been waiting to be written at the same time.
+     */
+    long getMaxQueueSize();
+
+    /**
+     * Maximum number of requests written in a single transaction.
+     */
+    int getBatchSize();
+
+    /**
+     * Longest time, in milliseconds, a batch waits to fill up before being written.
+     */
+    long getFlushInterval();
+
+    /**
+     * What happens to the requests when the queue is full, either DROP or BLOCK.
+     */
+    String getOverflow();
+
+    /**
+     * Number of requests written so far.
+     */
+    long getWrittenCount();
+
+    /**
+     * Number of requests dropped because the queue was full.
+     */
+    long getDroppedCount();
+
+    /**
+     * Number of requests whose batch failed to be written.
+     */
+    long getFailedCount();
+
+    /**
+     * Number of batches written so far.
+     */
+    long getBatchCount();
+
+    /**
+     * Time it took to write the last batch, in milliseconds.
+     */
+    long getLastBatchTime();
+}
@@ -36,11 +36,16 @@ import com.google.common.base.FinalizableReference;
 public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 
     public static enum Sync {
-        SYNC, ASYNC, ASYNC_UPDATE;
+        SYNC, ASYNC, ASYNC_UPDATE,
+        /**
+         * write-behind, the requests are written in batches by a single thread
+         */
+        BATCH;
     }
 
     HibernateTemplate hib;
     PipeliningTaskQueue<Thread> tasks;
+    BatchWriter batch = new BatchWriter();
 
     Mode mode = Mode.HISTORY;
     Sync sync = Sync.ASYNC;
@@ -57,6 +62,7 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
     @Override
     public void init(MonitorConfig config) {
         setMode(config.getMode());
+        batch.configure(config.getProperties());
         setSync(getSync(config));
     }
 
@@ -66,16 +72,22 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 
     public void setSync(Sync sync) {
         this.sync = sync;
-        if (sync != Sync.SYNC) {
+        if (sync == Sync.BATCH) {
+            if (tasks != null) {
+                tasks.shutdown();
+                tasks = null;
+            }
+            batch.start();
+        }
+        else if (sync != Sync.SYNC) {
+            batch.stop();
             if (tasks == null) {
                 tasks = new PipeliningTaskQueue<Thread>();
                 tasks.start();
             }
         }
         else {
-            if (tasks != null) {
-                dispose();
-            }
+            dispose();
         }
     }
     public void setMode(Mode mode) {
@@ -85,6 +97,14 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
     public void setSessionFactory(SessionFactory sessionFactory) {
         hib = new HibernateTemplate(sessionFactory);
         hib.setFetchSize(1000);
+        batch.setHibernateTemplate(hib);
+    }
+    
+    /**
+     * The write-behind queue used in {@link Sync#BATCH} mode
+     */
+    public BatchWriter getBatchWriter() {
+        return batch;
     }
     
     public SessionFactory getSessionFactory() {
@@ -140,6 +160,7 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
             tasks.shutdown();
             tasks = null;
         }
+        batch.stop();
     }
 
     public List<RequestData> getOwsRequests() {
@@ -576,7 +597,10 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 //    }
     
     protected void run(Task task) {
-        if (tasks != null) {
+        if (sync == Sync.BATCH) {
+            batch.add(task.data);
+        }
+        else if (tasks != null) {
             tasks.execute(Thread.currentThread(), new Async(task), task.desc);
         }
         else {
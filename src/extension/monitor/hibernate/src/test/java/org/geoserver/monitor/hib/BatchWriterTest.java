@@ -0,0 +1,190 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.hibernate.HibUtil;
+import org.geoserver.monitor.MonitorConfig.Mode;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.hib.BatchWriter.Overflow;
+import org.geoserver.monitor.hib.HibernateMonitorDAO2.Sync;
+import org.h2.tools.DeleteDbFiles;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+
+public class BatchWriterTest {
+
+    static final int THREADS = 8;
+
+    static final int REQUESTS = 500;
+
+    static XmlWebApplicationContext ctx;
+
+    static HibernateMonitorDAO2 dao;
+
+    @BeforeClass
+    public static void initHibernate() throws Exception {
+        // setup in memory h2 db
+        Properties p = new Properties();
+        p.put("driver", "org.h2.Driver");
+        p.put("url", "jdbc:h2:mem:monitoring_batch");
+        File file = new File("./target/monitoring/db.properties");
+        FileOutputStream fos = null;
+        try {
+            if (!file.getParentFile().exists()) {
+                assertTrue(file.getParentFile().mkdirs());
+            }
+            fos = new FileOutputStream(file);
+            p.store(fos, null);
+        } finally {
+            IOUtils.closeQuietly(fos);
+        }
+
+        ctx = new XmlWebApplicationContext() {
+            public String[] getConfigLocations() {
+                return new String[] { "classpath*:applicationContext-hibtest.xml",
+                        "classpath*:applicationContext-hib2.xml" };
+            }
+        };
+        ctx.refresh();
+        dao = (HibernateMonitorDAO2) ctx.getBean("hibMonitorDAO");
+        dao.setMode(Mode.HYBRID);
+    }
+
+    @AfterClass
+    public static void destroy() throws Exception {
+        dao.dispose();
+        ctx.close();
+        DeleteDbFiles.execute("target/monitoring", "monitoring_batch", false);
+    }
+
+    @Test
+    public void testDrop() {
+        BatchWriter writer = new BatchWriter();
+        writer.setQueueCapacity(10);
+        writer.setOverflow(Overflow.DROP);
+
+        // not started, nothing drains the queue
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i < 10, writer.add(new RequestData()));
+        }
+        assertEquals(10, writer.getQueueSize());
+        assertEquals(10, writer.getMaxQueueSize());
+        assertEquals(10, writer.getDroppedCount());
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        BatchWriter writer = new BatchWriter();
+        writer.setHibernateTemplate(new HibernateTemplate(dao.getSessionFactory()));
+
+        RequestData first = new RequestData();
+        first.setPath("/rollback/first");
+        // an update of a row that does not exist makes the whole batch roll back
+        RequestData missing = new RequestData();
+        missing.setPath("/rollback/missing");
+        missing.setId(Integer.MAX_VALUE);
+        RequestData last = new RequestData();
+        last.setPath("/rollback/last");
+        writer.write(Arrays.asList(first, missing, last));
+
+        // the other requests are written one by one, inserted again after the rollback
+        assertEquals(2, writer.getWrittenCount());
+        assertEquals(1, writer.getFailedCount());
+        assertEquals(1, writer.getBatchCount());
+        HibUtil.setUpSession(dao.getSessionFactory());
+        try {
+            assertEquals("/rollback/first", dao.getRequest(first.getId()).getPath());
+            assertEquals("/rollback/last", dao.getRequest(last.getId()).getPath());
+        } finally {
+            HibUtil.tearDownSession(dao.getSessionFactory(), null);
+        }
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        BatchWriter writer = dao.getBatchWriter();
+        writer.setQueueCapacity(100);
+        writer.setBatchSize(50);
+        writer.setFlushInterval(20);
+        writer.setOverflow(Overflow.BLOCK);
+        dao.setSync(Sync.BATCH);
+        assertTrue(writer.isRunning());
+
+        // each thread runs a full request life cycle: insert, update, final save
+        final List<RequestData> requests = Collections
+                .synchronizedList(new ArrayList<RequestData>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final String path = "/batch/" + i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < REQUESTS; j++) {
+                            RequestData data = new RequestData();
+                            data.setPath(path);
+                            data.setStatus(Status.WAITING);
+                            dao.init(data);
+                            data.setStatus(Status.RUNNING);
+                            dao.update(data);
+                            data.setStatus(Status.FINISHED);
+                            data.setTotalTime(j);
+                            dao.save(data);
+                            requests.add(data);
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+
+        // writes out what is left in the queue
+        writer.stop();
+        assertEquals(0, writer.getQueueSize());
+        assertEquals(0, writer.getDroppedCount());
+        assertEquals(0, writer.getFailedCount());
+        assertTrue(writer.getMaxQueueSize() <= 100);
+        // the updates queued while the insert was pending have been coalesced
+        assertTrue(writer.getWrittenCount() >= THREADS * REQUESTS);
+        assertTrue(writer.getWrittenCount() <= 3 * THREADS * REQUESTS);
+        assertTrue(writer.getBatchCount() < writer.getWrittenCount());
+
+        HibUtil.setUpSession(dao.getSessionFactory());
+        try {
+            assertEquals(THREADS * REQUESTS, dao.getCount(new Query()));
+            for (RequestData data : requests) {
+                assertTrue(data.getId() != -1);
+            }
+            RequestData last = requests.get(requests.size() - 1);
+            RequestData stored = dao.getRequest(last.getId());
+            assertEquals(Status.FINISHED, stored.getStatus());
+            assertEquals(last.getTotalTime(), stored.getTotalTime());
+        } finally {
+            HibUtil.tearDownSession(dao.getSessionFactory(), null);
+        }
+    }
+}
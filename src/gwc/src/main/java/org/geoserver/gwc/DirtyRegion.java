@@ -0,0 +1,67 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * The geometries of the features touched by a transaction, before and after the change, used to
+ * find out the tiles that need to be truncated.
+ *
+ * @see GWCTransactionListener
+ * @see GWCTruncateQueue
+ */
+public class DirtyRegion {
+
+    private final CoordinateReferenceSystem crs;
+
+    private final List<Geometry> geometries;
+
+    /**
+     * @param crs
+     *            the geometries coordinate reference system, or {@code null} if unknown, in which
+     *            case the one declared by the tile layer is assumed
+     * @param geometries
+     *            the affected geometries
+     */
+    public DirtyRegion(final CoordinateReferenceSystem crs, final List<Geometry> geometries) {
+        checkNotNull(geometries, "geometries is null");
+        this.crs = crs;
+        this.geometries = Collections.unmodifiableList(geometries);
+    }
+
+    public CoordinateReferenceSystem getCrs() {
+        return crs;
+    }
+
+    public List<Geometry> getGeometries() {
+        return geometries;
+    }
+
+    /**
+     * @return the envelope of all the geometries
+     */
+    public ReferencedEnvelope getBounds() {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(crs);
+        for (Geometry geometry : geometries) {
+            bounds.expandToInclude(geometry.getEnvelopeInternal());
+        }
+        return bounds;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + geometries.size() + " geometries, "
+                + getBounds() + "]";
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +50,7 @@ import org.geoserver.gwc.layer.CatalogStyleChangeListener;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
+import org.geoserver.gwc.layer.HotTileCache;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.GeoServerExtensions;
@@ -62,6 +64,7 @@ import org.geoserver.security.WrapperPolicy;
 import org.geoserver.security.decorators.SecuredLayerInfo;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.map.MetaTileCoalescer;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.opengis.filter.Filter;
 import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
@@ -189,6 +192,10 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
     private JDBCPasswordEncryptionHelper passwordHelper;
 
     private JDBCConfigurationStorage jdbcConfigurationStorage;
+
+    private HotTileCache hotTileCache;
+
+    private MetaTileCoalescer metaTileCoalescer;
     
     public GWC(final GWCConfigPersister gwcConfigPersister, final StorageBroker sb,
             final TileLayerDispatcher tld, final GridSetBroker gridSetBroker,
@@ -448,7 +455,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
             }
         }
 
-        final String defaultStyle = layer.getStyles();
+        final List<Map<String, String>> styleParameters = getStyleParameters(layer, styleNames);
 
         for (String gridSetId : gridSetIds) {
             GridSubset gridSubset = layer.getGridSubset(gridSetId);
@@ -458,15 +465,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
                 GridSet gridSet = gridSetBroker.get(gridSetId);
                 gridSubset = GridSubsetFactory.createGridSubSet(gridSet);
             }
-            for (String style : styleNames) {
-                Map<String, String> parameters;
-                if (style.length() == 0 || style.equals(defaultStyle)) {
-                    log.finer("'" + style + "' is the layer's default style, "
-                            + "not adding a parameter filter");
-                    parameters = null;
-                } else {
-                    parameters = Collections.singletonMap("STYLES", style);
-                }
+            for (Map<String, String> parameters : styleParameters) {
                 for (MimeType mime : mimeTypes) {
                     String formatName = mime.getFormat();
                     truncate(layer, bounds, gridSubset, formatName, parameters);
@@ -498,6 +497,103 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         tileBreeder.dispatchTasks(tasks);
     }
 
+    /**
+     * Truncates the given tile ranges of a layer, for all its cached styles and formats.
+     * <p>
+     * Unlike the other truncate methods no truncate tasks are issued, the tiles are deleted right
+     * away in the calling thread.
+     * </p>
+     * 
+     * @param layerName
+     *            name of the layer to truncate, non {@code null}
+     * @param gridSetId
+     *            the grid set the tile ranges refer to
+     * @param ranges
+     *            the tile ranges to truncate, each one as a
+     *            <code>{minx, miny, maxx, maxy, z}</code> array
+     */
+    public void truncate(final String layerName, final String gridSetId,
+            final List<long[]> ranges) throws StorageException {
+
+        checkNotNull(layerName, "layerName can't be null");
+        checkNotNull(gridSetId, "gridSetId can't be null");
+
+        final TileLayer layer = getTileLayerByName(layerName);
+        // the default style may show up more than once, under its name and as the empty one
+        final Set<Map<String, String>> styleParameters = new LinkedHashSet<Map<String, String>>(
+                getStyleParameters(layer, getCachedStyles(layerName)));
+        final List<MimeType> mimeTypes = layer.getMimeTypes();
+
+        for (long[] range : ranges) {
+            final int z = (int) range[4];
+            // the range bounds are looked up by zoom level
+            final long[][] rangeBounds = new long[z + 1][];
+            rangeBounds[z] = range;
+            for (Map<String, String> parameters : styleParameters) {
+                for (MimeType mime : mimeTypes) {
+                    TileRange tr = new TileRange(layerName, gridSetId, z, z, rangeBounds, mime,
+                            parameters);
+                    storageBroker.delete(tr);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders and caches a single tile of a layer, for all its cached styles and formats. The
+     * tiles that are already cached are left alone.
+     * 
+     * @param layerName
+     *            name of the layer to seed, non {@code null}
+     * @param gridSetId
+     *            the grid set the tile index refers to
+     * @param tileIndex
+     *            the <code>{x, y, z}</code> tile index
+     */
+    public void seedTile(final String layerName, final String gridSetId, final long[] tileIndex)
+            throws GeoWebCacheException, IOException {
+
+        checkNotNull(layerName, "layerName can't be null");
+        checkNotNull(gridSetId, "gridSetId can't be null");
+
+        final TileLayer layer = getTileLayerByName(layerName);
+        final Set<Map<String, String>> styleParameters = new LinkedHashSet<Map<String, String>>(
+                getStyleParameters(layer, getCachedStyles(layerName)));
+
+        for (Map<String, String> parameters : styleParameters) {
+            for (MimeType mime : layer.getMimeTypes()) {
+                ConveyorTile tile = new ConveyorTile(storageBroker, layerName, gridSetId,
+                        tileIndex.clone(), mime, parameters, null, null);
+                tile.setTileLayer(layer);
+                boolean tryCache = true;
+                layer.seedTile(tile, tryCache);
+            }
+        }
+    }
+
+    /**
+     * Returns the parameters identifying the tiles of each style, {@code null} for the layer's
+     * default style
+     */
+    private List<Map<String, String>> getStyleParameters(final TileLayer layer,
+            final Set<String> styleNames) {
+        if (styleNames.isEmpty()) {
+            return Collections.<Map<String, String>> singletonList(null);
+        }
+        final String defaultStyle = layer.getStyles();
+        final List<Map<String, String>> styleParameters = new ArrayList<Map<String, String>>();
+        for (String style : styleNames) {
+            if (style.length() == 0 || style.equals(defaultStyle)) {
+                log.finer("'" + style + "' is the layer's default style, "
+                        + "not adding a parameter filter");
+                styleParameters.add(null);
+            } else {
+                styleParameters.add(Collections.singletonMap("STYLES", style));
+            }
+        }
+        return styleParameters;
+    }
+
     private boolean isStyleCached(final String layerName, final String styleName) {
         Set<String> cachedStyles = getCachedStyles(layerName);
         boolean styleIsCached = cachedStyles.contains(styleName);
@@ -1988,6 +2084,29 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return lockProvider;
     }
 
+    /**
+     * @return the in memory tier in front of the blob store, or {@code null} if not configured
+     */
+    public HotTileCache getHotTileCache() {
+        return hotTileCache;
+    }
+
+    public void setHotTileCache(HotTileCache hotTileCache) {
+        this.hotTileCache = hotTileCache;
+    }
+
+    /**
+     * @return the coalescer sharing meta tile renderings with the direct WMS tiled requests, or
+     *         {@code null} if not configured
+     */
+    public MetaTileCoalescer getMetaTileCoalescer() {
+        return metaTileCoalescer;
+    }
+
+    public void setMetaTileCoalescer(MetaTileCoalescer metaTileCoalescer) {
+        this.metaTileCoalescer = metaTileCoalescer;
+    }
+
     public JDBCConfiguration getJDBCDiskQuotaConfig() throws IOException, org.geowebcache.config.ConfigurationException {
         return jdbcConfigurationStorage.getJDBCDiskQuotaConfig();
     }
@@ -7,6 +7,7 @@ package org.geoserver.gwc;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,22 +29,28 @@ import org.geoserver.wfs.TransactionEventType;
 import org.geoserver.wfs.TransactionPlugin;
 import org.geoserver.wfs.WFSException;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.util.logging.Logging;
-import org.geowebcache.GeoWebCacheException;
-import org.opengis.referencing.FactoryException;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Listens to transactions (so far only issued by WFS) and truncates the cache for the affected area
  * of the layers involved in the transaction.
  * <p>
- * A Spring bean singleton of this class needs to be declared in order for GeoServer transactions to
- * pick it up automatically and forward transaction events to it.
+ * The geometries of the affected features are collected as the transaction goes, and handed over to
+ * the {@link GWCTruncateQueue} once committed, which works out the tiles they touch and truncates
+ * them in the background. Changes touching more than {@link #MAX_TRACKED_GEOMETRIES} geometries
+ * are tracked by their envelope instead.
  * </p>
  * <p>
- * TODO: upon deletion, only truncate if feature count > 0
+ * A Spring bean singleton of this class needs to be declared in order for GeoServer transactions to
+ * pick it up automatically and forward transaction events to it.
  * </p>
  * 
  * @author Arne Kepp
@@ -57,13 +64,31 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     final private GWC gwc;
 
+    final private GWCTruncateQueue truncateQueue;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
+    /**
+     * Number of geometries per change above which only their envelope is tracked
+     */
+    static final int MAX_TRACKED_GEOMETRIES = Integer.getInteger(
+            "org.geoserver.gwc.truncate.maxGeometries", 1000);
+
     /**
      * @param gwc
      */
     public GWCTransactionListener(final GWC gwc) {
+        this(gwc, new GWCTruncateQueue(gwc));
+    }
+
+    /**
+     * @param gwc
+     * @param truncateQueue
+     *            the queue truncating the affected tiles
+     */
+    public GWCTransactionListener(final GWC gwc, final GWCTruncateQueue truncateQueue) {
         this.gwc = gwc;
+        this.truncateQueue = truncateQueue;
     }
 
     /**
@@ -108,44 +133,17 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     private void afterTransactionInternal(final TransactionType transaction, boolean committed) {
 
-        final Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
+        final Map<String, List<DirtyRegion>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
         if (byLayerDirtyRegions.isEmpty()) {
             return;
         }
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
-            List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
-            ReferencedEnvelope dirtyRegion;
-            try {
-                dirtyRegion = merge(tileLayerName, dirtyList);
-            } catch (Exception e) {
-                log.log(Level.WARNING, e.getMessage(), e);
+            List<DirtyRegion> dirtyList = byLayerDirtyRegions.get(tileLayerName);
+            if (dirtyList.isEmpty()) {
                 continue;
             }
-            if (dirtyRegion == null) {
-                continue;
-            }
-            try {
-                gwc.truncate(tileLayerName, dirtyRegion);
-            } catch (GeoWebCacheException e) {
-                log.warning("Error truncating tile layer " + tileLayerName
-                        + " for transaction affected bounds " + dirtyRegion);
-            }
-        }
-    }
-
-    private ReferencedEnvelope merge(final String tileLayerName,
-            final List<ReferencedEnvelope> dirtyList) throws TransformException, FactoryException {
-        if (dirtyList.size() == 0) {
-            return null;
+            truncateQueue.truncate(tileLayerName, dirtyList);
         }
-
-        final CoordinateReferenceSystem declaredCrs = gwc.getDeclaredCrs(tileLayerName);
-        ReferencedEnvelope merged = new ReferencedEnvelope(declaredCrs);
-        for (ReferencedEnvelope env : dirtyList) {
-            ReferencedEnvelope transformedDirtyRegion = env.transform(declaredCrs, true, 1000);
-            merged.expandToInclude(transformedDirtyRegion);
-        }
-        return merged;
     }
 
     /**
@@ -193,40 +191,83 @@ public class GWCTransactionListener implements TransactionPlugin {
         }
 
         final SimpleFeatureCollection affectedFeatures = event.getAffectedFeatures();
-        final ReferencedEnvelope affectedBounds = affectedFeatures.getBounds();
+        final DirtyRegion dirtyRegion = getDirtyRegion(affectedFeatures);
+        if (dirtyRegion.getGeometries().isEmpty()) {
+            return;
+        }
 
         final TransactionType transaction = event.getRequest();
 
         for (String tileLayerName : affectedTileLayers) {
-            addLayerDirtyRegion(transaction, tileLayerName, affectedBounds);
+            addLayerDirtyRegion(transaction, tileLayerName, dirtyRegion);
+        }
+    }
+
+    /**
+     * Collects the geometries of the affected features, or their envelope if there are too many
+     */
+    private DirtyRegion getDirtyRegion(final SimpleFeatureCollection affectedFeatures) {
+        CoordinateReferenceSystem crs = null;
+        if (affectedFeatures.getSchema() != null) {
+            crs = affectedFeatures.getSchema().getCoordinateReferenceSystem();
+        }
+
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        SimpleFeatureIterator features = affectedFeatures.features();
+        try {
+            collect: while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                // all of them, styles may use any geometry attribute
+                for (Object value : feature.getAttributes()) {
+                    if (value instanceof Geometry && !((Geometry) value).isEmpty()) {
+                        geometries.add((Geometry) value);
+                        if (geometries.size() > MAX_TRACKED_GEOMETRIES) {
+                            geometries = null;
+                            break collect;
+                        }
+                    }
+                }
+            }
+        } finally {
+            features.close();
+        }
+
+        if (geometries == null) {
+            ReferencedEnvelope bounds = affectedFeatures.getBounds();
+            if (bounds.getCoordinateReferenceSystem() != null) {
+                crs = bounds.getCoordinateReferenceSystem();
+            }
+            Geometry envelope = JTS.toGeometry((Envelope) bounds);
+            geometries = Collections.singletonList(envelope);
         }
+        return new DirtyRegion(crs, geometries);
     }
 
     @SuppressWarnings("unchecked")
-    private Map<String, List<ReferencedEnvelope>> getByLayerDirtyRegions(
+    private Map<String, List<DirtyRegion>> getByLayerDirtyRegions(
             final TransactionType transaction) {
 
         final Map<Object, Object> extendedProperties = transaction.getExtendedProperties();
-        Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions;
-        byLayerDirtyRegions = (Map<String, List<ReferencedEnvelope>>) extendedProperties
+        Map<String, List<DirtyRegion>> byLayerDirtyRegions;
+        byLayerDirtyRegions = (Map<String, List<DirtyRegion>>) extendedProperties
                 .get(GWC_TRANSACTION_INFO_PLACEHOLDER);
         if (byLayerDirtyRegions == null) {
-            byLayerDirtyRegions = new HashMap<String, List<ReferencedEnvelope>>();
+            byLayerDirtyRegions = new HashMap<String, List<DirtyRegion>>();
             extendedProperties.put(GWC_TRANSACTION_INFO_PLACEHOLDER, byLayerDirtyRegions);
         }
         return byLayerDirtyRegions;
     }
 
     private void addLayerDirtyRegion(final TransactionType transaction, final String tileLayerName,
-            final ReferencedEnvelope affectedBounds) {
+            final DirtyRegion dirtyRegion) {
 
-        Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
+        Map<String, List<DirtyRegion>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
 
-        List<ReferencedEnvelope> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
+        List<DirtyRegion> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
         if (layerDirtyRegion == null) {
-            layerDirtyRegion = new ArrayList<ReferencedEnvelope>(2);
+            layerDirtyRegion = new ArrayList<DirtyRegion>(2);
             byLayerDirtyRegions.put(tileLayerName, layerDirtyRegion);
         }
-        layerDirtyRegion.add(affectedBounds);
+        layerDirtyRegion.add(dirtyRegion);
     }
 }
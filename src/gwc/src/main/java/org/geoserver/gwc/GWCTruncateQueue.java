@@ -0,0 +1,575 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.SRS;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.StorageException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Truncates the tiles affected by the transactions in a background thread, and optionally seeds
+ * them again at a limited rate.
+ * <p>
+ * The affected tiles are computed for each {@link DirtyRegion} geometry, grid set and zoom level,
+ * testing the geometry against each tile, and truncated as a set of tile ranges, so that edits far
+ * apart don't wipe out the tiles in between. Once a zoom level gets more than
+ * {@link #getMaxTilesPerLevel() maxTilesPerLevel} affected tiles the geometries envelopes are
+ * truncated instead, for that and the higher zoom levels.
+ * </p>
+ * <p>
+ * Strokes, point symbols and labels are drawn beyond the geometries, so the tiles within
+ * {@link #getBufferPixels() bufferPixels}, or the layer meta tiling gutter if larger, are
+ * truncated as well. A larger buffer wipes out more tiles for each edit, a smaller one can leave
+ * stale fragments of the symbols in the neighbour tiles.
+ * </p>
+ * <p>
+ * Truncations run one at a time in a single background thread. If more than
+ * {@link #QUEUE_CAPACITY} are pending the transaction thread runs its own, slowing down the
+ * writers rather than losing track of the dirty tiles. Setting the
+ * {@code org.geoserver.gwc.truncate.sync} system property runs them in the transaction thread,
+ * for clients that need the very next tile request to reflect the changes.
+ * </p>
+ * <p>
+ * Re-seeding is disabled by default. Setting {@code org.geoserver.gwc.reseed.rate} to a positive
+ * number of tiles per second renders the truncated tiles again in the background, for all the
+ * cached styles and formats, lower zoom levels first, up to {@link #RESEED_CAPACITY} pending tiles.
+ * </p>
+ */
+public class GWCTruncateQueue implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(GWCTruncateQueue.class);
+
+    /**
+     * Pending truncations above which the transaction threads run their own
+     */
+    static final int QUEUE_CAPACITY = 1000;
+
+    /**
+     * Pending tiles above which the truncated tiles are no longer seeded again
+     */
+    static final int RESEED_CAPACITY = Integer.getInteger("org.geoserver.gwc.reseed.capacity",
+            10000);
+
+    /**
+     * Default distance in pixels around the geometries whose tiles are truncated as well
+     */
+    static final int DEFAULT_BUFFER_PIXELS = 64;
+
+    private final GWC gwc;
+
+    private volatile boolean synchronous = Boolean.getBoolean("org.geoserver.gwc.truncate.sync");
+
+    private volatile int maxTilesPerLevel = Integer.getInteger(
+            "org.geoserver.gwc.truncate.maxTilesPerLevel", 4096);
+
+    private volatile int bufferPixels = Integer.getInteger("org.geoserver.gwc.truncate.buffer",
+            DEFAULT_BUFFER_PIXELS);
+
+    private volatile int reseedRate = Integer.getInteger("org.geoserver.gwc.reseed.rate", 0);
+
+    private final BlockingQueue<ReseedTile> reseedQueue = new LinkedBlockingQueue<ReseedTile>(
+            RESEED_CAPACITY);
+
+    private ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService reseeder;
+
+    public GWCTruncateQueue(final GWC gwc) {
+        this.gwc = gwc;
+    }
+
+    /**
+     * Truncates, and possibly seeds again, the tiles of the layer touched by the given regions
+     */
+    public void truncate(final String layerName, final List<DirtyRegion> regions) {
+        Runnable truncation = new Runnable() {
+            public void run() {
+                try {
+                    truncateInternal(layerName, regions);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error truncating tile layer " + layerName, e);
+                }
+            }
+        };
+        if (synchronous) {
+            truncation.run();
+        } else {
+            getExecutor().execute(truncation);
+        }
+    }
+
+    void truncateInternal(final String layerName, final List<DirtyRegion> regions) {
+        final TileLayer layer;
+        try {
+            layer = gwc.getTileLayerByName(layerName);
+        } catch (IllegalArgumentException e) {
+            LOGGER.fine("Tile layer " + layerName + " no longer exists, nothing to truncate");
+            return;
+        }
+
+        final int buffer = getBufferPixels(layer);
+        for (String gridSetId : layer.getGridSubsets()) {
+            final GridSubset gridSubset = layer.getGridSubset(gridSetId);
+            final List<Geometry> geometries = toGridSetCrs(layerName, gridSubset, regions);
+            if (geometries.isEmpty()) {
+                continue;
+            }
+
+            AffectedTiles affected = new AffectedTiles(gridSubset, buffer, maxTilesPerLevel);
+            for (Geometry geometry : geometries) {
+                affected.add(geometry);
+            }
+            List<long[]> ranges = affected.getRanges();
+            if (ranges.isEmpty()) {
+                continue;
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Truncating " + ranges.size() + " tile ranges of " + layerName
+                        + " in grid set " + gridSetId);
+            }
+            try {
+                gwc.truncate(layerName, gridSetId, ranges);
+            } catch (StorageException e) {
+                LOGGER.log(Level.WARNING, "Error truncating tile layer " + layerName
+                        + " in grid set " + gridSetId, e);
+                continue;
+            }
+            if (reseedRate > 0) {
+                reseed(layerName, gridSetId, affected.getTiles());
+            }
+        }
+    }
+
+    /**
+     * The buffer of the layer, at least its gutter, as the meta tiles are rendered with the
+     * symbols of the geometries that far
+     */
+    private int getBufferPixels(final TileLayer layer) {
+        int buffer = bufferPixels;
+        if (layer instanceof GeoServerTileLayer) {
+            buffer = Math.max(buffer, ((GeoServerTileLayer) layer).getInfo().getGutter());
+        }
+        return buffer;
+    }
+
+    /**
+     * Transforms the regions geometries to the grid set CRS, falling back on their envelope when
+     * the geometries cannot be transformed
+     */
+    private List<Geometry> toGridSetCrs(final String layerName, final GridSubset gridSubset,
+            final List<DirtyRegion> regions) {
+        final SRS srs = gridSubset.getSRS();
+        final CoordinateReferenceSystem gridSetCrs;
+        try {
+            gridSetCrs = CRS.decode("EPSG:" + srs.getNumber(), true);
+        } catch (Exception e) {
+            LOGGER.warning("Can't truncate layer " + layerName + ": can't decode SRS EPSG:"
+                    + srs.getNumber());
+            return Collections.emptyList();
+        }
+
+        List<Geometry> result = new ArrayList<Geometry>();
+        CoordinateReferenceSystem declaredCrs = null;
+        for (DirtyRegion region : regions) {
+            CoordinateReferenceSystem crs = region.getCrs();
+            if (crs == null) {
+                if (declaredCrs == null) {
+                    declaredCrs = gwc.getDeclaredCrs(layerName);
+                }
+                crs = declaredCrs;
+            }
+            List<Geometry> transformed = new ArrayList<Geometry>(region.getGeometries().size());
+            try {
+                MathTransform mt = CRS.findMathTransform(crs, gridSetCrs, true);
+                for (Geometry geometry : region.getGeometries()) {
+                    transformed.add(mt.isIdentity() ? geometry : JTS.transform(geometry, mt));
+                }
+            } catch (Exception e) {
+                // e.g. geometries outside of the grid set CRS domain of validity
+                transformed.clear();
+                try {
+                    ReferencedEnvelope bounds = new ReferencedEnvelope(region.getBounds(), crs);
+                    transformed.add(JTS.toGeometry((Envelope) bounds.transform(gridSetCrs, true)));
+                } catch (Exception e2) {
+                    LOGGER.warning("Can't truncate layer " + layerName
+                            + ": error transforming the affected area to grid set "
+                            + gridSubset.getName() + ": " + e2.getMessage());
+                }
+            }
+            result.addAll(transformed);
+        }
+        return result;
+    }
+
+    private void reseed(final String layerName, final String gridSetId, final List<long[]> tiles) {
+        for (long[] tile : tiles) {
+            if (!reseedQueue.offer(new ReseedTile(layerName, gridSetId, tile))) {
+                LOGGER.fine("Reseed queue full, the remaining truncated tiles of " + layerName
+                        + " will be rendered on demand");
+                break;
+            }
+        }
+        startReseeder();
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactoryBuilder()
+                            .setNameFormat("GWC truncate queue").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return executor;
+    }
+
+    private synchronized void startReseeder() {
+        if (reseeder != null) {
+            return;
+        }
+        reseeder = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("GWC reseed queue").setDaemon(true).build());
+        reseeder.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for (int i = 0; i < reseedRate; i++) {
+                    ReseedTile tile = reseedQueue.poll();
+                    if (tile == null) {
+                        break;
+                    }
+                    try {
+                        gwc.seedTile(tile.layerName, tile.gridSetId, tile.index);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINE, "Error seeding again truncated tile of "
+                                + tile.layerName, e);
+                    }
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits for the pending truncations to complete, and drops the pending tiles to seed
+     */
+    public void destroy() throws Exception {
+        ThreadPoolExecutor executor;
+        ScheduledExecutorService reseeder;
+        synchronized (this) {
+            executor = this.executor;
+            reseeder = this.reseeder;
+        }
+        if (reseeder != null) {
+            reseeder.shutdownNow();
+        }
+        reseedQueue.clear();
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                LOGGER.warning("Pending truncations dropped, the cache may contain stale tiles");
+            }
+        }
+    }
+
+    public boolean isSynchronous() {
+        return synchronous;
+    }
+
+    public void setSynchronous(boolean synchronous) {
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * The number of affected tiles in a zoom level above which the geometries envelopes are
+     * truncated instead
+     */
+    public int getMaxTilesPerLevel() {
+        return maxTilesPerLevel;
+    }
+
+    public void setMaxTilesPerLevel(int maxTilesPerLevel) {
+        this.maxTilesPerLevel = maxTilesPerLevel;
+    }
+
+    /**
+     * The distance in pixels around the geometries whose tiles are truncated as well, to account
+     * for symbols and labels, {@value #DEFAULT_BUFFER_PIXELS} by default
+     */
+    public int getBufferPixels() {
+        return bufferPixels;
+    }
+
+    public void setBufferPixels(int bufferPixels) {
+        this.bufferPixels = bufferPixels;
+    }
+
+    /**
+     * The number of truncated tiles seeded again each second, zero to disable re-seeding
+     */
+    public int getReseedRate() {
+        return reseedRate;
+    }
+
+    public void setReseedRate(int reseedRate) {
+        this.reseedRate = reseedRate;
+    }
+
+    /**
+     * The tiles of a grid subset touched by a set of geometries, by zoom level
+     */
+    static class AffectedTiles {
+
+        private final GridSubset gridSubset;
+
+        private final int zoomStart;
+
+        private final double bufferPixels;
+
+        private final int maxTiles;
+
+        /**
+         * The affected tiles of each level, keyed by row and then column, {@code null} once they
+         * are too many
+         */
+        private final TreeSet<Long>[] tiles;
+
+        /**
+         * The tile ranges of the geometries envelopes, for the levels with too many tiles
+         */
+        private final List<long[]>[] envelopes;
+
+        @SuppressWarnings("unchecked")
+        AffectedTiles(GridSubset gridSubset, double bufferPixels, int maxTiles) {
+            this.gridSubset = gridSubset;
+            this.zoomStart = gridSubset.getZoomStart();
+            this.bufferPixels = bufferPixels;
+            this.maxTiles = maxTiles;
+            int levels = gridSubset.getZoomStop() - zoomStart + 1;
+            this.tiles = new TreeSet[levels];
+            this.envelopes = new List[levels];
+            for (int i = 0; i < levels; i++) {
+                tiles[i] = new TreeSet<Long>();
+                envelopes[i] = new ArrayList<long[]>();
+            }
+        }
+
+        void add(final Geometry geometry) {
+            if (geometry == null || geometry.isEmpty()) {
+                return;
+            }
+            final Envelope envelope = geometry.getEnvelopeInternal();
+            PreparedGeometry prepared = null;
+            for (int level = 0; level < tiles.length; level++) {
+                final int z = zoomStart + level;
+                // plus half a pixel, antialiasing bleeds over the tile edges
+                final double buffer = (bufferPixels + 0.5) * getResolution(z);
+                final Envelope buffered = new Envelope(envelope);
+                buffered.expandBy(buffer);
+                final long[] coverage = getCoverage(buffered, z);
+                if (coverage == null) {
+                    // outside of the grid subset
+                    return;
+                }
+                if (tiles[level] != null) {
+                    long count = (coverage[2] - coverage[0] + 1) * (coverage[3] - coverage[1] + 1);
+                    if (tiles[level].size() + count <= maxTiles) {
+                        if (prepared == null) {
+                            prepared = PreparedGeometryFactory.prepare(geometry);
+                        }
+                        addTiles(prepared, coverage, buffer, level);
+                        continue;
+                    }
+                    // too many, the higher levels will have even more
+                    overflow(level);
+                }
+                envelopes[level].add(coverage.clone());
+            }
+        }
+
+        private void addTiles(PreparedGeometry prepared, long[] coverage, double buffer,
+                int level) {
+            final TreeSet<Long> levelTiles = tiles[level];
+            final long z = zoomStart + level;
+            for (long y = coverage[1]; y <= coverage[3]; y++) {
+                for (long x = coverage[0]; x <= coverage[2]; x++) {
+                    Long key = key(x, y);
+                    if (levelTiles.contains(key)) {
+                        continue;
+                    }
+                    BoundingBox bounds = gridSubset.boundsFromIndex(new long[] { x, y, z });
+                    Envelope tile = new Envelope(bounds.getMinX(), bounds.getMaxX(),
+                            bounds.getMinY(), bounds.getMaxY());
+                    tile.expandBy(buffer);
+                    if (prepared.intersects(JTS.toGeometry(tile))) {
+                        levelTiles.add(key);
+                    }
+                }
+            }
+        }
+
+        private void overflow(int level) {
+            for (int i = level; i < tiles.length; i++) {
+                if (tiles[i] != null) {
+                    envelopes[i].addAll(toRanges(tiles[i], zoomStart + i));
+                    tiles[i] = null;
+                }
+            }
+        }
+
+        private double getResolution(int z) {
+            BoundingBox bounds = gridSubset.boundsFromIndex(new long[] { 0, 0, z });
+            return bounds.getWidth() / gridSubset.getTileWidth();
+        }
+
+        /**
+         * @return the <code>{minx, miny, maxx, maxy, z}</code> tiles covering the envelope, or
+         *         {@code null} if it does not intersect the grid subset
+         */
+        private long[] getCoverage(Envelope envelope, int z) {
+            final BoundingBox extent = gridSubset.getOriginalExtent();
+            final BoundingBox bounds = new BoundingBox(envelope.getMinX(), envelope.getMinY(),
+                    envelope.getMaxX(), envelope.getMaxY());
+            if (!extent.intersects(bounds)) {
+                return null;
+            }
+            long[] coverage = gridSubset.getCoverageIntersection(z,
+                    BoundingBox.intersection(extent, bounds));
+            if (coverage[0] > coverage[2] || coverage[1] > coverage[3]) {
+                return null;
+            }
+            return coverage;
+        }
+
+        /**
+         * @return the tile ranges to truncate, as <code>{minx, miny, maxx, maxy, z}</code> arrays
+         */
+        List<long[]> getRanges() {
+            List<long[]> ranges = new ArrayList<long[]>();
+            for (int level = 0; level < tiles.length; level++) {
+                ranges.addAll(envelopes[level]);
+                if (tiles[level] != null) {
+                    ranges.addAll(toRanges(tiles[level], zoomStart + level));
+                }
+            }
+            return ranges;
+        }
+
+        /**
+         * @return the affected <code>{x, y, z}</code> tiles of the levels that did not fall back
+         *         on the envelopes, lower zoom levels first
+         */
+        List<long[]> getTiles() {
+            List<long[]> result = new ArrayList<long[]>();
+            for (int level = 0; level < tiles.length; level++) {
+                if (tiles[level] == null) {
+                    break;
+                }
+                for (Long key : tiles[level]) {
+                    result.add(new long[] { x(key), y(key), zoomStart + level });
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Packs the tiles in the smallest number of ranges it can find quickly: runs of adjacent
+         * tiles in a row, merged with the runs spanning the same columns in the previous row
+         */
+        static List<long[]> toRanges(TreeSet<Long> tiles, int z) {
+            List<long[]> ranges = new ArrayList<long[]>();
+            // the last range started at each column
+            Map<Long, long[]> byStart = new HashMap<Long, long[]>();
+            long runY = -1;
+            long runStart = -1;
+            long runEnd = -1;
+            for (Long key : tiles) {
+                long x = x(key);
+                long y = y(key);
+                if (y == runY && x == runEnd + 1) {
+                    runEnd = x;
+                    continue;
+                }
+                if (runY >= 0) {
+                    addRun(ranges, byStart, runStart, runEnd, runY, z);
+                }
+                runY = y;
+                runStart = runEnd = x;
+            }
+            if (runY >= 0) {
+                addRun(ranges, byStart, runStart, runEnd, runY, z);
+            }
+            return ranges;
+        }
+
+        private static void addRun(List<long[]> ranges, Map<Long, long[]> byStart, long start,
+                long end, long y, int z) {
+            long[] previous = byStart.get(start);
+            if (previous != null && previous[2] == end && previous[3] == y - 1) {
+                previous[3] = y;
+            } else {
+                long[] range = new long[] { start, y, end, y, z };
+                ranges.add(range);
+                byStart.put(start, range);
+            }
+        }
+
+        static Long key(long x, long y) {
+            return Long.valueOf((y << 32) | x);
+        }
+
+        static long x(long key) {
+            return key & 0xFFFFFFFFL;
+        }
+
+        static long y(long key) {
+            return key >>> 32;
+        }
+    }
+
+    /**
+     * A truncated tile waiting to be seeded again
+     */
+    static class ReseedTile {
+        final String layerName;
+
+        final String gridSetId;
+
+        final long[] index;
+
+        ReseedTile(String layerName, String gridSetId, long[] index) {
+            this.layerName = layerName;
+            this.gridSetId = gridSetId;
+            this.index = index;
+        }
+    }
+}
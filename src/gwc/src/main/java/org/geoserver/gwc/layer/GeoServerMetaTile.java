@@ -18,7 +18,9 @@ import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
 
 import org.geoserver.gwc.GWC;
+import org.geoserver.jai.RasterBufferPool.PooledImage;
 import org.geoserver.ows.Response;
+import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
@@ -199,10 +201,18 @@ public class GeoServerMetaTile extends MetaTile {
 
     @Override
     public void dispose() {
+        // the drawing surface might be wrapped in a JAI chain, e.g. with a custom palette,
+        // look for it before the chain gets disposed
+        PooledImage canvas = null;
         if (metaTileMap != null) {
+            canvas = RasterCleaner.getPooledImage(metaTileMap.getImage());
             metaTileMap.dispose();
             metaTileMap = null;
         }
         super.dispose();
+        // all the tiles have been encoded, the drawing surface can go back to its pool
+        if (canvas != null) {
+            canvas.release();
+        }
     }
 }
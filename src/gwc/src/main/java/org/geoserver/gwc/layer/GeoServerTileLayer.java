@@ -19,6 +19,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,10 +36,12 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.gwc.FakeHttpServletResponse;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
+import org.geoserver.gwc.layer.HotTileCache.CachedTile;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.MetaTileCoalescer;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
@@ -46,6 +49,7 @@ import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.config.XMLGridSubset;
+import org.geowebcache.conveyor.Conveyor.CacheResult;
 import org.geowebcache.conveyor.ConveyorTile;
 import org.geowebcache.filter.parameters.ParameterException;
 import org.geowebcache.filter.parameters.ParameterFilter;
@@ -72,6 +76,8 @@ import org.geowebcache.locks.LockProvider.Lock;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
 import org.geowebcache.util.GWCVars;
 import org.geowebcache.util.ServletUtils;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -487,7 +493,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
     }
 
-    private ConveyorTile getMetatilingReponse(ConveyorTile tile, final boolean tryCache,
+    private ConveyorTile getMetatilingReponse(final ConveyorTile tile, final boolean tryCache,
             final int metaX, final int metaY) throws GeoWebCacheException, IOException {
 
         final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
@@ -499,39 +505,200 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
+        final String metaKey = buildLockKey(tile, metaTile);
+        try {
+            final MetaTileCoalescer coalescer = GWC.get().getMetaTileCoalescer();
+            if (coalescer == null) {
+                renderMetaTile(tile, metaTile, metaKey, tryCache);
+            } else {
+                // concurrent requests for the same meta tile, whatever service they come from,
+                // share the rendering of the first one
+                RenderedMetaTile rendered;
+                try {
+                    rendered = coalescer.render(metaKey, new Callable<RenderedMetaTile>() {
+                        public RenderedMetaTile call() throws Exception {
+                            return renderMetaTile(tile, metaTile, metaKey, tryCache);
+                        }
+                    });
+                } catch (GeoWebCacheException e) {
+                    throw e;
+                } catch (IOException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new GeoWebCacheException(e);
+                }
+                if (rendered.tile != tile && !rendered.fanOut(tile)) {
+                    // the meta tile came from the cache, or this tile was not encoded
+                    if (!(tryCache && tryCacheFetch(tile))) {
+                        renderMetaTile(tile, metaTile, metaKey, tryCache);
+                    }
+                }
+            }
+        } finally {
+            metaTile.dispose();
+        }
+
+        return finalizeTile(tile);
+    }
+
+    /**
+     * Renders and stores the meta tile, unless the tile got cached while waiting on the meta tile
+     * lock
+     */
+    private RenderedMetaTile renderMetaTile(final ConveyorTile tile,
+            final GeoServerMetaTile metaTile, final String metaKey, final boolean tryCache)
+            throws GeoWebCacheException {
         Lock lock = null;
         try {
             /** ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
+            lock = GWC.get().getLockProvider().getLock(metaKey);
             // got the lock on the meta tile, try again
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest("--> " + Thread.currentThread().getName() + " returns cache hit for "
                         + Arrays.toString(metaTile.getMetaGridPos()));
-            } else {
-                LOGGER.finer("--> " + Thread.currentThread().getName()
-                        + " submitting getMap request for meta grid location "
-                        + Arrays.toString(metaTile.getMetaGridPos()) + " on " + metaTile);
-                RenderedImageMap map;
-                try {
-                    long requestTime = System.currentTimeMillis();
-                    map = dispatchGetMap(tile, metaTile);
-                    checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
-                    metaTile.setWebMap(map);
-                    saveTiles(metaTile, tile, requestTime);
-                } catch (Exception e) {
-                    throw new GeoWebCacheException("Problem communicating with GeoServer", e);
-                } 
+                return new RenderedMetaTile(tile, null, null, 0);
+            }
+            LOGGER.finer("--> " + Thread.currentThread().getName()
+                    + " submitting getMap request for meta grid location "
+                    + Arrays.toString(metaTile.getMetaGridPos()) + " on " + metaTile);
+            try {
+                long requestTime = System.currentTimeMillis();
+                RenderedImageMap map = dispatchGetMap(tile, metaTile);
+                checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
+                metaTile.setWebMap(map);
+                RenderedMetaTile rendered = encodeTiles(metaTile, tile, requestTime);
+                final HotTileCache hotTileCache = getHotTileCache(tile);
+                if (hotTileCache != null && rendered.stored) {
+                    // grab the epoch after storing, overwriting the tiles bumps it and the
+                    // memory tier would otherwise never keep a re-rendered meta tile
+                    final long epoch = hotTileCache.getEpoch(tile.getLayerId(),
+                            tile.getGridSetId());
+                    for (int i = 0; i < rendered.positions.length; i++) {
+                        if (rendered.contents[i] != null) {
+                            hotTileCache.put(hotTileKey(tile, rendered.positions[i]),
+                                    new ByteArrayResource(rendered.contents[i]), requestTime,
+                                    epoch);
+                        }
+                    }
+                }
+                return rendered;
+            } catch (Exception e) {
+                throw new GeoWebCacheException("Problem communicating with GeoServer", e);
             }
             /** ****************** Return lock and response ****** */
         } finally {
-            if(lock != null) {
+            if (lock != null) {
                 lock.release();
             }
-            metaTile.dispose();
         }
+    }
 
+    /**
+     * Encodes and stores the tiles of the meta tile the same way
+     * {@link TileLayer#saveTiles(MetaTile, ConveyorTile, long)} does, but keeps the encoded tiles
+     * around so that they can be handed to the requests waiting on the same meta tile, and to the
+     * in memory tile cache. When the tiles are not stored only the requested one is encoded.
+     */
+    private RenderedMetaTile encodeTiles(GeoServerMetaTile metaTile, ConveyorTile tileProto,
+            long requestTime) throws GeoWebCacheException {
+        final long[][] gridPositions = metaTile.getTilesGridPositions();
+        final long[] gridLoc = tileProto.getTileIndex();
+        final GridSubset gridSubset = getGridSubset(tileProto.getGridSetId());
+        final boolean store = getExpireCache((int) gridLoc[2]) != GWCVars.CACHE_DISABLE_CACHE;
+
+        final byte[][] contents = new byte[gridPositions.length][];
+        for (int i = 0; i < gridPositions.length; i++) {
+            final long[] gridPos = gridPositions[i];
+            final boolean requested = Arrays.equals(gridLoc, gridPos);
+            if (!(requested || store) || !gridSubset.covers(gridPos)) {
+                continue;
+            }
+            ByteArrayResource resource = new ByteArrayResource();
+            try {
+                if (!metaTile.writeTileToStream(i, resource)) {
+                    LOGGER.severe("metaTile.writeTileToStream returned false, no tiles saved");
+                    continue;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to write image tile to ByteArrayOutputStream", e);
+                continue;
+            }
+            contents[i] = resource.getContents();
+            if (requested) {
+                tileProto.setBlob(resource);
+            }
+            if (store) {
+                TileObject tile = TileObject.createCompleteTileObject(getName(), gridPos,
+                        gridSubset.getName(), tileProto.getMimeType().getFormat(),
+                        tileProto.getParameters(), resource);
+                tile.setCreated(requestTime);
+                try {
+                    if (tileProto.isMetaTileCacheOnly()) {
+                        tileProto.getStorageBroker().putTransient(tile);
+                    } else {
+                        tileProto.getStorageBroker().put(tile);
+                    }
+                    tileProto.getStorageObject().setCreated(requestTime);
+                } catch (StorageException e) {
+                    throw new GeoWebCacheException(e);
+                }
+            }
+        }
+        RenderedMetaTile rendered = new RenderedMetaTile(tileProto, gridPositions, contents,
+                requestTime);
+        rendered.stored = store;
+        return rendered;
+    }
 
-        return finalizeTile(tile);
+    /**
+     * The encoded tiles of a meta tile, shared by all the requests waiting on its rendering
+     */
+    private static class RenderedMetaTile {
+
+        /**
+         * The tile request that rendered the meta tile
+         */
+        final ConveyorTile tile;
+
+        final long[][] positions;
+
+        /**
+         * The encoded tiles, or {@code null} if the meta tile was found in the cache
+         */
+        final byte[][] contents;
+
+        final long created;
+
+        boolean stored;
+
+        RenderedMetaTile(ConveyorTile tile, long[][] positions, byte[][] contents, long created) {
+            this.tile = tile;
+            this.positions = positions;
+            this.contents = contents;
+            this.created = created;
+        }
+
+        /**
+         * Hands the encoded tile to another request for the same meta tile
+         *
+         * @return {@code false} if the requested tile was not encoded
+         */
+        boolean fanOut(ConveyorTile request) {
+            if (contents == null) {
+                return false;
+            }
+            for (int i = 0; i < positions.length; i++) {
+                if (contents[i] != null && Arrays.equals(positions[i], request.getTileIndex())) {
+                    request.getStorageObject().setCreated(created);
+                    request.setBlob(new ByteArrayResource(contents[i]));
+                    request.setCacheResult(CacheResult.MISS);
+                    return true;
+                }
+            }
+            return false;
+        }
     }
     
     private String buildLockKey(ConveyorTile tile, GeoServerMetaTile metaTile) {
@@ -638,8 +805,28 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
     private boolean tryCacheFetch(ConveyorTile tile) {
         int expireCache = this.getExpireCache((int) tile.getTileIndex()[2]);
         if (expireCache != GWCVars.CACHE_DISABLE_CACHE) {
+            final long maxAge = expireCache * 1000L;
+            final HotTileCache hotTileCache = getHotTileCache(tile);
+            HotTileCache.TileKey key = null;
+            long epoch = 0;
+            if (hotTileCache != null) {
+                key = hotTileKey(tile);
+                CachedTile cached = hotTileCache.get(key, maxAge);
+                if (cached != null) {
+                    tile.getStorageObject().setCreated(cached.getCreated());
+                    tile.setBlob(new ByteArrayResource(cached.getContents()));
+                    tile.setCacheResult(CacheResult.HIT);
+                    return true;
+                }
+                epoch = hotTileCache.getEpoch(tile.getLayerId(), tile.getGridSetId());
+            }
             try {
-                return tile.retrieve(expireCache * 1000L);
+                boolean found = tile.retrieve(maxAge);
+                if (found && hotTileCache != null) {
+                    hotTileCache.put(key, tile.getBlob(), tile.getStorageObject().getCreated(),
+                            epoch);
+                }
+                return found;
             } catch (GeoWebCacheException gwce) {
                 LOGGER.info(gwce.getMessage());
                 tile.setErrorMsg(gwce.getMessage());
@@ -649,6 +836,27 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return false;
     }
 
+    /**
+     * @return the in memory tile cache, or {@code null} if disabled or the tile is not meant to be
+     *         cached
+     */
+    private HotTileCache getHotTileCache(ConveyorTile tile) {
+        if (tile.isMetaTileCacheOnly()) {
+            return null;
+        }
+        HotTileCache hotTileCache = GWC.get().getHotTileCache();
+        return hotTileCache != null && hotTileCache.isEnabled() ? hotTileCache : null;
+    }
+
+    private HotTileCache.TileKey hotTileKey(ConveyorTile tile) {
+        return hotTileKey(tile, tile.getTileIndex());
+    }
+
+    private HotTileCache.TileKey hotTileKey(ConveyorTile tile, long[] index) {
+        return new HotTileCache.TileKey(tile.getLayerId(), tile.getGridSetId(), index[0],
+                index[1], (int) index[2], tile.getMimeType().getFormat(), tile.getParametersId());
+    }
+
     private ConveyorTile finalizeTile(ConveyorTile tile) {
         if (tile.getStatus() == 0 && !tile.getError()) {
             tile.setStatus(200);
@@ -0,0 +1,493 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.StorageBroker;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * A memory bound tier in front of the GWC blob store, keeping the most recently used tiles of the
+ * {@link GeoServerTileLayer}s so that they can be served without touching the disk.
+ * <p>
+ * The tiles get in the cache when they are rendered and when they are read from the blob store.
+ * The cache listens to the blob store events, and drops the tiles as soon as they are deleted or
+ * overwritten, be it by a truncation, a seeding task or the disk quota. A tile read from the blob
+ * store is not cached if any tile of the same layer and grid set was deleted or overwritten while
+ * it was being read, so a concurrent truncation cannot leave a stale copy in memory.
+ * </p>
+ * <p>
+ * The capacity is set by the {@code org.geoserver.gwc.hotTileCache.capacity} system property, in
+ * bytes, zero disables the cache. By default the tile contents are kept in the heap, setting
+ * {@code org.geoserver.gwc.hotTileCache.offHeap} keeps them in direct buffers instead.
+ * </p>
+ */
+public class HotTileCache implements BlobStoreListener {
+
+    static final Logger LOGGER = Logging.getLogger(HotTileCache.class);
+
+    /**
+     * The memory taken by each entry besides the tile contents
+     */
+    static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Tiles bigger than this fraction of the capacity are never cached
+     */
+    static final int MAX_TILE_FRACTION = 64;
+
+    static final long DEFAULT_CAPACITY = Math.min(64 * 1024 * 1024, Runtime.getRuntime()
+            .maxMemory() / 16);
+
+    volatile Cache<TileKey, CachedTile> cache;
+
+    volatile long memoryCapacity;
+
+    volatile boolean offHeap;
+
+    /**
+     * Incremented each time all the tiles are dropped
+     */
+    final AtomicLong epoch = new AtomicLong();
+
+    /**
+     * The epochs of each layer, never removed so that they don't go back in time, they are as
+     * many as the layers and grid sets
+     */
+    final ConcurrentHashMap<String, LayerEpoch> layerEpochs =
+            new ConcurrentHashMap<String, LayerEpoch>();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong bytesServed = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    final AtomicLong invalidations = new AtomicLong();
+
+    final AtomicLong memoryUsed = new AtomicLong();
+
+    public HotTileCache(final StorageBroker storageBroker) {
+        this(Long.getLong("org.geoserver.gwc.hotTileCache.capacity", DEFAULT_CAPACITY), Boolean
+                .getBoolean("org.geoserver.gwc.hotTileCache.offHeap"));
+        storageBroker.addBlobStoreListener(this);
+    }
+
+    HotTileCache(long memoryCapacity, boolean offHeap) {
+        this.memoryCapacity = memoryCapacity;
+        this.offHeap = offHeap;
+        this.cache = buildCache(memoryCapacity);
+    }
+
+    Cache<TileKey, CachedTile> buildCache(long capacity) {
+        return CacheBuilder.newBuilder().maximumWeight(Math.max(capacity, 1))
+                .weigher(new Weigher<TileKey, CachedTile>() {
+                    public int weigh(TileKey key, CachedTile value) {
+                        return value.weight();
+                    }
+                }).removalListener(new RemovalListener<TileKey, CachedTile>() {
+                    public void onRemoval(RemovalNotification<TileKey, CachedTile> notification) {
+                        memoryUsed.addAndGet(-notification.getValue().weight());
+                        if (notification.wasEvicted()) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                }).build();
+    }
+
+    public boolean isEnabled() {
+        return memoryCapacity > 0;
+    }
+
+    /**
+     * Returns the cached tile contents, or {@code null} if the tile is not cached or older than
+     * the given age
+     *
+     * @param maxAge
+     *            the maximum age of the tile in milliseconds, zero or less for no limit
+     */
+    public CachedTile get(final TileKey key, final long maxAge) {
+        CachedTile tile = cache.getIfPresent(key);
+        if (tile != null && maxAge > 0 && tile.created + maxAge < System.currentTimeMillis()) {
+            cache.invalidate(key);
+            tile = null;
+        }
+        if (tile == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesServed.addAndGet(tile.size);
+        return tile;
+    }
+
+    /**
+     * The current epoch of a layer and grid set, to be grabbed before reading a tile that is
+     * going to be {@link #put cached} afterwards, or right after storing a rendered one, as
+     * storing it fires the very updates that bump the epoch. It changes each time a tile of the
+     * same layer and grid set is deleted or overwritten.
+     */
+    public long getEpoch(final String layerName, final String gridSetId) {
+        LayerEpoch layerEpoch = layerEpoch(layerName);
+        // each counter only grows, and each invalidation bumps one of them
+        return epoch.get() + layerEpoch.layer.get() + layerEpoch.gridSet(gridSetId).get();
+    }
+
+    LayerEpoch layerEpoch(String layerName) {
+        LayerEpoch layerEpoch = layerEpochs.get(layerName);
+        if (layerEpoch == null) {
+            layerEpoch = new LayerEpoch();
+            LayerEpoch existing = layerEpochs.putIfAbsent(layerName, layerEpoch);
+            if (existing != null) {
+                layerEpoch = existing;
+            }
+        }
+        return layerEpoch;
+    }
+
+    /**
+     * Caches a tile, unless a tile of the same layer and grid set got deleted or overwritten in
+     * the blob store since the given epoch, as the contents might be stale
+     *
+     * @param epoch
+     *            the {@link #getEpoch(String, String) epoch} before the tile contents were read,
+     *            or after the rendered ones were stored
+     * @param created
+     *            the tile creation time
+     */
+    public void put(final TileKey key, final Resource blob, final long created, final long epoch) {
+        if (!isEnabled() || blob == null || blob.getSize() <= 0
+                || blob.getSize() > memoryCapacity / MAX_TILE_FRACTION) {
+            return;
+        }
+        final byte[] contents;
+        try {
+            contents = getContents(blob);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not read the contents of tile " + key, e);
+            return;
+        }
+        if (getEpoch(key.layerName, key.gridSetId) != epoch) {
+            return;
+        }
+        CachedTile tile = new CachedTile(contents, created, offHeap);
+        memoryUsed.addAndGet(tile.weight());
+        cache.put(key, tile);
+        // a deletion may have slipped in between the check and the put
+        if (getEpoch(key.layerName, key.gridSetId) != epoch) {
+            cache.invalidate(key);
+        }
+    }
+
+    static byte[] getContents(Resource blob) throws IOException {
+        if (blob instanceof ByteArrayResource) {
+            return ((ByteArrayResource) blob).getContents();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) blob.getSize());
+        blob.transferTo(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Drops all the cached tiles
+     */
+    public void flush() {
+        epoch.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Sets the memory bound, dropping all the cached tiles
+     */
+    public synchronized void setMemoryCapacity(long memoryCapacity) {
+        if (memoryCapacity < 0) {
+            throw new IllegalArgumentException("Memory capacity cannot be negative: "
+                    + memoryCapacity);
+        }
+        Cache<TileKey, CachedTile> old = cache;
+        this.cache = buildCache(memoryCapacity);
+        this.memoryCapacity = memoryCapacity;
+        epoch.incrementAndGet();
+        old.invalidateAll();
+    }
+
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    /**
+     * Whether new tiles are kept in direct buffers, outside of the heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public long getTileCount() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The ratio of tile requests served from memory, between 0 and 1
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long requests = hits + misses.get();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * The total size of the tiles served from memory, in bytes
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * The number of tiles dropped because deleted or overwritten in the blob store
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    public void resetCounts() {
+        hits.set(0);
+        misses.set(0);
+        bytesServed.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    // BlobStoreListener
+    public void tileStored(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize) {
+        // a new tile, the cache can only hold it if put right after rendering
+    }
+
+    public void tileDeleted(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize) {
+        invalidate(new TileKey(layerName, gridSetId, x, y, z, blobFormat, parametersId));
+    }
+
+    public void tileUpdated(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize, long oldSize) {
+        invalidate(new TileKey(layerName, gridSetId, x, y, z, blobFormat, parametersId));
+    }
+
+    public void layerDeleted(String layerName) {
+        invalidate(layerName, null);
+    }
+
+    public void layerRenamed(String oldLayerName, String newLayerName) {
+        invalidate(oldLayerName, null);
+    }
+
+    public void gridSubsetDeleted(String layerName, String gridSetId) {
+        invalidate(layerName, gridSetId);
+    }
+
+    void invalidate(TileKey key) {
+        layerEpoch(key.layerName).gridSet(key.gridSetId).incrementAndGet();
+        if (cache.asMap().remove(key) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the tiles of a layer, and grid set if not {@code null}
+     */
+    void invalidate(String layerName, String gridSetId) {
+        LayerEpoch layerEpoch = layerEpoch(layerName);
+        if (gridSetId == null) {
+            layerEpoch.layer.incrementAndGet();
+        } else {
+            layerEpoch.gridSet(gridSetId).incrementAndGet();
+        }
+        List<TileKey> keys = new ArrayList<TileKey>();
+        for (TileKey key : cache.asMap().keySet()) {
+            if (key.layerName.equals(layerName)
+                    && (gridSetId == null || key.gridSetId.equals(gridSetId))) {
+                keys.add(key);
+            }
+        }
+        invalidations.addAndGet(keys.size());
+        cache.invalidateAll(keys);
+    }
+
+    /**
+     * The epochs of a layer, bumped when all its tiles are dropped, and of each of its grid sets
+     */
+    static final class LayerEpoch {
+        final AtomicLong layer = new AtomicLong();
+
+        final ConcurrentHashMap<String, AtomicLong> gridSets =
+                new ConcurrentHashMap<String, AtomicLong>();
+
+        AtomicLong gridSet(String gridSetId) {
+            AtomicLong gridSet = gridSets.get(gridSetId);
+            if (gridSet == null) {
+                gridSet = new AtomicLong();
+                AtomicLong existing = gridSets.putIfAbsent(gridSetId, gridSet);
+                if (existing != null) {
+                    gridSet = existing;
+                }
+            }
+            return gridSet;
+        }
+    }
+
+    /**
+     * Identifies a tile the same way the blob store does
+     */
+    public static final class TileKey {
+        final String layerName;
+
+        final String gridSetId;
+
+        final long x;
+
+        final long y;
+
+        final int z;
+
+        final String format;
+
+        final String parametersId;
+
+        final int hash;
+
+        public TileKey(String layerName, String gridSetId, long x, long y, int z, String format,
+                String parametersId) {
+            this.layerName = layerName;
+            this.gridSetId = gridSetId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.format = format;
+            this.parametersId = parametersId;
+            this.hash = Arrays.hashCode(new Object[] { layerName, gridSetId, x, y, z, format,
+                    parametersId });
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return hash == other.hash && x == other.x && y == other.y && z == other.z
+                    && layerName.equals(other.layerName) && gridSetId.equals(other.gridSetId)
+                    && format.equals(other.format)
+                    && Objects.equal(parametersId, other.parametersId);
+        }
+
+        @Override
+        public String toString() {
+            return layerName + "/" + gridSetId + "/" + z + "/" + x + "/" + y + "/" + format
+                    + (parametersId == null ? "" : "/" + parametersId);
+        }
+    }
+
+    /**
+     * The contents of a cached tile, in the heap or in a direct buffer
+     */
+    public static final class CachedTile {
+        final byte[] contents;
+
+        final ByteBuffer buffer;
+
+        final int size;
+
+        final long created;
+
+        CachedTile(byte[] contents, long created, boolean offHeap) {
+            if (offHeap) {
+                this.buffer = ByteBuffer.allocateDirect(contents.length);
+                this.buffer.put(contents);
+                this.contents = null;
+            } else {
+                this.contents = contents;
+                this.buffer = null;
+            }
+            this.size = contents.length;
+            this.created = created;
+        }
+
+        int weight() {
+            return size + ENTRY_OVERHEAD;
+        }
+
+        /**
+         * The tile contents, a copy if the tile is kept off heap
+         */
+        public byte[] getContents() {
+            if (contents != null) {
+                return contents;
+            }
+            byte[] copy = new byte[size];
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            view.get(copy);
+            return copy;
+        }
+
+        /**
+         * The tile creation time, as stored in the blob store
+         */
+        public long getCreated() {
+            return created;
+        }
+    }
+}
@@ -7,6 +7,7 @@ package org.geoserver.gwc;
 import static org.geoserver.data.test.MockData.BASIC_POLYGONS;
 import static org.geoserver.data.test.MockData.MPOINTS;
 import static org.geoserver.gwc.GWC.tileLayerName;
+import static org.geoserver.gwc.layer.TileLayerInfoUtil.updateStringParameterFilter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -39,6 +40,7 @@ import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.gwc.layer.CatalogConfiguration;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
+import org.geoserver.jai.RasterBufferPool;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geowebcache.GeoWebCacheDispatcher;
@@ -110,6 +112,39 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals("image/png", sr.getContentType());
     }
     
+    @Test
+    public void testPalettedCanvasReleased() throws Exception {
+        String layerId = getLayerId(MockData.BASIC_POLYGONS);
+        // less than 256 colors, the meta tile canvas ends up wrapped in a JAI chain
+        GeoServerTileLayer tileLayer = (GeoServerTileLayer) GWC.get().getTileLayerByName(layerId);
+        GeoServerTileLayerInfo info = tileLayer.getInfo();
+        updateStringParameterFilter(info, "PALETTE", true, "safe", "safe");
+        updateStringParameterFilter(info, "FORMAT_OPTIONS", true, "antialias:none",
+                "antialias:none");
+        GWC.get().save(tileLayer);
+
+        RasterBufferPool pool = GeoServerExtensions.bean(RasterBufferPool.class);
+        pool.setDebug(true);
+        try {
+            long releases = pool.getReleaseCount();
+            long leaks = pool.getLeakCount();
+            MockHttpServletResponse sr = getAsServletResponse("gwc/service/wmts?request=GetTile&layer="
+                    + layerId
+                    + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=0");
+            assertEquals(200, sr.getErrorCode());
+            assertEquals("image/png", sr.getContentType());
+            assertTrue(pool.getReleaseCount() > releases);
+
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertEquals(leaks, pool.getLeakCount());
+        } finally {
+            pool.setDebug(false);
+        }
+    }
+
     @Test 
     public void testGetLegendGraphics() throws Exception {
         String layerId = getLayerId(MockData.BASIC_POLYGONS);
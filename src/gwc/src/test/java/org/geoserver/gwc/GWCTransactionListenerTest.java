@@ -4,12 +4,14 @@
  */
 package org.geoserver.gwc;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
-import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -17,6 +19,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -30,23 +34,36 @@ import net.opengis.wfs.TransactionType;
 
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.google.common.collect.ImmutableSet;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 public class GWCTransactionListenerTest {
 
     private GWC mediator;
 
+    private GWCTruncateQueue truncateQueue;
+
     private GWCTransactionListener listener;
 
     @Before
     public void setUp() throws Exception {
         mediator = mock(GWC.class);
-        listener = new GWCTransactionListener(mediator);
+        truncateQueue = mock(GWCTruncateQueue.class);
+        listener = new GWCTransactionListener(mediator, truncateQueue);
     }
 
     @Test
@@ -71,7 +88,7 @@ public class GWCTransactionListenerTest {
 
         listener.afterTransaction(request, result, committed);
 
-        verifyNoMoreInteractions(request, result, mediator);
+        verifyNoMoreInteractions(request, result, mediator, truncateQueue);
     }
 
     @Test
@@ -142,47 +159,85 @@ public class GWCTransactionListenerTest {
     public void testDataStoreChangeInsert() {
 
         Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
-        ReferencedEnvelope affectedBounds = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
+        Geometry affectedGeometry = polygon(-180, 0, 0, 90);
 
-        issueInsert(extendedProperties, affectedBounds);
+        issueInsert(extendedProperties, affectedGeometry);
 
         assertTrue(extendedProperties
                 .containsKey(GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER));
 
         @SuppressWarnings("unchecked")
-        Map<String, List<ReferencedEnvelope>> placeHolder = (Map<String, List<ReferencedEnvelope>>) extendedProperties
+        Map<String, List<DirtyRegion>> placeHolder = (Map<String, List<DirtyRegion>>) extendedProperties
                 .get(GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER);
 
         assertNotNull(placeHolder.get("theLayer"));
 
-        assertSame(affectedBounds, placeHolder.get("theLayer").get(0));
-        assertSame(affectedBounds, placeHolder.get("theGroup").get(0));
+        DirtyRegion region = placeHolder.get("theLayer").get(0);
+        assertSame(WGS84, region.getCrs());
+        assertEquals(1, region.getGeometries().size());
+        assertSame(affectedGeometry, region.getGeometries().get(0));
+        assertSame(region, placeHolder.get("theGroup").get(0));
+    }
+
+    @Test
+    public void testDataStoreChangeTooManyGeometries() {
+
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        GeometryFactory gf = new GeometryFactory();
+        Geometry[] points = new Geometry[GWCTransactionListener.MAX_TRACKED_GEOMETRIES + 1];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = gf.createPoint(new Coordinate(i * 0.01, 10));
+        }
+
+        issueInsert(extendedProperties, points);
+
+        @SuppressWarnings("unchecked")
+        Map<String, List<DirtyRegion>> placeHolder = (Map<String, List<DirtyRegion>>) extendedProperties
+                .get(GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER);
+
+        // only the envelope is tracked
+        DirtyRegion region = placeHolder.get("theLayer").get(0);
+        assertEquals(1, region.getGeometries().size());
+        assertEquals(new ReferencedEnvelope(0, (points.length - 1) * 0.01, 10, 10, WGS84),
+                region.getBounds());
     }
 
     @Test
     public void testAfterTransaction() throws Exception {
 
         Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
-        ReferencedEnvelope affectedBounds1 = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
-        ReferencedEnvelope affectedBounds2 = new ReferencedEnvelope(0, 180, 0, 90, WGS84);
+        Geometry affectedGeometry1 = polygon(-180, 0, 0, 90);
+        Geometry affectedGeometry2 = polygon(0, 180, 0, 90);
 
-        issueInsert(extendedProperties, affectedBounds1);
+        issueInsert(extendedProperties, affectedGeometry1);
 
-        issueInsert(extendedProperties, affectedBounds2);
+        issueInsert(extendedProperties, affectedGeometry2);
 
         TransactionType request = mock(TransactionType.class);
         TransactionResponseType result = mock(TransactionResponseType.class);
         when(request.getExtendedProperties()).thenReturn(extendedProperties);
 
-        when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
         listener.afterTransaction(request, result, true);
 
-        ReferencedEnvelope expectedEnv = new ReferencedEnvelope(affectedBounds1);
-        expectedEnv.expandToInclude(affectedBounds2);
+        // the geometries are not merged, the queue gets each of them
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DirtyRegion>> captor = (ArgumentCaptor) ArgumentCaptor
+                .forClass(List.class);
+        verify(truncateQueue, times(1)).truncate(eq("theLayer"), captor.capture());
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        for (DirtyRegion region : captor.getValue()) {
+            geometries.addAll(region.getGeometries());
+        }
+        assertEquals(Arrays.asList(affectedGeometry1, affectedGeometry2), geometries);
 
-        verify(mediator, times(1)).truncate(eq("theLayer"), eq(expectedEnv));
-        verify(mediator, times(1)).truncate(eq("theGroup"), eq(expectedEnv));
+        verify(truncateQueue, times(1)).truncate(eq("theGroup"),
+                anyListOf(DirtyRegion.class));
+        // nothing is truncated in the transaction thread
+        verify(mediator, times(0)).truncate(eq("theLayer"), (ReferencedEnvelope) anyObject());
+    }
 
+    private Geometry polygon(double minx, double maxx, double miny, double maxy) {
+        return JTS.toGeometry(new ReferencedEnvelope(minx, maxx, miny, maxy, WGS84));
     }
 
     /**
@@ -190,7 +245,7 @@ public class GWCTransactionListenerTest {
      * "theGroup"
      */
     private void issueInsert(Map<Object, Object> extendedProperties,
-            ReferencedEnvelope affectedBounds) {
+            Geometry... affectedGeometries) {
 
         TransactionType transaction = mock(TransactionType.class);
         when(transaction.getExtendedProperties()).thenReturn(extendedProperties);
@@ -213,8 +268,17 @@ public class GWCTransactionListenerTest {
 
         ImmutableSet.of("theLayer", "theGroup"));
 
-        SimpleFeatureCollection affectedFeatures = mock(SimpleFeatureCollection.class);
-        when(affectedFeatures.getBounds()).thenReturn(affectedBounds);
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("testType");
+        tb.add("geom", Geometry.class, WGS84);
+        tb.add("label", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (Geometry geometry : affectedGeometries) {
+            features.add(SimpleFeatureBuilder.build(schema, new Object[] { geometry, "label" },
+                    null));
+        }
+        SimpleFeatureCollection affectedFeatures = DataUtilities.collection(features);
         when(event.getAffectedFeatures()).thenReturn(affectedFeatures);
 
         listener.dataStoreChange(event);
@@ -0,0 +1,248 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.geoserver.gwc.GWCTruncateQueue.AffectedTiles;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.collect.ImmutableSet;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class GWCTruncateQueueTest {
+
+    private GridSubset gridSubset;
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    private GWC mediator;
+
+    private GWCTruncateQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        GridSetBroker gridSetBroker = new GridSetBroker(true, true);
+        gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+
+        TileLayer layer = mock(TileLayer.class);
+        when(layer.getGridSubsets()).thenReturn(ImmutableSet.of("EPSG:4326"));
+        when(layer.getGridSubset(eq("EPSG:4326"))).thenReturn(gridSubset);
+        mediator = mock(GWC.class);
+        when(mediator.getTileLayerByName(eq("theLayer"))).thenReturn(layer);
+
+        queue = new GWCTruncateQueue(mediator);
+        queue.setSynchronous(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.destroy();
+    }
+
+    private Geometry point(double x, double y) {
+        return gf.createPoint(new Coordinate(x, y));
+    }
+
+    private long countTiles(List<long[]> ranges, int z) {
+        long count = 0;
+        for (long[] range : ranges) {
+            if (range[4] == z) {
+                count += (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testFarApartEdits() {
+        AffectedTiles affected = new AffectedTiles(gridSubset, 0, 4096);
+        affected.add(point(-170, -80));
+        affected.add(point(170, 80));
+
+        // one tile per point and level, nothing in between
+        List<long[]> ranges = affected.getRanges();
+        for (int z = gridSubset.getZoomStart(); z <= gridSubset.getZoomStop(); z++) {
+            assertEquals(2, countTiles(ranges, z));
+        }
+        int levels = gridSubset.getZoomStop() - gridSubset.getZoomStart() + 1;
+        assertEquals(2 * levels, affected.getTiles().size());
+    }
+
+    @Test
+    public void testExactTiles() {
+        AffectedTiles affected = new AffectedTiles(gridSubset, 0, 4096);
+        affected.add(gf.createLineString(new Coordinate[] { new Coordinate(-179, -89),
+                new Coordinate(179, 89) }));
+
+        // the diagonal crosses a small fraction of the tiles in its envelope
+        List<long[]> ranges = affected.getRanges();
+        for (int z = 3; z < 8; z++) {
+            long width = 2 << z;
+            long count = countTiles(ranges, z);
+            assertTrue(count >= width);
+            assertTrue(count <= 2 * width);
+        }
+    }
+
+    @Test
+    public void testBuffer() {
+        // a point close to the edge of the level 1 tiles, about half a pixel away
+        Geometry point = point(-0.2, 45);
+
+        AffectedTiles affected = new AffectedTiles(gridSubset, 0, 4096);
+        affected.add(point);
+        assertEquals(1, countTiles(affected.getRanges(), 1));
+
+        affected = new AffectedTiles(gridSubset, 10, 4096);
+        affected.add(point);
+        assertEquals(2, countTiles(affected.getRanges(), 1));
+    }
+
+    @Test
+    public void testDefaultBuffer() throws Exception {
+        // about 20 pixels away from the edge of the level 1 tiles, a point symbol crosses it
+        DirtyRegion region = new DirtyRegion(WGS84, Arrays.asList(point(-7, 45)));
+        queue.truncate("theLayer", Collections.singletonList(region));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<long[]>> captor = (ArgumentCaptor) ArgumentCaptor
+                .forClass(List.class);
+        verify(mediator).truncate(eq("theLayer"), eq("EPSG:4326"), captor.capture());
+        assertEquals(2, countTiles(captor.getValue(), 1));
+    }
+
+    @Test
+    public void testGutterBuffer() throws Exception {
+        GeoServerTileLayerInfo info = mock(GeoServerTileLayerInfo.class);
+        when(info.getGutter()).thenReturn(120);
+        GeoServerTileLayer layer = mock(GeoServerTileLayer.class);
+        when(layer.getInfo()).thenReturn(info);
+        when(layer.getGridSubsets()).thenReturn(ImmutableSet.of("EPSG:4326"));
+        when(layer.getGridSubset(eq("EPSG:4326"))).thenReturn(gridSubset);
+        when(mediator.getTileLayerByName(eq("gutterLayer"))).thenReturn(layer);
+
+        // about 100 pixels away from the edge of the level 1 tiles, beyond the default buffer
+        // but within the gutter the meta tiles are rendered with
+        DirtyRegion region = new DirtyRegion(WGS84, Arrays.asList(point(-35, 45)));
+        AffectedTiles affected = new AffectedTiles(gridSubset, queue.getBufferPixels(), 4096);
+        affected.add(point(-35, 45));
+        assertEquals(1, countTiles(affected.getRanges(), 1));
+
+        queue.truncate("gutterLayer", Collections.singletonList(region));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<long[]>> captor = (ArgumentCaptor) ArgumentCaptor
+                .forClass(List.class);
+        verify(mediator).truncate(eq("gutterLayer"), eq("EPSG:4326"), captor.capture());
+        assertEquals(2, countTiles(captor.getValue(), 1));
+    }
+
+    @Test
+    public void testTooManyTiles() {
+        AffectedTiles affected = new AffectedTiles(gridSubset, 0, 100);
+        affected.add(gf.createLineString(new Coordinate[] { new Coordinate(-179, -89),
+                new Coordinate(179, 89) }));
+        affected.add(point(10, 10));
+
+        // the exact tiles of the lower levels, the envelopes of the others
+        List<long[]> tiles = affected.getTiles();
+        int lastExact = (int) tiles.get(tiles.size() - 1)[2];
+        assertTrue(lastExact > 0);
+        assertTrue(lastExact < gridSubset.getZoomStop());
+
+        List<long[]> ranges = affected.getRanges();
+        int z = lastExact + 1;
+        long width = 2 << z;
+        assertEquals(width * width / 2 + 1, countTiles(ranges, z));
+    }
+
+    @Test
+    public void testToRanges() {
+        TreeSet<Long> tiles = new TreeSet<Long>();
+        // a 2x2 square and a tile apart in the same rows
+        for (long y = 4; y < 6; y++) {
+            tiles.add(AffectedTiles.key(2, y));
+            tiles.add(AffectedTiles.key(3, y));
+            tiles.add(AffectedTiles.key(7, y));
+        }
+        tiles.add(AffectedTiles.key(2, 6));
+
+        List<long[]> ranges = AffectedTiles.toRanges(tiles, 5);
+        assertEquals(3, ranges.size());
+        assertArrayEquals(new long[] { 2, 4, 3, 5, 5 }, ranges.get(0));
+        assertArrayEquals(new long[] { 7, 4, 7, 5, 5 }, ranges.get(1));
+        assertArrayEquals(new long[] { 2, 6, 2, 6, 5 }, ranges.get(2));
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        DirtyRegion region = new DirtyRegion(WGS84, Arrays.asList(point(-170, -80),
+                point(170, 80)));
+        queue.truncate("theLayer", Collections.singletonList(region));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<long[]>> captor = (ArgumentCaptor) ArgumentCaptor
+                .forClass(List.class);
+        verify(mediator).truncate(eq("theLayer"), eq("EPSG:4326"), captor.capture());
+        AffectedTiles expected = new AffectedTiles(gridSubset, queue.getBufferPixels(), 4096);
+        expected.add(point(-170, -80));
+        expected.add(point(170, 80));
+        assertEquals(expected.getRanges().size(), captor.getValue().size());
+        verify(mediator, never()).seedTile(any(String.class), any(String.class),
+                any(long[].class));
+    }
+
+    @Test
+    public void testTruncateMissingLayer() throws Exception {
+        when(mediator.getTileLayerByName(eq("removed"))).thenThrow(
+                new IllegalArgumentException("not found"));
+        DirtyRegion region = new DirtyRegion(WGS84, Arrays.asList(point(0, 0)));
+        queue.truncate("removed", Collections.singletonList(region));
+
+        verify(mediator, never()).truncate(any(String.class), any(String.class),
+                anyListOf(long[].class));
+    }
+
+    @Test
+    public void testReseed() throws Exception {
+        queue.setSynchronous(false);
+        queue.setReseedRate(1000);
+        DirtyRegion region = new DirtyRegion(WGS84, Arrays.asList(point(-170, -80)));
+        queue.truncate("theLayer", Collections.singletonList(region));
+
+        verify(mediator, timeout(5000)).truncate(eq("theLayer"), eq("EPSG:4326"),
+                anyListOf(long[].class));
+        verify(mediator, timeout(5000)).seedTile(eq("theLayer"), eq("EPSG:4326"),
+                aryEq(new long[] { 0, 0, 0 }));
+    }
+}
@@ -51,6 +51,7 @@ import org.geoserver.catalog.impl.StyleInfoImpl;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.MetaTileCoalescer;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -547,6 +548,35 @@ public class GeoServerTileLayerTest {
         verify(mockGWC, times(1)).getResponseEncoder(eq(mimeType), isA(RenderedImageMap.class));
     }
 
+    @Test
+    public void testGetTileCoalesced() throws Exception {
+        MetaTileCoalescer coalescer = new MetaTileCoalescer();
+        coalescer.setEnabled(true);
+        when(mockGWC.getMetaTileCoalescer()).thenReturn(coalescer);
+
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        RenderedImageMap fakeDispatchedMap = new RenderedImageMap(new WMSMapContent(), image,
+                "image/png");
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject())).thenReturn(
+                mock(RenderedImageMapResponse.class));
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+        ConveyorTile tile = new ConveyorTile(storageBroker, layerInfoTileLayer.getName(),
+                "EPSG:4326", new long[] { 0, 0, 0 }, mimeType, null,
+                new MockHttpServletRequest(), new MockHttpServletResponse());
+
+        GeoServerTileLayer.WEB_MAP.set(fakeDispatchedMap);
+        ConveyorTile returned = layerInfoTileLayer.getTile(tile);
+        assertNotNull(returned.getBlob());
+        assertEquals(CacheResult.MISS, returned.getCacheResult());
+        assertEquals(1, coalescer.getRenderCount());
+        assertEquals(0, coalescer.getActiveRenders());
+        verify(storageBroker).put((TileObject) anyObject());
+    }
+
     @Test
     public void testGetMimeTypes() throws Exception {
 
@@ -0,0 +1,185 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.geoserver.gwc.layer.HotTileCache.CachedTile;
+import org.geoserver.gwc.layer.HotTileCache.TileKey;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.storage.StorageBroker;
+import org.junit.Test;
+
+public class HotTileCacheTest {
+
+    private TileKey key(long x, long y, int z) {
+        return new TileKey("theLayer", "EPSG:4326", x, y, z, "image/png", null);
+    }
+
+    private long epoch(HotTileCache cache) {
+        return cache.getEpoch("theLayer", "EPSG:4326");
+    }
+
+    private ByteArrayResource blob(int size) {
+        byte[] contents = new byte[size];
+        for (int i = 0; i < size; i++) {
+            contents[i] = (byte) i;
+        }
+        return new ByteArrayResource(contents);
+    }
+
+    @Test
+    public void testRegistersListener() {
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        HotTileCache cache = new HotTileCache(storageBroker);
+        verify(storageBroker).addBlobStoreListener(cache);
+    }
+
+    @Test
+    public void testHitMiss() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, false);
+        assertNull(cache.get(key(0, 0, 0), 0));
+        assertEquals(1, cache.getMissCount());
+
+        cache.put(key(0, 0, 0), blob(1000), 1234, epoch(cache));
+        CachedTile tile = cache.get(key(0, 0, 0), 0);
+        assertNotNull(tile);
+        assertArrayEquals(blob(1000).getContents(), tile.getContents());
+        assertEquals(1234, tile.getCreated());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1000, cache.getBytesServed());
+        assertEquals(0.5, cache.getHitRatio(), 0d);
+        assertEquals(1, cache.getTileCount());
+        assertEquals(1000 + HotTileCache.ENTRY_OVERHEAD, cache.getMemoryUsed());
+
+        // same tile in a different format
+        TileKey jpeg = new TileKey("theLayer", "EPSG:4326", 0, 0, 0, "image/jpeg", null);
+        assertNull(cache.get(jpeg, 0));
+    }
+
+    @Test
+    public void testOffHeap() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, true);
+        cache.put(key(1, 2, 3), blob(500), 0, epoch(cache));
+        assertArrayEquals(blob(500).getContents(), cache.get(key(1, 2, 3), 0).getContents());
+        // can be read more than once
+        assertArrayEquals(blob(500).getContents(), cache.get(key(1, 2, 3), 0).getContents());
+    }
+
+    @Test
+    public void testMaxAge() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, false);
+        cache.put(key(0, 0, 1), blob(100), System.currentTimeMillis() - 10000, epoch(cache));
+        assertNotNull(cache.get(key(0, 0, 1), 20000));
+        assertNull(cache.get(key(0, 0, 1), 5000));
+        // expired tiles are dropped
+        assertEquals(0, cache.getTileCount());
+    }
+
+    @Test
+    public void testEviction() {
+        HotTileCache cache = new HotTileCache(64 * 1024, false);
+        for (int i = 0; i < 100; i++) {
+            cache.put(key(i, 0, 10), blob(1000), 0, epoch(cache));
+        }
+        assertTrue(cache.getMemoryUsed() <= 64 * 1024);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(100, cache.getTileCount() + cache.getEvictionCount());
+
+        // too big for the cache
+        cache.put(key(0, 0, 0), blob(2000), 0, epoch(cache));
+        assertNull(cache.get(key(0, 0, 0), 0));
+
+        cache.setMemoryCapacity(0);
+        assertEquals(0, cache.getMemoryUsed());
+        cache.put(key(0, 0, 0), blob(100), 0, epoch(cache));
+        assertEquals(0, cache.getTileCount());
+    }
+
+    @Test
+    public void testInvalidation() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, false);
+        for (int z = 0; z < 3; z++) {
+            cache.put(key(0, 0, z), blob(100), 0, epoch(cache));
+        }
+        cache.put(new TileKey("theLayer", "EPSG:900913", 0, 0, 0, "image/png", null), blob(100),
+                0, cache.getEpoch("theLayer", "EPSG:900913"));
+        cache.put(new TileKey("other", "EPSG:4326", 0, 0, 0, "image/png", null), blob(100), 0,
+                cache.getEpoch("other", "EPSG:4326"));
+        assertEquals(5, cache.getTileCount());
+
+        // a new tile does not affect the cached ones
+        cache.tileStored("theLayer", "EPSG:4326", "image/png", null, 5, 5, 5, 100);
+        assertEquals(5, cache.getTileCount());
+
+        cache.tileDeleted("theLayer", "EPSG:4326", "image/png", null, 0, 0, 0, 100);
+        assertNull(cache.get(key(0, 0, 0), 0));
+        cache.tileUpdated("theLayer", "EPSG:4326", "image/png", null, 0, 0, 1, 100, 100);
+        assertNull(cache.get(key(0, 0, 1), 0));
+        assertNotNull(cache.get(key(0, 0, 2), 0));
+        assertEquals(2, cache.getInvalidationCount());
+
+        cache.gridSubsetDeleted("theLayer", "EPSG:4326");
+        assertEquals(2, cache.getTileCount());
+        cache.layerDeleted("theLayer");
+        assertEquals(1, cache.getTileCount());
+        cache.layerRenamed("other", "renamed");
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    @Test
+    public void testStaleContents() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, false);
+        // read from the blob store while the tile gets truncated
+        long epoch = epoch(cache);
+        cache.tileDeleted("theLayer", "EPSG:4326", "image/png", null, 0, 0, 0, 100);
+        cache.put(key(0, 0, 0), blob(100), 0, epoch);
+        assertNull(cache.get(key(0, 0, 0), 0));
+
+        cache.put(key(0, 0, 0), blob(100), 0, epoch(cache));
+        assertNotNull(cache.get(key(0, 0, 0), 0));
+        cache.flush();
+        assertNull(cache.get(key(0, 0, 0), 0));
+
+        // so does dropping the whole layer
+        epoch = epoch(cache);
+        cache.layerDeleted("theLayer");
+        cache.put(key(0, 0, 0), blob(100), 0, epoch);
+        assertNull(cache.get(key(0, 0, 0), 0));
+    }
+
+    @Test
+    public void testRenderedOverwrite() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, false);
+        cache.put(key(0, 0, 0), blob(100), 0, epoch(cache));
+        // re-rendering the tile overwrites it in the blob store, the epoch is grabbed afterwards
+        cache.tileUpdated("theLayer", "EPSG:4326", "image/png", null, 0, 0, 0, 100, 100);
+        assertNull(cache.get(key(0, 0, 0), 0));
+        cache.put(key(0, 0, 0), blob(100), 1, epoch(cache));
+        CachedTile cached = cache.get(key(0, 0, 0), 0);
+        assertNotNull(cached);
+        assertEquals(1, cached.getCreated());
+    }
+
+    @Test
+    public void testOtherLayersChanges() {
+        HotTileCache cache = new HotTileCache(1024 * 1024, false);
+        // other layers and grid sets getting truncated or seeded do not stop the caching
+        long epoch = epoch(cache);
+        cache.tileDeleted("other", "EPSG:4326", "image/png", null, 0, 0, 0, 100);
+        cache.tileUpdated("theLayer", "EPSG:900913", "image/png", null, 0, 0, 0, 100, 100);
+        cache.gridSubsetDeleted("other", "EPSG:4326");
+        cache.put(key(0, 0, 0), blob(100), 0, epoch);
+        assertNotNull(cache.get(key(0, 0, 0), 0));
+        assertEquals(epoch, epoch(cache));
+    }
+}
@@ -25,11 +25,24 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -81,7 +94,6 @@ import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.VirtualTable;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.Schemas;
 import org.opengis.coverage.grid.GridCoverage;
@@ -103,6 +115,16 @@ import org.vfny.geoserver.global.GeoServerFeatureLocking;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 import org.vfny.geoserver.util.DataStoreUtils;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ForwardingMap;
+
 /**
  * Provides access to resources such as datastores, coverage readers, and 
  * feature types.
@@ -145,10 +167,37 @@ public class ResourcePool {
     }
     
     /**
-     * Default number of hard references
+     * Default number of feature types cached
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
-    
+
+    /**
+     * Default number of entries in the CRS and style caches
+     */
+    static int CACHE_SIZE_DEFAULT = 1000;
+
+    /**
+     * Default number of data stores and coverage readers strongly referenced, the ones exceeding
+     * it are only softly referenced
+     */
+    static int STORE_CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * Prefix of the system properties used to tune the resource caches, the full property name
+     * is made of the prefix, the cache name and the setting, for example
+     * <code>org.geoserver.catalog.cache.dataStore.maxSize</code>. The settings are
+     * <code>maxSize</code> (maximum number of entries), <code>maxWeight</code> (maximum
+     * total weight, overrides the size) and <code>expireAfterAccess</code> (idle time, in
+     * seconds, after which an entry is evicted and disposed). Zero means no limit.
+     */
+    public static final String CACHE_PROPERTY_PREFIX = "org.geoserver.catalog.cache.";
+
+    /**
+     * Maximum time, in seconds, between two checks for idle entries in the caches configured
+     * with an <code>expireAfterAccess</code>
+     */
+    static long CLEANUP_INTERVAL = 60;
+
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
@@ -165,6 +214,21 @@ public class ResourcePool {
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
 
+    /**
+     * The time source of the caches, only replaced for testing purposes
+     */
+    Ticker ticker = Ticker.systemTicker();
+
+    /**
+     * Runs the periodic clean up of the caches and disposes the expired entries, created on
+     * demand and shut down by {@link #dispose()}
+     */
+    volatile ScheduledExecutorService cleaner;
+
+    volatile ScheduledFuture<?> cleanUpTask;
+
+    long cleanUpPeriod;
+
     /**
      * Creates a new instance of the resource pool.
      */
@@ -240,7 +304,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new CRSCache(CACHE_SIZE_DEFAULT);
     }
 
     /**
@@ -340,7 +404,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new StyleCache(CACHE_SIZE_DEFAULT);
     }
 
     /**
@@ -360,6 +424,165 @@ public class ResourcePool {
         return new WMSCache();
     }
 
+    /**
+     * Returns the hit, miss, load time and eviction counters of the resource caches, keyed by
+     * cache name.
+     * <p>
+     * Only the caches created by the default factory methods keep statistics, caches provided
+     * by subclasses are not reported.
+     * </p>
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<String, CacheStats>();
+        for (CatalogResourceCache<?, ?> cache : resourceCaches()) {
+            stats.put(cache.getName(), cache.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the number of entries in the resource caches, keyed by cache name.
+     */
+    public Map<String, Long> getCacheSizes() {
+        Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (CatalogResourceCache<?, ?> cache : resourceCaches()) {
+            sizes.put(cache.getName(), Long.valueOf(cache.size()));
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the total time, in milliseconds, requests spent waiting for a resource being
+     * loaded by another request, keyed by cache name.
+     */
+    public Map<String, Double> getCacheLoadWaitTimes() {
+        Map<String, Double> times = new LinkedHashMap<String, Double>();
+        for (CatalogResourceCache<?, ?> cache : resourceCaches()) {
+            times.put(cache.getName(), cache.getWaitTime() / 1000000d);
+        }
+        return times;
+    }
+
+    /**
+     * Returns the number of times requests had to wait for a resource being loaded by another
+     * request, keyed by cache name.
+     */
+    public Map<String, Long> getCacheLoadWaitCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (CatalogResourceCache<?, ?> cache : resourceCaches()) {
+            counts.put(cache.getName(), cache.getWaitCount());
+        }
+        return counts;
+    }
+
+    List<CatalogResourceCache<?, ?>> resourceCaches() {
+        List<CatalogResourceCache<?, ?>> caches = new ArrayList<CatalogResourceCache<?, ?>>();
+        for (Map<?, ?> cache : Arrays.<Map<?, ?>>asList(crsCache, dataStoreCache, featureTypeCache,
+                featureTypeAttributeCache, coverageReaderCache, hintCoverageReaderCache, wmsCache,
+                styleCache)) {
+            if (cache instanceof CatalogResourceCache) {
+                caches.add((CatalogResourceCache<?, ?>) cache);
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * Makes sure the caches are checked for idle entries at least every <code>period</code>
+     * seconds, even when nothing else accesses them. Guava only evicts expired entries as part of
+     * the maintenance done while the cache is being used.
+     */
+    void scheduleCleanUp(long period) {
+        period = Math.max(1, Math.min(CLEANUP_INTERVAL, period));
+        if (cleanUpTask != null && cleanUpPeriod <= period) {
+            return;
+        }
+        synchronized (this) {
+            if (cleanUpTask != null) {
+                if (cleanUpPeriod <= period) {
+                    return;
+                }
+                cleanUpTask.cancel(false);
+            }
+            if (cleaner == null) {
+                cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ResourcePoolCleaner");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            cleanUpPeriod = period;
+            cleanUpTask = cleaner.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    cleanUp();
+                }
+            }, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Evicts the expired entries of all the resource caches
+     */
+    void cleanUp() {
+        for (CatalogResourceCache<?, ?> cache : resourceCaches()) {
+            try {
+                cache.cleanUp();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error cleaning up the " + cache.getName() + " cache", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the resource cached under the key, loading it if missing.
+     * <p>
+     * Loads are single flight: the first caller missing the cache runs the loader, concurrent
+     * callers asking for the same key wait for that load to complete and share its result (or
+     * its failure), while loads of different keys proceed in parallel.
+     * </p>
+     */
+    <K, V> V load(Map<K, V> cache, K key, Callable<? extends V> loader) throws IOException {
+        if (cache instanceof CatalogResourceCache) {
+            return ((CatalogResourceCache<K, V>) cache).get(key, loader);
+        }
+
+        // cache provided by a subclass, load under the cache lock
+        V value = cache.get(key);
+        if (value == null) {
+            synchronized (cache) {
+                value = cache.get(key);
+                if (value == null) {
+                    try {
+                        value = loader.call();
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw (IOException) new IOException().initCause(e);
+                    }
+                    if (value != null) {
+                        cache.put(key, value);
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Puts a freshly loaded resource in the cache, recording the time it took to load it.
+     */
+    <K, V> void cache(Map<K, V> cache, K key, V value, long loadStart) {
+        if (cache instanceof CatalogResourceCache) {
+            ((CatalogResourceCache<K, V>) cache).loaded(key, value, loadStart);
+        } else {
+            cache.put(key, value);
+        }
+    }
+
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -430,8 +653,9 @@ public class ResourcePool {
                 crs = crsCache.get( srsName );
                 if ( crs == null ) {
                     try {
+                        long start = System.nanoTime();
                         crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
+                        cache( crsCache, srsName, crs, start );
                     }
                     catch( Exception e) {
                         throw (IOException) new IOException().initCause(e);
@@ -480,95 +704,21 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
         DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
         try {
             String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
+            if ( id == null ) {
+                // no need to cache the stores returned from un-saved DataStoreInfo objects (it
+                // would be actually harmful, NPE when trying to dispose of them)
+                dataStore = createDataStore( info );
+            } else {
+                // concurrent requests for the same store share the same load
+                dataStore = load( dataStoreCache, id, new Callable<DataAccess>() {
+                    public DataAccess call() throws Exception {
+                        return createDataStore( info );
                     }
-                } 
+                });
             }
             
             return dataStore;
@@ -589,6 +739,86 @@ public class ResourcePool {
         }
     }
         
+    /**
+     * Connects to the underlying resource of a data store.
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore( DataStoreInfo info ) throws IOException {
+        //create data store
+        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+
+        //call this methdo to execute the hack which recognizes 
+        // urls which are relative to the data directory
+        // TODO: find a better way to do this
+        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+
+        // obtain the factory
+        DataAccessFactory factory = null;
+        try {
+            factory = getDataStoreFactory(info);
+        } catch(IOException e) {
+            throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                    + ", did you forget to install the store extension jar?");
+        }
+        Param[] params = factory.getParametersInfo();
+
+        //ensure that the namespace parameter is set for the datastore
+        if (!connectionParameters.containsKey( "namespace") && params != null) {
+            //if we grabbed the factory, check that the factory actually supports
+            // a namespace parameter, if we could not get the factory, assume that
+            // it does
+            boolean supportsNamespace = true;
+            supportsNamespace = false;
+
+            for ( Param p : params ) {
+                if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                    supportsNamespace = true;
+                    break;
+                }
+            }
+
+            if ( supportsNamespace ) {
+                WorkspaceInfo ws = info.getWorkspace();
+                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                if ( ns == null ) {
+                    ns = info.getCatalog().getDefaultNamespace();
+                }
+                if ( ns != null ) {
+                    connectionParameters.put( "namespace", ns.getURI() );
+                }    
+            }
+        }
+
+        // see if the store has a repository param, if so, pass the one wrapping
+        // the store
+        if(params != null) {
+            for ( Param p : params ) {
+                if(Repository.class.equals(p.getType())) {
+                    connectionParameters.put(p.getName(), repository);
+                }
+            }
+        }
+
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = 
+            DataStoreUtils.getDataAccess(connectionParameters);
+        if (dataStore == null) {
+            /*
+             * Preserve DataStore retyping behaviour by calling
+             * DataAccessFinder.getDataStore after the call to
+             * DataStoreUtils.getDataStore above.
+             * 
+             * TODO: DataAccessFinder can also find DataStores, and when retyping is
+             * supported for DataAccess, we can use a single mechanism.
+             */
+            dataStore = DataAccessFinder.getDataStore(connectionParameters);
+        }
+
+        if ( dataStore == null ) {
+            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
+        }
+        
+        return dataStore;
+    }
+    
     /**
      * Get Connect params.
      *
@@ -658,30 +888,29 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
-        //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
-                }
+        // cache attributes only if the id is not null -> the feature type is not new
+        if (info.getId() == null) {
+            return createAttributes(info);
+        }
+        final FeatureTypeInfo featureType = info;
+        return load(featureTypeAttributeCache, info.getId(), new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws Exception {
+                return createAttributes(featureType);
             }
+        });
+    }
+    
+    List<AttributeTypeInfo> createAttributes(FeatureTypeInfo info) throws IOException {
+        //load from feature type
+        List<AttributeTypeInfo> atts = loadAttributes(info);
+        
+        //check for a schema override
+        try {
+            handleSchemaOverride(atts,info);
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, 
+                "Error occured applying schema override for "+info.getName(), e);
         }
         
         return atts;
@@ -821,36 +1050,37 @@ public class ResourcePool {
                            getNonCacheableFeatureType(info, handleProjectionPolicy);
     }
     
-    FeatureType getCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+    FeatureType getCacheableFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
         String key = getFeatureTypeInfoKey(info, handleProjectionPolicy);
-        FeatureType ft = (FeatureType) featureTypeCache.get( key );
-        if ( ft == null ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( key );
-                if ( ft == null ) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    if(isSQLView(info, dataAccess)) {
-    
-                        VirtualTable vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        if(!jstore.getVirtualTables().containsValue(vt)) {
-                            jstore.addVirtualTable(vt);
-                        }
-                        ft = jstore.getSchema(vt.getName());
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
-                    }
-                    
-                    ft = buildFeatureType(info, handleProjectionPolicy, ft);
-                    
-                    featureTypeCache.put( key, ft );
+        return load( featureTypeCache, key, new Callable<FeatureType>() {
+            public FeatureType call() throws Exception {
+                return createFeatureType( info, handleProjectionPolicy );
+            }
+        });
+    }
+
+    FeatureType createFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+        FeatureType ft;
+        
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        if(isSQLView(info, dataAccess)) {
+
+            VirtualTable vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            // feature types of the same store might be loaded in parallel
+            synchronized (jstore) {
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
                 }
             }
+            ft = jstore.getSchema(vt.getName());
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
         }
-        return ft;
+        
+        return buildFeatureType(info, handleProjectionPolicy, ft);
     }
 
     private FeatureType getNonCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
@@ -958,7 +1188,7 @@ public class ResourcePool {
         return ft;
     }
 
-    private String getFeatureTypeInfoKey(FeatureTypeInfo info, boolean handleProjectionPolicy) {
+    String getFeatureTypeInfoKey(FeatureTypeInfo info, boolean handleProjectionPolicy) {
         return info.getId() + PROJECTION_POLICY_SEPARATOR + handleProjectionPolicy;
     }
     
@@ -1242,7 +1472,7 @@ public class ResourcePool {
             throw new IOException("Could not find the raster plugin for format " + info.getType());
         }
         
-        // look into the cache
+        // compute the cache key
         GridCoverageReader reader = null;
         Object key;
         if ( hints != null && info.getId() != null) {
@@ -1261,48 +1491,26 @@ public class ResourcePool {
             }
             
             key = new CoverageHintReaderKey(info.getId(), hints);
-            reader = (GridCoverage2DReader) hintCoverageReaderCache.get( key );
         } else {
             key = info.getId();
-            if(key != null) {
-                reader = (GridCoverageReader) coverageReaderCache.get( key );
-            }
         }
         
-        // if not found in cache, create it
-        if(reader == null) {
-            synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-                if (key != null) {
-                    if (hints != null) {
-                        reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                    } else {
-                        reader = (GridCoverageReader) coverageReaderCache.get(key);
-                    }
-                }
-                if (reader == null) {
-                    /////////////////////////////////////////////////////////
-                    //
-                    // Getting coverage reader using the format and the real path.
-                    //
-                    // /////////////////////////////////////////////////////////
-                    final String url = info.getURL();
-                    final File obj = GeoserverDataDirectory.findDataFile(url);
-                    // In case no File is returned, provide the original String url
-                    final Object input = obj != null ? obj : url;  
-
-                    // readers might change the provided hints, pass down a defensive copy
-                    reader = gridFormat.getReader(input, new Hints(hints));
-                    if(reader == null) {
-                        throw new IOException("Failed to create reader from " + url + " and hints " + hints);
-                    }
-                    if(key != null) {
-                        if(hints != null) {
-                            hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                        } else {
-                            coverageReaderCache.put((String) key, reader);
-                        }
-                    }
+        // if not found in cache, create it, concurrent requests for the same reader share
+        // the same load
+        if (key == null) {
+            reader = createGridCoverageReader(info, gridFormat, hints);
+        } else {
+            final CoverageStoreInfo store = info;
+            final Hints readerHints = hints;
+            Callable<GridCoverageReader> loader = new Callable<GridCoverageReader>() {
+                public GridCoverageReader call() throws Exception {
+                    return createGridCoverageReader(store, gridFormat, readerHints);
                 }
+            };
+            if (key instanceof CoverageHintReaderKey) {
+                reader = load(hintCoverageReaderCache, (CoverageHintReaderKey) key, loader);
+            } else {
+                reader = load(coverageReaderCache, (String) key, loader);
             }
         }
         
@@ -1332,6 +1540,29 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Creates a new coverage reader for the store.
+     */
+    GridCoverageReader createGridCoverageReader(CoverageStoreInfo info,
+            AbstractGridFormat gridFormat, Hints hints) throws IOException {
+        /////////////////////////////////////////////////////////
+        //
+        // Getting coverage reader using the format and the real path.
+        //
+        // /////////////////////////////////////////////////////////
+        final String url = info.getURL();
+        final File obj = GeoserverDataDirectory.findDataFile(url);
+        // In case no File is returned, provide the original String url
+        final Object input = obj != null ? obj : url;  
+
+        // readers might change the provided hints, pass down a defensive copy
+        GridCoverageReader reader = gridFormat.getReader(input, new Hints(hints));
+        if(reader == null) {
+            throw new IOException("Failed to create reader from " + url + " and hints " + hints);
+        }
+        return reader;
+    }
+    
     /**
      * Clears any cached readers for the coverage.
      */
@@ -1497,20 +1728,15 @@ public class ResourcePool {
     public WebMapServer getWebMapServer(WMSStoreInfo info) throws IOException {
         try {
             String id = info.getId();
-            WebMapServer wms = (WebMapServer) wmsCache.get(id);
-            if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client = getHTTPClient(info);
-                        String capabilitiesURL = info.getCapabilitiesURL();
-                        URL serverURL = new URL(capabilitiesURL);
-                        wms = new WebMapServer(serverURL, client);
-                        
-                        wmsCache.put(id, wms);
-                    }
-                }
+            if (id == null) {
+                return createWebMapServer(info);
             }
+            final WMSStoreInfo store = info;
+            WebMapServer wms = load(wmsCache, id, new Callable<WebMapServer>() {
+                public WebMapServer call() throws Exception {
+                    return createWebMapServer(store);
+                }
+            });
 
             return wms;
         } catch (IOException ioe) {
@@ -1520,6 +1746,13 @@ public class ResourcePool {
         }
     }
     
+    WebMapServer createWebMapServer(WMSStoreInfo info) throws Exception {
+        HTTPClient client = getHTTPClient(info);
+        String capabilitiesURL = info.getCapabilitiesURL();
+        URL serverURL = new URL(capabilitiesURL);
+        return new WebMapServer(serverURL, client);
+    }
+    
     private HTTPClient getHTTPClient(WMSStoreInfo info) {
         String capabilitiesURL = info.getCapabilitiesURL();
         
@@ -1600,6 +1833,7 @@ public class ResourcePool {
             synchronized (styleCache) {
                 style = styleCache.get( info );
                 if ( style == null ) {
+                    long start = System.nanoTime();
                     
                     //JD: it is important that we call the SLDParser(File) constructor because
                     // if not the sourceURL will not be set which will mean it will fail to 
@@ -1614,7 +1848,7 @@ public class ResourcePool {
                     //set the name of the style to be the name of hte style metadata
                     // remove this when wms works off style info
                     style.setName( info.getName() );
-                    styleCache.put( info, style );
+                    cache( styleCache, info, style, start );
                 }
             }
         }
@@ -1763,73 +1997,456 @@ public class ResourcePool {
         wmsCache.clear();
         styleCache.clear();
         listeners.clear();
+
+        synchronized (this) {
+            if (cleaner != null) {
+                // lets the pending disposals run, the caches will start a new one if needed
+                cleaner.shutdown();
+                cleaner = null;
+                cleanUpTask = null;
+                cleanUpPeriod = 0;
+            }
+        }
     }
     
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The cache is bounded by number of entries, or by total weight if a maximum weight is
+     * configured, and can optionally evict entries that have not been accessed for a while.
+     * Whatever the reason an entry leaves the cache (explicit removal, eviction or expiry) the
+     * resource is disposed, with the exception of values being replaced by a put, which might
+     * still be in use. Bounds and idle time can be tuned by system property, see
+     * {@link ResourcePool#CACHE_PROPERTY_PREFIX}.
+     * </p>
+     * <p>
+     * Caches with an idle time get cleaned up periodically, see {@link #scheduleCleanUp(long)},
+     * and their expired entries are disposed in the background rather than on the request
+     * thread that happened to trigger the expiry.
+     * </p>
+     * <p>
+     * Caches can {@link #softOverflow() keep} the entries evicted by the bound softly reachable,
+     * so that they are only dropped when memory runs low, and moved back into the cache when used
+     * again. Store caches do so as well, since evicting a store might dispose it under a running
+     * request.
+     * </p>
+     * <p>
+     * The cache keeps hit, miss, load time and load wait counters, loads are recorded by
+     * {@link #get(Object, Callable)} or {@link #loaded(Object, Object, long)}.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends ForwardingMap<K, V> {
 
-        public CatalogResourceCache() {
-            this(100);
+        String name;
+
+        long maxSize;
+
+        long maxWeight;
+
+        long expireAfterAccess;
+
+        Cache<K, V> cache;
+
+        /**
+         * the entries evicted by the bound, softly reachable, or null if not enabled
+         */
+        Cache<K, V> overflow;
+
+        AtomicLong hits = new AtomicLong();
+
+        AtomicLong misses = new AtomicLong();
+
+        AtomicLong loads = new AtomicLong();
+
+        AtomicLong loadTime = new AtomicLong();
+
+        AtomicLong evictions = new AtomicLong();
+
+        AtomicLong loadFailures = new AtomicLong();
+
+        AtomicLong waits = new AtomicLong();
+
+        AtomicLong waitTime = new AtomicLong();
+
+        /**
+         * the loads in progress
+         */
+        ConcurrentMap<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+
+        public CatalogResourceCache(String name) {
+            this(name, 0);
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
+        public CatalogResourceCache(String name, long maxSize) {
+            this.name = name;
+            this.maxSize = cacheProperty(name, "maxSize", maxSize);
+            this.maxWeight = cacheProperty(name, "maxWeight", 0);
+            this.expireAfterAccess = cacheProperty(name, "expireAfterAccess", 0);
 
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
+            CacheBuilder<K, V> builder = CacheBuilder.newBuilder().removalListener(
+                    new RemovalListener<K, V>() {
+                        public void onRemoval(RemovalNotification<K, V> notification) {
+                            K key = notification.getKey();
+                            V value = notification.getValue();
+                            if (notification.wasEvicted()) {
+                                evictions.incrementAndGet();
+                            }
+                            // replaced values might still be in use, and collected ones are gone
+                            if (notification.getCause() == RemovalCause.REPLACED || key == null
+                                    || value == null) {
+                                return;
+                            }
+                            if (notification.getCause() == RemovalCause.SIZE && overflow != null) {
+                                overflow.put(key, value);
+                                return;
+                            }
+                            if (notification.getCause() == RemovalCause.EXPIRED) {
+                                disposeInBackground(key, value);
+                                return;
+                            }
+                            disposeQuietly(key, value);
+                        }
+                    });
+            if (this.maxWeight > 0) {
+                builder.maximumWeight(this.maxWeight).weigher(new Weigher<K, V>() {
+                    public int weigh(K key, V value) {
+                        return CatalogResourceCache.this.weigh(key, value);
+                    }
+                });
+            } else if (this.maxSize > 0) {
+                builder.maximumSize(this.maxSize);
+            }
+            if (this.expireAfterAccess > 0) {
+                builder.expireAfterAccess(this.expireAfterAccess, TimeUnit.SECONDS);
+            }
+            cache = builder.ticker(ticker).build();
+        }
+
+        @Override
+        protected Map<K, V> delegate() {
+            return cache.asMap();
+        }
+
+        /**
+         * Keeps the entries evicted by the bound softly reachable rather than disposing them.
+         * Entries collected by the garbage collector are not disposed.
+         */
+        void softOverflow() {
+            overflow = CacheBuilder.newBuilder().softValues().build();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            V value = key == null ? null : super.get(key);
+            if (value == null && key != null && overflow != null) {
+                value = overflow.getIfPresent(key);
+                if (value != null) {
+                    // used again, move it back in the cache
+                    overflow.invalidate(key);
+                    V current = cache.asMap().putIfAbsent((K) key, value);
+                    if (current != null) {
+                        value = current;
+                    }
                 }
-            };
+            }
+            if (value == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return value;
         }
 
         @Override
+        public V put(K key, V value) {
+            if (expireAfterAccess > 0) {
+                scheduleCleanUp(expireAfterAccess);
+            }
+            return super.put(key, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
         public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, (V) object);
+            if (key != null && overflow != null) {
+                V evicted = overflow.getIfPresent(key);
+                if (evicted != null) {
+                    overflow.invalidate(key);
+                    disposeQuietly((K) key, evicted);
+                }
             }
-            return object;
+            return super.remove(key);
         }
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
+            super.clear();
+            if (overflow != null) {
+                Map<K, V> evicted = new HashMap<K, V>(overflow.asMap());
+                overflow.invalidateAll();
+                for (Map.Entry<K, V> entry : evicted.entrySet()) {
+                    disposeQuietly(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Disposes the entry on the cleaner thread, or right away if there is none
+         */
+        void disposeInBackground(final K key, final V value) {
+            ScheduledExecutorService executor = cleaner;
+            if (executor != null) {
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            disposeQuietly(key, value);
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // shut down in the meantime
+                }
+            }
+            disposeQuietly(key, value);
+        }
+
+        void disposeQuietly(K key, V value) {
+            try {
+                dispose(key, value);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error disposing entry: " + key, e);
+            }
+        }
+
+        /**
+         * Returns the value cached under the key, running the loader if missing.
+         * <p>
+         * Only one load per key runs at any given time, threads asking for a key being loaded
+         * wait for the load to complete and share its outcome. The time spent waiting is
+         * recorded, see {@link #getWaitTime()}.
+         * </p>
+         */
+        public V get(final K key, final Callable<? extends V> loader) throws IOException {
+            V value = get(key);
+            if (value != null) {
+                return value;
+            }
+
+            FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    // the load we were about to start might have just completed
+                    V loaded = delegate().get(key);
+                    if (loaded != null) {
+                        return loaded;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        loaded = loader.call();
+                    } catch (Exception e) {
+                        loadFailures.incrementAndGet();
+                        throw e;
+                    }
+                    if (loaded != null) {
+                        loaded(key, loaded, start);
+                    }
+                    return loaded;
+                }
+            });
+            FutureTask<V> running = loading.putIfAbsent(key, task);
+            if (running != null) {
+                // someone else is loading the same resource, wait for it
+                long start = System.nanoTime();
                 try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
+                    return result(running);
+                } finally {
+                    waits.incrementAndGet();
+                    waitTime.addAndGet(System.nanoTime() - start);
+                }
+            }
+
+            try {
+                task.run();
+                return result(task);
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+
+        V result(FutureTask<V> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new IOException("Interrupted while waiting for a " + name
+                        + " load").initCause(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
                 }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
+                if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
+                throw (IOException) new IOException().initCause(cause);
             }
-            super.clear();
+        }
+
+        /**
+         * Caches a value that was just loaded, recording the time elapsed since
+         * <code>loadStart</code>, as returned by {@link System#nanoTime()}.
+         */
+        public void loaded(K key, V value, long loadStart) {
+            loadTime.addAndGet(System.nanoTime() - loadStart);
+            loads.incrementAndGet();
+            put(key, value);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The maximum number of entries, zero if unbounded or bounded by weight.
+         */
+        public long getMaximumSize() {
+            return maxWeight > 0 ? 0 : maxSize;
+        }
+
+        /**
+         * The maximum total weight, zero if the cache is not bounded by weight.
+         */
+        public long getMaximumWeight() {
+            return maxWeight;
+        }
+
+        /**
+         * The idle time in seconds after which entries are evicted, zero if they never expire.
+         */
+        public long getExpireAfterAccess() {
+            return expireAfterAccess;
+        }
+
+        /**
+         * Returns a snapshot of the cache counters.
+         */
+        public CacheStats stats() {
+            return new CacheStats(hits.get(), misses.get(), loads.get(), loadFailures.get(),
+                    loadTime.get(), evictions.get());
+        }
+
+        /**
+         * The number of times a thread had to wait for a load run by another thread.
+         */
+        public long getWaitCount() {
+            return waits.get();
+        }
+
+        /**
+         * The total time, in nanoseconds, threads spent waiting for loads run by other threads.
+         */
+        public long getWaitTime() {
+            return waitTime.get();
+        }
+
+        /**
+         * Performs the cache pending maintenance, such as evicting expired entries.
+         */
+        public void cleanUp() {
+            cache.cleanUp();
+        }
+
+        /**
+         * The weight of an entry, used when the cache is bounded by weight, by default all
+         * entries weight one.
+         */
+        protected int weigh(K key, V value) {
+            return 1;
         }
 
         protected abstract void dispose(K key, V object);
     }
+
+    /**
+     * Looks up a cache setting among the system properties, falling back on the default value.
+     */
+    static long cacheProperty(String cache, String setting, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(CACHE_PROPERTY_PREFIX + cache + "." + setting);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value for " + CACHE_PROPERTY_PREFIX + cache + "." + setting
+                    + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    class CRSCache extends CatalogResourceCache<String, CoordinateReferenceSystem> {
+
+        public CRSCache(int maxSize) {
+            super("crs", maxSize);
+            softOverflow();
+        }
+
+        @Override
+        protected void dispose(String key, CoordinateReferenceSystem crs) {
+            // nothing to do
+        }
+    }
+
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+
+        public StyleCache(int maxSize) {
+            super("style", maxSize);
+            softOverflow();
+        }
+
+        @Override
+        protected void dispose(StyleInfo key, Style style) {
+            // nothing to do
+        }
+    }
     
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super("featureType", maxSize);
+            softOverflow();
         }
         
         protected void dispose(String key, FeatureType featureType) {
             String id = key.substring(0, key.indexOf(PROJECTION_POLICY_SEPARATOR));
         	FeatureTypeInfo info = catalog.getFeatureType(id);
-            LOGGER.info( "Disposing feature type '" + info.getName() + "'");
-            fireDisposed(info, featureType);
+        	if(info != null) {
+                LOGGER.fine( "Disposing feature type '" + info.getName() + "'");
+                fireDisposed(info, featureType);
+        	}
+        }
+
+        @Override
+        protected int weigh(String key, FeatureType featureType) {
+            // the attribute count is a fair approximation of the memory footprint
+            return Math.max(1, featureType.getDescriptors().size());
         }
     }
     
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+
+        public DataStoreCache() {
+            super("dataStore", STORE_CACHE_SIZE_DEFAULT);
+            softOverflow();
+        }
     	
         protected void dispose(String id, DataAccess da) {
         	DataStoreInfo info = catalog.getDataStore(id);
@@ -1851,6 +2468,11 @@ public class ResourcePool {
     }
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
+
+        public CoverageReaderCache() {
+            super("coverageReader", STORE_CACHE_SIZE_DEFAULT);
+            softOverflow();
+        }
         
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
@@ -1864,13 +2486,18 @@ public class ResourcePool {
                 reader.dispose();
             }
             catch( Exception e ) {
-                LOGGER.warning( "Error occured disposing coverage reader '" + info.getName() + "'");
+                LOGGER.warning( "Error occured disposing coverage reader '" + (info != null ? info.getName() : null) + "'");
                 LOGGER.log(Level.FINE, "", e );
             }
         }
     }
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
+
+        public CoverageHintReaderCache() {
+            super("hintCoverageReader", STORE_CACHE_SIZE_DEFAULT);
+            softOverflow();
+        }
         
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
@@ -1884,7 +2511,7 @@ public class ResourcePool {
                 reader.dispose();
             }
             catch( Exception e ) {
-                LOGGER.warning( "Error occured disposing coverage reader '" + info.getName() + "'");
+                LOGGER.warning( "Error occured disposing coverage reader '" + (info != null ? info.getName() : null) + "'");
                 LOGGER.log(Level.FINE, "", e );
             }
         }
@@ -1941,17 +2568,27 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super("featureTypeAttribute", size);
+            softOverflow();
         }
 
         @Override
         protected void dispose(String key, List<AttributeTypeInfo> object) {
             // nothing to do actually
         }
+
+        @Override
+        protected int weigh(String key, List<AttributeTypeInfo> attributes) {
+            return Math.max(1, attributes.size());
+        }
     }
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        public WMSCache() {
+            super("wms");
+        }
+
         @Override
         protected void dispose(String key, WebMapServer object) {
             // nothing to do
@@ -1961,6 +2598,22 @@ public class ResourcePool {
     
     /**
      * Listens to catalog events clearing cache entires when resources are modified.
+     * <p>
+     * The invalidation policy is the following:
+     * <ul>
+     *   <li>adding objects to the catalog does not affect the caches, nothing is cached for
+     *   objects that have not been saved yet</li>
+     *   <li>modifying or removing a store evicts and disposes its data store, coverage readers or
+     *   WMS connection, along with the feature types built out of a data store, since they
+     *   depend on the connection parameters</li>
+     *   <li>modifying or removing a feature type evicts its feature types and attributes</li>
+     *   <li>modifying or removing a style evicts the parsed style</li>
+     *   <li>coordinate reference systems are never invalidated, only evicted by the size bound</li>
+     *   <li>a catalog reload disposes the whole pool, see {@link ResourcePool#dispose()}</li>
+     * </ul>
+     * Entries are evicted only after a modification has been committed, so that concurrent
+     * requests cannot reload them from the old configuration.
+     * </p>
      */
     public class CacheClearingListener extends CatalogVisitorAdapter implements CatalogListener {
 
@@ -1984,6 +2637,9 @@ public class ResourcePool {
         @Override
         public void visit(DataStoreInfo dataStore) {
             clear(dataStore);
+            for (FeatureTypeInfo featureType : catalog.getFeatureTypesByDataStore(dataStore)) {
+                clear(featureType);
+            }
         }
         
         @Override
@@ -0,0 +1,121 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Reports the counters of the {@link ResourcePool} caches, registered in JMX as
+ * <code>org.geoserver:type=ResourcePool</code>.
+ * <p>
+ * The resource pool is looked up from the catalog on every call, as it might be replaced by a
+ * reload.
+ * </p>
+ */
+public class ResourcePoolStats implements ResourcePoolStatsMXBean {
+
+    Catalog catalog;
+
+    public ResourcePoolStats(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Returns all the counters of each cache, keyed by cache and then by counter name.
+     */
+    public Map<String, Map<String, Object>> getCaches() {
+        Map<String, Long> sizes = pool().getCacheSizes();
+        Map<String, Long> waitCounts = pool().getCacheLoadWaitCounts();
+        Map<String, Double> waitTimes = pool().getCacheLoadWaitTimes();
+        Map<String, Map<String, Object>> caches = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            CacheStats stats = entry.getValue();
+            Map<String, Object> cache = new LinkedHashMap<String, Object>();
+            cache.put("size", sizes.get(entry.getKey()));
+            cache.put("hitCount", stats.hitCount());
+            cache.put("missCount", stats.missCount());
+            cache.put("hitRate", stats.hitRate());
+            cache.put("loadCount", stats.loadSuccessCount());
+            cache.put("averageLoadTime", averageLoadTime(stats));
+            cache.put("loadWaitCount", waitCounts.get(entry.getKey()));
+            cache.put("loadWaitTime", waitTimes.get(entry.getKey()));
+            cache.put("evictionCount", stats.evictionCount());
+            caches.put(entry.getKey(), cache);
+        }
+        return caches;
+    }
+
+    public Map<String, Long> getSize() {
+        return pool().getCacheSizes();
+    }
+
+    public Map<String, Long> getHitCount() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().hitCount());
+        }
+        return result;
+    }
+
+    public Map<String, Long> getMissCount() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().missCount());
+        }
+        return result;
+    }
+
+    public Map<String, Double> getHitRate() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().hitRate());
+        }
+        return result;
+    }
+
+    public Map<String, Long> getLoadCount() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().loadSuccessCount());
+        }
+        return result;
+    }
+
+    public Map<String, Double> getAverageLoadTime() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            result.put(entry.getKey(), averageLoadTime(entry.getValue()));
+        }
+        return result;
+    }
+
+    public Map<String, Long> getLoadWaitCount() {
+        return pool().getCacheLoadWaitCounts();
+    }
+
+    public Map<String, Double> getLoadWaitTime() {
+        return pool().getCacheLoadWaitTimes();
+    }
+
+    public Map<String, Long> getEvictionCount() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, CacheStats> entry : pool().getCacheStats().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().evictionCount());
+        }
+        return result;
+    }
+
+    double averageLoadTime(CacheStats stats) {
+        // nanoseconds to milliseconds
+        return stats.averageLoadPenalty() / 1000000d;
+    }
+
+    ResourcePool pool() {
+        return catalog.getResourcePool();
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the {@link ResourcePool} cache counters through JMX.
+ * <p>
+ * Every attribute is keyed by cache name, e.g. <code>dataStore</code>, <code>featureType</code>
+ * or <code>coverageReader</code>.
+ * </p>
+ */
+public interface ResourcePoolStatsMXBean {
+
+    /**
+     * Number of entries currently cached.
+     */
+    Map<String, Long> getSize();
+
+    /**
+     * Number of lookups that found the resource in the cache.
+     */
+    Map<String, Long> getHitCount();
+
+    /**
+     * Number of lookups that did not find the resource in the cache.
+     */
+    Map<String, Long> getMissCount();
+
+    /**
+     * Ratio of lookups that found the resource in the cache.
+     */
+    Map<String, Double> getHitRate();
+
+    /**
+     * Number of resources loaded and put in the cache.
+     */
+    Map<String, Long> getLoadCount();
+
+    /**
+     * Average time spent loading a resource, in milliseconds.
+     */
+    Map<String, Double> getAverageLoadTime();
+
+    /**
+     * Number of times a request waited for a resource being loaded by another request.
+     */
+    Map<String, Long> getLoadWaitCount();
+
+    /**
+     * Total time requests spent waiting for resources being loaded by other requests, in
+     * milliseconds.
+     */
+    Map<String, Double> getLoadWaitTime();
+
+    /**
+     * Number of resources evicted because of the size bound or because they were idle.
+     */
+    Map<String, Long> getEvictionCount();
+}
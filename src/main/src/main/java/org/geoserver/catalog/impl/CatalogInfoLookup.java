@@ -0,0 +1,380 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.geoserver.catalog.CatalogInfo;
+
+import com.google.common.base.Function;
+
+/**
+ * In memory lookup tables for catalog objects of a single kind, used by
+ * {@link DefaultCatalogFacade}.
+ * <p>
+ * Objects are kept in insertion order, indexed by id and by any number of named secondary keys
+ * such as name, workspace, namespace or store. All the structures are concurrent hash maps, so
+ * lookups never lock and adding or removing an object does not copy the others; modifications are
+ * serialized on the lookup itself. Insertion order is tracked with a sequence number per object,
+ * and objects sharing a key are returned in that order.
+ * </p>
+ * <p>
+ * When the indexes are rebuilt from scratch the new tables are filled aside and replaced in a
+ * single step, so concurrent lookups see either the old or the new ones, never partial ones.
+ * </p>
+ * <p>
+ * Workspaces and namespaces also keep track of the default one, persisted along with the objects
+ * as a <code>default="true"</code> attribute.
+ * </p>
+ * <p>
+ * Since the keys of an object change when a modification to it is committed,
+ * {@link #update(CatalogInfo)} must be called after a save to bring the secondary indexes up to
+ * date.
+ * </p>
+ */
+public class CatalogInfoLookup<T extends CatalogInfo> {
+
+    /**
+     * the lookup tables, replaced as a whole when rebuilt
+     */
+    volatile Tables<T> tables = new Tables<T>(Collections.<String>emptySet());
+
+    long sequence;
+
+    /**
+     * the default object, if any
+     */
+    volatile T defaultValue;
+
+    /**
+     * secondary index keys, by index name
+     */
+    Map<String, Function<? super T, String>> indexes =
+            new LinkedHashMap<String, Function<? super T, String>>();
+
+    /**
+     * Registers a secondary index.
+     * <p>
+     * Must be called before any object is added to the lookup. The key function may return
+     * <code>null</code> for objects that should not be part of the index.
+     * </p>
+     */
+    CatalogInfoLookup<T> index(String name, Function<? super T, String> key) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Indexes must be registered on an empty lookup");
+        }
+        indexes.put(name, key);
+        tables = new Tables<T>(indexes.keySet());
+        return this;
+    }
+
+    public synchronized void add(T info) {
+        tables.add(sequence++, info, keysOf(info));
+    }
+
+    public synchronized void remove(T info) {
+        T removed = tables.remove(info.getId());
+        if (removed != null && defaultValue == removed) {
+            defaultValue = null;
+        }
+    }
+
+    /**
+     * Re-indexes an object whose keys might have changed, usually after a modification to it has
+     * been committed.
+     */
+    public synchronized void update(T info) {
+        Tables<T> tables = this.tables;
+        T current = tables.ids.get(info.getId());
+        if (current == null) {
+            return;
+        }
+        tables.index(current, keysOf(current));
+    }
+
+    /**
+     * Rebuilds all the indexes from scratch, used after references held by the objects have
+     * been resolved.
+     */
+    public synchronized void reindex() {
+        Tables<T> rebuilt = new Tables<T>(indexes.keySet());
+        for (Map.Entry<Long, T> entry : tables.values.entrySet()) {
+            T info = entry.getValue();
+            rebuilt.add(entry.getKey(), info, keysOf(info));
+        }
+        tables = rebuilt;
+    }
+
+    public synchronized void clear() {
+        defaultValue = null;
+        tables = new Tables<T>(indexes.keySet());
+    }
+
+    /**
+     * Returns the object with the specified id, or <code>null</code> if it's not available.
+     */
+    public T byId(String id) {
+        return id == null ? null : tables.ids.get(id);
+    }
+
+    /**
+     * Returns the object with the specified id, or <code>null</code> if it's not available or
+     * it's not an instance of the specified class.
+     */
+    public <U extends T> U byId(String id, Class<U> clazz) {
+        T info = byId(id);
+        return clazz.isInstance(info) ? clazz.cast(info) : null;
+    }
+
+    /**
+     * Returns the default object, or <code>null</code> if there is none.
+     */
+    public T getDefault() {
+        return defaultValue;
+    }
+
+    /**
+     * Sets the default object, which has to be part of the lookup, or <code>null</code> to unset
+     * it.
+     */
+    public void setDefault(T info) {
+        defaultValue = info;
+    }
+
+    /**
+     * Returns the objects indexed under the specified key, in insertion order. The returned list
+     * is unmodifiable and never <code>null</code>.
+     */
+    public List<T> byKey(String index, String key) {
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        final Tables<T> tables = this.tables;
+        Map<String, T> matches = tables.entries.get(index).get(key);
+        if (matches == null) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<T>(matches.values());
+        if (result.size() > 1) {
+            Collections.sort(result, new Comparator<T>() {
+                public int compare(T o1, T o2) {
+                    return tables.sequenceOf(o1).compareTo(tables.sequenceOf(o2));
+                }
+            });
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the objects indexed under the specified key that are instances of the specified
+     * class, as a new list.
+     */
+    public <U extends T> List<U> byKey(String index, String key, Class<U> clazz) {
+        return filter(byKey(index, key), clazz);
+    }
+
+    /**
+     * Returns all the objects in the lookup, in insertion order, as an unmodifiable live view.
+     */
+    public Collection<T> values() {
+        return Collections.unmodifiableCollection(tables.values.values());
+    }
+
+    /**
+     * Returns a copy of all the objects in the lookup that are instances of the specified class.
+     */
+    public <U extends T> List<U> values(Class<U> clazz) {
+        return filter(tables.values.values(), clazz);
+    }
+
+    /**
+     * Returns whether the lookup maintains the specified secondary index.
+     */
+    public boolean hasIndex(String index) {
+        return indexes.containsKey(index);
+    }
+
+    public boolean isEmpty() {
+        return tables.values.isEmpty();
+    }
+
+    <U extends T> List<U> filter(Collection<T> infos, Class<U> clazz) {
+        List<U> result = new ArrayList<U>();
+        for (T info : infos) {
+            if (clazz.isInstance(info)) {
+                result.add(clazz.cast(info));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the keys of an object, in index order
+     */
+    String[] keysOf(T info) {
+        String[] keys = new String[indexes.size()];
+        int i = 0;
+        for (Function<? super T, String> key : indexes.values()) {
+            keys[i++] = key.apply(info);
+        }
+        return keys;
+    }
+
+    /**
+     * The lookup tables. Secondary indexes map a key to the set of objects sharing it, by id. Ids
+     * are used rather than the objects themselves as their hash code changes when they are
+     * modified.
+     */
+    static class Tables<T extends CatalogInfo> {
+
+        /**
+         * all objects, by insertion sequence
+         */
+        final ConcurrentSkipListMap<Long, T> values = new ConcurrentSkipListMap<Long, T>();
+
+        /**
+         * objects by id
+         */
+        final ConcurrentMap<String, T> ids = new ConcurrentHashMap<String, T>();
+
+        /**
+         * insertion sequence, by object id
+         */
+        final ConcurrentMap<String, Long> sequences = new ConcurrentHashMap<String, Long>();
+
+        /**
+         * the keys each object is currently indexed under, by object id, in index order
+         */
+        final ConcurrentMap<String, String[]> keys = new ConcurrentHashMap<String, String[]>();
+
+        /**
+         * secondary indexes, by index name, in index order
+         */
+        final Map<String, ConcurrentMap<String, ConcurrentMap<String, T>>> entries =
+                new LinkedHashMap<String, ConcurrentMap<String, ConcurrentMap<String, T>>>();
+
+        Tables(Collection<String> indexes) {
+            for (String index : indexes) {
+                entries.put(index, new ConcurrentHashMap<String, ConcurrentMap<String, T>>());
+            }
+        }
+
+        void add(Long seq, T info, String[] keys) {
+            // an object added again under the same id replaces the previous one, which stays
+            // visible until the new one is in place
+            values.put(seq, info);
+            Long previous = sequences.put(info.getId(), seq);
+            ids.put(info.getId(), info);
+            index(info, keys);
+            if (previous != null) {
+                values.remove(previous);
+            }
+        }
+
+        T remove(String id) {
+            T removed = ids.remove(id);
+            if (removed == null) {
+                return null;
+            }
+            unindex(removed);
+            Long seq = sequences.remove(id);
+            if (seq != null) {
+                values.remove(seq);
+            }
+            return removed;
+        }
+
+        /**
+         * Indexes the object under the specified keys, replacing the keys it is currently
+         * indexed under, if any. The object is added under the new keys before being removed
+         * from the stale ones, so that lookups never miss it.
+         */
+        void index(T info, String[] keys) {
+            String[] previous = this.keys.get(info.getId());
+            if (previous != null && Arrays.equals(previous, keys) && isIndexed(info, keys)) {
+                // nothing changed
+                return;
+            }
+            int i = 0;
+            for (ConcurrentMap<String, ConcurrentMap<String, T>> index : entries.values()) {
+                String key = keys[i++];
+                if (key != null) {
+                    ConcurrentMap<String, T> set = index.get(key);
+                    if (set == null) {
+                        set = new ConcurrentHashMap<String, T>();
+                        index.put(key, set);
+                    }
+                    set.put(info.getId(), info);
+                }
+            }
+            this.keys.put(info.getId(), keys);
+            if (previous != null) {
+                i = 0;
+                for (ConcurrentMap<String, ConcurrentMap<String, T>> index : entries.values()) {
+                    String key = previous[i];
+                    if (key != null && !key.equals(keys[i])) {
+                        unindex(index, key, info.getId());
+                    }
+                    i++;
+                }
+            }
+        }
+
+        boolean isIndexed(T info, String[] keys) {
+            int i = 0;
+            for (ConcurrentMap<String, ConcurrentMap<String, T>> index : entries.values()) {
+                String key = keys[i++];
+                if (key != null) {
+                    ConcurrentMap<String, T> set = index.get(key);
+                    if (set == null || set.get(info.getId()) != info) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void unindex(T info) {
+            String[] previous = keys.remove(info.getId());
+            if (previous == null) {
+                return;
+            }
+            int i = 0;
+            for (ConcurrentMap<String, ConcurrentMap<String, T>> index : entries.values()) {
+                String key = previous[i++];
+                if (key != null) {
+                    unindex(index, key, info.getId());
+                }
+            }
+        }
+
+        void unindex(ConcurrentMap<String, ConcurrentMap<String, T>> index, String key,
+                String id) {
+            ConcurrentMap<String, T> set = index.get(key);
+            if (set != null) {
+                set.remove(id);
+                if (set.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+
+        Long sequenceOf(T info) {
+            Long seq = sequences.get(info.getId());
+            // removed concurrently, sort it last
+            return seq == null ? Long.MAX_VALUE : seq;
+        }
+    }
+}
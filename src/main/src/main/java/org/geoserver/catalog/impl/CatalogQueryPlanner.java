@@ -0,0 +1,263 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.MultiValuedFilter.MatchAction;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Answers the indexable part of a catalog query out of the {@link DefaultCatalogFacade} lookup
+ * tables.
+ * <p>
+ * The planner recognizes equality comparisons against the properties the facade keeps indexes
+ * for, that is <code>id</code>, <code>name</code>, namespace <code>prefix</code> and
+ * <code>uri</code>, store and resource <code>enabled</code>, and the references to the
+ * containing workspace, namespace, store or resource, possibly nested (e.g.
+ * <code>resource.store.workspace.name = 'topp'</code>). <code>AND</code> combinations are
+ * answered out of the most selective indexable operand, <code>OR</code> combinations of
+ * indexable operands (<code>IN</code> lists) out of the union of their matches. Only string
+ * literals are looked up in the indexes, along with booleans for <code>enabled</code>, other
+ * literals are left to the full scan since the filter might convert them in ways the index keys
+ * can't match.
+ * </p>
+ * <p>
+ * The planner only narrows down the set of candidates, the full filter still has to be evaluated
+ * against them.
+ * </p>
+ */
+class CatalogQueryPlanner {
+
+    DefaultCatalogFacade facade;
+
+    CatalogQueryPlanner(DefaultCatalogFacade facade) {
+        this.facade = facade;
+    }
+
+    /**
+     * Returns the objects of the specified type that might match the filter, or <code>null</code>
+     * if the filter can't be answered out of the indexes and a full scan is needed.
+     */
+    public <T extends CatalogInfo> List<T> candidates(Class<T> of, Filter filter) {
+        List<? extends CatalogInfo> candidates = plan(of, filter);
+        if (candidates == null) {
+            return null;
+        }
+        List<T> result = new ArrayList<T>(candidates.size());
+        for (CatalogInfo info : candidates) {
+            if (of.isInstance(info)) {
+                result.add(of.cast(info));
+            }
+        }
+        return result;
+    }
+
+    List<? extends CatalogInfo> plan(Class<?> of, Filter filter) {
+        if (filter instanceof And) {
+            //pick the most selective of the indexable operands
+            List<? extends CatalogInfo> best = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                List<? extends CatalogInfo> candidates = plan(of, child);
+                if (candidates != null && (best == null || candidates.size() < best.size())) {
+                    best = candidates;
+                }
+            }
+            return best;
+        }
+        if (filter instanceof Or) {
+            //all operands need to be indexable
+            Map<String, CatalogInfo> union = new LinkedHashMap<String, CatalogInfo>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                List<? extends CatalogInfo> candidates = plan(of, child);
+                if (candidates == null) {
+                    return null;
+                }
+                for (CatalogInfo info : candidates) {
+                    union.put(info.getId(), info);
+                }
+            }
+            return new ArrayList<CatalogInfo>(union.values());
+        }
+        if (filter instanceof PropertyIsEqualTo) {
+            PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+            if (!equal.isMatchingCase() || equal.getMatchAction() == MatchAction.ALL) {
+                return null;
+            }
+            Expression e1 = equal.getExpression1();
+            Expression e2 = equal.getExpression2();
+            if (e1 instanceof Literal && e2 instanceof PropertyName) {
+                Expression tmp = e1;
+                e1 = e2;
+                e2 = tmp;
+            }
+            if (e1 instanceof PropertyName && e2 instanceof Literal) {
+                return equalTo(of, ((PropertyName) e1).getPropertyName(), ((Literal) e2).getValue());
+            }
+            return null;
+        }
+        if (filter instanceof PropertyIsNull) {
+            Expression e = ((PropertyIsNull) filter).getExpression();
+            if (e instanceof PropertyName && "workspace".equals(((PropertyName) e).getPropertyName())
+                    && (StyleInfo.class.isAssignableFrom(of) || LayerGroupInfo.class.isAssignableFrom(of))) {
+                //global styles and layer groups
+                return lookup(of).byKey(DefaultCatalogFacade.WORKSPACE, DefaultCatalogFacade.GLOBAL);
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the objects whose property equals the value, or <code>null</code> if the property is
+     * not indexed.
+     */
+    List<? extends CatalogInfo> equalTo(Class<?> of, String property, Object value) {
+        CatalogInfoLookup<? extends CatalogInfo> lookup = lookup(of);
+        if (lookup == null || value == null || property == null) {
+            return null;
+        }
+
+        int dot = property.indexOf('.');
+        if (dot > 0) {
+            //reference to a containing object, find it first and then follow the reference
+            String ref = property.substring(0, dot);
+            String index = reference(of, ref);
+            if (index == null) {
+                return null;
+            }
+            List<? extends CatalogInfo> refs = equalTo(referenceType(ref), property.substring(dot + 1), value);
+            return refs == null ? null : join(lookup, index, refs);
+        }
+
+        if (value instanceof CatalogInfo) {
+            //comparison against a containing object, by id
+            String index = reference(of, property);
+            return index == null ? null : lookup.byKey(index, ((CatalogInfo) value).getId());
+        }
+        if ("enabled".equals(property) && lookup.hasIndex(DefaultCatalogFacade.ENABLED)) {
+            //the only non textual index, a boolean or its string form
+            if (value instanceof Boolean) {
+                return lookup.byKey(DefaultCatalogFacade.ENABLED, value.toString());
+            }
+            if (!"true".equals(value) && !"false".equals(value)) {
+                return null;
+            }
+            return lookup.byKey(DefaultCatalogFacade.ENABLED, (String) value);
+        }
+        if (!(value instanceof String)) {
+            //the filter might convert other literals in ways the index keys can't tell
+            return null;
+        }
+        String key = (String) value;
+
+        if ("id".equals(property)) {
+            CatalogInfo info = lookup.byId(key);
+            return info == null ? Collections.<CatalogInfo>emptyList() : Collections.singletonList(info);
+        }
+        if ("name".equals(property) && LayerInfo.class.isAssignableFrom(of)) {
+            //layers are named after their resource
+            return join(lookup, DefaultCatalogFacade.RESOURCE,
+                    facade.resources.byKey(DefaultCatalogFacade.NAME, key));
+        }
+        if ("name".equals(property) || ("prefix".equals(property) && NamespaceInfo.class.isAssignableFrom(of))) {
+            return lookup.byKey(DefaultCatalogFacade.NAME, key);
+        }
+        if ("uri".equals(property) && NamespaceInfo.class.isAssignableFrom(of)) {
+            return lookup.byKey(DefaultCatalogFacade.URI, key);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index used to follow a reference from the specified type, or <code>null</code>
+     * if the reference is not indexed.
+     */
+    String reference(Class<?> of, String ref) {
+        if ("workspace".equals(ref) && (StoreInfo.class.isAssignableFrom(of)
+                || StyleInfo.class.isAssignableFrom(of) || LayerGroupInfo.class.isAssignableFrom(of))) {
+            return DefaultCatalogFacade.WORKSPACE;
+        }
+        if ("namespace".equals(ref) && ResourceInfo.class.isAssignableFrom(of)) {
+            return DefaultCatalogFacade.NAMESPACE;
+        }
+        if ("store".equals(ref) && ResourceInfo.class.isAssignableFrom(of)) {
+            return DefaultCatalogFacade.STORE;
+        }
+        if ("resource".equals(ref) && LayerInfo.class.isAssignableFrom(of)) {
+            return DefaultCatalogFacade.RESOURCE;
+        }
+        return null;
+    }
+
+    Class<?> referenceType(String ref) {
+        if ("workspace".equals(ref)) {
+            return WorkspaceInfo.class;
+        }
+        if ("namespace".equals(ref)) {
+            return NamespaceInfo.class;
+        }
+        if ("store".equals(ref)) {
+            return StoreInfo.class;
+        }
+        return ResourceInfo.class;
+    }
+
+    /**
+     * Collects the objects indexed under the id of any of the referenced objects.
+     */
+    List<? extends CatalogInfo> join(CatalogInfoLookup<? extends CatalogInfo> lookup, String index,
+            List<? extends CatalogInfo> refs) {
+        if (refs.size() == 1) {
+            return lookup.byKey(index, refs.get(0).getId());
+        }
+        List<CatalogInfo> result = new ArrayList<CatalogInfo>();
+        for (CatalogInfo ref : refs) {
+            result.addAll(lookup.byKey(index, ref.getId()));
+        }
+        return result;
+    }
+
+    CatalogInfoLookup<? extends CatalogInfo> lookup(Class<?> of) {
+        if (NamespaceInfo.class.isAssignableFrom(of)) {
+            return facade.namespaces;
+        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            return facade.workspaces;
+        } else if (StoreInfo.class.isAssignableFrom(of)) {
+            return facade.stores;
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            return facade.resources;
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            return facade.layers;
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            return facade.layerGroups;
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            return facade.styles;
+        } else if (MapInfo.class.isAssignableFrom(of)) {
+            return facade.maps;
+        }
+        return null;
+    }
+}
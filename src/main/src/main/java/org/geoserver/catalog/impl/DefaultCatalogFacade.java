@@ -5,20 +5,16 @@
 package org.geoserver.catalog.impl;
 
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
-import org.apache.commons.collections.MultiHashMap;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFacade;
 import org.geoserver.catalog.CatalogInfo;
@@ -38,12 +34,23 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 
 /**
  * Default catalog facade implementation in which all objects are stored in memory.
- * 
+ * <p>
+ * Objects are held in {@link CatalogInfoLookup} tables indexed by id, name and containing
+ * workspace/namespace/store, backed by concurrent collections: lookups never lock and by name
+ * lookups don't need to scan the whole catalog. Writes are serialized per object kind.
+ * </p>
+ * <p>
+ * The same indexes are used by {@link #list(Class, Filter, Integer, Integer, SortBy...)} and
+ * {@link #count(Class, Filter)} to narrow down the objects the filter is evaluated against, see
+ * {@link CatalogQueryPlanner}.
+ * </p>
+ *
  * @author Justin Deoliveira, OpenGeo
  *
  * TODO: look for any exceptions, move them back to catlaog as they indicate logic
@@ -51,375 +58,352 @@ import com.google.common.collect.Ordering;
 public class DefaultCatalogFacade extends AbstractCatalogFacade implements CatalogFacade {
 
     /**
-     * Contains the stores keyed by implementation class
+     * Index of objects by name (prefix for namespaces)
      */
-    protected MultiHashMap/* <Class> */stores = new MultiHashMap();
-    
+    static final String NAME = "name";
+
+    /**
+     * Index of namespaces by uri
+     */
+    static final String URI = "uri";
+
+    /**
+     * Index of objects by containing workspace id, global objects are indexed under
+     * {@link #GLOBAL}
+     */
+    static final String WORKSPACE = "workspace";
+
+    /**
+     * Index of resources by namespace id
+     */
+    static final String NAMESPACE = "namespace";
+
+    /**
+     * Index of resources by store id
+     */
+    static final String STORE = "store";
+
+    /**
+     * Index of layers by resource id
+     */
+    static final String RESOURCE = "resource";
+
+    /**
+     * Index of stores and resources by enabled flag, either "true" or "false"
+     */
+    static final String ENABLED = "enabled";
+
+    /**
+     * Workspace index key for global styles and layer groups
+     */
+    static final String GLOBAL = "";
+
+    /**
+     * stores
+     */
+    protected CatalogInfoLookup<StoreInfo> stores = newStoreLookup();
+
     /**
      * The default store keyed by workspace id
      */
-    protected Map<String, DataStoreInfo> defaultStores = new HashMap<String, DataStoreInfo>();
+    protected Map<String, DataStoreInfo> defaultStores = new ConcurrentHashMap<String, DataStoreInfo>();
 
     /**
      * resources
      */
-    protected MultiHashMap/* <Class> */resources = new MultiHashMap();
+    protected CatalogInfoLookup<ResourceInfo> resources = newResourceLookup();
 
     /**
      * namespaces
      */
-    protected HashMap<String, NamespaceInfo> namespaces = new HashMap<String, NamespaceInfo>();
+    protected CatalogInfoLookup<NamespaceInfo> namespaces = newNamespaceLookup();
 
     /**
      * workspaces
      */
-    protected HashMap<String, WorkspaceInfo> workspaces = new HashMap<String, WorkspaceInfo>();
-    
-    //JD: Using a CopyOnWriteArrayList is a temporary measure here to deal with some 
-    // concurrency issues around layer access. See GEOS-4404. Long term solution is to us
-    // concurrent collections (set and map) for all the collections in this class
+    protected CatalogInfoLookup<WorkspaceInfo> workspaces = newWorkspaceLookup();
+
     /**
      * layers
      */
-    protected List<LayerInfo> layers = new CopyOnWriteArrayList<LayerInfo>();
+    protected CatalogInfoLookup<LayerInfo> layers = newLayerLookup();
 
     /**
      * maps
      */
-    protected List<MapInfo> maps = new ArrayList<MapInfo>();
+    protected CatalogInfoLookup<MapInfo> maps = newMapLookup();
 
     /**
      * layer groups
      */
-    protected List<LayerGroupInfo> layerGroups = new CopyOnWriteArrayList<LayerGroupInfo>();
-    
+    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = newLayerGroupLookup();
+
     /**
      * styles
      */
-    protected List<StyleInfo> styles = new CopyOnWriteArrayList<StyleInfo>();
+    protected CatalogInfoLookup<StyleInfo> styles = newStyleLookup();
 
     /**
      * the catalog
      */
     private CatalogImpl catalog;
-    
+
+    /**
+     * answers list/count queries out of the lookup tables indexes
+     */
+    private CatalogQueryPlanner planner = new CatalogQueryPlanner(this);
+
     public DefaultCatalogFacade(Catalog catalog) {
         setCatalog(catalog);
     }
-    
+
     public void setCatalog(Catalog catalog) {
         this.catalog = (CatalogImpl) catalog;
     }
-    
+
     public Catalog getCatalog() {
         return catalog;
     }
-    
+
     //
     // Stores
     //
     public StoreInfo add(StoreInfo store) {
         resolve(store);
-        synchronized(stores) {
-            stores.put(store.getClass(), store);
-        }
+        stores.add(store);
         return ModificationProxy.create(store, StoreInfo.class);
     }
-    
-    public void remove(StoreInfo store) {
-        store = unwrap(store);
 
-        synchronized(stores) {
-            stores.remove(store.getClass(),store);
-        }
+    public void remove(StoreInfo store) {
+        stores.remove(unwrap(store));
     }
-    
+
     public void save(StoreInfo store) {
-        saved(store);
+        beforeSaved(store);
+        stores.update(commitProxy(store));
+        afterSaved(store);
     }
-    
+
     public <T extends StoreInfo> T detach(T store) {
         return store;
     }
 
     public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
-        List l = lookup(clazz, stores);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            StoreInfo store = (StoreInfo) i.next();
-            if (id.equals(store.getId())) {
-                return ModificationProxy.create( (T) store, clazz );
-            }
-        }
-
-        return null;
+        T store = stores.byId(id, clazz);
+        return store != null ? ModificationProxy.create(store, clazz) : null;
     }
 
     public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace,
             String name, Class<T> clazz) {
-        
-        List l = lookup(clazz, stores);
+
+        List<T> l = stores.byKey(NAME, name, clazz);
         if (workspace == ANY_WORKSPACE) {
-            //do an exhaustive search through all workspaces
-            ArrayList matches = new ArrayList();
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                T store = (T) i.next();
-                if ( name.equals( store.getName() ) ) {
-                    matches.add( store );
-                }
-            }
-            
-            if ( matches.size() == 1 ) {
-                return ModificationProxy.create( (T) matches.get( 0 ), clazz);
+            //any workspace will do, as long as the match is unique
+            if ( l.size() == 1 ) {
+                return ModificationProxy.create( l.get( 0 ), clazz);
             }
         }
-        else {
-            
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                StoreInfo store = (StoreInfo) i.next();
-                if (name.equals(store.getName()) && store.getWorkspace().equals( workspace )) {
-                    return ModificationProxy.create( (T) store, clazz );
+        else if (workspace != null) {
+            for (T store : l) {
+                if (workspace.getId().equals(id(store.getWorkspace()))) {
+                    return ModificationProxy.create( store, clazz );
                 }
             }
         }
         return null;
     }
-    
+
     public <T extends StoreInfo> List<T> getStoresByWorkspace(
             WorkspaceInfo workspace, Class<T> clazz) {
 
         //TODO: support ANY_WORKSPACE?
-        
+
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
-        }
-
-        List all = lookup(clazz, stores);
-        List matches = new ArrayList();
-
-        for (Iterator s = all.iterator(); s.hasNext();) {
-            StoreInfo store = (StoreInfo) s.next();
-            if (workspace.equals(store.getWorkspace())) {
-                matches.add(store);
+            if ( workspace == null ) {
+                return ModificationProxy.createList(new ArrayList<T>(), clazz);
             }
         }
 
+        List<T> matches = stores.byKey(WORKSPACE, workspace.getId(), clazz);
         return ModificationProxy.createList(matches,clazz);
     }
-    
+
     public List getStores(Class clazz) {
-        return ModificationProxy.createList(lookup(clazz, stores) , clazz);
+        return ModificationProxy.createList(stores.values(clazz) , clazz);
     }
-    
+
     public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
-        if(defaultStores.containsKey(workspace.getId())) {
-            DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+        DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+        if(defaultStore != null) {
             return ModificationProxy.create(defaultStore, DataStoreInfo.class);
         } else {
             return null;
         }
     }
-    
+
     public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
         DataStoreInfo old = defaultStores.get(workspace.getId());
-        synchronized(defaultStores) {
-            if (store != null) {
-                defaultStores.put(workspace.getId(), store);    
-            }
-            else {
-                defaultStores.remove(workspace.getId());
-            }
+        if (store != null) {
+            defaultStores.put(workspace.getId(), store);
         }
-        
+        else {
+            defaultStores.remove(workspace.getId());
+        }
+
         //fire change event
-        catalog.fireModified(catalog, 
+        catalog.fireModified(catalog,
             Arrays.asList("defaultDataStore"), Arrays.asList(old), Arrays.asList(store));
     }
-    
+
     //
     // Resources
     //
     public ResourceInfo add(ResourceInfo resource) {
         resolve(resource);
-        synchronized(resources) {
-            resources.put(resource.getClass(), resource);
-        }
+        resources.add(resource);
         return ModificationProxy.create(resource, ResourceInfo.class);
     }
-    
+
     public void remove(ResourceInfo resource) {
-        resource = unwrap(resource);
-        synchronized(resources) {
-            resources.remove(resource.getClass(), resource);
-        }
+        resources.remove(unwrap(resource));
     }
-    
-   
+
+
     public void save(ResourceInfo resource) {
-        saved(resource);
+        beforeSaved(resource);
+        resources.update(commitProxy(resource));
+        afterSaved(resource);
     }
-    
+
     public <T extends ResourceInfo> T detach(T resource) {
         return resource;
     }
-    
-    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
-        List l = lookup(clazz, resources);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) i.next();
-            if (id.equals(resource.getId())) {
-                return ModificationProxy.create((T) resource, clazz );
-            }
-        }
 
-        return null;
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        T resource = resources.byId(id, clazz);
+        return resource != null ? ModificationProxy.create(resource, clazz) : null;
     }
-    
+
     public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name, Class<T> clazz) {
-        
-        List l = lookup(clazz, resources);
-        
+
+        List<T> l = resources.byKey(NAME, name, clazz);
+
         if (namespace == ANY_NAMESPACE) {
-            //do an exhaustive lookup
-            List matches = new ArrayList();
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                ResourceInfo resource = (ResourceInfo) i.next();
-                if (name.equals(resource.getName())) {
-                    matches.add( resource );
-                }
-            }
-            
-            if ( matches.size() == 1 ) {
-                return ModificationProxy.create( (T) matches.get( 0 ), clazz );
+            //any namespace will do, as long as the match is unique
+            if ( l.size() == 1 ) {
+                return ModificationProxy.create( l.get( 0 ), clazz );
             }
         }
-        else {
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                ResourceInfo resource = (ResourceInfo) i.next();
-                if (name.equals(resource.getName())) {
-                    NamespaceInfo namespace1 = resource.getNamespace();
-                    if (namespace1 != null && namespace1.equals( namespace )) {
-                            return ModificationProxy.create( (T) resource, clazz );
-                    }
+        else if (namespace != null) {
+            for (T resource : l) {
+                if (namespace.getId().equals(id(resource.getNamespace()))) {
+                    return ModificationProxy.create( resource, clazz );
                 }
             }
         }
 
         return null;
     }
- 
+
     public List getResources(Class clazz) {
-        return ModificationProxy.createList( lookup(clazz,resources), clazz );
+        return ModificationProxy.createList( resources.values(clazz), clazz );
     }
-    
+
     public List getResourcesByNamespace(NamespaceInfo namespace, Class clazz) {
         //TODO: support ANY_NAMESPACE?
-        
-        List all = lookup(clazz, resources);
-        List matches = new ArrayList();
 
         if ( namespace == null ) {
             namespace = getDefaultNamespace();
         }
 
-        for (Iterator r = all.iterator(); r.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if (namespace != null ) {
-                if (namespace.equals(resource.getNamespace())) {
-                    matches.add( resource );
+        List matches;
+        if ( namespace != null ) {
+            matches = resources.byKey(NAMESPACE, namespace.getId(), clazz);
+        }
+        else {
+            matches = new ArrayList();
+            for (ResourceInfo resource : resources.values()) {
+                if ( clazz.isInstance(resource) && resource.getNamespace() == null ) {
+                    matches.add(resource);
                 }
             }
-            else if ( resource.getNamespace() == null ) {
-                matches.add(resource);
-            }
         }
 
         return ModificationProxy.createList( matches, clazz );
     }
-    
+
     public <T extends ResourceInfo> T getResourceByStore(StoreInfo store,
             String name, Class<T> clazz) {
-        List all = lookup(clazz,resources);
-        for (Iterator r = all.iterator(); r.hasNext(); ) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if ( name.equals( resource.getName() ) && store.equals( resource.getStore() ) ) {
-                return ModificationProxy.create((T)resource, clazz);
+        for (T resource : resources.byKey(NAME, name, clazz)) {
+            if ( store.getId().equals( id(resource.getStore()) ) ) {
+                return ModificationProxy.create(resource, clazz);
             }
         }
-        
+
         return null;
     }
-    
+
     public <T extends ResourceInfo> List<T> getResourcesByStore(
             StoreInfo store, Class<T> clazz) {
-        List all = lookup(clazz,resources);
-        List matches = new ArrayList();
-        
-        for (Iterator r = all.iterator(); r.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if (store.equals(resource.getStore())) {
-                matches.add(resource);
-            }
-        }
-
+        List<T> matches = resources.byKey(STORE, store.getId(), clazz);
         return  ModificationProxy.createList( matches, clazz );
     }
-    
+
     //
     // Layers
     //
     public LayerInfo add(LayerInfo layer) {
         resolve(layer);
         layers.add(layer);
-        
+
         return ModificationProxy.create(layer, LayerInfo.class);
     }
-    
+
     public void remove(LayerInfo layer) {
         layers.remove(unwrap(layer));
     }
-    
+
     public void save(LayerInfo layer) {
-        saved(layer);
+        beforeSaved(layer);
+        LayerInfo committed = commitProxy(layer);
+        layers.update(committed);
+        // layers are named after their resource, renaming the layer renames the resource
+        if (committed.getResource() != null) {
+            resources.update(unwrap(committed.getResource()));
+        }
+        afterSaved(layer);
     }
-    
+
     public LayerInfo detach(LayerInfo layer) {
         return layer;
     }
-    
-    public LayerInfo getLayer(String id) {
-        for (LayerInfo layer : layers) {
-            if (id.equals(layer.getId())) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
 
-        return null;
+    public LayerInfo getLayer(String id) {
+        LayerInfo layer = layers.byId(id, LayerInfo.class);
+        return layer != null ? ModificationProxy.create( layer, LayerInfo.class ) : null;
     }
-    
+
     public LayerInfo getLayerByName(String name) {
-        for (LayerInfo layer : layers) {
-            if ( name.equals( layer.getName() ) ) {
-                return ModificationProxy.create( layer, LayerInfo.class );
+        //layers are named after their resource
+        for (ResourceInfo resource : resources.byKey(NAME, name)) {
+            List<LayerInfo> l = layers.byKey(RESOURCE, resource.getId());
+            if ( !l.isEmpty() ) {
+                return ModificationProxy.create( l.get( 0 ), LayerInfo.class );
             }
         }
-      
+
         return null;
     }
-    
-    public List<LayerInfo> getLayers(ResourceInfo resource) {
-        List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( resource.equals( layer.getResource() ) ) {
-                matches.add( layer );
-            }
-        }
 
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        List<LayerInfo> matches = layers.byKey(RESOURCE, resource.getId(), LayerInfo.class);
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
-    
+
     public List<LayerInfo> getLayers(StyleInfo style) {
         List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
+        for (LayerInfo layer : layers.values()) {
             if ( style.equals( layer.getDefaultStyle() ) || layer.getStyles().contains( style ) ) {
                 matches.add( layer );
             }
@@ -427,135 +411,109 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
-    
+
     public List<LayerInfo> getLayers() {
-        return ModificationProxy.createList( new ArrayList(layers), LayerInfo.class );
+        return ModificationProxy.createList( new ArrayList(layers.values()), LayerInfo.class );
     }
-    
+
     //
     // Maps
     //
     public MapInfo add(MapInfo map) {
         resolve(map);
-        synchronized(maps) {
-            maps.add(map);
-        }
-        
+        maps.add(map);
+
         return ModificationProxy.create(map, MapInfo.class);
     }
 
     public void remove(MapInfo map) {
-        synchronized(maps) {
-            maps.remove(unwrap(map));
-        }
+        maps.remove(unwrap(map));
     }
 
     public void save(MapInfo map) {
-        saved( map );
+        beforeSaved(map);
+        maps.update(commitProxy(map));
+        afterSaved(map);
     }
-    
+
     public MapInfo detach(MapInfo map) {
         return map;
     }
-    
-    public MapInfo getMap(String id) {
-        for (MapInfo map : maps) {
-            if (id.equals(map.getId())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
 
-        return null;
+    public MapInfo getMap(String id) {
+        MapInfo map = maps.byId(id, MapInfo.class);
+        return map != null ? ModificationProxy.create(map,MapInfo.class) : null;
     }
 
     public MapInfo getMapByName(String name) {
-        for (MapInfo map : maps) {
-            if (name.equals(map.getName())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        List<MapInfo> l = maps.byKey(NAME, name);
+        return !l.isEmpty() ? ModificationProxy.create(l.get(0),MapInfo.class) : null;
     }
-    
+
     public List<MapInfo> getMaps() {
-        return ModificationProxy.createList( new ArrayList(maps), MapInfo.class );
+        return ModificationProxy.createList( new ArrayList(maps.values()), MapInfo.class );
     }
-    
+
     //
     // Layer groups
     //
     public LayerGroupInfo add (LayerGroupInfo layerGroup) {
         resolve(layerGroup);
-        synchronized(layerGroups) {
-            layerGroups.add( layerGroup );
-        }
+        layerGroups.add( layerGroup );
         return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
     }
-    
+
     /* (non-Javadoc)
      * @see org.geoserver.catalog.impl.CatalogDAO#remove(org.geoserver.catalog.LayerGroupInfo)
      */
     public void remove(LayerGroupInfo layerGroup) {
-        synchronized(layerGroups) {
-            layerGroups.remove( unwrap(layerGroup) );
-        }
+        layerGroups.remove( unwrap(layerGroup) );
     }
-    
+
     /* (non-Javadoc)
      * @see org.geoserver.catalog.impl.CatalogDAO#save(org.geoserver.catalog.LayerGroupInfo)
      */
     public void save(LayerGroupInfo layerGroup) {
-        saved(layerGroup);
+        beforeSaved(layerGroup);
+        layerGroups.update(commitProxy(layerGroup));
+        afterSaved(layerGroup);
     }
-    
+
     public LayerGroupInfo detach(LayerGroupInfo layerGroup) {
         return layerGroup;
     }
-    
+
     public List<LayerGroupInfo> getLayerGroups() {
-        return ModificationProxy.createList( new ArrayList(layerGroups), LayerGroupInfo.class );
+        return ModificationProxy.createList( new ArrayList(layerGroups.values()), LayerGroupInfo.class );
     }
 
 
     public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
         //TODO: support ANY_WORKSPACE?
-        
+
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
         }
 
-        List<LayerGroupInfo> matches = new ArrayList();
-
-        for (Iterator s = layerGroups.iterator(); s.hasNext();) {
-            LayerGroupInfo layerGroup = (LayerGroupInfo) s.next();
-            boolean match = false;
-            if (workspace == NO_WORKSPACE) {
-                match = layerGroup.getWorkspace() == null;
-            }
-            else {
-                match = workspace.equals(layerGroup.getWorkspace());
-            }
-            if (match) {
-                matches.add(layerGroup);
-            }
+        String key;
+        if (workspace == NO_WORKSPACE) {
+            key = GLOBAL;
+        }
+        else {
+            key = workspace != null ? workspace.getId() : null;
         }
 
-
+        List<LayerGroupInfo> matches = layerGroups.byKey(WORKSPACE, key, LayerGroupInfo.class);
         return ModificationProxy.createList(matches,LayerGroupInfo.class);
 
     }
 
     public LayerGroupInfo getLayerGroup(String id) {
-        for (LayerGroupInfo layerGroup : layerGroups ) {
-            if ( id.equals( layerGroup.getId() ) ) {
-                return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
-            }
-        }
-        
-        return null;
+        LayerGroupInfo layerGroup = layerGroups.byId(id, LayerGroupInfo.class);
+        return layerGroup != null ?
+                ModificationProxy.create(layerGroup,LayerGroupInfo.class) : null;
     }
-    
+
     @Override
     public LayerGroupInfo getLayerGroupByName(String name) {
         return getLayerGroupByName(NO_WORKSPACE, name);
@@ -566,10 +524,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         ArrayList<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>(2);
 
-        for (LayerGroupInfo layerGroup : layerGroups) {
-            if (!name.equals(layerGroup.getName())) {
-                continue;
-            }
+        for (LayerGroupInfo layerGroup : layerGroups.byKey(NAME, name)) {
             WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
             if (NO_WORKSPACE == workspace) {
                 if (lgWorkspace == null) {
@@ -577,7 +532,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 }
             } else if (ANY_WORKSPACE == workspace) {
                 matches.add(layerGroup);
-            } else if (lgWorkspace != null && workspace.equals(lgWorkspace)) {
+            } else if (lgWorkspace != null && workspace.getId().equals(lgWorkspace.getId())) {
                 matches.add(layerGroup);
             }
             if (matches.size() > 1) {
@@ -596,100 +551,66 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public NamespaceInfo add(NamespaceInfo namespace) {
         resolve(namespace);
-        synchronized(namespaces) {
-            namespaces.put(namespace.getPrefix(),namespace);
-        }
-        
+        namespaces.add(namespace);
+
         return ModificationProxy.create(namespace, NamespaceInfo.class);
     }
-    
+
     public void remove(NamespaceInfo namespace) {
-        synchronized(namespaces) {
-            NamespaceInfo defaultNamespace = getDefaultNamespace();
-            if (namespace.equals(defaultNamespace)) {
-                namespaces.remove(null);
-                namespaces.remove(Catalog.DEFAULT);
-            }
-            
-            namespaces.remove(namespace.getPrefix());
-        }
+        //also unsets it as the default
+        namespaces.remove(unwrap(namespace));
     }
 
     public void save(NamespaceInfo namespace) {
-        ModificationProxy h = 
-            (ModificationProxy) Proxy.getInvocationHandler(namespace);
-        
-        NamespaceInfo ns = (NamespaceInfo) h.getProxyObject();
-        if ( !namespace.getPrefix().equals( ns.getPrefix() ) ) {
-            synchronized (namespaces) {
-                namespaces.remove( ns.getPrefix() );
-                namespaces.put( namespace.getPrefix(), ns );
-            }
-        }
-        
-        saved(namespace);
+        beforeSaved(namespace);
+        namespaces.update(commitProxy(namespace));
+        afterSaved(namespace);
     }
 
     public NamespaceInfo detach(NamespaceInfo namespace) {
         return namespace;
     }
-    
+
     public NamespaceInfo getDefaultNamespace() {
-        return namespaces.get(null) != null ? 
-                ModificationProxy.create(namespaces.get( null ),NamespaceInfo.class) : null;
+        NamespaceInfo ns = namespaces.getDefault();
+        return ns != null ? ModificationProxy.create(ns,NamespaceInfo.class) : null;
     }
 
     public void setDefaultNamespace(NamespaceInfo defaultNamespace) {
-        NamespaceInfo ns = defaultNamespace != null ? namespaces.get(defaultNamespace.getPrefix()) : null;
-        NamespaceInfo old = namespaces.get(null);
-        if(ns != null) {
-            namespaces.put( null, ns );
-            namespaces.put( Catalog.DEFAULT, ns );
-        } else {
-            namespaces.remove( null);
-            namespaces.remove( Catalog.DEFAULT);
-        }
-        
+        NamespaceInfo ns = defaultNamespace != null ?
+                first(namespaces.byKey(NAME, defaultNamespace.getPrefix())) : null;
+        NamespaceInfo old = namespaces.getDefault();
+        namespaces.setDefault(ns);
+
         //fire change event
-        catalog.fireModified(catalog, 
+        catalog.fireModified(catalog,
             Arrays.asList("defaultNamespace"), Arrays.asList(old), Arrays.asList(defaultNamespace));
-        
+
     }
-    
-    public NamespaceInfo getNamespace(String id) {
-        for (NamespaceInfo namespace : namespaces.values() ) {
-            if (id.equals(namespace.getId())) {
-                return ModificationProxy.create( namespace, NamespaceInfo.class ); 
-            }
-        }
 
-        return null;
+    public NamespaceInfo getNamespace(String id) {
+        NamespaceInfo ns = namespaces.byId(id, NamespaceInfo.class);
+        return ns != null ? ModificationProxy.create( ns, NamespaceInfo.class ) : null;
     }
 
     public NamespaceInfo getNamespaceByPrefix(String prefix) {
-        NamespaceInfo ns = namespaces.get( prefix ); 
+        NamespaceInfo ns;
+        if (prefix == null || Catalog.DEFAULT.equals(prefix)) {
+            ns = namespaces.getDefault();
+        }
+        else {
+            ns = first(namespaces.byKey(NAME, prefix));
+        }
         return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class ) : null;
     }
 
     public NamespaceInfo getNamespaceByURI(String uri) {
-        for (NamespaceInfo namespace : namespaces.values() ) {
-            if (uri.equals(namespace.getURI())) {
-                return ModificationProxy.create( namespace, NamespaceInfo.class );
-            }
-        }
-
-        return null;
+        NamespaceInfo ns = first(namespaces.byKey(URI, uri));
+        return ns != null ? ModificationProxy.create( ns, NamespaceInfo.class ) : null;
     }
 
     public List getNamespaces() {
-        ArrayList<NamespaceInfo> ns = new ArrayList<NamespaceInfo>();
-        for ( Map.Entry<String,NamespaceInfo> e : namespaces.entrySet() ) {
-            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT)) 
-                continue;
-            ns.add( e.getValue() );
-        }
-        
-        return ModificationProxy.createList( ns, NamespaceInfo.class );
+        return ModificationProxy.createList( namespaces.values(NamespaceInfo.class), NamespaceInfo.class );
     }
 
     //
@@ -698,31 +619,19 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     // Workspace methods
     public WorkspaceInfo add(WorkspaceInfo workspace) {
         resolve(workspace);
-        synchronized (workspaces) {
-            workspaces.put( workspace.getName(), workspace );
-        }
+        workspaces.add(workspace);
         return ModificationProxy.create(workspace, WorkspaceInfo.class);
     }
-    
+
     public void remove(WorkspaceInfo workspace) {
-        synchronized(workspaces) {
-            workspaces.remove( workspace.getName() );
-        }
+        //also unsets it as the default
+        workspaces.remove(unwrap(workspace));
     }
-    
+
     public void save(WorkspaceInfo workspace) {
-        ModificationProxy h = 
-            (ModificationProxy) Proxy.getInvocationHandler(workspace);
-        
-        WorkspaceInfo ws = (WorkspaceInfo) h.getProxyObject();
-        if ( !workspace.getName().equals( ws.getName() ) ) {
-            synchronized (workspaces) {
-                workspaces.remove( ws.getName() );
-                workspaces.put( workspace.getName(), ws );
-            }
-        }
-        
-        saved(workspace);
+        beforeSaved(workspace);
+        workspaces.update(commitProxy(workspace));
+        afterSaved(workspace);
     }
 
     public WorkspaceInfo detach(WorkspaceInfo workspace) {
@@ -730,80 +639,58 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public WorkspaceInfo getDefaultWorkspace() {
-        return workspaces.containsKey( null ) ? 
-                ModificationProxy.create( workspaces.get( null ), WorkspaceInfo.class ) : null;
+        WorkspaceInfo ws = workspaces.getDefault();
+        return ws != null ? ModificationProxy.create( ws, WorkspaceInfo.class ) : null;
     }
-    
+
     public void setDefaultWorkspace(WorkspaceInfo workspace) {
-        WorkspaceInfo old = workspaces.get(null);
-        
-        synchronized(workspaces) {
-            if (workspace != null) {
-                WorkspaceInfo ws = workspaces.get(workspace.getName());
-                workspaces.put( null, ws );
-                workspaces.put( "default", ws );
-            }
-            else {
-                workspaces.remove(null);
-                workspaces.remove("default");
-            }
-            
-        }
-        
+        WorkspaceInfo ws = workspace != null ?
+                first(workspaces.byKey(NAME, workspace.getName())) : null;
+        WorkspaceInfo old = workspaces.getDefault();
+        workspaces.setDefault(ws);
+
         //fire change event
-        catalog.fireModified(catalog, 
+        catalog.fireModified(catalog,
             Arrays.asList("defaultWorkspace"), Arrays.asList(old), Arrays.asList(workspace));
     }
-    
+
     public List<WorkspaceInfo> getWorkspaces() {
-        ArrayList<WorkspaceInfo> ws = new ArrayList<WorkspaceInfo>();
-        
-        //strip out default namespace
-        for ( Map.Entry<String, WorkspaceInfo> e : workspaces.entrySet() ) {
-            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT) ) {
-                continue;
-            }
-            
-            ws.add( e.getValue() );
-        }
-        
-        return ModificationProxy.createList( ws, WorkspaceInfo.class );
+        return ModificationProxy.createList( workspaces.values(WorkspaceInfo.class), WorkspaceInfo.class );
     }
-    
+
     public WorkspaceInfo getWorkspace(String id) {
-        for ( WorkspaceInfo ws : workspaces.values() ) {
-            if ( id.equals( ws.getId() ) ) {
-                return ModificationProxy.create(ws,WorkspaceInfo.class);
-            }
-        }
-        
-        return null;
+        WorkspaceInfo ws = workspaces.byId(id, WorkspaceInfo.class);
+        return ws != null ? ModificationProxy.create(ws,WorkspaceInfo.class) : null;
     }
-    
+
     public WorkspaceInfo getWorkspaceByName(String name) {
-        return workspaces.containsKey(name) ? 
-                ModificationProxy.create( workspaces.get( name ), WorkspaceInfo.class ) : null;
+        WorkspaceInfo ws;
+        if (name == null || Catalog.DEFAULT.equals(name)) {
+            ws = workspaces.getDefault();
+        }
+        else {
+            ws = first(workspaces.byKey(NAME, name));
+        }
+        return ws != null ? ModificationProxy.create( ws, WorkspaceInfo.class ) : null;
     }
-    
+
     //
     // Styles
     //
     public StyleInfo add(StyleInfo style) {
         resolve(style);
-        synchronized(styles) {
-            styles.add(style);
-        }
+        styles.add(style);
         return ModificationProxy.create(style, StyleInfo.class);
     }
 
     public void remove(StyleInfo style) {
-        synchronized(styles) {
-            styles.remove(unwrap(style));
-        }
+        styles.remove(unwrap(style));
     }
 
     public void save(StyleInfo style) {
-        saved( style );
+        beforeSaved(style);
+        styles.update(commitProxy(style));
+        afterSaved(style);
     }
 
     public StyleInfo detach(StyleInfo style) {
@@ -811,20 +698,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public StyleInfo getStyle(String id) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (id.equals(style.getId())) {
-                return ModificationProxy.create(style,StyleInfo.class);
-            }
-        }
-
-        return null;
+        StyleInfo style = styles.byId(id, StyleInfo.class);
+        return style != null ? ModificationProxy.create(style,StyleInfo.class) : null;
     }
 
     public StyleInfo getStyleByName(String name) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (null == style.getWorkspace() && name.equals(style.getName())) {
+        for (StyleInfo style : styles.byKey(NAME, name)) {
+            if (null == style.getWorkspace()) {
                 return ModificationProxy.create(style, StyleInfo.class);
             }
         }
@@ -840,79 +720,192 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if (null == name) {
             throw new NullPointerException("name");
         }
+        List<StyleInfo> l = styles.byKey(NAME, name);
         if (workspace == ANY_WORKSPACE) {
-            //do an exhaustive search through all workspaces
-            ArrayList<StyleInfo> matches = new ArrayList();
-            for (Iterator i = styles.iterator(); i.hasNext();) {
-                StyleInfo style = (StyleInfo) i.next();
-                if ( name.equals( style.getName() ) ) {
-                    matches.add( style );
-                }
-            }
-            
-            if ( matches.size() == 1 ) {
-                return ModificationProxy.create( matches.get( 0 ), StyleInfo.class);
+            //any workspace will do, as long as the match is unique
+            if ( l.size() == 1 ) {
+                return ModificationProxy.create( l.get( 0 ), StyleInfo.class);
             }
         }
         else {
-            for (Iterator i = styles.iterator(); i.hasNext();) {
-                StyleInfo style = (StyleInfo) i.next();
-                if (name.equals(style.getName())) {
-                    if (style.getWorkspace() != null && style.getWorkspace().equals(workspace) || 
-                        style.getWorkspace() == null && workspace == NO_WORKSPACE) {
-                        return ModificationProxy.create( style, StyleInfo.class );
-                    }
+            for (StyleInfo style : l) {
+                if (style.getWorkspace() != null && workspace != NO_WORKSPACE
+                        && workspace.getId().equals(style.getWorkspace().getId()) ||
+                    style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                    return ModificationProxy.create( style, StyleInfo.class );
                 }
             }
         }
         return null;
     }
-    
+
     public List<StyleInfo> getStyles() {
-        return ModificationProxy.createList(new ArrayList<StyleInfo>(styles), StyleInfo.class);
+        return ModificationProxy.createList(new ArrayList<StyleInfo>(styles.values()), StyleInfo.class);
     }
 
     public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
         //TODO: support ANY_WORKSPACE?
-        
+
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
         }
 
-        List<StyleInfo> matches = new ArrayList();
+        String key;
+        if (workspace == NO_WORKSPACE) {
+            key = GLOBAL;
+        }
+        else {
+            key = workspace != null ? workspace.getId() : null;
+        }
 
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            boolean match = false;
-            if (workspace == NO_WORKSPACE) {
-                match = style.getWorkspace() == null;
+        List<StyleInfo> matches = styles.byKey(WORKSPACE, key, StyleInfo.class);
+        return ModificationProxy.createList(matches,StyleInfo.class);
+    }
+
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    static <T> T first(List<T> list) {
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    //
+    // Lookup tables
+    //
+    static CatalogInfoLookup<StoreInfo> newStoreLookup() {
+        return new CatalogInfoLookup<StoreInfo>().index(NAME, new Function<StoreInfo, String>() {
+            public String apply(StoreInfo store) {
+                return store.getName();
             }
-            else {
-                match = workspace.equals(style.getWorkspace());
+        }).index(WORKSPACE, new Function<StoreInfo, String>() {
+            public String apply(StoreInfo store) {
+                return id(store.getWorkspace());
             }
-            if (match) {
-                matches.add(style);
+        }).index(ENABLED, new Function<StoreInfo, String>() {
+            public String apply(StoreInfo store) {
+                return String.valueOf(store.isEnabled());
             }
-        }
+        });
+    }
 
-        return ModificationProxy.createList(matches,StyleInfo.class);
+    static CatalogInfoLookup<ResourceInfo> newResourceLookup() {
+        return new CatalogInfoLookup<ResourceInfo>().index(NAME, new Function<ResourceInfo, String>() {
+            public String apply(ResourceInfo resource) {
+                return resource.getName();
+            }
+        }).index(NAMESPACE, new Function<ResourceInfo, String>() {
+            public String apply(ResourceInfo resource) {
+                return id(resource.getNamespace());
+            }
+        }).index(STORE, new Function<ResourceInfo, String>() {
+            public String apply(ResourceInfo resource) {
+                return id(resource.getStore());
+            }
+        }).index(ENABLED, new Function<ResourceInfo, String>() {
+            public String apply(ResourceInfo resource) {
+                return String.valueOf(resource.isEnabled());
+            }
+        });
     }
 
-    <T> List<T> lookup(Class<T> clazz, MultiHashMap map) {
-        ArrayList<T> result = new ArrayList<T>();
-        for (Iterator k = map.keySet().iterator(); k.hasNext();) {
-            Class key = (Class) k.next();
-            if (clazz.isAssignableFrom(key)) {
-                Collection value = map.getCollection(key);
-                // the map could have been modified in the meantime and the collection removed,
-                // check before adding 
-                if(value != null) {
-                    result.addAll(value);
-                }
+    static CatalogInfoLookup<NamespaceInfo> newNamespaceLookup() {
+        return new CatalogInfoLookup<NamespaceInfo>().index(NAME, new Function<NamespaceInfo, String>() {
+            public String apply(NamespaceInfo namespace) {
+                return namespace.getPrefix();
+            }
+        }).index(URI, new Function<NamespaceInfo, String>() {
+            public String apply(NamespaceInfo namespace) {
+                return namespace.getURI();
+            }
+        });
+    }
+
+    static CatalogInfoLookup<WorkspaceInfo> newWorkspaceLookup() {
+        return new CatalogInfoLookup<WorkspaceInfo>().index(NAME, new Function<WorkspaceInfo, String>() {
+            public String apply(WorkspaceInfo workspace) {
+                return workspace.getName();
+            }
+        });
+    }
+
+    static CatalogInfoLookup<LayerInfo> newLayerLookup() {
+        return new CatalogInfoLookup<LayerInfo>().index(RESOURCE, new Function<LayerInfo, String>() {
+            public String apply(LayerInfo layer) {
+                return id(layer.getResource());
+            }
+        });
+    }
+
+    static CatalogInfoLookup<MapInfo> newMapLookup() {
+        return new CatalogInfoLookup<MapInfo>().index(NAME, new Function<MapInfo, String>() {
+            public String apply(MapInfo map) {
+                return map.getName();
+            }
+        });
+    }
+
+    static CatalogInfoLookup<LayerGroupInfo> newLayerGroupLookup() {
+        return new CatalogInfoLookup<LayerGroupInfo>().index(NAME, new Function<LayerGroupInfo, String>() {
+            public String apply(LayerGroupInfo layerGroup) {
+                return layerGroup.getName();
+            }
+        }).index(WORKSPACE, new Function<LayerGroupInfo, String>() {
+            public String apply(LayerGroupInfo layerGroup) {
+                return layerGroup.getWorkspace() != null ? layerGroup.getWorkspace().getId() : GLOBAL;
+            }
+        });
+    }
+
+    static CatalogInfoLookup<StyleInfo> newStyleLookup() {
+        return new CatalogInfoLookup<StyleInfo>().index(NAME, new Function<StyleInfo, String>() {
+            public String apply(StyleInfo style) {
+                return style.getName();
+            }
+        }).index(WORKSPACE, new Function<StyleInfo, String>() {
+            public String apply(StyleInfo style) {
+                return style.getWorkspace() != null ? style.getWorkspace().getId() : GLOBAL;
+            }
+        });
+    }
+
+    /**
+     * Copies the objects of a lookup into a new, fully indexed one, resolving them along the way.
+     * <p>
+     * Lookups read back by the persister carry no indexes and hold unresolved references, which
+     * is also the case for any of them that was left <code>null</code>.
+     * </p>
+     */
+    <T extends CatalogInfo> CatalogInfoLookup<T> resolve(CatalogInfoLookup<T> source,
+            CatalogInfoLookup<T> target) {
+        if (source != null) {
+            for (T info : source.values()) {
+                resolve(info);
+                target.add(info);
             }
+            target.setDefault(source.getDefault());
         }
+        return target;
+    }
 
-        return result;
+    void resolve(CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            resolve((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            resolve((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            resolve((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            resolve((ResourceInfo) info);
+        } else if (info instanceof StyleInfo) {
+            resolve((StyleInfo) info);
+        } else if (info instanceof LayerInfo) {
+            resolve((LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            resolve((LayerGroupInfo) info);
+        } else if (info instanceof MapInfo) {
+            resolve((MapInfo) info);
+        }
     }
 
     public void dispose() {
@@ -926,81 +919,47 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if ( maps != null ) maps.clear();
         if ( styles != null ) styles.clear();
     }
-    
+
     public void resolve() {
-        //JD creation checks are done here b/c when xstream depersists 
+        //JD creation checks are done here b/c when xstream depersists
         // some members may be left null
-        
-        //workspaces
-        if ( workspaces == null ) {
-            workspaces = new HashMap<String, WorkspaceInfo>();
+        if ( planner == null ) {
+            planner = new CatalogQueryPlanner(this);
         }
-        for ( WorkspaceInfo ws : workspaces.values() ) {
-            resolve(ws);
-        }
-        
+
+        //workspaces
+        workspaces = resolve(workspaces, newWorkspaceLookup());
+
         //namespaces
-        if ( namespaces == null ) {
-            namespaces = new HashMap<String, NamespaceInfo>();
-        }
-        for ( NamespaceInfo ns : namespaces.values() ) {
-            resolve(ns);
-        }
-        
+        namespaces = resolve(namespaces, newNamespaceLookup());
+
         //stores
-        if ( stores == null ) {
-            stores = new MultiHashMap();
+        stores = resolve(stores, newStoreLookup());
+        if ( defaultStores == null ) {
+            defaultStores = new ConcurrentHashMap<String, DataStoreInfo>();
         }
-        for ( Object o : stores.values() ) {
-            resolve((StoreInfoImpl)o);
-        }
-        
+
         //styles
-        if ( styles == null ) {
-            styles = new ArrayList<StyleInfo>();
-        }
-        for ( StyleInfo s : styles ) {
-            resolve(s);
-        }
-        
+        styles = resolve(styles, newStyleLookup());
+
         //resources
-        if ( resources == null ) {
-            resources = new MultiHashMap();    
-        }
-        for( Object o : resources.values() ) {
-            resolve((ResourceInfo)o);
-        }
-        
+        resources = resolve(resources, newResourceLookup());
+
         //layers
-        if ( layers == null ) {
-            layers = new CopyOnWriteArrayList<LayerInfo>();
-        }
-        for ( LayerInfo l : layers ) { 
-            resolve(l);
-        }
-        
+        layers = resolve(layers, newLayerLookup());
+
         //layer groups
-        if ( layerGroups == null ) {
-            layerGroups = new ArrayList<LayerGroupInfo>();    
-        }
-        for ( LayerGroupInfo lg : layerGroups ) {
-            resolve(lg);
-        }
-        
+        layerGroups = resolve(layerGroups, newLayerGroupLookup());
+
         //maps
-        if ( maps == null ) {
-            maps = new ArrayList<MapInfo>();
-        }
-        for ( MapInfo m : maps ) {
-            resolve(m);
-        }
+        maps = resolve(maps, newMapLookup());
     }
 
     public void syncTo(CatalogFacade dao) {
         if (dao instanceof DefaultCatalogFacade) {
             //do an optimized sync
             DefaultCatalogFacade other = (DefaultCatalogFacade) dao;
-            
+
             other.stores = stores;
             other.defaultStores = defaultStores;
             other.resources = resources;
@@ -1013,47 +972,33 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         }
         else {
             //do a manual import
-            for (Map.Entry<String,WorkspaceInfo> e : workspaces.entrySet()) {
-                if (e.getKey() != null && !"default".equals(e.getKey())) {
-                    dao.add(e.getValue());
-                }
+            for (WorkspaceInfo ws : workspaces.values()) {
+                dao.add(ws);
             }
-            for (Map.Entry<String,NamespaceInfo> e : namespaces.entrySet()) {
-                if (e.getKey() != null && !"default".equals(e.getKey())) {
-                    dao.add(e.getValue());
-                }
+            for (NamespaceInfo ns : namespaces.values()) {
+                dao.add(ns);
             }
-            
-            for (Iterator k = stores.keySet().iterator(); k.hasNext();) {
-                Class key = (Class) k.next();
-                Collection<StoreInfo> val = stores.getCollection(key);
-                for (StoreInfo s : val) {
-                    dao.add(s);
-                }
+            for (StoreInfo s : stores.values()) {
+                dao.add(s);
             }
-            
-            for (Iterator k = resources.keySet().iterator(); k.hasNext();) {
-                Class key = (Class) k.next();
-                Collection<ResourceInfo> val = resources.getCollection(key);
-                for (ResourceInfo r : val) {
-                    dao.add(r);
-                }
+            for (ResourceInfo r : resources.values()) {
+                dao.add(r);
             }
-            
-            for (StyleInfo s : styles) { dao.add(s); }
-            for (LayerInfo l : layers) { dao.add(l); }
-            for (LayerGroupInfo lg : layerGroups) { dao.add(lg); }
-            for (MapInfo m : maps) { dao.add(m); }
-            
-            if (workspaces.containsKey(null)) {
-                dao.setDefaultWorkspace(workspaces.get(null));
+
+            for (StyleInfo s : styles.values()) { dao.add(s); }
+            for (LayerInfo l : layers.values()) { dao.add(l); }
+            for (LayerGroupInfo lg : layerGroups.values()) { dao.add(lg); }
+            for (MapInfo m : maps.values()) { dao.add(m); }
+
+            if (workspaces.getDefault() != null) {
+                dao.setDefaultWorkspace(workspaces.getDefault());
             }
-            if (namespaces.containsKey(null)) {
-                dao.setDefaultNamespace(namespaces.get(null));
+            if (namespaces.getDefault() != null) {
+                dao.setDefaultNamespace(namespaces.getDefault());
             }
-            
+
             for (Map.Entry<String, DataStoreInfo> e : defaultStores.entrySet()) {
-                WorkspaceInfo ws = workspaces.get(e.getKey());
+                WorkspaceInfo ws = workspaces.byId(e.getKey(), WorkspaceInfo.class);
                 if (null != ws) {
                     dao.setDefaultDataStore(ws, e.getValue());
                 }
@@ -1062,6 +1007,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     }
 
+
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
         return Iterables.size(iterable(of, filter, null));
@@ -1146,7 +1092,10 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         List<T> all;
 
         T t = null;
-        if (NamespaceInfo.class.isAssignableFrom(of)) {
+        List<T> candidates = planner.candidates((Class<T>) of, filter);
+        if (candidates != null) {
+            all = ModificationProxy.createList(candidates, (Class<T>) of);
+        } else if (NamespaceInfo.class.isAssignableFrom(of)) {
             all = (List<T>) getNamespaces();
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
             all = (List<T>) getWorkspaces();
@@ -1166,30 +1115,35 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             throw new IllegalArgumentException("Unknown type: " + of);
         }
 
+        Iterable<T> filtered = all;
+        if (!Filter.INCLUDE.equals(filter)) {
+            com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
+
+                @Override
+                public boolean apply(T input) {
+                    return filter.evaluate(input);
+                }
+            };
+            filtered = Iterables.filter(all, filterAdapter);
+        }
+
+        // sort only what passed the filter, unsorted results are streamed lazily
         if (null != sortByList) {
+            List<T> sorted = null;
             for (int i = sortByList.length - 1; i >=0 ; i--) {
             	SortBy sortBy = sortByList[i];
 	            Ordering<Object> ordering = Ordering.from(comparator(sortBy));
 	            if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
 	                ordering = ordering.reverse();
 	            }
-	            all = ordering.sortedCopy(all);
+	            sorted = ordering.sortedCopy(sorted == null ? filtered : sorted);
             }
-        }
-
-        if (Filter.INCLUDE.equals(filter)) {
-            return all;
-        }
-
-        com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
-
-            @Override
-            public boolean apply(T input) {
-                return filter.evaluate(input);
+            if (sorted != null) {
+                filtered = sorted;
             }
-        };
+        }
 
-        return Iterables.filter(all, filterAdapter);
+        return filtered;
     }
 
     private Comparator<Object> comparator(final SortBy sortOrder) {
@@ -0,0 +1,317 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+import static org.geoserver.data.util.IOUtils.rename;
+
+/**
+ * A binary snapshot of the catalog, kept in the data directory to speed up restarts.
+ * <p>
+ * The snapshot stores the catalog objects encoded with a binary {@link XStreamPersister}, grouped
+ * in the order they have to be added to a catalog, along with a checksum of the names, sizes and
+ * modification times of the catalog xml files it was built from. A snapshot is only used when its
+ * checksum still matches the data directory, otherwise the catalog is loaded from the xml files
+ * and a new snapshot is written. {@link GeoServerPersister} deletes the snapshot as soon as the
+ * catalog is modified.
+ * </p>
+ * <p>
+ * Snapshots are disabled unless the {@link #ENABLED} system property is set to <code>true</code>.
+ * </p>
+ */
+public class CatalogSnapshot {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    /**
+     * System property enabling the catalog snapshot
+     */
+    public static final String ENABLED = "org.geoserver.catalog.snapshot";
+
+    /**
+     * Name of the snapshot file, in the root of the data directory
+     */
+    static final String FILENAME = "catalog.snapshot";
+
+    static final int MAGIC = 0x47534353;
+
+    static final int VERSION = 1;
+
+    /**
+     * The groups of objects in a snapshot, in the order they are added to the catalog
+     */
+    static final String[] LEVELS = { "workspaces", "namespaces", "styles", "stores", "resources",
+            "layers", "layergroups" };
+
+    GeoServerResourceLoader resourceLoader;
+
+    XStreamPersisterFactory xpf;
+
+    public CatalogSnapshot(GeoServerResourceLoader resourceLoader, XStreamPersisterFactory xpf) {
+        this.resourceLoader = resourceLoader;
+        this.xpf = xpf;
+    }
+
+    /**
+     * Returns whether snapshots have been enabled.
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(ENABLED));
+    }
+
+    public File getFile() {
+        return new File(resourceLoader.getBaseDirectory(), FILENAME);
+    }
+
+    /**
+     * Creates the persister used to decode the snapshot objects, resolving references against the
+     * specified catalog.
+     */
+    public XStreamPersister createPersister(Catalog catalog) {
+        XStreamPersister xp = xpf.createBinaryPersister();
+        xp.setCatalog(catalog);
+        return xp;
+    }
+
+    /**
+     * Computes the checksum of the catalog xml files currently in the data directory.
+     */
+    public String checksum() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw (IOException) new IOException("MD5 is not available").initCause(e);
+        }
+        File base = resourceLoader.getBaseDirectory();
+        for (String dir : new String[] { "styles", "workspaces", "layergroups" }) {
+            checksum(digest, new File(base, dir), dir);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    void checksum(MessageDigest digest, File dir, String path) throws IOException {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isDirectory()) {
+                checksum(digest, f, path + "/" + name);
+            } else if (name.endsWith(".xml")) {
+                String entry = path + "/" + name + ":" + f.length() + ":" + f.lastModified() + "\n";
+                digest.update(entry.getBytes("UTF-8"));
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot.
+     *
+     * @param checksum The checksum of the data directory, as returned by {@link #checksum()}
+     *
+     * @return The snapshot contents, or <code>null</code> if there is no snapshot or if it does
+     *         not match the data directory anymore
+     */
+    public Contents read(String checksum) throws IOException {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.info("Ignoring catalog snapshot written by a different version");
+                return null;
+            }
+            if (!checksum.equals(in.readUTF())) {
+                LOGGER.info("Catalog snapshot is out of date");
+                return null;
+            }
+
+            Contents contents = new Contents();
+            contents.defaultWorkspace = emptyToNull(in.readUTF());
+            contents.defaultNamespace = emptyToNull(in.readUTF());
+            for (String level : LEVELS) {
+                int count = in.readInt();
+                List<byte[]> objects = new ArrayList<byte[]>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] object = new byte[in.readInt()];
+                    in.readFully(object);
+                    objects.add(object);
+                }
+                contents.levels.put(level, objects);
+            }
+            return contents;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the catalog.
+     *
+     * @param checksum The checksum of the data directory the catalog was loaded from
+     */
+    public void write(Catalog catalog, String checksum) throws IOException {
+        XStreamPersister xp = createPersister(catalog);
+
+        File file = getFile();
+        File tmp = new File(file.getParentFile(), FILENAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(checksum);
+            WorkspaceInfo ws = catalog.getDefaultWorkspace();
+            out.writeUTF(ws != null ? ws.getId() : "");
+            NamespaceInfo ns = catalog.getDefaultNamespace();
+            out.writeUTF(ns != null ? ns.getId() : "");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (String level : LEVELS) {
+                List<? extends CatalogInfo> objects = objects(catalog, level);
+                out.writeInt(objects.size());
+                for (CatalogInfo info : objects) {
+                    bytes.reset();
+                    xp.save(info, bytes);
+                    out.writeInt(bytes.size());
+                    bytes.writeTo(out);
+                }
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+        rename(tmp, file);
+    }
+
+    /**
+     * Deletes the snapshot, if any.
+     */
+    public void invalidate() {
+        File file = getFile();
+        if (file.exists() && !file.delete()) {
+            LOGGER.warning("Could not delete the catalog snapshot " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Decodes an object read from the snapshot.
+     */
+    public CatalogInfo decode(XStreamPersister xp, byte[] object) throws IOException {
+        return xp.load(new ByteArrayInputStream(object), CatalogInfo.class);
+    }
+
+    List<? extends CatalogInfo> objects(Catalog catalog, String level) {
+        if ("workspaces".equals(level)) {
+            return catalog.getWorkspaces();
+        } else if ("namespaces".equals(level)) {
+            return catalog.getNamespaces();
+        } else if ("styles".equals(level)) {
+            return catalog.getStyles();
+        } else if ("stores".equals(level)) {
+            return catalog.getStores(StoreInfo.class);
+        } else if ("resources".equals(level)) {
+            return catalog.getResources(ResourceInfo.class);
+        } else if ("layers".equals(level)) {
+            return catalog.getLayers();
+        } else {
+            // nested groups must be added after the groups they contain
+            List<LayerGroupInfo> sorted = new ArrayList<LayerGroupInfo>();
+            Set<String> visited = new HashSet<String>();
+            for (LayerGroupInfo lg : catalog.getLayerGroups()) {
+                sort(lg, sorted, visited);
+            }
+            return sorted;
+        }
+    }
+
+    void sort(LayerGroupInfo lg, List<LayerGroupInfo> sorted, Set<String> visited) {
+        if (!visited.add(lg.getId())) {
+            return;
+        }
+        for (PublishedInfo p : lg.getLayers()) {
+            if (p instanceof LayerGroupInfo) {
+                sort((LayerGroupInfo) p, sorted, visited);
+            }
+        }
+        sorted.add(lg);
+    }
+
+    String emptyToNull(String value) {
+        return "".equals(value) ? null : value;
+    }
+
+    /**
+     * The contents of a snapshot, the encoded objects grouped by level.
+     */
+    public static class Contents {
+
+        String defaultWorkspace;
+
+        String defaultNamespace;
+
+        Map<String, List<byte[]>> levels = new LinkedHashMap<String, List<byte[]>>();
+
+        public String getDefaultWorkspace() {
+            return defaultWorkspace;
+        }
+
+        public String getDefaultNamespace() {
+            return defaultNamespace;
+        }
+
+        /**
+         * The encoded objects, by level, in the order they have to be added to the catalog.
+         */
+        public Map<String, List<byte[]>> getLevels() {
+            return levels;
+        }
+    }
+}
@@ -47,7 +47,9 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
         
         if ( !legacy ) {
             //add the listener which will persist changes
-            catalog.addListener( new GeoServerPersister( resourceLoader, xp ) );
+            GeoServerPersister catalogPersister = new GeoServerPersister( resourceLoader, xp );
+            catalogPersister.setSnapshot( snapshot );
+            catalog.addListener( catalogPersister );
         }
     }
     
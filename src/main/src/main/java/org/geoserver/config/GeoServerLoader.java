@@ -13,8 +13,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,17 +32,16 @@ import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFactory;
-import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
-import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
-import org.geoserver.catalog.WMSLayerInfo;
-import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
 import org.geoserver.catalog.event.CatalogListener;
@@ -66,10 +73,22 @@ import org.vfny.geoserver.global.GeoserverDataDirectory;
 public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
+
+    /**
+     * System property setting the number of threads used to parse the data directory
+     */
+    public static final String LOADING_THREADS = "org.geoserver.catalog.loadingThreads";
+    
+    /**
+     * Number of objects loaded between two progress reports
+     */
+    static int PROGRESS_INTERVAL = 1000;
     
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
+    Map<String, Long> loadTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    CatalogSnapshot snapshot;
     
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
@@ -240,17 +259,212 @@ public abstract class GeoServerLoader {
     
     /**
      * Reads the catalog from disk.
+     * <p>
+     * The data directory is loaded one level at a time (workspaces, stores, resources, layers),
+     * parsing the files of each level in parallel and then adding the parsed objects to the
+     * catalog, in data directory order, from the calling thread. References to objects of the
+     * previous levels are resolved while parsing, so a level is parsed only once the previous
+     * one has been added. The number of parsing threads is controlled by the
+     * {@link #LOADING_THREADS} system property, and defaults to the number of processors.
+     * </p>
+     * <p>
+     * When enabled, the catalog is loaded from a {@link CatalogSnapshot} that is still up to date
+     * with the data directory, and a new snapshot is written after loading from the xml files.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        loadTimings.clear();
+        long start = System.currentTimeMillis();
+        
+        snapshot = CatalogSnapshot.isEnabled() ? new CatalogSnapshot(resourceLoader, xpf) : null;
+        String checksum = null;
+        if (snapshot != null) {
+            try {
+                checksum = snapshot.checksum();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to compute the data directory checksum, " 
+                    + "the catalog snapshot will not be used", e);
+                snapshot = null;
+            }
+        }
+        
+        CatalogImpl catalog = null;
+        boolean fromSnapshot = false;
+        List<StoreInfo> stores = new ArrayList<StoreInfo>();
+        ExecutorService executor = createLoadingExecutor();
+        try {
+            if (snapshot != null) {
+                catalog = readSnapshot(snapshot, checksum, stores, executor);
+            }
+            if (catalog != null) {
+                xp.setCatalog( catalog );
+                fromSnapshot = true;
+            }
+            else {
+                catalog = new CatalogImpl();
+                catalog.setResourceLoader(resourceLoader);
+                xp.setCatalog( catalog );
+                xp.setUnwrapNulls(false);
+                
+                readCatalog(catalog, xp, stores, executor);
+                
+                xp.setUnwrapNulls(true);
+            }
+            
+            LoadPhase phase = new LoadPhase("resolve", 0);
+            catalog.resolve();
+            phase.done();
+            
+            if (snapshot != null && !fromSnapshot) {
+                phase = new LoadPhase("snapshot write", 0);
+                try {
+                    snapshot.write(catalog, checksum);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to write the catalog snapshot", e);
+                    snapshot.invalidate();
+                }
+                phase.done();
+            }
+            
+            //connect to the enabled data stores to determine if we should disable them, this 
+            // happens after the snapshot is written so that it does not record the stores that
+            // are only disabled because they could not be reached during this startup 
+            checkDataStores(stores, executor);
+        } finally {
+            executor.shutdown();
+        }
+        
+        LOGGER.info("Catalog loaded in " + (System.currentTimeMillis() - start) + " ms");
+        return catalog;
+    }
+    
+    /**
+     * Loads the catalog from the snapshot, returning <code>null</code> if the snapshot is missing,
+     * out of date or cannot be read.
+     */
+    CatalogImpl readSnapshot(final CatalogSnapshot snapshot, String checksum, 
+            List<StoreInfo> loadedStores, ExecutorService executor) {
+        CatalogSnapshot.Contents contents;
+        try {
+            contents = snapshot.read(checksum);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the catalog snapshot", e);
+            return null;
+        }
+        if (contents == null) {
+            return null;
+        }
+        
+        LoadPhase snapshotPhase = new LoadPhase("snapshot", 0);
         CatalogImpl catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
-        xp.setCatalog( catalog );
-        xp.setUnwrapNulls(false);
+        final XStreamPersister sxp = snapshot.createPersister(catalog);
+        sxp.setUnwrapNulls(false);
+        
+        List<StoreInfo> stores = new ArrayList<StoreInfo>();
+        try {
+            for (Map.Entry<String, List<byte[]>> level : contents.getLevels().entrySet()) {
+                List<Future<CatalogInfo>> loads = new ArrayList<Future<CatalogInfo>>();
+                for (final byte[] object : level.getValue()) {
+                    loads.add(executor.submit(new Callable<CatalogInfo>() {
+                        public CatalogInfo call() throws Exception {
+                            return snapshot.decode(sxp, object);
+                        }
+                    }));
+                }
+                
+                LoadPhase phase = new LoadPhase(level.getKey(), loads.size());
+                for (Future<CatalogInfo> load : loads) {
+                    CatalogInfo info = load.get();
+                    add(catalog, info);
+                    if (info instanceof StoreInfo) {
+                        stores.add((StoreInfo) info);
+                    }
+                    phase.loaded();
+                }
+                phase.done();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load the catalog snapshot, " 
+                + "loading the catalog from the data directory", e);
+            return null;
+        }
         
-        CatalogFactory factory = catalog.getFactory();
-       
+        if (contents.getDefaultWorkspace() != null) {
+            catalog.setDefaultWorkspace(catalog.getWorkspace(contents.getDefaultWorkspace()));
+        }
+        if (contents.getDefaultNamespace() != null) {
+            catalog.setDefaultNamespace(catalog.getNamespace(contents.getDefaultNamespace()));
+        }
+        
+        snapshotPhase.done();
+        loadedStores.addAll(stores);
+        return catalog;
+    }
+    
+    /**
+     * Adds an object read from the snapshot to the catalog.
+     */
+    void add(Catalog catalog, CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.add((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.add((NamespaceInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.add((StyleInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.add((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.add((ResourceInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.add((LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.add((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unexpected catalog object " + info);
+        }
+    }
+    
+    /**
+     * Connects to the enabled data stores, in parallel, disabling the ones that cannot be
+     * connected to.
+     */
+    void checkDataStores(Collection<StoreInfo> stores, ExecutorService executor) {
+        LoadPhase phase = new LoadPhase("data store connections", stores.size());
+        List<Future<?>> connections = new ArrayList<Future<?>>();
+        for ( final StoreInfo store : stores ) {
+            if ( store instanceof DataStoreInfo && store.isEnabled() ) {
+                connections.add(executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            ((DataStoreInfo) store).getDataStore(null);
+                        }
+                        catch( Throwable t ) {
+                            LOGGER.warning( "Error connecting to '" + store.getName() + "'. Disabling." );
+                            LOGGER.log( Level.INFO, "", t );
+                            
+                            store.setError(t);
+                            store.setEnabled(false);
+                        }
+                    }
+                }));
+            }
+        }
+        for ( Future<?> connection : connections ) {
+            try {
+                connection.get();
+                phase.loaded();
+            } catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to check data store connection", e);
+            }
+        }
+        phase.done();
+    }
+    
+    void readCatalog(CatalogImpl catalog, XStreamPersister xp, List<StoreInfo> loadedStores, 
+            ExecutorService executor) {
         //global styles
-        loadStyles(resourceLoader.find( "styles" ), catalog, xp);
+        loadStyles(resourceLoader.find( "styles" ), catalog, xp, executor);
 
         //workspaces, stores, and resources
         File workspaces = resourceLoader.find( "workspaces" );
@@ -271,15 +485,28 @@ public abstract class GeoServerLoader {
                 LOGGER.warning("No default workspace was found.");
             }
             
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+            Collection<File> workspaceDirs = list(workspaces, DirectoryFileFilter.INSTANCE );
+            
+            //parse all workspaces and namespaces
+            List<PendingLoad<WorkspaceInfo>> wsLoads = new ArrayList<PendingLoad<WorkspaceInfo>>();
+            for ( File wsd : workspaceDirs ) {
                 File f = new File( wsd, "workspace.xml");
-                if ( !f.exists() ) {
-                    continue;
+                if ( f.exists() ) {
+                    wsLoads.add(depersist(xp, wsd, f, WorkspaceInfo.class, executor));
                 }
-                
+            }
+            List<PendingLoad<NamespaceInfo>> nsLoads = new ArrayList<PendingLoad<NamespaceInfo>>();
+            for ( PendingLoad<WorkspaceInfo> wsLoad : wsLoads ) {
+                File nsf = new File( wsLoad.dir, "namespace.xml" );
+                nsLoads.add(nsf.exists() ? depersist(xp, wsLoad.dir, nsf, NamespaceInfo.class, executor) : null);
+            }
+            
+            LoadPhase phase = new LoadPhase("workspaces", wsLoads.size());
+            for ( int i = 0; i < wsLoads.size(); i++ ) {
+                File wsd = wsLoads.get(i).dir;
                 WorkspaceInfo ws = null;
                 try {
-                    ws = depersist( xp, f, WorkspaceInfo.class );
+                    ws = wsLoads.get(i).get();
                     catalog.add( ws );    
                 }
                 catch( Exception e ) {
@@ -288,13 +515,13 @@ public abstract class GeoServerLoader {
                 }
                 
                 LOGGER.info( "Loaded workspace '" + ws.getName() +"'");
+                phase.loaded();
                 
                 //load the namespace
-                File nsf = new File( wsd, "namespace.xml" );
                 NamespaceInfo ns = null; 
-                if ( nsf.exists() ) {
+                if ( nsLoads.get(i) != null ) {
                     try {
-                        ns = depersist( xp, nsf, NamespaceInfo.class );
+                        ns = nsLoads.get(i).get();
                         catalog.add( ns );
                     }
                     catch( Exception e ) {
@@ -330,182 +557,115 @@ public abstract class GeoServerLoader {
                 //load the styles for the workspace
                 File styles = resourceLoader.find(wsd, "styles");
                 if (styles != null) {
-                    loadStyles(styles, catalog, xp);
+                    loadStyles(styles, catalog, xp, executor);
                 }
             }
+            phase.done();
             
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
-                
-                //load the stores for this workspace
+            //parse all the stores
+            List<PendingLoad<StoreInfo>> storeLoads = new ArrayList<PendingLoad<StoreInfo>>();
+            for ( File wsd : workspaceDirs ) {
                 for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
                     File f = new File( sd, "datastore.xml");
-                    if ( f.exists() ) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
-                            
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-                            
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
-                        }
-                        catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
-                            continue;
-                        }
-                        
-                        //load feature types
-                        for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                            f = new File( ftd, "featuretype.xml" );
-                            if( f.exists() ) {
-                                FeatureTypeInfo ft = null;
-                                try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
-                                }
-                                catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                catalog.add( ft );
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = new File( ftd, "layer.xml" );
-                                if ( f.exists() ) {
-                                    try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                        catalog.add( l );
-                                        
-                                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
-                                    }
-                                }
-                            }
-                            else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
-                            }
-                        }
-                    } else {
-                        //look for a coverage store
+                    if ( !f.exists() ) {
                         f = new File( sd, "coveragestore.xml" );
-                        if ( f.exists() ) {
-                            CoverageStoreInfo cs = null;
-                            try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
-                            
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
-                            }
-                            catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
-                                continue;
-                            }
-                            
-                            //load coverages
-                            for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                f = new File( cd, "coverage.xml" );
-                                if( f.exists() ) {
-                                    CoverageInfo c = null;
-                                    try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
-                                        
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
-                                        continue;
-                                    }
-                                    
-                                    f = new File( cd, "layer.xml" );
-                                    if ( f.exists() ) {
-                                        try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                            catalog.add( l );
-                                            
-                                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
-                                        }
-                                    }
-                                }
-                                else {
-                                    LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                }
-                            }
-                        } else {
-                            f = new File( sd, "wmsstore.xml" );
-                            if(f.exists()) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                    f = new File( cd, "wmslayer.xml" );
-                                    if( f.exists() ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f = new File( cd, "layer.xml" );
-                                        if ( f.exists() ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                    }
-                                }
-                            } else if(!isConfigDirectory(sd)) {
-                                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
-                                continue;
-                            }
-                        }
                     }
+                    if ( !f.exists() ) {
+                        f = new File( sd, "wmsstore.xml" );
+                    }
+                    if ( f.exists() ) {
+                        storeLoads.add(depersist(xp, sd, f, StoreInfo.class, executor));
+                    } else if(!isConfigDirectory(sd)) {
+                        LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+                    }
+                }
+            }
+            
+            phase = new LoadPhase("stores", storeLoads.size());
+            List<PendingLoad<StoreInfo>> stores = new ArrayList<PendingLoad<StoreInfo>>();
+            for ( PendingLoad<StoreInfo> load : storeLoads ) {
+                try {
+                    StoreInfo store = load.get();
+                    catalog.add( store );
+                    
+                    LOGGER.info( "Loaded " + storeType(load.file) + " '" + store.getName() +"'");
+                    phase.loaded();
+                    stores.add( load );
+                    loadedStores.add( store );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load " + storeType(load.file) + " '" 
+                        + load.dir.getName() +"'", e);
+                }
+            }
+            phase.done();
+            
+            //parse the resources of all the stores
+            List<PendingLoad<ResourceInfo>> resourceLoads = new ArrayList<PendingLoad<ResourceInfo>>();
+            for ( PendingLoad<StoreInfo> load : stores ) {
+                String file = resourceFile(load.info);
+                for ( File rd : list(load.dir, DirectoryFileFilter.INSTANCE) ) {
+                    File f = new File( rd, file );
+                    if( f.exists() ) {
+                        resourceLoads.add(depersist(xp, rd, f, ResourceInfo.class, executor));
+                    }
+                    else {
+                        LOGGER.warning( "Ignoring " + (load.info instanceof DataStoreInfo ? "feature type" : "coverage") 
+                            + " directory " + rd.getAbsolutePath() );
+                    }
+                }
+            }
+            
+            phase = new LoadPhase("resources", resourceLoads.size());
+            List<PendingLoad<ResourceInfo>> resources = new ArrayList<PendingLoad<ResourceInfo>>();
+            for ( PendingLoad<ResourceInfo> load : resourceLoads ) {
+                ResourceInfo r = null;
+                try {
+                    r = load.get();
+                    catalog.add( r );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load " + resourceType(load.file) + " '" 
+                        + load.dir.getName() +"'", e);
+                    continue;
+                }
+                
+                LOGGER.info( "Loaded " + resourceType(load.file) + " '" + r.getName() +"'");
+                phase.loaded();
+                resources.add( load );
+            }
+            phase.done();
+            
+            //parse the layers of all the resources
+            List<PendingLoad<LayerInfo>> layerLoads = new ArrayList<PendingLoad<LayerInfo>>();
+            List<PendingLoad<ResourceInfo>> layerResources = new ArrayList<PendingLoad<ResourceInfo>>();
+            for ( PendingLoad<ResourceInfo> load : resources ) {
+                File f = new File( load.dir, "layer.xml" );
+                if ( f.exists() ) {
+                    layerLoads.add(depersist(xp, load.dir, f, LayerInfo.class, executor));
+                    layerResources.add(load);
+                }
+            }
+            
+            phase = new LoadPhase("layers", layerLoads.size());
+            for ( int i = 0; i < layerLoads.size(); i++ ) {
+                try {
+                    LayerInfo l = layerLoads.get(i).get();
+                    catalog.add( l );
+                    
+                    LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+                    phase.loaded();
+                }
+                catch( Exception e ) {
+                    PendingLoad<ResourceInfo> resource = layerResources.get(i);
+                    LOGGER.log( Level.WARNING, "Failed to load layer for " + resourceType(resource.file)
+                        + " '" + resource.info.getName() +"'", e);
                 }
+            }
+            phase.done();
 
-                //load hte layer groups for this workspace
+            //load the layer groups of each workspace
+            for ( File wsd : workspaceDirs ) {
                 File layergroups = resourceLoader.find(wsd, "layergroups");
                 if (layergroups != null) {
                     loadLayerGroups(layergroups, catalog, xp);
@@ -523,9 +683,29 @@ public abstract class GeoServerLoader {
         if ( layergroups != null ) {
            loadLayerGroups(layergroups, catalog, xp);
         }
-        xp.setUnwrapNulls(true);
-        catalog.resolve();
-        return catalog;
+    }
+    
+    String storeType(File f) {
+        String name = f.getName();
+        if ( "datastore.xml".equals( name ) ) {
+            return "data store";
+        }
+        return "coveragestore.xml".equals( name ) ? "coverage store" : "wms store";
+    }
+    
+    String resourceFile(StoreInfo store) {
+        if ( store instanceof DataStoreInfo ) {
+            return "featuretype.xml";
+        }
+        return store instanceof CoverageStoreInfo ? "coverage.xml" : "wmslayer.xml";
+    }
+    
+    String resourceType(File f) {
+        String name = f.getName();
+        if ( "featuretype.xml".equals( name ) ) {
+            return "feature type";
+        }
+        return "coverage.xml".equals( name ) ? "coverage" : "wms layer";
     }
     
     /**
@@ -674,22 +854,38 @@ public abstract class GeoServerLoader {
     }
 
     void loadStyles(File styles, Catalog catalog, XStreamPersister xp) {
+        ExecutorService executor = createLoadingExecutor();
+        try {
+            loadStyles(styles, catalog, xp, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    void loadStyles(File styles, Catalog catalog, XStreamPersister xp, ExecutorService executor) {
+        List<PendingLoad<StyleInfo>> loads = new ArrayList<PendingLoad<StyleInfo>>();
         for ( File sf : list(styles,new SuffixFileFilter(".xml") ) ) {
+            //handle the .xml.xml case
+            if (new File(styles,sf.getName()+".xml").exists()) {
+                continue;
+            }
+            loads.add(depersist(xp, styles, sf, StyleInfo.class, executor));
+        }
+        
+        LoadPhase phase = new LoadPhase("styles", loads.size());
+        for ( PendingLoad<StyleInfo> load : loads ) {
             try {
-                //handle the .xml.xml case
-                if (new File(styles,sf.getName()+".xml").exists()) {
-                    continue;
-                }
-                
-                StyleInfo s = depersist( xp, sf, StyleInfo.class );
+                StyleInfo s = load.get();
                 catalog.add( s );
                 
                 LOGGER.info( "Loaded style '" + s.getName() + "'" );
+                phase.loaded();
             }
             catch( Exception e ) {
-                LOGGER.log( Level.WARNING, "Failed to load style from file '" + sf.getName() + "'" , e );
+                LOGGER.log( Level.WARNING, "Failed to load style from file '" + load.file.getName() + "'" , e );
             }
         }
+        phase.done();
     }
 
     void loadLayerGroups(File layergroups, Catalog catalog, XStreamPersister xp) {
@@ -749,6 +945,50 @@ public abstract class GeoServerLoader {
         }
     }
 
+    /**
+     * Helper method which parses an object from disk in the background.
+     */
+    <T> PendingLoad<T> depersist( final XStreamPersister xp, File dir, final File f, 
+            final Class<T> clazz, ExecutorService executor ) {
+        return new PendingLoad<T>(dir, f, executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                return depersist(xp, f, clazz);
+            }
+        }));
+    }
+    
+    /**
+     * Creates the executor used to parse the data directory files.
+     */
+    ExecutorService createLoadingExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty(LOADING_THREADS);
+        if (value != null) {
+            try {
+                threads = Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + LOADING_THREADS + ": " + value);
+            }
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServerLoader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * Returns the time, in milliseconds, taken by each phase of the last catalog load, in
+     * execution order.
+     */
+    public Map<String, Long> getLoadTimings() {
+        return Collections.unmodifiableMap(loadTimings);
+    }
+    
     /**
      * Helper method for listing files in a directory.
      */
@@ -765,6 +1005,68 @@ public abstract class GeoServerLoader {
         return files;
     }
     
+    /**
+     * An object being parsed from the data directory.
+     */
+    static class PendingLoad<T> {
+        File dir;
+        File file;
+        Future<T> future;
+        T info;
+        
+        PendingLoad(File dir, File file, Future<T> future) {
+            this.dir = dir;
+            this.file = file;
+            this.future = future;
+        }
+        
+        /**
+         * Waits for the object to be parsed.
+         */
+        T get() throws Exception {
+            try {
+                info = future.get();
+                return info;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Tracks the progress and the time taken by a catalog loading phase.
+     */
+    class LoadPhase {
+        String name;
+        int total;
+        int loaded;
+        long start = System.currentTimeMillis();
+        
+        LoadPhase(String name, int total) {
+            this.name = name;
+            this.total = total;
+        }
+        
+        void loaded() {
+            loaded++;
+            if (loaded % PROGRESS_INTERVAL == 0) {
+                LOGGER.info("Loaded " + loaded + " of " + total + " " + name);
+            }
+        }
+        
+        void done() {
+            long elapsed = System.currentTimeMillis() - start;
+            Long previous = loadTimings.get(name);
+            loadTimings.put(name, previous == null ? elapsed : previous + elapsed);
+            if (total > 0) {
+                LOGGER.info("Loaded " + loaded + " of " + total + " " + name + " in " + elapsed + " ms");
+            }
+        }
+    }
+    
     public void destroy() throws Exception {
         //dispose
         geoserver.dispose();
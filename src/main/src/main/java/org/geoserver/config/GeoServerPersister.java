@@ -58,6 +58,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     GeoServerResourceLoader rl;
     GeoServerDataDirectory dd;
     XStreamPersister xp;
+    CatalogSnapshot snapshot;
     
     public GeoServerPersister(GeoServerResourceLoader rl, XStreamPersister xp) {
         this.rl = rl;
@@ -65,8 +66,16 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         this.xp = xp;
     }
     
+    /**
+     * Sets the catalog snapshot to be discarded whenever the catalog is modified.
+     */
+    public void setSnapshot(CatalogSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+    
     public void handleAddEvent(CatalogAddEvent event) {
         Object source = event.getSource();
+        invalidateSnapshot();
         try {
             if ( source instanceof WorkspaceInfo ) {
                 addWorkspace( (WorkspaceInfo) source );
@@ -205,6 +214,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     public void handlePostModifyEvent(CatalogPostModifyEvent event) {
         Object source = event.getSource();
+        invalidateSnapshot();
         try {
             if ( source instanceof WorkspaceInfo ) {
                 modifyWorkspace( (WorkspaceInfo) source);
@@ -247,6 +257,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
 
     public void handleRemoveEvent(CatalogRemoveEvent event) {
         Object source = event.getSource();
+        invalidateSnapshot();
         try {
             if ( source instanceof WorkspaceInfo ) {
                 removeWorkspace( (WorkspaceInfo) source );
@@ -287,6 +298,12 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         }
     }
 
+    void invalidateSnapshot() {
+        if ( snapshot != null ) {
+            snapshot.invalidate();
+        }
+    }
+    
     public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
             List<Object> oldValues, List<Object> newValues) {
     }
@@ -19,6 +19,12 @@ public interface JAIInfo extends Cloneable, Serializable {
     
     static enum PngEncoderType { JDK, NATIVE, PNGJ }; 
 
+    /**
+     * The JAI tile cache implementations: the stock JAI one, or a concurrent one that tracks
+     * statistics per source
+     */
+    static enum TileCacheType { SUN, CONCURRENT };
+
     /**
      * Flag controlling image interpolation.
      */
@@ -89,6 +95,12 @@ public interface JAIInfo extends Cloneable, Serializable {
      */
     boolean isImageIOCache();
 
+    /**
+     * The tile cache implementation.
+     */
+    TileCacheType getTileCacheType();
+    void setTileCacheType(TileCacheType type);
+
     /**
      * The jai instance.
      */
@@ -48,6 +48,9 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
     
     PngEncoderType pngEncoderType = PngEncoderType.PNGJ;
 
+    public static final TileCacheType DEFAULT_TileCacheType = TileCacheType.SUN;
+    TileCacheType tileCacheType = DEFAULT_TileCacheType;
+
     /**
      * @uml.property name="allowInterpolation"
      */
@@ -204,6 +207,7 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         result = prime * result + tilePriority;
         result = prime * result + tileThreads;
         result = prime * result + getPngEncoderType().hashCode();
+        result = prime * result + getTileCacheType().hashCode();
         return result;
     }
 
@@ -240,6 +244,8 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
             return false;
         if (getPngEncoderType() != other.getPngEncoderType())
             return false;
+        if (getTileCacheType() != other.getTileCacheType())
+            return false;
         return true;
     }
     
@@ -262,4 +268,16 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
     public void setPngEncoderType(PngEncoderType pngEncoderType) {
         this.pngEncoderType = pngEncoderType;
     }
+
+    public TileCacheType getTileCacheType() {
+        if(tileCacheType == null) {
+            return DEFAULT_TileCacheType;
+        } else {
+            return tileCacheType;
+        }
+    }
+
+    public void setTileCacheType(TileCacheType tileCacheType) {
+        this.tileCacheType = tileCacheType;
+    }
 }
@@ -15,6 +15,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -23,11 +24,11 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.MultiHashMap;
 import org.geoserver.catalog.AttributeTypeInfo;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageDimensionInfo;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
@@ -53,6 +54,7 @@ import org.geoserver.catalog.impl.AttributeTypeInfoImpl;
 import org.geoserver.catalog.impl.AttributionInfoImpl;
 import org.geoserver.catalog.impl.AuthorityURL;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.CatalogInfoLookup;
 import org.geoserver.catalog.impl.CoverageDimensionImpl;
 import org.geoserver.catalog.impl.CoverageInfoImpl;
 import org.geoserver.catalog.impl.CoverageStoreInfoImpl;
@@ -132,6 +134,7 @@ import com.thoughtworks.xstream.io.ExtendedHierarchicalStreamWriterHelper;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 import com.thoughtworks.xstream.mapper.ClassAliasingMapper;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.vividsolutions.jts.geom.Geometry;
@@ -205,6 +208,11 @@ public class XStreamPersister {
      * internal xstream instance
      */
     XStream xs;
+    
+    /**
+     * The stream driver, or <code>null</code> for the default xml one
+     */
+    HierarchicalStreamDriver streamDriver;
 
     /**
      * GeoServer reference used to resolve references to gloal from services
@@ -251,6 +259,7 @@ public class XStreamPersister {
      * Constructs the persister and underlying xstream specifying the stream driver explicitly.
      */
     protected XStreamPersister(HierarchicalStreamDriver streamDriver) {
+        this.streamDriver = streamDriver;
         
         //control the order in which fields are sorted
         SortableFieldKeySorter sorter = new SortableFieldKeySorter();
@@ -341,13 +350,17 @@ public class XStreamPersister {
         xs.omitField(impl(DefaultCatalogFacade.class), "layers");
         xs.omitField(impl(DefaultCatalogFacade.class), "maps");
         xs.omitField(impl(DefaultCatalogFacade.class), "layerGroups");
+        xs.omitField(impl(DefaultCatalogFacade.class), "planner");
         
         xs.registerLocalConverter(DefaultCatalogFacade.class, "stores",
-                new StoreMultiHashMapConverter());
+                new CatalogInfoLookupConverter("dataStore", DataStoreInfo.class)
+                    .map("coverageStore", CoverageStoreInfo.class));
         xs.registerLocalConverter(DefaultCatalogFacade.class, "namespaces",
-                new SpaceMapConverter("namespace"));
+                new CatalogInfoLookupConverter("namespace", NamespaceInfo.class));
         xs.registerLocalConverter(DefaultCatalogFacade.class, "workspaces",
-                new SpaceMapConverter("workspace"));
+                new CatalogInfoLookupConverter("workspace", WorkspaceInfo.class));
+        xs.registerLocalConverter(DefaultCatalogFacade.class, "styles",
+                new CatalogInfoLookupConverter("style", StyleInfo.class));
         
         
         //WorkspaceInfo
@@ -536,7 +549,15 @@ public class XStreamPersister {
     public void save(Object obj, OutputStream out) throws IOException {
         //unwrap dynamic proxies
         obj = unwrapProxies( obj );
-        xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        if ( streamDriver instanceof BinaryStreamDriver ) {
+            //binary streams cannot be written through a character writer
+            HierarchicalStreamWriter writer = streamDriver.createWriter( out );
+            xs.marshal(obj, writer);
+            writer.flush();
+        }
+        else {
+            xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        }
     }
     
     /**
@@ -1513,120 +1534,83 @@ public class XStreamPersister {
     }
 
     /**
-     * Converter for multi hash maps containing coverage stores and data stores.
+     * Converter for the lookup tables holding catalog objects, each object is encoded with the
+     * element name registered for its type, the default workspace and namespace are flagged with
+     * a <code>default="true"</code> attribute.
      */
-    static class StoreMultiHashMapConverter implements Converter {
+    class CatalogInfoLookupConverter implements Converter {
+
+        Map<String, Class> types = new LinkedHashMap<String, Class>();
+
+        public CatalogInfoLookupConverter( String name, Class type ) {
+            map( name, type );
+        }
+
+        public CatalogInfoLookupConverter map( String name, Class type ) {
+            types.put( name, type );
+            return this;
+        }
+
         public boolean canConvert(Class type) {
-            return MultiHashMap.class.equals(type);
+            return CatalogInfoLookup.class.equals(type);
         }
 
         public void marshal(Object source, HierarchicalStreamWriter writer,
                 MarshallingContext context) {
-            MultiHashMap map = (MultiHashMap) source;
-            for (Object v : map.values()) {
-                if (v instanceof DataStoreInfo) {
-                    writer.startNode("dataStore");
-                    context.convertAnother(v);
-                    writer.endNode();
-                }
-                if (v instanceof CoverageStoreInfo ) {
-                    writer.startNode( "coverageStore" );
-                    context.convertAnother(v);
-                    writer.endNode();
+            CatalogInfoLookup lookup = (CatalogInfoLookup) source;
+            for (Object v : lookup.values()) {
+                for (Map.Entry<String, Class> e : types.entrySet()) {
+                    if (e.getValue().isInstance(v)) {
+                        writer.startNode(e.getKey());
+                        if (lookup.getDefault() == v) {
+                            writer.addAttribute("default", "true");
+                        }
+                        context.convertAnother(v);
+                        writer.endNode();
+                        break;
+                    }
                 }
             }
         }
 
         public Object unmarshal(HierarchicalStreamReader reader,
                 UnmarshallingContext context) {
-            MultiHashMap map = new MultiHashMap();
-            
+            CatalogInfoLookup lookup = new CatalogInfoLookup();
+
             while( reader.hasMoreChildren() ) {
                 reader.moveDown();
-                
-                Object o = 0;
-                if ( "dataStore".equals( reader.getNodeName() ) ) {
-                    o = context.convertAnother( map, DataStoreInfoImpl.class );
-                }
-                else {
-                    o = context.convertAnother( map, CoverageStoreInfoImpl.class );
+
+                Class type = types.get( reader.getNodeName() );
+                if ( type != null ) {
+                    boolean def = "true".equals( reader.getAttribute( "default") );
+                    CatalogInfo info = (CatalogInfo) context.convertAnother( lookup, impl( type ) );
+                    lookup.add( info );
+                    if ( def ) {
+                        lookup.setDefault( info );
+                    }
+                    log(Level.INFO, "Loading " + reader.getNodeName() + " '" + nameOf( info ) + "'" );
                 }
-                map.put( o.getClass(), o );
-                
+
                 reader.moveUp();
             }
-            
-            return map;
-        }
-    }
-
-    /**
-     * Converter for handling maps containing workspaces and namespaces.
-     *
-     */
-    class SpaceMapConverter implements Converter {
 
-        String name;
-        
-        public SpaceMapConverter( String name ) {
-            this.name = name;
-        }
-        
-        public boolean canConvert(Class type) {
-            return Map.class.isAssignableFrom(type);
+            return lookup;
         }
 
-        public void marshal(Object source, HierarchicalStreamWriter writer,
-                MarshallingContext context) {
-
-            Map map = (Map) source;
-            
-            for (Object o : map.entrySet()) {
-                Map.Entry e = (Map.Entry) o;
-                if ( e.getKey() == null ) {
-                    continue;
-                }
-                
-                writer.startNode(name);
-                if ( map.get( null ) == e.getValue() ) {
-                    writer.addAttribute("default", "true");
-                }
-                context.convertAnother(e.getValue());
-                writer.endNode();
+        String nameOf( CatalogInfo info ) {
+            if ( info instanceof NamespaceInfo ) {
+                return ((NamespaceInfo) info).getPrefix();
             }
-        }
-
-        public Object unmarshal(HierarchicalStreamReader reader,
-                UnmarshallingContext context) {
-            Map map = new HashMap();
-            
-            while( reader.hasMoreChildren() ) {
-               reader.moveDown();
-
-               boolean def = "true".equals( reader.getAttribute( "default") );
-               
-               if ( "namespace".equals( name ) ) {
-                   NamespaceInfoImpl ns = (NamespaceInfoImpl) context.convertAnother( map, NamespaceInfoImpl.class );
-                   map.put( ns.getPrefix() , ns );
-                   if ( def ) {
-                       map.put( null, ns );
-                   }
-                   log(Level.INFO, "Loading namespace '" + ns.getPrefix() + "'" );
-               }
-               else {
-                   WorkspaceInfoImpl ws = (WorkspaceInfoImpl) context.convertAnother( map, WorkspaceInfoImpl.class );
-                   map.put( ws.getName() , ws );
-                   if ( def ) {
-                       map.put( null, ws );
-                   }
-
-                   log(Level.INFO,  "Loading workspace '" + ws.getName() + "'" );
-               }
-               
-               reader.moveUp();
+            if ( info instanceof WorkspaceInfo ) {
+                return ((WorkspaceInfo) info).getName();
             }
-            
-            return map;
+            if ( info instanceof StoreInfo ) {
+                return ((StoreInfo) info).getName();
+            }
+            if ( info instanceof StyleInfo ) {
+                return ((StyleInfo) info).getName();
+            }
+            return info.getId();
         }
     }
 
@@ -6,6 +6,7 @@ package org.geoserver.config.util;
 
 import org.geoserver.platform.GeoServerExtensions;
 
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 import com.thoughtworks.xstream.io.json.JettisonMappedXmlDriver;
 
 /**
@@ -45,4 +46,11 @@ public class XStreamPersisterFactory {
     public XStreamPersister createJSONPersister() {
         return new XStreamPersister(new JettisonMappedXmlDriver());
     }
+    
+    /**
+     * Creates an instance configured to persist to a compact binary format.
+     */
+    public XStreamPersister createBinaryPersister() {
+        return new XStreamPersister(new BinaryStreamDriver());
+    }
 }
@@ -0,0 +1,624 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageReader;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.TileCache;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.sun.media.jai.util.CacheDiagnostics;
+
+/**
+ * A JAI {@link TileCache} bounded by memory that does not serialize the tile accesses on a
+ * single lock, unlike the stock <code>SunTileCache</code>.
+ * <p>
+ * The tiles are kept in a segmented Guava cache weighted by the tile data size, lookups do not
+ * lock and additions only lock the segment they fall into. Eviction is least recently used within
+ * each segment, the tile comparator is ignored.
+ * </p>
+ * <p>
+ * Hits, misses, evictions and memory usage are tracked for the cache as a whole and for each
+ * source the tiles are computed from. The source of an image is found walking its chain of
+ * operations back to the one reading the data, and it's named after the file or URL it reads from.
+ * Operations merging several sources, like a mosaic, are sources on their own, named after the
+ * operation. The statistics of a source are dropped along with its last cached tile, so that they
+ * don't pile up for every file ever read, e.g. the granules of a mosaic. For the same reason the
+ * misses of a source are only counted while it has tiles in the cache.
+ * </p>
+ */
+public class ConcurrentTileCache implements TileCache, CacheDiagnostics,
+        ConcurrentTileCacheMXBean {
+
+    static final Logger LOGGER = Logging.getLogger(ConcurrentTileCache.class);
+
+    /**
+     * The maximum number of operations walked looking for the source of an image
+     */
+    static final int MAX_CHAIN_DEPTH = 32;
+
+    /**
+     * The number of segments the cache is split in
+     */
+    static final int CONCURRENCY_LEVEL = 16;
+
+    /**
+     * The property the ImageRead operation sets to the image reader it uses
+     */
+    static final String IMAGE_READER_PROPERTY = "JAI.ImageReader";
+
+    volatile Cache<TileKey, CachedTile> cache;
+
+    volatile long memoryCapacity;
+
+    volatile float memoryThreshold = 0.75f;
+
+    Comparator tileComparator;
+
+    /**
+     * The statistics of each source with cached tiles, by name
+     */
+    final ConcurrentHashMap<String, SourceStats> sources =
+            new ConcurrentHashMap<String, SourceStats>();
+
+    /**
+     * The source name of each tile owner, computed once and released along with the owner
+     */
+    final LoadingCache<RenderedImage, String> owners = CacheBuilder.newBuilder().weakKeys()
+            .build(new CacheLoader<RenderedImage, String>() {
+                @Override
+                public String load(RenderedImage owner) throws Exception {
+                    return getSourceName(owner);
+                }
+            });
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    final AtomicLong memoryUsed = new AtomicLong();
+
+    public ConcurrentTileCache() {
+        this((long) (Runtime.getRuntime().maxMemory() * 0.5));
+    }
+
+    public ConcurrentTileCache(long memoryCapacity) {
+        this.memoryCapacity = memoryCapacity;
+        this.cache = buildCache(memoryCapacity);
+    }
+
+    Cache<TileKey, CachedTile> buildCache(long capacity) {
+        return CacheBuilder.newBuilder().concurrencyLevel(CONCURRENCY_LEVEL)
+                .maximumWeight(Math.max(capacity, 1)).weigher(new Weigher<TileKey, CachedTile>() {
+                    public int weigh(TileKey key, CachedTile value) {
+                        return value.size;
+                    }
+                }).removalListener(new RemovalListener<TileKey, CachedTile>() {
+                    public void onRemoval(RemovalNotification<TileKey, CachedTile> notification) {
+                        CachedTile tile = notification.getValue();
+                        memoryUsed.addAndGet(-tile.size);
+                        tile.source.memory.addAndGet(-tile.size);
+                        if (notification.wasEvicted()) {
+                            evictions.incrementAndGet();
+                            tile.source.evictions.incrementAndGet();
+                        }
+                        release(tile.source);
+                    }
+                }).build();
+    }
+
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data) {
+        add(owner, tileX, tileY, data, null);
+    }
+
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data,
+            Object tileCacheMetric) {
+        if (owner == null || data == null || memoryCapacity <= 0) {
+            return;
+        }
+        SourceStats source = retain(owners.getUnchecked(owner));
+        CachedTile tile = new CachedTile(data, tileCacheMetric, source);
+        memoryUsed.addAndGet(tile.size);
+        source.memory.addAndGet(tile.size);
+        cache.put(new TileKey(owner, tileX, tileY), tile);
+    }
+
+    public void addTiles(RenderedImage owner, Point[] tileIndices, Raster[] tiles,
+            Object tileCacheMetric) {
+        for (int i = 0; i < tileIndices.length; i++) {
+            add(owner, tileIndices[i].x, tileIndices[i].y, tiles[i], tileCacheMetric);
+        }
+    }
+
+    public Raster getTile(RenderedImage owner, int tileX, int tileY) {
+        if (owner == null) {
+            return null;
+        }
+        CachedTile tile = cache.getIfPresent(new TileKey(owner, tileX, tileY));
+        if (tile != null) {
+            hits.incrementAndGet();
+            tile.source.hits.incrementAndGet();
+            return tile.tile;
+        } else {
+            misses.incrementAndGet();
+            if (memoryCapacity > 0) {
+                // only count on sources with tiles cached, statistics created here would never
+                // be released
+                SourceStats source = sources.get(owners.getUnchecked(owner));
+                if (source != null) {
+                    source.misses.incrementAndGet();
+                }
+            }
+            return null;
+        }
+    }
+
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+        Raster[] tiles = new Raster[tileIndices.length];
+        for (int i = 0; i < tileIndices.length; i++) {
+            tiles[i] = getTile(owner, tileIndices[i].x, tileIndices[i].y);
+        }
+        return tiles;
+    }
+
+    public Raster[] getTiles(RenderedImage owner) {
+        // like the SunTileCache, a full scan, the tiles are not indexed by owner
+        List<Raster> tiles = new ArrayList<Raster>();
+        for (Map.Entry<TileKey, CachedTile> entry : cache.asMap().entrySet()) {
+            if (entry.getKey().getOwner() == owner) {
+                tiles.add(entry.getValue().tile);
+            }
+        }
+        return tiles.isEmpty() ? null : tiles.toArray(new Raster[tiles.size()]);
+    }
+
+    public void remove(RenderedImage owner, int tileX, int tileY) {
+        if (owner != null) {
+            cache.invalidate(new TileKey(owner, tileX, tileY));
+        }
+    }
+
+    public void removeTiles(RenderedImage owner) {
+        List<TileKey> keys = new ArrayList<TileKey>();
+        for (TileKey key : cache.asMap().keySet()) {
+            RenderedImage keyOwner = key.getOwner();
+            // also get rid of the tiles whose owner has been garbage collected
+            if (keyOwner == owner || keyOwner == null) {
+                keys.add(key);
+            }
+        }
+        cache.invalidateAll(keys);
+    }
+
+    public void flush() {
+        cache.invalidateAll();
+    }
+
+    public void memoryControl() {
+        cache.cleanUp();
+    }
+
+    /**
+     * Tile capacity is not supported, the cache is only bounded by memory
+     */
+    @Deprecated
+    public void setTileCapacity(int tileCapacity) {
+    }
+
+    @Deprecated
+    public int getTileCapacity() {
+        return 0;
+    }
+
+    /**
+     * Sets the memory bound. The tiles are moved to a new cache with the new bound, the least
+     * recently used ones get evicted if they don't fit anymore
+     */
+    public synchronized void setMemoryCapacity(long memoryCapacity) {
+        if (memoryCapacity < 0) {
+            throw new IllegalArgumentException("Memory capacity cannot be negative: "
+                    + memoryCapacity);
+        }
+        if (memoryCapacity == this.memoryCapacity) {
+            return;
+        }
+        Cache<TileKey, CachedTile> old = cache;
+        Cache<TileKey, CachedTile> resized = buildCache(memoryCapacity);
+        if (memoryCapacity > 0) {
+            for (Map.Entry<TileKey, CachedTile> entry : old.asMap().entrySet()) {
+                CachedTile tile = entry.getValue();
+                if (!retain(tile.source)) {
+                    // evicted from the old cache in the meantime along with its source
+                    continue;
+                }
+                memoryUsed.addAndGet(tile.size);
+                tile.source.memory.addAndGet(tile.size);
+                resized.put(entry.getKey(), tile);
+            }
+        }
+        this.cache = resized;
+        this.memoryCapacity = memoryCapacity;
+        old.invalidateAll();
+    }
+
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    /**
+     * The memory threshold is only reported, the cache evicts tiles as soon as the capacity is
+     * reached
+     */
+    public void setMemoryThreshold(float memoryThreshold) {
+        if (memoryThreshold < 0 || memoryThreshold > 1) {
+            throw new IllegalArgumentException("Memory threshold must be between 0 and 1: "
+                    + memoryThreshold);
+        }
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public float getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * The comparator is ignored, the eviction order is least recently used
+     */
+    public void setTileComparator(Comparator comparator) {
+        this.tileComparator = comparator;
+    }
+
+    public Comparator getTileComparator() {
+        return tileComparator;
+    }
+
+    // CacheDiagnostics, the counters are always on
+    public void enableDiagnostics() {
+    }
+
+    public void disableDiagnostics() {
+    }
+
+    public long getCacheTileCount() {
+        return cache.size();
+    }
+
+    public long getCacheMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public long getCacheHitCount() {
+        return hits.get();
+    }
+
+    public long getCacheMissCount() {
+        return misses.get();
+    }
+
+    public void resetCounts() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        for (SourceStats source : sources.values()) {
+            source.hits.set(0);
+            source.misses.set(0);
+            source.evictions.set(0);
+        }
+    }
+
+    // MXBean
+    public long getTileCount() {
+        return cache.size();
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public List<SourceStatistics> getSources() {
+        List<SourceStatistics> result = new ArrayList<SourceStatistics>();
+        for (SourceStats source : sources.values()) {
+            result.add(new SourceStatistics(source));
+        }
+        Collections.sort(result, new Comparator<SourceStatistics>() {
+            public int compare(SourceStatistics s1, SourceStatistics s2) {
+                return s1.name.compareTo(s2.name);
+            }
+        });
+        return result;
+    }
+
+    SourceStats getSourceStats(String name) {
+        SourceStats stats = sources.get(name);
+        if (stats == null) {
+            stats = new SourceStats(name);
+            SourceStats existing = sources.putIfAbsent(name, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Counts a new tile of the named source, returning its statistics
+     */
+    SourceStats retain(String name) {
+        while (true) {
+            SourceStats stats = getSourceStats(name);
+            if (retain(stats)) {
+                return stats;
+            }
+            // dropped along with its last tile in the meantime, look it up again
+        }
+    }
+
+    /**
+     * Counts a new tile of the source, unless its statistics have been dropped already
+     */
+    boolean retain(SourceStats stats) {
+        synchronized (stats) {
+            if (stats.dropped) {
+                return false;
+            }
+            stats.tiles.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Counts a tile of the source out, dropping its statistics along with its last tile
+     */
+    void release(SourceStats stats) {
+        synchronized (stats) {
+            if (stats.tiles.decrementAndGet() == 0) {
+                stats.dropped = true;
+                sources.remove(stats.name, stats);
+            }
+        }
+    }
+
+    /**
+     * Walks the operation chain back to the image reading the data and names the source after it
+     */
+    static String getSourceName(RenderedImage image) {
+        RenderedImage current = image;
+        for (int i = 0; i < MAX_CHAIN_DEPTH; i++) {
+            List<RenderedImage> sources = current.getSources();
+            if (sources == null || sources.size() != 1) {
+                break;
+            }
+            current = sources.get(0);
+        }
+
+        String input = null;
+        String name;
+        Object reader = current.getProperty(IMAGE_READER_PROPERTY);
+        if (reader instanceof ImageReader) {
+            name = "ImageRead";
+            input = getInputName(((ImageReader) reader).getInput());
+        } else if (current instanceof RenderedOp) {
+            RenderedOp op = (RenderedOp) current;
+            name = op.getOperationName();
+            if (op.getNumParameters() > 0) {
+                input = getInputName(op.getParameterBlock().getObjectParameter(0));
+            }
+        } else {
+            name = current.getClass().getSimpleName();
+        }
+        return input != null ? name + ":" + input : name;
+    }
+
+    static String getInputName(Object input) {
+        if (input instanceof File) {
+            return ((File) input).getPath();
+        } else if (input instanceof URL) {
+            return ((URL) input).toExternalForm();
+        } else if (input instanceof String) {
+            return (String) input;
+        } else if (input != null && PropertyUtils.isReadable(input, "file")) {
+            // the image input streams used by the coverage readers know their file
+            try {
+                Object file = PropertyUtils.getProperty(input, "file");
+                if (file instanceof File) {
+                    return ((File) file).getPath();
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINEST, "Could not get the file out of " + input, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Identifies a tile, without preventing its owner from being garbage collected
+     */
+    static final class TileKey {
+        final WeakReference<RenderedImage> owner;
+
+        final int tileX;
+
+        final int tileY;
+
+        final int hash;
+
+        TileKey(RenderedImage owner, int tileX, int tileY) {
+            this.owner = new WeakReference<RenderedImage>(owner);
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.hash = (System.identityHashCode(owner) * 31 + tileX) * 31 + tileY;
+        }
+
+        RenderedImage getOwner() {
+            return owner.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            if (hash != other.hash || tileX != other.tileX || tileY != other.tileY) {
+                return false;
+            }
+            RenderedImage o = owner.get();
+            return o != null && o == other.owner.get();
+        }
+    }
+
+    /**
+     * A cached tile, along with its size and source
+     */
+    static final class CachedTile {
+        final Raster tile;
+
+        final Object metric;
+
+        final SourceStats source;
+
+        final int size;
+
+        CachedTile(Raster tile, Object metric, SourceStats source) {
+            this.tile = tile;
+            this.metric = metric;
+            this.source = source;
+            DataBuffer buffer = tile.getDataBuffer();
+            long bytes = (long) buffer.getSize() * buffer.getNumBanks()
+                    * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+            this.size = (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * The live counters of a source
+     */
+    static final class SourceStats {
+        final String name;
+
+        final AtomicLong hits = new AtomicLong();
+
+        final AtomicLong misses = new AtomicLong();
+
+        final AtomicLong evictions = new AtomicLong();
+
+        final AtomicLong tiles = new AtomicLong();
+
+        final AtomicLong memory = new AtomicLong();
+
+        /**
+         * Whether the last tile of the source has been removed, and the statistics dropped
+         */
+        boolean dropped;
+
+        SourceStats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a source
+     */
+    public static class SourceStatistics {
+        String name;
+
+        long hitCount;
+
+        long missCount;
+
+        long evictionCount;
+
+        long tileCount;
+
+        long memoryUsed;
+
+        SourceStatistics(SourceStats stats) {
+            this.name = stats.name;
+            this.hitCount = stats.hits.get();
+            this.missCount = stats.misses.get();
+            this.evictionCount = stats.evictions.get();
+            this.tileCount = stats.tiles.get();
+            this.memoryUsed = stats.memory.get();
+        }
+
+        /**
+         * The source name, the reading operation followed by the file or URL it reads from
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getTileCount() {
+            return tileCount;
+        }
+
+        /**
+         * The memory used by the cached tiles, in bytes
+         */
+        public long getMemoryUsed() {
+            return memoryUsed;
+        }
+    }
+}
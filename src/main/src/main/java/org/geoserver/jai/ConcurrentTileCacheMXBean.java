@@ -0,0 +1,50 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.util.List;
+
+import org.geoserver.jai.ConcurrentTileCache.SourceStatistics;
+
+/**
+ * Management interface exposing the {@link ConcurrentTileCache} counters through JMX.
+ */
+public interface ConcurrentTileCacheMXBean {
+
+    /**
+     * The maximum amount of memory used by the cached tiles, in bytes.
+     */
+    long getMemoryCapacity();
+
+    /**
+     * Memory currently used by the cached tiles, in bytes.
+     */
+    long getMemoryUsed();
+
+    /**
+     * Number of tiles currently cached.
+     */
+    long getTileCount();
+
+    /**
+     * Number of lookups that found the tile in the cache.
+     */
+    long getHitCount();
+
+    /**
+     * Number of lookups that did not find the tile in the cache.
+     */
+    long getMissCount();
+
+    /**
+     * Number of tiles evicted to keep the cache within its memory capacity.
+     */
+    long getEvictionCount();
+
+    /**
+     * The counters of each source the cached tiles have been computed from, sorted by name.
+     */
+    List<SourceStatistics> getSources();
+}
@@ -7,16 +7,16 @@ package org.geoserver.jai;
 import java.util.List;
 
 import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
 
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.GeoServerInitializer;
 import org.geoserver.config.JAIInfo;
+import org.geoserver.config.JAIInfo.TileCacheType;
 import org.geotools.image.jai.Registry;
 
-import com.sun.media.jai.util.SunTileCache;
-
 /**
  * Initializes JAI functionality from configuration.
  * 
@@ -24,6 +24,37 @@ import com.sun.media.jai.util.SunTileCache;
  */
 public class JAIInitializer implements GeoServerInitializer {
 
+    /**
+     * The tile cache used when {@link TileCacheType#CONCURRENT} is configured
+     */
+    ConcurrentTileCache concurrentTileCache;
+
+    /**
+     * The tile cache JAI started with, used when {@link TileCacheType#SUN} is configured
+     */
+    TileCache defaultTileCache;
+
+    /**
+     * The pool backing the tiles when recycling is enabled
+     */
+    RasterBufferPool rasterBufferPool;
+
+    public void setConcurrentTileCache(ConcurrentTileCache concurrentTileCache) {
+        this.concurrentTileCache = concurrentTileCache;
+    }
+
+    public ConcurrentTileCache getConcurrentTileCache() {
+        return concurrentTileCache;
+    }
+
+    public void setRasterBufferPool(RasterBufferPool rasterBufferPool) {
+        this.rasterBufferPool = rasterBufferPool;
+    }
+
+    public RasterBufferPool getRasterBufferPool() {
+        return rasterBufferPool;
+    }
+
     public void initialize(GeoServer geoServer) throws Exception {
         initJAI( geoServer.getGlobal().getJAI() );
         
@@ -52,7 +83,11 @@ public class JAIInitializer implements GeoServerInitializer {
         
         // tile factory and recycler
         if(jai.isRecycling() && !(jaiDef.getRenderingHint(JAI.KEY_TILE_FACTORY) instanceof ConcurrentTileFactory)) {
-            final ConcurrentTileFactory recyclingFactory = new ConcurrentTileFactory();
+            if (rasterBufferPool == null) {
+                rasterBufferPool = new RasterBufferPool();
+            }
+            final ConcurrentTileFactory recyclingFactory = new ConcurrentTileFactory(
+                    rasterBufferPool);
             jaiDef.setRenderingHint(JAI.KEY_TILE_FACTORY, recyclingFactory);
             jaiDef.setRenderingHint(JAI.KEY_TILE_RECYCLER, recyclingFactory);
         } else {
@@ -63,10 +98,15 @@ public class JAIInitializer implements GeoServerInitializer {
             }
         }
         
-        // Setting up Cache Capacity
-        SunTileCache jaiCache = (SunTileCache) jaiDef.getTileCache();
+        // Setting up the tile cache implementation
+        TileCache jaiCache = getTileCache(jai.getTileCacheType(), jaiDef.getTileCache());
+        if (jaiCache != jaiDef.getTileCache()) {
+            jaiDef.getTileCache().flush();
+            jaiDef.setTileCache(jaiCache);
+        }
         jai.setTileCache( jaiCache );
-        
+
+        // Setting up Cache Capacity
         long jaiMemory = (long) (jai.getMemoryCapacity() * Runtime.getRuntime().maxMemory());
         jaiCache.setMemoryCapacity(jaiMemory);
         
@@ -81,4 +121,18 @@ public class JAIInitializer implements GeoServerInitializer {
         // Workaround for native mosaic BUG
         Registry.setNativeAccelerationAllowed("Mosaic", jai.isAllowNativeMosaic(), jaiDef);
     }
+
+    TileCache getTileCache(TileCacheType type, TileCache current) {
+        if (defaultTileCache == null && !(current instanceof ConcurrentTileCache)) {
+            defaultTileCache = current;
+        }
+        if (type == TileCacheType.CONCURRENT) {
+            if (concurrentTileCache == null) {
+                concurrentTileCache = new ConcurrentTileCache();
+            }
+            return concurrentTileCache;
+        } else {
+            return defaultTileCache != null ? defaultTileCache : current;
+        }
+    }
 }
@@ -0,0 +1,772 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.sun.media.jai.util.DataBufferUtils;
+
+/**
+ * A pool of the primitive arrays backing rasters, shared by the JAI tiles built by the
+ * {@link ConcurrentTileFactory} and the drawing surfaces of the WMS.
+ * <p>
+ * Arrays are grouped by primitive type and size class, each power of two being split in four
+ * classes, so an array is at most 25% larger than requested and the data buffers built on top of
+ * it simply use a part of it. Each thread keeps a small cache of its own, one array per class, in
+ * front of the shared lock free queues, so a thread releasing and then acquiring a buffer of the
+ * same size does not touch any shared state.
+ * </p>
+ * <p>
+ * The arrays held by the pool, in the thread caches and in the shared queues, never exceed the
+ * memory capacity. When a released array does not fit the arrays sitting in the shared queues
+ * are evicted in round robin order, so that the pool follows the sizes in use, and if that is not
+ * enough the array is left to the garbage collector.
+ * </p>
+ * <p>
+ * In debug mode, enabled with the <code>org.geoserver.jai.bufferPool.debug</code> system
+ * property or through JMX, the pool remembers where each array has been acquired, and logs a
+ * warning with that stack trace for arrays that get garbage collected instead of being released,
+ * or that are released twice.
+ * </p>
+ */
+public class RasterBufferPool implements RasterBufferPoolMXBean {
+
+    static final Logger LOGGER = Logging.getLogger(RasterBufferPool.class);
+
+    /**
+     * Arrays shorter than this are cheaper to allocate than to pool
+     */
+    static final int MIN_POOLED_LENGTH = 1024;
+
+    /**
+     * Arrays longer than this are not pooled
+     */
+    static final int MAX_POOLED_LENGTH = 1 << 26;
+
+    /**
+     * The position of the highest bit of the smallest size class
+     */
+    static final int MIN_SHIFT = 31 - Integer.numberOfLeadingZeros(MIN_POOLED_LENGTH - 1);
+
+    static final int SIZE_CLASSES = sizeClass(MAX_POOLED_LENGTH) + 1;
+
+    static final int BYTE = 0;
+
+    static final int SHORT = 1;
+
+    static final int INT = 2;
+
+    static final int FLOAT = 3;
+
+    static final int DOUBLE = 4;
+
+    static final int[] ELEMENT_SIZES = { 1, 2, 4, 4, 8 };
+
+    static final int SLOTS = ELEMENT_SIZES.length * SIZE_CLASSES;
+
+    /**
+     * Dead threads are looked for at most once every this many milliseconds
+     */
+    static final long REAP_INTERVAL = 1000;
+
+    /**
+     * Marks the arrays returned to the pool in debug mode
+     */
+    static final Throwable RELEASED = new Throwable("Released");
+
+    /**
+     * The shared queues, one per primitive type and size class
+     */
+    final ConcurrentLinkedQueue<Object>[] shared;
+
+    /**
+     * The caches of the threads using the pool, kept so that they can be flushed, and drained
+     * once their thread dies
+     */
+    final ConcurrentLinkedQueue<ThreadCache> threadCaches =
+            new ConcurrentLinkedQueue<ThreadCache>();
+
+    final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+        protected ThreadCache initialValue() {
+            ThreadCache cache = new ThreadCache(Thread.currentThread());
+            threadCaches.add(cache);
+            return cache;
+        }
+    };
+
+    final AtomicInteger evictionCursor = new AtomicInteger();
+
+    volatile long lastReap;
+
+    volatile long memoryCapacity;
+
+    volatile long threadCapacity = 8 * 1024 * 1024;
+
+    volatile boolean debug = Boolean.getBoolean("org.geoserver.jai.bufferPool.debug");
+
+    /**
+     * The stack traces of the arrays out of the pool, or {@link #RELEASED} for the ones returned
+     * to it, in debug mode only
+     */
+    volatile Cache<Object, Throwable> leases;
+
+    final AtomicLong memoryUsed = new AtomicLong();
+
+    final AtomicLong requests = new AtomicLong();
+
+    final AtomicLong threadHits = new AtomicLong();
+
+    final AtomicLong sharedHits = new AtomicLong();
+
+    final AtomicLong allocations = new AtomicLong();
+
+    final AtomicLong allocatedBytes = new AtomicLong();
+
+    final AtomicLong releases = new AtomicLong();
+
+    final AtomicLong drops = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * Builds a pool using up to 5% of the heap
+     */
+    public RasterBufferPool() {
+        this(Runtime.getRuntime().maxMemory() / 20);
+    }
+
+    @SuppressWarnings("unchecked")
+    public RasterBufferPool(long memoryCapacity) {
+        this.memoryCapacity = memoryCapacity;
+        this.shared = new ConcurrentLinkedQueue[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            shared[i] = new ConcurrentLinkedQueue<Object>();
+        }
+        if (debug) {
+            leases = buildLeases();
+        }
+    }
+
+    /**
+     * Returns the size class of the specified array length
+     */
+    static int sizeClass(int length) {
+        int n = Math.max(length, MIN_POOLED_LENGTH) - 1;
+        int shift = 31 - Integer.numberOfLeadingZeros(n);
+        int quarter = (n >>> (shift - 2)) & 3;
+        return (shift - MIN_SHIFT) * 4 + quarter;
+    }
+
+    /**
+     * Returns the length of the arrays of the specified size class, that is, the largest length
+     * falling in it
+     */
+    static int classLength(int sizeClass) {
+        int shift = sizeClass / 4 + MIN_SHIFT;
+        int quarter = sizeClass % 4;
+        return (5 + quarter) << (shift - 2);
+    }
+
+    /**
+     * Returns the pool array type of the specified {@link DataBuffer} type, or -1 if not supported
+     */
+    static int arrayType(int dataType) {
+        switch (dataType) {
+        case DataBuffer.TYPE_BYTE:
+            return BYTE;
+        case DataBuffer.TYPE_USHORT:
+        case DataBuffer.TYPE_SHORT:
+            return SHORT;
+        case DataBuffer.TYPE_INT:
+            return INT;
+        case DataBuffer.TYPE_FLOAT:
+            return FLOAT;
+        case DataBuffer.TYPE_DOUBLE:
+            return DOUBLE;
+        default:
+            return -1;
+        }
+    }
+
+    static int arrayType(Object array) {
+        if (array instanceof byte[]) {
+            return BYTE;
+        } else if (array instanceof short[]) {
+            return SHORT;
+        } else if (array instanceof int[]) {
+            return INT;
+        } else if (array instanceof float[]) {
+            return FLOAT;
+        } else if (array instanceof double[]) {
+            return DOUBLE;
+        }
+        return -1;
+    }
+
+    static int length(Object array, int type) {
+        switch (type) {
+        case BYTE:
+            return ((byte[]) array).length;
+        case SHORT:
+            return ((short[]) array).length;
+        case INT:
+            return ((int[]) array).length;
+        case FLOAT:
+            return ((float[]) array).length;
+        default:
+            return ((double[]) array).length;
+        }
+    }
+
+    static Object newArray(int type, int length) {
+        switch (type) {
+        case BYTE:
+            return new byte[length];
+        case SHORT:
+            return new short[length];
+        case INT:
+            return new int[length];
+        case FLOAT:
+            return new float[length];
+        default:
+            return new double[length];
+        }
+    }
+
+    static void clear(Object array, int type, int length) {
+        switch (type) {
+        case BYTE:
+            Arrays.fill((byte[]) array, 0, length, (byte) 0);
+            break;
+        case SHORT:
+            Arrays.fill((short[]) array, 0, length, (short) 0);
+            break;
+        case INT:
+            Arrays.fill((int[]) array, 0, length, 0);
+            break;
+        case FLOAT:
+            Arrays.fill((float[]) array, 0, length, 0f);
+            break;
+        default:
+            Arrays.fill((double[]) array, 0, length, 0d);
+        }
+    }
+
+    /**
+     * Returns an array of the specified type, {@link #BYTE}, {@link #SHORT}, {@link #INT},
+     * {@link #FLOAT} or {@link #DOUBLE}, holding at least <code>length</code> elements
+     *
+     * @param clear If true the first <code>length</code> elements of a recycled array are zeroed
+     */
+    Object acquire(int type, int length, boolean clear) {
+        requests.incrementAndGet();
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH) {
+            allocations.incrementAndGet();
+            allocatedBytes.addAndGet((long) length * ELEMENT_SIZES[type]);
+            return newArray(type, length);
+        }
+
+        int sizeClass = sizeClass(length);
+        int slot = type * SIZE_CLASSES + sizeClass;
+        long bytes = (long) classLength(sizeClass) * ELEMENT_SIZES[type];
+        ThreadCache cache = threadCache.get();
+        Object array = cache.slots.getAndSet(slot, null);
+        if (array != null) {
+            cache.bytes.addAndGet(-bytes);
+            threadHits.incrementAndGet();
+        } else {
+            array = shared[slot].poll();
+            if (array != null) {
+                sharedHits.incrementAndGet();
+            }
+        }
+
+        if (array != null) {
+            memoryUsed.addAndGet(-bytes);
+            if (clear) {
+                clear(array, type, length);
+            }
+        } else {
+            allocations.incrementAndGet();
+            allocatedBytes.addAndGet(bytes);
+            array = newArray(type, classLength(sizeClass));
+        }
+
+        Cache<Object, Throwable> leases = this.leases;
+        if (leases != null) {
+            leases.put(array, new Exception("Raster buffer acquired by "
+                    + Thread.currentThread().getName()));
+        }
+        return array;
+    }
+
+    /**
+     * Returns an array to the pool. The array must not be used anymore by the caller, arrays that
+     * have not been acquired from the pool are accepted as long as their length matches a size
+     * class
+     */
+    void release(Object array) {
+        if (array == null) {
+            return;
+        }
+        releases.incrementAndGet();
+        int type = arrayType(array);
+        if (type < 0) {
+            drops.incrementAndGet();
+            return;
+        }
+        int length = length(array, type);
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH
+                || classLength(sizeClass(length)) != length) {
+            drops.incrementAndGet();
+            return;
+        }
+
+        Cache<Object, Throwable> leases = this.leases;
+        if (leases != null) {
+            if (leases.getIfPresent(array) == RELEASED) {
+                LOGGER.log(Level.WARNING, "Raster buffer of " + length + " elements released twice",
+                        new Exception("Released by " + Thread.currentThread().getName()));
+                drops.incrementAndGet();
+                return;
+            }
+            leases.put(array, RELEASED);
+        }
+
+        long bytes = (long) length * ELEMENT_SIZES[type];
+        if (!reserve(bytes)) {
+            drops.incrementAndGet();
+            return;
+        }
+
+        int slot = type * SIZE_CLASSES + sizeClass(length);
+        ThreadCache cache = threadCache.get();
+        if (cache.bytes.get() + bytes <= threadCapacity
+                && cache.slots.compareAndSet(slot, null, array)) {
+            cache.bytes.addAndGet(bytes);
+        } else {
+            shared[slot].offer(array);
+        }
+    }
+
+    /**
+     * Makes room for the specified amount of bytes, evicting shared arrays if needed
+     */
+    boolean reserve(long bytes) {
+        if (bytes > memoryCapacity) {
+            return false;
+        }
+        if (memoryUsed.addAndGet(bytes) <= memoryCapacity) {
+            return true;
+        }
+        memoryUsed.addAndGet(-bytes);
+
+        long now = System.currentTimeMillis();
+        if (now - lastReap > REAP_INTERVAL) {
+            lastReap = now;
+            reapDeadThreads();
+        }
+        evict(memoryUsed.get() + bytes - memoryCapacity);
+
+        if (memoryUsed.addAndGet(bytes) <= memoryCapacity) {
+            return true;
+        }
+        memoryUsed.addAndGet(-bytes);
+        return false;
+    }
+
+    /**
+     * Evicts arrays from the shared queues, in round robin order, until the specified amount of
+     * bytes is freed or the queues are empty
+     */
+    long evict(long bytes) {
+        long freed = 0;
+        int start = (evictionCursor.getAndIncrement() & Integer.MAX_VALUE) % SLOTS;
+        for (int i = 0; i < SLOTS && freed < bytes; i++) {
+            int slot = (start + i) % SLOTS;
+            Object array;
+            while (freed < bytes && (array = shared[slot].poll()) != null) {
+                long size = bytes(array);
+                memoryUsed.addAndGet(-size);
+                evictions.incrementAndGet();
+                freed += size;
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Drains the caches of the threads that died
+     */
+    void reapDeadThreads() {
+        for (ThreadCache cache : threadCaches) {
+            Thread owner = cache.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                threadCaches.remove(cache);
+                drain(cache);
+            }
+        }
+    }
+
+    void drain(ThreadCache cache) {
+        for (int i = 0; i < SLOTS; i++) {
+            Object array = cache.slots.getAndSet(i, null);
+            if (array != null) {
+                long size = bytes(array);
+                cache.bytes.addAndGet(-size);
+                memoryUsed.addAndGet(-size);
+            }
+        }
+    }
+
+    static long bytes(Object array) {
+        int type = arrayType(array);
+        return (long) length(array, type) * ELEMENT_SIZES[type];
+    }
+
+    /**
+     * Builds a data buffer for the specified sample model, recycling pooled arrays when possible
+     *
+     * @param clear If false the contents of the buffer are undefined, use it only when the caller
+     *        is going to overwrite all of it
+     */
+    public DataBuffer createDataBuffer(SampleModel sampleModel, boolean clear) {
+        int type = arrayType(sampleModel.getDataType());
+        long numBanks = 0;
+        long size = 0;
+        if (sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel csm = (ComponentSampleModel) sampleModel;
+            numBanks = getNumBanksCSM(csm);
+            size = getBufferSizeCSM(csm);
+        } else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            MultiPixelPackedSampleModel mppsm = (MultiPixelPackedSampleModel) sampleModel;
+            numBanks = 1;
+            int dataTypeSize = DataBuffer.getDataTypeSize(sampleModel.getDataType());
+            size = mppsm.getScanlineStride() * mppsm.getHeight()
+                    + (mppsm.getDataBitOffset() + dataTypeSize - 1) / dataTypeSize;
+        } else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sampleModel;
+            numBanks = 1;
+            size = sppsm.getScanlineStride() * (sppsm.getHeight() - 1) + sppsm.getWidth();
+        }
+        if (type < 0 || size < MIN_POOLED_LENGTH || size > MAX_POOLED_LENGTH) {
+            return sampleModel.createDataBuffer();
+        }
+
+        int length = (int) size;
+        int banks = (int) numBanks;
+        switch (type) {
+        case BYTE: {
+            byte[][] bankData = new byte[banks][];
+            for (int i = 0; i < banks; i++) {
+                bankData[i] = (byte[]) acquire(type, length, clear);
+            }
+            return new DataBufferByte(bankData, length);
+        }
+        case SHORT: {
+            short[][] bankData = new short[banks][];
+            for (int i = 0; i < banks; i++) {
+                bankData[i] = (short[]) acquire(type, length, clear);
+            }
+            if (sampleModel.getDataType() == DataBuffer.TYPE_USHORT) {
+                return new DataBufferUShort(bankData, length);
+            } else {
+                return new DataBufferShort(bankData, length);
+            }
+        }
+        case INT: {
+            int[][] bankData = new int[banks][];
+            for (int i = 0; i < banks; i++) {
+                bankData[i] = (int[]) acquire(type, length, clear);
+            }
+            return new DataBufferInt(bankData, length);
+        }
+        case FLOAT: {
+            float[][] bankData = new float[banks][];
+            for (int i = 0; i < banks; i++) {
+                bankData[i] = (float[]) acquire(type, length, clear);
+            }
+            return DataBufferUtils.createDataBufferFloat(bankData, length);
+        }
+        default: {
+            double[][] bankData = new double[banks][];
+            for (int i = 0; i < banks; i++) {
+                bankData[i] = (double[]) acquire(type, length, clear);
+            }
+            return DataBufferUtils.createDataBufferDouble(bankData, length);
+        }
+        }
+    }
+
+    /**
+     * Returns the arrays backing the data buffer to the pool. The data buffer, and any raster or
+     * image built on top of it, must not be used anymore
+     */
+    public void recycle(DataBuffer db) {
+        Object[] bankData;
+        switch (db.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            bankData = ((DataBufferByte) db).getBankData();
+            break;
+        case DataBuffer.TYPE_USHORT:
+            bankData = ((DataBufferUShort) db).getBankData();
+            break;
+        case DataBuffer.TYPE_SHORT:
+            bankData = ((DataBufferShort) db).getBankData();
+            break;
+        case DataBuffer.TYPE_INT:
+            bankData = ((DataBufferInt) db).getBankData();
+            break;
+        case DataBuffer.TYPE_FLOAT:
+            bankData = DataBufferUtils.getBankDataFloat(db);
+            break;
+        case DataBuffer.TYPE_DOUBLE:
+            bankData = DataBufferUtils.getBankDataDouble(db);
+            break;
+        default:
+            drops.incrementAndGet();
+            return;
+        }
+        for (Object array : bankData) {
+            release(array);
+        }
+    }
+
+    /**
+     * Builds an image of the specified {@link BufferedImage} type backed by pooled arrays, the
+     * image returns them to the pool when {@link PooledImage#release()} is called
+     *
+     * @param clear If false the pixels are undefined, the caller is supposed to paint all of them
+     */
+    public PooledImage createImage(int width, int height, int imageType, boolean clear) {
+        BufferedImage template = new BufferedImage(1, 1, imageType);
+        return createImage(template.getColorModel(), template.getSampleModel()
+                .createCompatibleSampleModel(width, height), clear);
+    }
+
+    /**
+     * Builds an image with the specified color and sample models backed by pooled arrays, the
+     * image returns them to the pool when {@link PooledImage#release()} is called
+     *
+     * @param clear If false the pixels are undefined, the caller is supposed to paint all of them
+     */
+    public PooledImage createImage(ColorModel colorModel, SampleModel sampleModel, boolean clear) {
+        WritableRaster raster = Raster.createWritableRaster(sampleModel,
+                createDataBuffer(sampleModel, clear), null);
+        return new PooledImage(this, colorModel, raster);
+    }
+
+    static long getBufferSizeCSM(ComponentSampleModel csm) {
+        int[] bandOffsets = csm.getBandOffsets();
+        int maxBandOff = bandOffsets[0];
+        for (int i = 1; i < bandOffsets.length; i++)
+            maxBandOff = Math.max(maxBandOff, bandOffsets[i]);
+
+        long size = 0;
+        if (maxBandOff >= 0)
+            size += maxBandOff + 1;
+        int pixelStride = csm.getPixelStride();
+        if (pixelStride > 0)
+            size += pixelStride * (csm.getWidth() - 1);
+        int scanlineStride = csm.getScanlineStride();
+        if (scanlineStride > 0)
+            size += scanlineStride * (csm.getHeight() - 1);
+        return size;
+    }
+
+    static long getNumBanksCSM(ComponentSampleModel csm) {
+        int[] bankIndices = csm.getBankIndices();
+        int maxIndex = bankIndices[0];
+        for (int i = 1; i < bankIndices.length; i++) {
+            int bankIndex = bankIndices[i];
+            if (bankIndex > maxIndex) {
+                maxIndex = bankIndex;
+            }
+        }
+        return maxIndex + 1;
+    }
+
+    Cache<Object, Throwable> buildLeases() {
+        // weak keys use identity, the listener is called for the arrays collected while leased
+        return CacheBuilder.newBuilder().weakKeys()
+                .removalListener(new RemovalListener<Object, Throwable>() {
+                    public void onRemoval(RemovalNotification<Object, Throwable> notification) {
+                        if (notification.getCause() == RemovalCause.COLLECTED
+                                && notification.getValue() != RELEASED) {
+                            leaks.incrementAndGet();
+                            LOGGER.log(Level.WARNING, "Raster buffer garbage collected without "
+                                    + "being released to the pool", notification.getValue());
+                        }
+                    }
+                }).build();
+    }
+
+    /**
+     * Drops all the pooled arrays
+     */
+    public void flush() {
+        for (ConcurrentLinkedQueue<Object> queue : shared) {
+            Object array;
+            while ((array = queue.poll()) != null) {
+                memoryUsed.addAndGet(-bytes(array));
+            }
+        }
+        for (ThreadCache cache : threadCaches) {
+            drain(cache);
+        }
+        reapDeadThreads();
+    }
+
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    public void setMemoryCapacity(long memoryCapacity) {
+        this.memoryCapacity = memoryCapacity;
+        long excess = memoryUsed.get() - memoryCapacity;
+        if (excess > 0 && evict(excess) < excess) {
+            for (ThreadCache cache : threadCaches) {
+                drain(cache);
+            }
+        }
+    }
+
+    public long getThreadCapacity() {
+        return threadCapacity;
+    }
+
+    public void setThreadCapacity(long threadCapacity) {
+        this.threadCapacity = threadCapacity;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+        if (debug && leases == null) {
+            leases = buildLeases();
+        } else if (!debug) {
+            leases = null;
+        }
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getThreadHitCount() {
+        return threadHits.get();
+    }
+
+    public long getSharedHitCount() {
+        return sharedHits.get();
+    }
+
+    public long getAllocationCount() {
+        return allocations.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getReleaseCount() {
+        return releases.get();
+    }
+
+    public long getDropCount() {
+        return drops.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getLeakCount() {
+        Cache<Object, Throwable> leases = this.leases;
+        if (leases != null) {
+            leases.cleanUp();
+        }
+        return leaks.get();
+    }
+
+    /**
+     * The per thread cache, one array per type and size class. The slots are only written by the
+     * owner thread, but can be drained by others when flushing the pool
+     */
+    static class ThreadCache {
+        final WeakReference<Thread> owner;
+
+        final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(SLOTS);
+
+        final AtomicLong bytes = new AtomicLong();
+
+        ThreadCache(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+    }
+
+    /**
+     * A {@link BufferedImage} backed by pooled arrays
+     */
+    public static class PooledImage extends BufferedImage {
+
+        final RasterBufferPool pool;
+
+        final AtomicBoolean released = new AtomicBoolean();
+
+        PooledImage(RasterBufferPool pool, ColorModel colorModel, WritableRaster raster) {
+            super(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+            this.pool = pool;
+        }
+
+        /**
+         * Returns the pixels to the pool, the image must not be used anymore. Calling this method
+         * more than once has no effect
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                flush();
+                pool.recycle(getRaster().getDataBuffer());
+            }
+        }
+    }
+}
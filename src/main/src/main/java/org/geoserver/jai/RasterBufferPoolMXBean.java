@@ -0,0 +1,90 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+/**
+ * Management interface exposing the {@link RasterBufferPool} settings and counters through JMX.
+ */
+public interface RasterBufferPoolMXBean {
+
+    /**
+     * The maximum amount of memory held by the pooled arrays, in bytes.
+     */
+    long getMemoryCapacity();
+
+    void setMemoryCapacity(long memoryCapacity);
+
+    /**
+     * The maximum amount of memory held by the cache of each thread, in bytes. It is part of the
+     * memory capacity of the pool, not in addition to it.
+     */
+    long getThreadCapacity();
+
+    void setThreadCapacity(long threadCapacity);
+
+    /**
+     * When true the arrays garbage collected without being released, or released twice, are
+     * logged along with the stack trace of their acquisition.
+     */
+    boolean isDebug();
+
+    void setDebug(boolean debug);
+
+    /**
+     * Memory currently held by the pooled arrays, in bytes.
+     */
+    long getMemoryUsed();
+
+    /**
+     * Number of arrays requested to the pool.
+     */
+    long getRequestCount();
+
+    /**
+     * Number of requests served by the cache of the requesting thread.
+     */
+    long getThreadHitCount();
+
+    /**
+     * Number of requests served by the shared queues.
+     */
+    long getSharedHitCount();
+
+    /**
+     * Number of requests that had to allocate a new array.
+     */
+    long getAllocationCount();
+
+    /**
+     * Bytes allocated to serve the requests the pool could not satisfy.
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Number of arrays returned to the pool.
+     */
+    long getReleaseCount();
+
+    /**
+     * Number of returned arrays left to the garbage collector, because of their size or because
+     * the pool was full.
+     */
+    long getDropCount();
+
+    /**
+     * Number of pooled arrays evicted to make room for the ones being returned.
+     */
+    long getEvictionCount();
+
+    /**
+     * Number of arrays garbage collected without being released, tracked in debug mode only.
+     */
+    long getLeakCount();
+
+    /**
+     * Drops all the pooled arrays.
+     */
+    void flush();
+}
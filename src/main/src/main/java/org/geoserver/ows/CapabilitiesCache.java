@@ -0,0 +1,462 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServer;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.ResourceAccessManager;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.security.impl.DefaultDataAccessManager;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the encoded GetCapabilities documents of all services.
+ * <p>
+ * Documents are cached per service, version, virtual service, request parameters, base URL
+ * and caller, and are tagged with the GeoServer update sequence and data security rules they
+ * were built for. Any catalog, configuration or security rules change makes the cached
+ * documents out of date, and they are rebuilt by the next request.
+ * The caller is identified by its roles, or by its user name when a custom access manager is
+ * in use, as it might grant access per user.
+ * </p>
+ * <p>
+ * Documents are encoded once: concurrent requests missing the same document, e.g. right after a
+ * configuration change, wait for the first one to encode it and share the result.
+ * </p>
+ * <p>
+ * The cache is disabled by default: the time and elevation domains of the layers with
+ * dimensions, or the granules of a mosaic, can change along with the data without bumping the
+ * update sequence, and would be advertised out of date until the next configuration change.
+ * Only GET requests are cached. The cache is configured with the following system properties:
+ * <ul>
+ * <li><code>org.geoserver.capabilities.cache</code>: set to true to enable the cache</li>
+ * <li><code>org.geoserver.capabilities.cache.maxSize</code>: the maximum size of the cached
+ * documents, in bytes, 64MB by default</li>
+ * </ul>
+ * The cache statistics are published through JMX as
+ * <code>org.geoserver:type=CapabilitiesCache</code>.
+ * </p>
+ */
+public class CapabilitiesCache extends AbstractDispatcherCallback implements CatalogListener,
+        CapabilitiesCacheMXBean {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    public static final String ENABLED = "org.geoserver.capabilities.cache";
+
+    public static final String MAX_SIZE = "org.geoserver.capabilities.cache.maxSize";
+
+    static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The request parameters added by clients to defeat caches, they do not affect the contents
+     * of a capabilities document and are left out of the key. All the other parameters are part
+     * of the key, as services and vendor extensions can change the document based on any of them
+     */
+    static final Set<String> IGNORED_PARAMETERS = new TreeSet<String>(Arrays.asList("_",
+            "_DC", "NOCACHE", "RANDOM"));
+
+    GeoServer geoServer;
+
+    Cache<String, CachedDocument> cache;
+
+    boolean enabled;
+
+    /**
+     * Whether access is granted based on the caller roles only, looked up lazily
+     */
+    volatile Boolean roleBasedAccess;
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    AtomicLong size = new AtomicLong();
+
+    /**
+     * Number of requests that waited for a document encoded by another request
+     */
+    AtomicLong waits = new AtomicLong();
+
+    /**
+     * The documents being encoded
+     */
+    ConcurrentMap<String, FutureTask<CachedDocument>> encoding =
+            new ConcurrentHashMap<String, FutureTask<CachedDocument>>();
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this(geoServer, "true".equalsIgnoreCase(GeoServerExtensions.getProperty(ENABLED)),
+                getMaxSize());
+    }
+
+    CapabilitiesCache(GeoServer geoServer, boolean enabled, long maxSize) {
+        this.geoServer = geoServer;
+        this.enabled = enabled && maxSize > 0;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(Math.max(maxSize, 1))
+                .weigher(new Weigher<String, CachedDocument>() {
+                    public int weigh(String key, CachedDocument value) {
+                        return value.bytes.length;
+                    }
+                }).removalListener(new RemovalListener<String, CachedDocument>() {
+                    public void onRemoval(RemovalNotification<String, CachedDocument> notification) {
+                        size.addAndGet(-notification.getValue().bytes.length);
+                    }
+                }).build();
+        geoServer.getCatalog().addListener(this);
+    }
+
+    static long getMaxSize() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_SIZE + ": " + value
+                        + ", using the default");
+            }
+        }
+        return DEFAULT_MAX_SIZE;
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        if (!enabled || !"GetCapabilities".equalsIgnoreCase(operation.getId())
+                || !request.isGet() || request.isSOAP() || request.getHttpRequest() == null) {
+            return response;
+        }
+        return new CachingResponse(response, getKey(request, operation));
+    }
+
+    /**
+     * Builds the key of the document, the parameters the document contents depend on
+     */
+    String getKey(Request request, Operation operation) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(operation.getService().getId()).append(';');
+        sb.append(operation.getService().getVersion()).append(';');
+        WorkspaceInfo ws = LocalWorkspace.get();
+        if (ws != null) {
+            sb.append(ws.getName());
+        }
+        sb.append(';');
+        LayerInfo layer = LocalLayer.get();
+        if (layer != null) {
+            sb.append(layer.getName());
+        }
+        sb.append(';').append(ResponseUtils.baseURL(request.getHttpRequest())).append(';');
+        if (request.getRawKvp() != null) {
+            // normalize the parameter order
+            Map<String, Object> kvp = new TreeMap<String, Object>();
+            for (Map.Entry<String, Object> entry : request.getRawKvp().entrySet()) {
+                String name = entry.getKey().toUpperCase();
+                if (!IGNORED_PARAMETERS.contains(name)) {
+                    kvp.put(name, entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Object> entry : kvp.entrySet()) {
+                sb.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+            }
+        }
+        sb.append(';').append(getCaller());
+        return sb.toString();
+    }
+
+    /**
+     * Identifies the caller as far as data access is concerned: anonymous, or authenticated
+     * with its roles, and its name unless access is granted by role only
+     */
+    String getCaller() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth instanceof AnonymousAuthenticationToken) {
+            return "anonymous";
+        }
+        StringBuilder sb = new StringBuilder("authenticated:");
+        if (!isRoleBasedAccess()) {
+            sb.append(auth.getName());
+        }
+        sb.append(':');
+        List<String> roles = new ArrayList<String>();
+        for (GrantedAuthority authority : auth.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        Collections.sort(roles);
+        for (String role : roles) {
+            sb.append(role).append(',');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The default data access manager grants access by role, custom ones might look at the
+     * user name as well
+     */
+    boolean isRoleBasedAccess() {
+        if (roleBasedAccess == null) {
+            DataAccessManager manager = GeoServerExtensions.bean(DataAccessManager.class);
+            roleBasedAccess = GeoServerExtensions.bean(ResourceAccessManager.class) == null
+                    && (manager == null || manager instanceof DefaultDataAccessManager);
+        }
+        return roleBasedAccess;
+    }
+
+    /**
+     * Returns a stamp identifying the current state of the configuration: the update sequence,
+     * and the last modification of the data security rules, which do not bump it
+     */
+    String getStamp() {
+        long sequence = geoServer.getGlobal().getUpdateSequence();
+        DataAccessRuleDAO dao = DataAccessRuleDAO.get();
+        if (dao == null) {
+            return String.valueOf(sequence);
+        }
+        if (dao.isModified()) {
+            // the rules will be reloaded while building the document
+            dao.reload();
+        }
+        return sequence + "/" + dao.getLastModified();
+    }
+
+    byte[] encode(Response response, Object result, Operation operation) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        response.write(result, bos, operation);
+        return bos.toByteArray();
+    }
+
+    void put(String key, CachedDocument document) {
+        cache.put(key, document);
+        size.addAndGet(document.bytes.length);
+    }
+
+    /**
+     * Drops the cached documents
+     */
+    public void dispose() {
+        clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEntryCount() {
+        return cache.size();
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // the update sequence takes care of it
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        // the update sequence takes care of it
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // the update sequence takes care of it
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        // the update sequence takes care of it
+    }
+
+    public void reloaded() {
+        // the reloaded configuration might have the same update sequence
+        clear();
+    }
+
+    static class CachedDocument {
+        final byte[] bytes;
+
+        final String stamp;
+
+        CachedDocument(byte[] bytes, String stamp) {
+            this.bytes = bytes;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Wraps the response of a GetCapabilities request, serving the document from the cache
+     */
+    class CachingResponse extends Response {
+
+        Response delegate;
+
+        String key;
+
+        CachingResponse(Response delegate, String key) {
+            super(delegate.getBinding(), delegate.getOutputFormats());
+            this.delegate = delegate;
+            this.key = key;
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return delegate.getHeaders(value, operation);
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            String stamp = getStamp();
+            CachedDocument document = cache.getIfPresent(key);
+            if (document != null && document.stamp.equals(stamp)) {
+                hits.incrementAndGet();
+            } else {
+                document = load(stamp, value, operation);
+            }
+            output.write(document.bytes);
+        }
+
+        /**
+         * Encodes and caches the document, unless another request is already doing so, in which
+         * case its document is shared
+         */
+        CachedDocument load(final String stamp, final Object value, final Operation operation)
+                throws IOException {
+            FutureTask<CachedDocument> task = new FutureTask<CachedDocument>(
+                    new Callable<CachedDocument>() {
+                        public CachedDocument call() throws Exception {
+                            // the encoding we were about to start might have just completed
+                            CachedDocument document = cache.getIfPresent(key);
+                            if (document != null && document.stamp.equals(stamp)) {
+                                hits.incrementAndGet();
+                                return document;
+                            }
+                            return encodeAndCache(stamp, value, operation);
+                        }
+                    });
+            FutureTask<CachedDocument> running = encoding.putIfAbsent(key, task);
+            if (running != null) {
+                // someone else is encoding the same document, wait for it
+                waits.incrementAndGet();
+                CachedDocument document = result(running);
+                if (document.stamp.equals(stamp)) {
+                    hits.incrementAndGet();
+                    return document;
+                }
+                // encoded for another configuration
+                return encodeAndCache(stamp, value, operation);
+            }
+
+            try {
+                task.run();
+                return result(task);
+            } finally {
+                encoding.remove(key, task);
+            }
+        }
+
+        CachedDocument encodeAndCache(String stamp, Object value, Operation operation)
+                throws IOException {
+            misses.incrementAndGet();
+            CachedDocument document = new CachedDocument(encode(delegate, value, operation),
+                    stamp);
+            put(key, document);
+            return document;
+        }
+
+        CachedDocument result(FutureTask<CachedDocument> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new IOException(
+                        "Interrupted while waiting for the capabilities document").initCause(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (IOException) new IOException().initCause(cause);
+            }
+        }
+    }
+}
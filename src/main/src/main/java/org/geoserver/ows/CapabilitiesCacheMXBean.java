@@ -0,0 +1,41 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+/**
+ * Management interface exposing the {@link CapabilitiesCache} statistics through JMX.
+ */
+public interface CapabilitiesCacheMXBean {
+
+    /**
+     * Number of capabilities documents served from an up to date cache entry.
+     */
+    long getHitCount();
+
+    /**
+     * Number of capabilities documents that had to be encoded while the client was waiting.
+     */
+    long getMissCount();
+
+    /**
+     * Ratio of requests served from the cache over the total requests.
+     */
+    double getHitRatio();
+
+    /**
+     * Number of cached documents.
+     */
+    long getEntryCount();
+
+    /**
+     * Total size of the cached documents, in bytes.
+     */
+    long getSize();
+
+    /**
+     * Drops all cached documents.
+     */
+    void clear();
+}
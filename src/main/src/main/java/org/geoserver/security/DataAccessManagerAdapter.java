@@ -7,14 +7,19 @@ package org.geoserver.security;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.security.impl.DefaultDataAccessManager;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.Filter;
 import org.springframework.security.core.Authentication;
@@ -25,7 +30,8 @@ import org.springframework.security.core.Authentication;
  * @author Andrea Aime - GeoSolutions
  * 
  */
-public class DataAccessManagerAdapter extends AbstractResourceAccessManager {
+public class DataAccessManagerAdapter extends AbstractResourceAccessManager implements
+        SecurityFilterProvider {
     static final Logger LOGGER = Logging.getLogger(DataAccessManagerAdapter.class);
 
     DataAccessManager delegate;
@@ -95,4 +101,48 @@ public class DataAccessManagerAdapter extends AbstractResourceAccessManager {
         }
         return new WorkspaceAccessLimits(mode, readable, writable, adminable);
     }
+
+    /**
+     * Translates the rules of a {@link DefaultDataAccessManager} into a filter, in
+     * {@link CatalogMode#HIDE} mode the objects that cannot be read are hidden so they can be
+     * filtered out straight away. Other data access managers are opaque, their filter accepts
+     * everything.
+     */
+    @Override
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        if (!(delegate instanceof DefaultDataAccessManager)
+                || delegate.getMode() != CatalogMode.HIDE) {
+            return Filter.INCLUDE;
+        }
+
+        DefaultDataAccessManager manager = (DefaultDataAccessManager) delegate;
+        if (LayerInfo.class.isAssignableFrom(clazz)) {
+            return manager.getSecurityFilter(user, AccessMode.READ,
+                    "resource.store.workspace.name", "resource.name");
+        } else if (ResourceInfo.class.isAssignableFrom(clazz)) {
+            return manager.getSecurityFilter(user, AccessMode.READ, "store.workspace.name",
+                    "name");
+        } else if (StoreInfo.class.isAssignableFrom(clazz)) {
+            return getWorkspaceFilter(manager, user, "workspace.name");
+        } else if (WorkspaceInfo.class.isAssignableFrom(clazz)) {
+            return getWorkspaceFilter(manager, user, "name");
+        } else if (NamespaceInfo.class.isAssignableFrom(clazz)) {
+            return getWorkspaceFilter(manager, user, "prefix");
+        }
+        return Filter.INCLUDE;
+    }
+
+    Filter getWorkspaceFilter(DefaultDataAccessManager manager, Authentication user,
+            String property) {
+        // workspaces the user can administer are visible even if not readable
+        Filter read = manager.getSecurityFilter(user, AccessMode.READ, property, null);
+        if (read == Filter.INCLUDE) {
+            return read;
+        }
+        Filter admin = manager.getSecurityFilter(user, AccessMode.ADMIN, property, null);
+        if (admin == Filter.INCLUDE) {
+            return admin;
+        }
+        return Predicates.or(read, admin);
+    }
 }
@@ -12,6 +12,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.springframework.security.core.Authentication;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
@@ -31,7 +32,8 @@ import com.vividsolutions.jts.geom.Polygon;
  * 
  * @author David Winslow, OpenGeo
  */
-public abstract class ResourceAccessManagerWrapper implements ResourceAccessManager {
+public abstract class ResourceAccessManagerWrapper implements ResourceAccessManager,
+        SecurityFilterProvider {
     protected ResourceAccessManager delegate;
     private static FilterFactory2 factory = CommonFactoryFinder.getFilterFactory2(null);
     private static GeometryFactory geomFactory = new GeometryFactory();
@@ -224,4 +226,15 @@ public abstract class ResourceAccessManagerWrapper implements ResourceAccessMana
     public LayerGroupAccessLimits getAccessLimits(Authentication user, LayerGroupInfo layerGroup) {
         return delegate.getAccessLimits(user, layerGroup);
     }
+
+    /**
+     * Returns the delegate filter, or {@link Filter#INCLUDE} if the delegate does not provide one.
+     * Wrappers that grant more access than their delegate must override this method accordingly
+     */
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        if (delegate instanceof SecurityFilterProvider) {
+            return ((SecurityFilterProvider) delegate).getSecurityFilter(user, clazz);
+        }
+        return Filter.INCLUDE;
+    }
 }
@@ -1420,24 +1420,22 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
      * Returns a predicate that checks whether the current user has access to a given object of type
      * {@code infoType}.
      * <p>
-     * IMPLEMENTATION NOTE: the predicate returned evaluates in-process and hence can't be encoded
-     * to the catalog's native query language, if any. It calls
+     * IMPLEMENTATION NOTE: the predicate returned is made of two parts. The first one is the
+     * {@link SecurityFilterProvider#getSecurityFilter(Authentication, Class) security filter}
+     * of the access manager, when it provides one, built out of well known properties so that the
+     * catalog backend can encode it in its native query language, if any, and skip most of the
+     * objects the user cannot see. The second one evaluates in-process and calls
      * {@link #buildWrapperPolicy(Authentication, CatalogInfo)} to check if the returned access
-     * level is not "hidden" on a case by case basis. Perhaps, the check for whether a given
-     * resource is accessible to the current user can be encoded as a "well known" predicate that
-     * uses one or a combination of the property equals/isnull/contains/exists verbs in the
-     * {@link Predicates} utility. I (GR), at the time of writing, don't know how to do that, so any
-     * help would be much appreciated. Nonetheless, this predicate is meant to be "and'ed" with any
-     * other predicate this catalog wrapper is called with, giving the Catalog backend a chance to
-     * at least encode the "well known" part of the resulting filter, and separate out the
-     * in-process evaluation of access credentials from the construction of the security wrapper for
-     * each object.
+     * level is not "hidden" on a case by case basis, on the objects that passed the first one.
+     * This predicate is meant to be "and'ed" with any other predicate this catalog wrapper is
+     * called with, separating out the in-process evaluation of access credentials from the
+     * construction of the security wrapper for each object.
      * 
      * @return a catalog Predicate that evaluates if an object of the required type is accessible to
      *         the given user
      */
     private <T extends CatalogInfo> Filter securityFilter(final Class<T> infoType,
-            final Filter filter) {
+            Filter filter) {
 
         final Authentication user = user();
         if (isAdmin(user)) {
@@ -1450,6 +1448,17 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
             return filter;
         }
 
+        // let the access manager narrow down the candidates with a filter the catalog backend
+        // can encode, if it knows how to build one. The in process check below still has the
+        // last word on each object
+        if (accessManager instanceof SecurityFilterProvider) {
+            Filter accessFilter = ((SecurityFilterProvider) accessManager).getSecurityFilter(user,
+                    infoType);
+            if (accessFilter != null && accessFilter != Filter.INCLUDE) {
+                filter = Predicates.and(filter, accessFilter);
+            }
+        }
+
         org.opengis.filter.expression.Function visible = new InternalVolatileFunction() {
             /**
              * Returns {@code false} if the catalog info shall be hidden, {@code true} otherwise.
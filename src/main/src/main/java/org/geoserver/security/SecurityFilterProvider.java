@@ -0,0 +1,35 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Optional interface a {@link ResourceAccessManager} can implement to let the
+ * {@link SecureCatalogImpl} pre-select the objects a user can see in the catalog backend.
+ * <p>
+ * Access managers not implementing it are still fully supported, the secure catalog then checks
+ * the access limits of each object in memory.
+ * </p>
+ */
+public interface SecurityFilterProvider {
+
+    /**
+     * Returns a filter selecting the objects of the specified type the user might be able to see,
+     * expressed in terms of the catalog properties so that it can be passed down to
+     * {@link org.geoserver.catalog.Catalog#list(Class, Filter)} and encoded by the catalog
+     * backend.
+     * <p>
+     * The filter is a pre-selection, the {@link SecureCatalogImpl} still checks the access limits
+     * of each object it returns. Hence the filter can be broader than the actual rules, but it must
+     * never exclude an object the user is allowed to see. Return {@link Filter#INCLUDE} if the
+     * rules cannot be expressed as a filter.
+     * </p>
+     */
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz);
+
+}
@@ -0,0 +1,304 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+
+package org.geoserver.security.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+
+/**
+ * An {@link AuthenticationCache} implementation based on a {@link ConcurrentHashMap}, lookups do
+ * not take any lock, so many threads can authenticate from the cache at the same time.
+ * <p>
+ * For an explanation of the time parameters, see {@link AuthenticationCacheEntry}
+ * </p>
+ * <p>
+ * The eviction is an approximate LRU: when the cache grows past the maximum number of entries the
+ * least recently accessed ones are removed in a batch, freeing a tenth of the capacity at once.
+ * The last access time of an entry is updated at most once a second, to avoid all threads writing
+ * to the same entries. Expired entries are removed when they are found by a lookup, and by
+ * periodic sweeps performed by whichever thread happens to use the cache once the sweep interval
+ * has elapsed.
+ * </p>
+ *
+ */
+public class ConcurrentAuthenticationCacheImpl implements AuthenticationCache {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.security");
+
+    /**
+     * Resolution of the last access time, in milliseconds
+     */
+    static final long ACCESS_TIME_RESOLUTION = 1000;
+
+    /**
+     * Default interval between two sweeps of the expired entries, in milliseconds
+     */
+    static final long DEFAULT_SWEEP_INTERVAL = 60 * 1000;
+
+    protected final ConcurrentHashMap<AuthenticationCacheKey, AuthenticationCacheEntry> cache;
+
+    int timeToIdleSeconds, timeToLiveSeconds, maxEntries;
+
+    long sweepInterval;
+
+    volatile long nextSweep;
+
+    /**
+     * Number of entries in the cache, kept separately as computing the size of a
+     * {@link ConcurrentHashMap} is not cheap
+     */
+    final AtomicInteger size = new AtomicInteger();
+
+    final ReentrantLock sweepLock = new ReentrantLock();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    final AtomicLong expirations = new AtomicLong();
+
+    public ConcurrentAuthenticationCacheImpl(int maxEntries) {
+        this(DEFAULT_IDLE_TIME, DEFAULT_LIVE_TIME, maxEntries);
+    }
+
+    public ConcurrentAuthenticationCacheImpl(int timeToIdleSeconds, int timeToLiveSeconds,
+            int maxEntries) {
+        this(timeToIdleSeconds, timeToLiveSeconds, maxEntries, DEFAULT_SWEEP_INTERVAL);
+    }
+
+    public ConcurrentAuthenticationCacheImpl(int timeToIdleSeconds, int timeToLiveSeconds,
+            int maxEntries, long sweepInterval) {
+        this.timeToIdleSeconds = timeToIdleSeconds;
+        this.timeToLiveSeconds = timeToLiveSeconds;
+        this.maxEntries = maxEntries;
+        this.sweepInterval = sweepInterval;
+        this.nextSweep = System.currentTimeMillis() + sweepInterval;
+        int concurrency = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        cache = new ConcurrentHashMap<AuthenticationCacheKey, AuthenticationCacheEntry>(
+                Math.min(maxEntries, 1024), 0.75f, concurrency);
+    }
+
+    public int getTimeToIdleSeconds() {
+        return timeToIdleSeconds;
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Number of entries currently in the cache
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Number of lookups that found a valid entry
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that did not find a valid entry
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of entries removed to keep the cache within its maximum size
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of entries removed because their idle or live time expired
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    @Override
+    public void removeAll() {
+        for (AuthenticationCacheKey key : cache.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public void removeAll(String filterName) {
+        if (filterName == null)
+            return;
+        for (AuthenticationCacheKey key : cache.keySet()) {
+            if (filterName.equals(key.getFilterName())) {
+                remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void remove(String filterName, String cacheKey) {
+        remove(new AuthenticationCacheKey(filterName, cacheKey));
+    }
+
+    void remove(AuthenticationCacheKey key) {
+        if (cache.remove(key) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    boolean remove(AuthenticationCacheKey key, AuthenticationCacheEntry entry) {
+        if (cache.remove(key, entry)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Authentication get(String filterName, String cacheKey) {
+        long currentTime = System.currentTimeMillis();
+        sweepIfNeeded(currentTime);
+
+        AuthenticationCacheKey key = new AuthenticationCacheKey(filterName, cacheKey);
+        AuthenticationCacheEntry entry = cache.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.hasExpired(currentTime)) {
+            if (remove(key, entry)) {
+                expirations.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (currentTime - entry.getLastAccessed() >= ACCESS_TIME_RESOLUTION) {
+            entry.setLastAccessed(currentTime);
+        }
+        hits.incrementAndGet();
+        return entry.getAuthentication();
+    }
+
+    @Override
+    public void put(String filterName, String cacheKey, Authentication auth,
+            Integer timeToIdleSeconds, Integer timeToLiveSeconds) {
+
+        timeToIdleSeconds = timeToIdleSeconds != null ? timeToIdleSeconds : this.timeToIdleSeconds;
+        timeToLiveSeconds = timeToLiveSeconds != null ? timeToLiveSeconds : this.timeToLiveSeconds;
+
+        AuthenticationCacheEntry entry = new AuthenticationCacheEntry(auth, timeToIdleSeconds,
+                timeToLiveSeconds);
+        if (cache.put(new AuthenticationCacheKey(filterName, cacheKey), entry) == null) {
+            if (size.incrementAndGet() > maxEntries) {
+                sweep(entry.getCreated(), true);
+            }
+        }
+        sweepIfNeeded(entry.getCreated());
+    }
+
+    @Override
+    public void put(String filterName, String cacheKey, Authentication auth) {
+        put(filterName, cacheKey, auth, timeToIdleSeconds, timeToLiveSeconds);
+    }
+
+    void sweepIfNeeded(long currentTime) {
+        if (currentTime >= nextSweep) {
+            sweep(currentTime, false);
+        }
+    }
+
+    /**
+     * Removes the expired entries and, if the cache is still too big, the least recently accessed
+     * ones. Only one thread sweeps at any given time, the others carry on without waiting.
+     */
+    void sweep(long currentTime, boolean overflow) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            nextSweep = currentTime + sweepInterval;
+
+            List<Candidate> live = new ArrayList<Candidate>();
+            for (Iterator<Map.Entry<AuthenticationCacheKey, AuthenticationCacheEntry>> it = cache
+                    .entrySet().iterator(); it.hasNext();) {
+                Map.Entry<AuthenticationCacheKey, AuthenticationCacheEntry> e = it.next();
+                if (e.getValue().hasExpired(currentTime)) {
+                    if (remove(e.getKey(), e.getValue())) {
+                        expirations.incrementAndGet();
+                    }
+                } else if (overflow) {
+                    live.add(new Candidate(e.getKey(), e.getValue()));
+                }
+            }
+
+            int target = maxEntries - maxEntries / 10;
+            if (overflow && size.get() > target) {
+                Collections.sort(live);
+                for (Candidate c : live) {
+                    if (size.get() <= target) {
+                        break;
+                    }
+                    if (remove(c.key, c.entry)) {
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Authentication cache swept, " + size.get() + " entries left");
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * An eviction candidate, the last access time is copied as other threads might update it while
+     * the candidates are being sorted
+     */
+    static class Candidate implements Comparable<Candidate> {
+        final AuthenticationCacheKey key;
+
+        final AuthenticationCacheEntry entry;
+
+        final long lastAccessed;
+
+        Candidate(AuthenticationCacheKey key, AuthenticationCacheEntry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccessed = entry.getLastAccessed();
+        }
+
+        public int compareTo(Candidate other) {
+            return lastAccessed < other.lastAccessed ? -1
+                    : (lastAccessed == other.lastAccessed ? 0 : 1);
+        }
+    }
+
+}
@@ -6,18 +6,34 @@ package org.geoserver.security.impl;
 
 import static org.geoserver.security.impl.DataAccessRule.*;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.GeoServerSecurityFilterChainProxy;
 import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Default implementation of {@link DataAccessManager}, loads simple access
@@ -45,14 +61,32 @@ import org.geotools.util.logging.Logging;
  * If no {@link Properties} is provided, one will be looked upon in
  * <code>GEOSERVER_DATA_DIR/security/layers.properties, and the class will
  * keep up to date vs changes in the file</code>
+ * <p>
+ * The access decisions are memoized per user role set, by access mode, workspace and layer name,
+ * and the memo is dropped along with the tree whenever the rules are reloaded. Since the tree is
+ * built from workspace and layer names the memo does not need to be invalidated on catalog
+ * changes. The role set of each {@link Authentication} is looked up only once, so a memoized
+ * decision costs a few map lookups and no allocation.
  * 
  * @author Andrea Aime - TOPP
  */
 public class DefaultDataAccessManager implements DataAccessManager {
     static final Logger LOGGER = Logging.getLogger(DataAccessManager.class);
 
+    /**
+     * Maximum number of distinct role sets whose decisions are memoized
+     */
+    static final int MAX_ROLE_SETS = 1000;
+
+    /**
+     * Maximum number of authentications whose role set is remembered
+     */
+    static final int MAX_AUTHENTICATIONS = 10000;
+
     SecureTreeNode root;
 
+    volatile Decisions decisions;
+
 //    Catalog catalog;
     
     DataAccessRuleDAO dao;
@@ -62,6 +96,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
     public DefaultDataAccessManager(DataAccessRuleDAO dao) {
         this.dao = dao;
         this.root = buildAuthorizationTree(dao);
+        this.decisions = new Decisions(root);
     }
 
     public CatalogMode getMode() {
@@ -70,8 +105,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, mode, workspace.getName(), null);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
@@ -99,14 +133,110 @@ public class DefaultDataAccessManager implements DataAccessManager {
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, mode, workspace, resource.getName());
+    }
+
+    /**
+     * Builds a filter matching the catalog objects whose workspace, and optionally layer, can be
+     * accessed by the user in the specified mode according to the current rules. Objects whose
+     * workspace is unknown are matched as well, consistently with the canAccess methods.
+     * 
+     * @param workspaceProperty the property holding the workspace name of the objects
+     * @param layerProperty the property holding the layer name, or null to check the workspace
+     *        rules only
+     */
+    public Filter getSecurityFilter(Authentication user, AccessMode mode,
+            String workspaceProperty, String layerProperty) {
+        checkPropertyFile();
+        if (!GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest()) {
+            return Filter.INCLUDE;
+        }
+
+        Decisions decisions = this.decisions;
+        boolean rootAccess = decisions.root.canAccess(user, mode);
+        boolean everything = rootAccess;
+        List<Filter> accessible = new ArrayList<Filter>();
+        List<Filter> configured = new ArrayList<Filter>();
+        for (Map.Entry<String, SecureTreeNode> entry : decisions.root.children.entrySet()) {
+            Filter inWorkspace = Predicates.equal(workspaceProperty, entry.getKey());
+            configured.add(inWorkspace);
+            Filter layers = getLayerFilter(user, decisions, entry.getKey(), entry.getValue(),
+                    mode, layerProperty);
+            if (layers == Filter.INCLUDE) {
+                accessible.add(inWorkspace);
+            } else {
+                everything = false;
+                if (layers != Filter.EXCLUDE) {
+                    accessible.add(Predicates.and(inWorkspace, layers));
+                }
+            }
+        }
+        if (everything) {
+            return Filter.INCLUDE;
+        }
+
+        // the workspaces without rules of their own follow the root
+        if (rootAccess) {
+            accessible.add(Predicates.factory.not(or(configured)));
+        } else {
+            accessible.add(Predicates.isNull(workspaceProperty));
+        }
+        return or(accessible);
+    }
+
+    Filter getLayerFilter(Authentication user, Decisions decisions, String workspaceName,
+            SecureTreeNode workspace, AccessMode mode, String layerProperty) {
+        boolean workspaceAccess = decisions.canAccess(user, mode, workspaceName, null);
+        List<Filter> exceptions = new ArrayList<Filter>();
+        if (layerProperty != null) {
+            for (String layer : workspace.children.keySet()) {
+                if (decisions.canAccess(user, mode, workspaceName, layer) != workspaceAccess) {
+                    exceptions.add(Predicates.equal(layerProperty, layer));
+                }
+            }
+        }
+
+        if (exceptions.isEmpty()) {
+            return workspaceAccess ? Filter.INCLUDE : Filter.EXCLUDE;
+        } else if (workspaceAccess) {
+            return Predicates.factory.not(or(exceptions));
+        } else {
+            return or(exceptions);
+        }
+    }
+
+    Filter or(List<Filter> filters) {
+        return filters.size() == 1 ? filters.get(0) : Predicates.factory.or(filters);
+    }
+
+    /**
+     * Checks the access to the specified workspace, or layer if not null, memoizing the decision
+     */
+    boolean canAccess(Authentication user, AccessMode mode, String workspace, String layer) {
+        // depends on the current request, cannot be memoized
+        if (!GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest()) {
+            return true;
+        }
+        return decisions.canAccess(user, mode, workspace, layer);
+    }
+
+    static Set<String> getRoles(Authentication user) {
+        if (user == null || user.getAuthorities() == null) {
+            return Collections.emptySet();
+        }
+        Collection<? extends GrantedAuthority> authorities = user.getAuthorities();
+        Set<String> roles = new HashSet<String>(authorities.size() * 2);
+        for (GrantedAuthority authority : authorities) {
+            roles.add(authority.getAuthority());
+        }
+        return roles;
     }
 
     void checkPropertyFile() {
         long daoLastModified = dao.getLastModified();
         if(lastLoaded < daoLastModified) {
             root = buildAuthorizationTree(dao);
+            decisions = new Decisions(root);
             lastLoaded = daoLastModified;
         }
     }
@@ -155,4 +285,110 @@ public class DefaultDataAccessManager implements DataAccessManager {
         
         return root;
     }
+
+    /**
+     * The memoized decisions of a rule tree, grouped by user role set. Authentications are
+     * compared by identity and weakly referenced, so that the role set of the same authentication
+     * is computed only once
+     */
+    static class Decisions {
+        final SecureTreeNode root;
+
+        final Cache<Set<String>, RoleDecisions> byRoles = CacheBuilder.newBuilder()
+                .maximumSize(MAX_ROLE_SETS).build();
+
+        final Cache<Authentication, RoleDecisions> byUser = CacheBuilder.newBuilder()
+                .weakKeys().maximumSize(MAX_AUTHENTICATIONS).build();
+
+        Decisions(SecureTreeNode root) {
+            this.root = root;
+        }
+
+        boolean canAccess(Authentication user, AccessMode mode, String workspace, String layer) {
+            if (workspace == null) {
+                return root.canAccess(user, mode);
+            }
+            RoleDecisions roleDecisions = getRoleDecisions(user);
+            Map<String, Boolean> layers = roleDecisions.getLayers(mode, workspace);
+            String key = layer == null ? RoleDecisions.WORKSPACE : layer;
+            Boolean result = layers.get(key);
+            if (result == null) {
+                String[] path = layer == null ? new String[] { workspace } : new String[] {
+                        workspace, layer };
+                result = root.getDeepestNode(path).canAccess(user, mode);
+                layers.put(key, result);
+            }
+            return result;
+        }
+
+        RoleDecisions getRoleDecisions(Authentication user) {
+            RoleDecisions result = user != null ? byUser.getIfPresent(user) : null;
+            if (result == null) {
+                Set<String> roles = getRoles(user);
+                result = byRoles.getIfPresent(roles);
+                if (result == null) {
+                    result = new RoleDecisions();
+                    RoleDecisions existing = byRoles.asMap().putIfAbsent(roles, result);
+                    if (existing != null) {
+                        result = existing;
+                    }
+                }
+                if (user != null) {
+                    byUser.put(user, result);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The decisions of a role set, by access mode, workspace and layer name. They are bound by
+     * the catalog contents, as the names come from the catalog objects being checked
+     */
+    static class RoleDecisions {
+        /**
+         * The key of the decisions about the workspace itself, no layer name can be empty
+         */
+        static final String WORKSPACE = "";
+
+        final Map<AccessMode, Workspaces> modes = new EnumMap<AccessMode, Workspaces>(
+                AccessMode.class);
+
+        RoleDecisions() {
+            for (AccessMode mode : AccessMode.values()) {
+                modes.put(mode, new Workspaces());
+            }
+        }
+
+        Map<String, Boolean> getLayers(AccessMode mode, String workspace) {
+            Workspaces workspaces = modes.get(mode);
+            ConcurrentHashMap<String, Boolean> layers = workspaces.get(workspace);
+            if (layers == null) {
+                layers = new ConcurrentHashMap<String, Boolean>();
+                ConcurrentHashMap<String, Boolean> existing = workspaces.putIfAbsent(workspace,
+                        layers);
+                if (existing != null) {
+                    layers = existing;
+                }
+            }
+            return layers;
+        }
+
+        int size() {
+            int size = 0;
+            for (Workspaces workspaces : modes.values()) {
+                for (Map<String, Boolean> layers : workspaces.values()) {
+                    size += layers.size();
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The layer decisions of a role set and access mode, by workspace name
+     */
+    @SuppressWarnings("serial")
+    static class Workspaces extends ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> {
+    }
 }
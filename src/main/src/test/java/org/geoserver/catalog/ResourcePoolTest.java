@@ -10,6 +10,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -19,7 +20,17 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
@@ -43,15 +54,18 @@ import org.geotools.factory.GeoTools;
 import org.geotools.feature.NameImpl;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Version;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.style.ExternalGraphic;
 import org.w3c.dom.Element;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+
 /**
  * Tests for {@link ResourcePool}.
  * 
@@ -215,7 +229,203 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         Catalog catalog = getCatalog();
         // we actually keep two versions of the feature type in the cache, so we need it 
         // twice as big
-        assertEquals(400, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals(400, ((ResourcePool.CatalogResourceCache) catalog.getResourcePool()
+                .getFeatureTypeCache()).getMaximumSize());
+    }
+
+    @Test public void testFeatureTypeSoftOverflow() throws Exception {
+        Catalog catalog = getCatalog();
+        ResourcePool pool = new ResourcePool(catalog);
+        final List<FeatureTypeInfo> disposed = new ArrayList<FeatureTypeInfo>();
+        pool.addListener(new ResourcePool.Listener() {
+            public void disposed(DataStoreInfo dataStore, DataAccess da) {
+            }
+
+            public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+            }
+
+            public void disposed(FeatureTypeInfo featureType, FeatureType ft) {
+                disposed.add(featureType);
+            }
+        });
+        ResourcePool.CatalogResourceCache<String, FeatureType> cache = pool.new FeatureTypeCache(1);
+        FeatureTypeInfo firstInfo = catalog.getFeatureTypes().get(0);
+        FeatureTypeInfo secondInfo = catalog.getFeatureTypes().get(1);
+        String firstKey = pool.getFeatureTypeInfoKey(firstInfo, true);
+        String secondKey = pool.getFeatureTypeInfoKey(secondInfo, true);
+        FeatureType first = pool.getFeatureType(firstInfo);
+        FeatureType second = pool.getFeatureType(secondInfo);
+
+        // going over the bound keeps the evicted feature type around, softly
+        cache.put(firstKey, first);
+        cache.put(secondKey, second);
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.stats().evictionCount());
+        assertTrue(disposed.isEmpty());
+        assertSame(first, cache.get(firstKey));
+        assertSame(second, cache.get(secondKey));
+
+        // removals dispose it whatever the tier it sits in
+        cache.remove(firstKey);
+        cache.remove(secondKey);
+        assertEquals(2, disposed.size());
+        assertNull(cache.get(firstKey));
+        assertNull(cache.get(secondKey));
+    }
+
+    @Test public void testDataStoreIdleExpiry() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final Ticker ticker = new Ticker() {
+            public long read() {
+                return now.get();
+            }
+        };
+        final CountDownLatch disposed = new CountDownLatch(1);
+        final List<Thread> disposers = new ArrayList<Thread>();
+        System.setProperty(ResourcePool.CACHE_PROPERTY_PREFIX + "dataStore.expireAfterAccess", "60");
+        long interval = ResourcePool.CLEANUP_INTERVAL;
+        ResourcePool pool = null;
+        try {
+            ResourcePool.CLEANUP_INTERVAL = 1;
+            pool = new ResourcePool(getCatalog()) {
+                {
+                    this.ticker = ticker;
+                    dataStoreCache = new DataStoreCache() {
+                        @Override
+                        protected void dispose(String name, DataAccess dataStore) {
+                            disposers.add(Thread.currentThread());
+                            super.dispose(name, dataStore);
+                            disposed.countDown();
+                        }
+                    };
+                }
+            };
+            assertEquals(60, ((ResourcePool.CatalogResourceCache) pool.getDataStoreCache())
+                    .getExpireAfterAccess());
+            // nothing to clean up yet
+            assertNull(pool.cleaner);
+
+            DataStoreInfo info = getCatalog().getDataStores().get(0);
+            assertNotNull(pool.getDataStore(info));
+            assertEquals(1, pool.getDataStoreCache().size());
+            assertNotNull(pool.cleanUpTask);
+
+            // the idle store gets disposed by the periodic clean up, no access needed
+            now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+            assertTrue(disposed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, disposers.size());
+            assertNotSame(Thread.currentThread(), disposers.get(0));
+            assertEquals(0, pool.getDataStoreCache().size());
+            assertEquals(1, pool.getCacheStats().get("dataStore").evictionCount());
+
+            // disposing the pool stops the clean up
+            ScheduledExecutorService cleaner = pool.cleaner;
+            pool.dispose();
+            assertNull(pool.cleaner);
+            assertTrue(cleaner.isShutdown());
+        } finally {
+            ResourcePool.CLEANUP_INTERVAL = interval;
+            System.clearProperty(ResourcePool.CACHE_PROPERTY_PREFIX + "dataStore.expireAfterAccess");
+            if (pool != null) {
+                pool.dispose();
+            }
+        }
+    }
+
+    @Test public void testDataStoreSoftOverflow() throws Exception {
+        final AtomicInteger disposals = new AtomicInteger();
+        System.setProperty(ResourcePool.CACHE_PROPERTY_PREFIX + "dataStore.maxSize", "1");
+        ResourcePool pool = null;
+        try {
+            pool = new ResourcePool(getCatalog()) {
+                {
+                    dataStoreCache = new DataStoreCache() {
+                        @Override
+                        protected void dispose(String name, DataAccess dataStore) {
+                            disposals.incrementAndGet();
+                            super.dispose(name, dataStore);
+                        }
+                    };
+                }
+            };
+            List<DataStoreInfo> stores = getCatalog().getDataStores();
+            assertTrue(stores.size() > 1);
+            DataAccess first = pool.getDataStore(stores.get(0));
+            assertNotNull(pool.getDataStore(stores.get(1)));
+
+            // the store pushed out by the bound is still around, and not disposed
+            assertEquals(1, pool.getDataStoreCache().size());
+            assertEquals(0, disposals.get());
+            assertSame(first, pool.getDataStore(stores.get(0)));
+
+            // but gets disposed along with the pool
+            pool.dispose();
+            assertEquals(2, disposals.get());
+        } finally {
+            System.clearProperty(ResourcePool.CACHE_PROPERTY_PREFIX + "dataStore.maxSize");
+            if (pool != null) {
+                pool.dispose();
+            }
+        }
+    }
+
+    @Test public void testSingleFlightDataStoreLoad() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final ResourcePool pool = new ResourcePool(getCatalog()) {
+            @Override
+            DataAccess<? extends FeatureType, ? extends Feature> createDataStore(DataStoreInfo info)
+                    throws IOException {
+                created.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.createDataStore(info);
+            }
+        };
+        final DataStoreInfo info = getCatalog().getDataStores().get(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<DataAccess>> futures = new ArrayList<Future<DataAccess>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<DataAccess>() {
+                    public DataAccess call() throws Exception {
+                        return pool.getDataStore(info);
+                    }
+                }));
+            }
+            DataAccess first = futures.get(0).get();
+            for (Future<DataAccess> future : futures) {
+                assertSame(first, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, created.get());
+        assertEquals(1, pool.getCacheStats().get("dataStore").loadSuccessCount());
+        pool.dispose();
+    }
+
+    @Test public void testCacheStats() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        StyleInfo info = getCatalog().getStyleByName(StyleInfo.DEFAULT_POINT);
+
+        Style style = pool.getStyle(info);
+        assertSame(style, pool.getStyle(info));
+
+        CacheStats stats = pool.getCacheStats().get("style");
+        assertEquals(1, stats.loadSuccessCount());
+        assertTrue(stats.hitCount() >= 1);
+        assertTrue(stats.totalLoadTime() > 0);
+        assertEquals(Long.valueOf(1), pool.getCacheSizes().get("style"));
+
+        pool.clear(info);
+        assertEquals(Long.valueOf(0), pool.getCacheSizes().get("style"));
+        // explicit removals are not evictions
+        assertEquals(0, pool.getCacheStats().get("style").evictionCount());
     }
     
     @Test public void testDropCoverageStore() throws Exception {
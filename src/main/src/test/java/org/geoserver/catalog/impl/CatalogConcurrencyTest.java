@@ -0,0 +1,181 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the catalog lookups keep finding the existing objects while other threads add, modify
+ * and remove layers.
+ */
+public class CatalogConcurrencyTest {
+
+    static final int LAYERS = 200;
+
+    static final int READERS = 4;
+
+    static final int WRITERS = 2;
+
+    static final int WRITES = 200;
+
+    Catalog catalog;
+    NamespaceInfo ns;
+    DataStoreInfo ds;
+    StyleInfo style;
+
+    @Before
+    public void setUp() throws Exception {
+        catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("test");
+        catalog.add(ws);
+        ns = factory.createNamespace();
+        ns.setPrefix("test");
+        ns.setURI("http://test");
+        catalog.add(ns);
+
+        ds = factory.createDataStore();
+        ds.setName("store");
+        ds.setEnabled(true);
+        ds.setWorkspace(ws);
+        catalog.add(ds);
+
+        style = factory.createStyle();
+        style.setName("point");
+        style.setFilename("point.sld");
+        catalog.add(style);
+
+        for (int i = 0; i < LAYERS; i++) {
+            addLayer("ft" + i);
+        }
+    }
+
+    LayerInfo addLayer(String name) {
+        CatalogFactory factory = catalog.getFactory();
+        FeatureTypeInfo ft = factory.createFeatureType();
+        ft.setName(name);
+        ft.setNativeName(name);
+        ft.setEnabled(true);
+        ft.setStore(ds);
+        ft.setNamespace(ns);
+        catalog.add(ft);
+
+        LayerInfo layer = factory.createLayer();
+        layer.setResource(ft);
+        layer.setEnabled(true);
+        layer.setDefaultStyle(style);
+        catalog.add(layer);
+        return catalog.getLayer(layer.getId());
+    }
+
+    void removeLayer(LayerInfo layer) {
+        catalog.remove(layer);
+        catalog.remove(layer.getResource());
+    }
+
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch written = new CountDownLatch(WRITERS);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            final Random random = new Random(i);
+            threads.add(new Thread("reader-" + i) {
+                public void run() {
+                    try {
+                        start.await();
+                        while (writing.get()) {
+                            String name = "ft" + random.nextInt(LAYERS);
+                            LayerInfo layer = catalog.getLayerByName("test:" + name);
+                            assertNotNull(name, layer);
+                            FeatureTypeInfo ft = catalog.getFeatureTypeByName(ns, name);
+                            assertNotNull(name, ft);
+                            assertEquals(1, catalog.getLayers(ft).size());
+                            assertNotNull(catalog.getStyleByName("point"));
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            final String prefix = "w" + i + "_";
+            threads.add(new Thread("writer-" + i) {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < WRITES; j++) {
+                            LayerInfo layer = addLayer(prefix + j);
+                            // saving an existing layer must not hide it from the readers either
+                            LayerInfo existing = catalog.getLayerByName("test:ft" + j % LAYERS);
+                            existing.setEnabled(true);
+                            catalog.save(existing);
+                            if (j % 2 == 0) {
+                                removeLayer(layer);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    } finally {
+                        written.countDown();
+                    }
+                }
+            });
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        start.countDown();
+        written.await();
+        writing.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // the writers kept every other layer they added
+        assertEquals(LAYERS + WRITERS * WRITES / 2, catalog.getLayers().size());
+        assertEquals(LAYERS + WRITERS * WRITES / 2, catalog.getFeatureTypes().size());
+        for (int i = 0; i < WRITERS; i++) {
+            for (int j = 0; j < WRITES; j++) {
+                LayerInfo layer = catalog.getLayerByName("test:w" + i + "_" + j);
+                if (j % 2 == 0) {
+                    assertNull(layer);
+                } else {
+                    assertNotNull(layer);
+                    assertNotNull(catalog.getFeatureTypeByName(ns, "w" + i + "_" + j));
+                }
+            }
+        }
+    }
+}
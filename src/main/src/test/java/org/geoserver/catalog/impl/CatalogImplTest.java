@@ -1012,6 +1012,41 @@ public class CatalogImplTest {
         assertEquals( "ft2Description", ft3.getDescription() );
         assertEquals( 1, ft3.getKeywords().size() );
     }
+
+    @Test
+    public void testRenameFeatureTypeUpdatesLookups() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName( "ftRenamed" );
+        catalog.save( ft2 );
+
+        assertNull( catalog.getFeatureTypeByName( "ftName" ) );
+        assertNull( catalog.getLayerByName( "ftName" ) );
+        assertNotNull( catalog.getFeatureTypeByName( ns.getPrefix(), "ftRenamed" ) );
+        assertNotNull( catalog.getResourceByStore( ds, "ftRenamed", FeatureTypeInfo.class ) );
+
+        LayerInfo l2 = catalog.getLayerByName( "ftRenamed" );
+        assertNotNull( l2 );
+        assertEquals( l.getId(), l2.getId() );
+        assertEquals( l.getId(), catalog.getLayerByName( ns.getPrefix() + ":ftRenamed" ).getId() );
+    }
+
+    @Test
+    public void testRenameWorkspaceKeepsContents() {
+        addFeatureType();
+
+        WorkspaceInfo ws2 = catalog.getWorkspaceByName( ws.getName() );
+        ws2.setName( "wsRenamed" );
+        catalog.save( ws2 );
+
+        assertNull( catalog.getWorkspaceByName( "wsName" ) );
+        ws2 = catalog.getWorkspaceByName( "wsRenamed" );
+        assertNotNull( ws2 );
+        assertEquals( ws2, catalog.getDefaultWorkspace() );
+        assertEquals( 1, catalog.getStoresByWorkspace( ws2, DataStoreInfo.class ).size() );
+        assertNotNull( catalog.getDataStoreByName( ws2, "dsName" ) );
+    }
     
     @Test
     public void testModifyMetadataLinks() {
@@ -1338,6 +1373,21 @@ public class CatalogImplTest {
         assertNotNull(l3);
     }
     
+    @Test
+    public void testRenameLayer() {
+        addLayer();
+        String name = l.getName();
+
+        LayerInfo l2 = catalog.getLayerByName(name);
+        l2.setName("renamed");
+        catalog.save(l2);
+
+        assertNull(catalog.getLayerByName(name));
+        LayerInfo l3 = catalog.getLayerByName("renamed");
+        assertNotNull(l3);
+        assertEquals(l.getId(), l3.getId());
+    }
+    
     @Test
     public void testEnableLayer() {
         addLayer();
@@ -2411,7 +2461,93 @@ public class CatalogImplTest {
         assertEquals(naturalOrder.subList(1, 2),
                 Lists.newArrayList(catalog.list(LayerInfo.class, filter, offset, limit, null)));
     }
-        
+
+    /**
+     * Filters answered out of the catalog indexes must return the same results as a full scan
+     */
+    @Test
+    public void testListPredicateIndexed() {
+        addDataStore();
+        addNamespace();
+        catalog.add(wsA);
+        catalog.add(nsA);
+        catalog.add(dsA);
+
+        FeatureTypeInfo ft1, ft2, ft3;
+        ft1 = newFeatureType("ft1", ds);
+        ft1.setEnabled(true);
+        catalog.add(ft1);
+        ft2 = newFeatureType("ft2", ds);
+        ft2.setEnabled(true);
+        catalog.add(ft2);
+        ft3 = newFeatureType("ft3", dsA);
+        ft3.setNamespace(nsA);
+        ft3.setEnabled(false);
+        catalog.add(ft3);
+        ft1 = catalog.getFeatureType(ft1.getId());
+        ft2 = catalog.getFeatureType(ft2.getId());
+        ft3 = catalog.getFeatureType(ft3.getId());
+
+        addStyle();
+        LayerInfo l1, l3;
+        catalog.add(l1 = newLayer(ft1, s));
+        catalog.add(l3 = newLayer(ft3, s));
+
+        Filter filter = equal("id", ft2.getId());
+        assertEquals(Sets.newHashSet(ft2), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        filter = equal("name", "ft3");
+        assertEquals(Sets.newHashSet(ft3), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        filter = equal("store.workspace.name", ws.getName());
+        assertEquals(Sets.newHashSet(ft1, ft2), Sets.newHashSet(catalog.list(ResourceInfo.class, filter)));
+        assertEquals(2, catalog.count(ResourceInfo.class, filter));
+
+        filter = equal("namespace.prefix", nsA.getPrefix());
+        assertEquals(Sets.newHashSet(ft3), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        filter = Predicates.and(equal("store.name", ds.getName()), equal("enabled", Boolean.TRUE));
+        assertEquals(Sets.newHashSet(ft1, ft2), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        filter = Predicates.and(equal("enabled", Boolean.TRUE), contains("name", "2"));
+        assertEquals(Sets.newHashSet(ft2), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        filter = or(equal("name", "ft1"), equal("name", "ft3"), equal("name", "ft4"));
+        assertEquals(Sets.newHashSet(ft1, ft3), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        filter = equal("resource.store.workspace.name", wsA.getName());
+        assertEquals(Sets.newHashSet(l3), Sets.newHashSet(catalog.list(LayerInfo.class, filter)));
+
+        filter = equal("name", "ft1");
+        assertEquals(Sets.newHashSet(l1), Sets.newHashSet(catalog.list(LayerInfo.class, filter)));
+
+        filter = equal("name", "FT1");
+        assertEquals(0, catalog.count(LayerInfo.class, filter));
+        filter = Predicates.factory.equal(Predicates.factory.property("name"),
+                Predicates.factory.literal("FT1"), false);
+        assertEquals(Sets.newHashSet(l1), Sets.newHashSet(catalog.list(LayerInfo.class, filter)));
+
+        // non textual literals are compared by the filter, not by their string form, so they
+        // must give the same results as a full scan (the OR with EXCLUDE cannot be indexed)
+        FeatureTypeInfo ft4 = newFeatureType("10", ds);
+        catalog.add(ft4);
+        for (Object value : new Object[] { 10, 10L, 10.0, "10" }) {
+            filter = equal("name", value);
+            assertEquals(Sets.newHashSet(catalog.list(FeatureTypeInfo.class,
+                    or(filter, Filter.EXCLUDE))), Sets.newHashSet(catalog.list(
+                    FeatureTypeInfo.class, filter)));
+        }
+        assertEquals(1, catalog.count(FeatureTypeInfo.class, equal("name", "10")));
+        filter = equal("enabled", "true");
+        assertEquals(Sets.newHashSet(ft1, ft2), Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        // the indexes follow renames
+        ft1.setName("ft1Renamed");
+        catalog.save(ft1);
+        assertEquals(0, catalog.count(LayerInfo.class, equal("name", "ft1")));
+        assertEquals(1, catalog.count(LayerInfo.class, equal("name", "ft1Renamed")));
+    }
+
     /**
      * This tests more advanced filters: multi-valued filters, opposite equations, field equations
      */
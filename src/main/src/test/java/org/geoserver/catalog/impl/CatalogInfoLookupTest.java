@@ -0,0 +1,165 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.catalog.StyleInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+public class CatalogInfoLookupTest {
+
+    CatalogInfoLookup<StyleInfo> lookup;
+
+    @Before
+    public void setUp() {
+        lookup = new CatalogInfoLookup<StyleInfo>().index("filename",
+                new Function<StyleInfo, String>() {
+                    public String apply(StyleInfo style) {
+                        return style.getFilename();
+                    }
+                });
+    }
+
+    StyleInfo style(String id, String name, String filename) {
+        StyleInfoImpl style = new StyleInfoImpl(null);
+        style.setId(id);
+        style.setName(name);
+        style.setFilename(filename);
+        return style;
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        List<StyleInfo> styles = new ArrayList<StyleInfo>();
+        for (int i = 0; i < 100; i++) {
+            StyleInfo style = style("s" + i, "style" + i, "shared.sld");
+            styles.add(style);
+            lookup.add(style);
+        }
+        assertEquals(styles, new ArrayList<StyleInfo>(lookup.values()));
+        assertEquals(styles, lookup.byKey("filename", "shared.sld"));
+
+        lookup.remove(styles.remove(50));
+        assertEquals(styles, new ArrayList<StyleInfo>(lookup.values()));
+        assertEquals(styles, lookup.byKey("filename", "shared.sld"));
+
+        lookup.reindex();
+        assertEquals(styles, lookup.byKey("filename", "shared.sld"));
+    }
+
+    @Test
+    public void testModifiedObject() {
+        StyleInfo style = style("s1", "style", "style.sld");
+        lookup.add(style);
+
+        // modifying the object changes its hash code, it has to be found and removed regardless
+        style.setName("renamed");
+        style.setFilename("renamed.sld");
+        lookup.update(style);
+        assertTrue(lookup.byKey("filename", "style.sld").isEmpty());
+        assertSame(style, lookup.byKey("filename", "renamed.sld").get(0));
+
+        lookup.remove(style);
+        assertTrue(lookup.byKey("filename", "renamed.sld").isEmpty());
+        assertNull(lookup.byId("s1", StyleInfo.class));
+        assertTrue(lookup.isEmpty());
+    }
+
+    @Test
+    public void testAddSameId() {
+        lookup.add(style("s1", "style", "style.sld"));
+        StyleInfo replacement = style("s1", "style", "replacement.sld");
+        lookup.add(replacement);
+
+        assertEquals(1, lookup.values().size());
+        assertSame(replacement, lookup.values().iterator().next());
+        assertSame(replacement, lookup.byId("s1", StyleInfo.class));
+        assertTrue(lookup.byKey("filename", "style.sld").isEmpty());
+        assertSame(replacement, lookup.byKey("filename", "replacement.sld").get(0));
+
+        lookup.remove(replacement);
+        assertTrue(lookup.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentReindex() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            lookup.add(style("s" + i, "style" + i, "style" + i + ".sld"));
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger misses = new AtomicInteger();
+        Thread reader = new Thread() {
+            public void run() {
+                while (running.get()) {
+                    if (lookup.byKey("filename", "style500.sld").isEmpty()
+                            || lookup.byId("s500", StyleInfo.class) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                lookup.reindex();
+            }
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+        // readers never see the tables half rebuilt
+        assertEquals(0, misses.get());
+    }
+
+    @Test
+    public void testConcurrentUpdate() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            lookup.add(style("s" + i, "style" + i, "style" + i + ".sld"));
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger misses = new AtomicInteger();
+        Thread reader = new Thread() {
+            public void run() {
+                while (running.get()) {
+                    // the object is always found under its old or its new key
+                    if (lookup.byKey("filename", "style500.sld").isEmpty()
+                            && lookup.byKey("filename", "renamed.sld").isEmpty()) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                // saves that do not change the key, or change it back and forth
+                StyleInfo style = lookup.byId("s500", StyleInfo.class);
+                style.setName("style" + i);
+                lookup.update(style);
+                style.setFilename(i % 2 == 0 ? "renamed.sld" : "style500.sld");
+                lookup.update(style);
+                // added again under the same id
+                lookup.add(style("s500", "style500", style.getFilename()));
+            }
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+        assertEquals(0, misses.get());
+        assertEquals(1000, lookup.values().size());
+    }
+}
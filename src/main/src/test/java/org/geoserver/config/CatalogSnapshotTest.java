@@ -0,0 +1,123 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.data.DataUtilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vfny.geoserver.global.GeoserverDataDirectory;
+
+public class CatalogSnapshotTest {
+
+    File data;
+    GeoServerResourceLoader resourceLoader;
+    XStreamPersisterFactory xpf = new XStreamPersisterFactory();
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = CatalogSnapshotTest.class.getResource("/data_dir/nested_layer_groups");
+        data = File.createTempFile("snapshot", "data", new File("./target"));
+        data.delete();
+        FileUtils.copyDirectory(DataUtilities.urlToFile(url), data);
+
+        resourceLoader = new GeoServerResourceLoader(data);
+        GeoserverDataDirectory.setResourceLoader(resourceLoader);
+        System.setProperty(CatalogSnapshot.ENABLED, "true");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(CatalogSnapshot.ENABLED);
+        FileUtils.deleteQuietly(data);
+    }
+
+    DefaultGeoServerLoader load(Catalog catalog) throws Exception {
+        DefaultGeoServerLoader loader = new DefaultGeoServerLoader(resourceLoader);
+        XStreamPersister xp = xpf.createXMLPersister();
+        xp.setCatalog(catalog);
+        loader.loadCatalog(catalog, xp);
+        return loader;
+    }
+
+    @Test
+    public void testLoadFromSnapshot() throws Exception {
+        DefaultGeoServerLoader loader = load(new CatalogImpl());
+        assertFalse(loader.getLoadTimings().containsKey("snapshot"));
+        assertTrue(new File(data, CatalogSnapshot.FILENAME).exists());
+
+        Catalog catalog = new CatalogImpl();
+        loader = load(catalog);
+        assertTrue(loader.getLoadTimings().containsKey("snapshot"));
+
+        assertEquals("topp", catalog.getDefaultWorkspace().getName());
+        assertEquals("topp", catalog.getDefaultNamespace().getPrefix());
+        assertNotNull(catalog.getStyleByName("style"));
+        assertEquals(1, catalog.getDataStores().size());
+        assertEquals(2, catalog.getFeatureTypes().size());
+        assertEquals(2, catalog.getLayers().size());
+        LayerInfo layer = catalog.getLayerByName("topp:layer1");
+        assertEquals("style", layer.getDefaultStyle().getName());
+        assertEquals("toponimi", layer.getResource().getStore().getName());
+
+        LayerGroupInfo nested = catalog.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nested);
+        assertEquals(2, nested.getLayers().size());
+        assertTrue(nested.getLayers().get(0) instanceof LayerGroupInfo);
+        assertEquals("simplegroup", nested.getLayers().get(0).getName());
+        assertTrue(nested.getLayers().get(1) instanceof LayerInfo);
+    }
+
+    @Test
+    public void testOutOfDateSnapshot() throws Exception {
+        load(new CatalogImpl());
+
+        File featureType = new File(data, "workspaces/topp/datastore/layer1/featuretype.xml");
+        featureType.setLastModified(featureType.lastModified() + 10000);
+
+        DefaultGeoServerLoader loader = load(new CatalogImpl());
+        assertFalse(loader.getLoadTimings().containsKey("snapshot"));
+
+        // the snapshot has been written again, and is up to date
+        loader = load(new CatalogImpl());
+        assertTrue(loader.getLoadTimings().containsKey("snapshot"));
+    }
+
+    @Test
+    public void testInvalidateOnChange() throws Exception {
+        Catalog catalog = new CatalogImpl();
+        load(catalog);
+        assertTrue(new File(data, CatalogSnapshot.FILENAME).exists());
+
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("changed");
+        catalog.add(ws);
+        assertFalse(new File(data, CatalogSnapshot.FILENAME).exists());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        System.clearProperty(CatalogSnapshot.ENABLED);
+        load(new CatalogImpl());
+        assertFalse(new File(data, CatalogSnapshot.FILENAME).exists());
+    }
+}
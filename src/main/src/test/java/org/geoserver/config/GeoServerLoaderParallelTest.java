@@ -0,0 +1,180 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vfny.geoserver.global.GeoserverDataDirectory;
+
+/**
+ * Loads a synthetic data directory with one and with several parsing threads, checking they
+ * build the same catalog.
+ */
+public class GeoServerLoaderParallelTest {
+
+    int workspaces = 3;
+    int stores = 2;
+    int featureTypes = 5;
+
+    File data;
+    DefaultGeoServerLoader loader;
+    Level level;
+
+    @Before
+    public void setUp() throws Exception {
+        data = File.createTempFile("loader", "data", new File("./target"));
+        data.delete();
+        data.mkdir();
+        createDataDirectory(data);
+
+        GeoServerResourceLoader resourceLoader = new GeoServerResourceLoader(data);
+        GeoserverDataDirectory.setResourceLoader(resourceLoader);
+        loader = new DefaultGeoServerLoader(resourceLoader);
+
+        // the loader logs every single object it loads
+        level = GeoServerLoader.LOGGER.getLevel();
+        GeoServerLoader.LOGGER.setLevel(Level.WARNING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(GeoServerLoader.LOADING_THREADS);
+        GeoServerLoader.LOGGER.setLevel(level);
+        FileUtils.deleteQuietly(data);
+    }
+
+    @Test
+    public void testLoadSyntheticDataDirectory() throws Exception {
+        Catalog catalog = load(4);
+
+        int layers = workspaces * stores * featureTypes;
+        assertEquals(workspaces, catalog.getWorkspaces().size());
+        assertEquals(workspaces, catalog.getNamespaces().size());
+        assertEquals(workspaces * stores, catalog.getDataStores().size());
+        assertEquals(layers, catalog.getFeatureTypes().size());
+        assertEquals(layers, catalog.getLayers().size());
+        assertNotNull(catalog.getDefaultWorkspace());
+
+        LayerInfo layer = catalog.getLayerByName("ws0:ft0_0");
+        assertNotNull(layer);
+        assertEquals("point", layer.getDefaultStyle().getName());
+        FeatureTypeInfo ft = (FeatureTypeInfo) layer.getResource();
+        DataStoreInfo ds = ft.getStore();
+        assertEquals("ws0", ds.getWorkspace().getName());
+        assertEquals("ws0", ft.getNamespace().getPrefix());
+    }
+
+    @Test
+    public void testSameAsSingleThreaded() throws Exception {
+        List<String> expected = describe(load(1));
+        assertEquals(expected, describe(load(4)));
+    }
+
+    Catalog load(int threads) throws Exception {
+        System.setProperty(GeoServerLoader.LOADING_THREADS, String.valueOf(threads));
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        Catalog catalog = new CatalogImpl();
+        loader.readCatalog(catalog, xp);
+        return catalog;
+    }
+
+    /**
+     * Lists the catalog objects, in catalog order, along with the references among them
+     */
+    List<String> describe(Catalog catalog) {
+        List<String> result = new ArrayList<String>();
+        result.add("default " + catalog.getDefaultWorkspace().getName());
+        for (DataStoreInfo ds : catalog.getDataStores()) {
+            result.add(ds.getId() + " " + ds.getName() + " " + ds.getWorkspace().getId());
+        }
+        for (FeatureTypeInfo ft : catalog.getFeatureTypes()) {
+            result.add(ft.getId() + " " + ft.getName() + " " + ft.getStore().getId() + " "
+                    + ft.getNamespace().getId());
+        }
+        for (LayerInfo layer : catalog.getLayers()) {
+            result.add(layer.getId() + " " + layer.getName() + " " + layer.getResource().getId()
+                    + " " + layer.getDefaultStyle().getId());
+        }
+        return result;
+    }
+
+    void createDataDirectory(File dir) throws IOException {
+        File styles = new File(dir, "styles");
+        styles.mkdir();
+        write(new File(styles, "point.xml"), "<style><id>StyleInfoImpl-point</id><name>point</name>"
+                + "<filename>point.sld</filename></style>");
+        write(new File(styles, "point.sld"), "<StyledLayerDescriptor/>");
+
+        File root = new File(dir, "workspaces");
+        root.mkdir();
+        write(new File(root, "default.xml"), workspace(0));
+
+        for (int w = 0; w < workspaces; w++) {
+            File ws = new File(root, "ws" + w);
+            ws.mkdir();
+            write(new File(ws, "workspace.xml"), workspace(w));
+            write(new File(ws, "namespace.xml"), "<namespace><id>NamespaceInfoImpl-ws" + w
+                    + "</id><prefix>ws" + w + "</prefix><uri>http://geoserver.org/ws" + w
+                    + "</uri></namespace>");
+
+            for (int s = 0; s < stores; s++) {
+                String store = "ds" + w + "_" + s;
+                File sd = new File(ws, store);
+                sd.mkdir();
+                // disabled, so that the loader does not try to connect
+                write(new File(sd, "datastore.xml"), "<dataStore><id>DataStoreInfoImpl-" + store
+                        + "</id><name>" + store + "</name><type>Property</type><enabled>false</enabled>"
+                        + "<workspace><id>WorkspaceInfoImpl-ws" + w + "</id></workspace>"
+                        + "<connectionParameters><entry key=\"directory\">file:data/" + store
+                        + "</entry></connectionParameters></dataStore>");
+
+                for (int f = 0; f < featureTypes; f++) {
+                    String name = "ft" + s + "_" + f;
+                    File fd = new File(sd, name);
+                    fd.mkdir();
+                    write(new File(fd, "featuretype.xml"), "<featureType><id>FeatureTypeInfoImpl-"
+                            + w + "_" + name + "</id><name>" + name + "</name><nativeName>" + name
+                            + "</nativeName><namespace><id>NamespaceInfoImpl-ws" + w
+                            + "</id></namespace><title>" + name + "</title><srs>EPSG:4326</srs>"
+                            + "<projectionPolicy>FORCE_DECLARED</projectionPolicy><enabled>true</enabled>"
+                            + "<store class=\"dataStore\"><id>DataStoreInfoImpl-" + store
+                            + "</id></store></featureType>");
+                    write(new File(fd, "layer.xml"), "<layer><name>" + name
+                            + "</name><id>LayerInfoImpl-" + w + "_" + name + "</id><type>VECTOR</type>"
+                            + "<defaultStyle><id>StyleInfoImpl-point</id></defaultStyle>"
+                            + "<resource class=\"featureType\"><id>FeatureTypeInfoImpl-" + w + "_"
+                            + name + "</id></resource><enabled>true</enabled></layer>");
+                }
+            }
+        }
+    }
+
+    String workspace(int w) {
+        return "<workspace><id>WorkspaceInfoImpl-ws" + w + "</id><name>ws" + w + "</name></workspace>";
+    }
+
+    void write(File file, String content) throws IOException {
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+    }
+}
@@ -62,6 +62,7 @@ import org.junit.Test;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import com.vividsolutions.jts.geom.LineString;
@@ -399,6 +400,18 @@ public class XStreamPersisterTest {
         assertEquals( "style", dom.getDocumentElement().getNodeName() );
     }
     
+    Element defaultElement( Document dom, String name ) {
+        NodeList elements = dom.getElementsByTagName( name );
+        for ( int i = 0; i < elements.getLength(); i++ ) {
+            Element e = (Element) elements.item( i );
+            if ( "true".equals( e.getAttribute( "default" ) ) ) {
+                return e;
+            }
+        }
+        fail( "No default " + name );
+        return null;
+    }
+
     @Test
     public void testCatalog() throws Exception {
         Catalog catalog = new CatalogImpl();
@@ -431,6 +444,13 @@ public class XStreamPersisterTest {
         ByteArrayOutputStream out = out();
         persister.save( catalog, out );
         
+        // the defaults are flagged as in the catalog files of previous versions
+        Document dom = dom( in( out ) );
+        assertEquals( "foo", defaultElement( dom, "workspace" ).getElementsByTagName( "name" )
+                .item( 0 ).getTextContent() );
+        assertEquals( "acme", defaultElement( dom, "namespace" ).getElementsByTagName( "prefix" )
+                .item( 0 ).getTextContent() );
+        
         catalog = persister.load( in(out), Catalog.class );
         assertNotNull(catalog);
         
@@ -0,0 +1,206 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.ConstantDescriptor;
+import javax.media.jai.operator.TranslateDescriptor;
+
+import org.geoserver.jai.ConcurrentTileCache.SourceStatistics;
+import org.junit.Test;
+
+public class ConcurrentTileCacheTest {
+
+    /**
+     * 64x64 single band byte tiles
+     */
+    static final int TILE_SIZE = 64 * 64;
+
+    Raster tile() {
+        return Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 64, 64, 1, null);
+    }
+
+    RenderedImage owner() {
+        return new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    @Test
+    public void testHitMiss() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(1024 * 1024);
+        RenderedImage owner = owner();
+        Raster tile = tile();
+        cache.add(owner, 0, 0, tile);
+
+        assertSame(tile, cache.getTile(owner, 0, 0));
+        assertNull(cache.getTile(owner, 1, 0));
+        assertNull(cache.getTile(owner(), 0, 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getTileCount());
+        assertEquals(TILE_SIZE, cache.getMemoryUsed());
+
+        List<SourceStatistics> sources = cache.getSources();
+        assertEquals(1, sources.size());
+        SourceStatistics source = sources.get(0);
+        assertEquals("BufferedImage", source.getName());
+        assertEquals(1, source.getHitCount());
+        assertEquals(2, source.getMissCount());
+        assertEquals(1, source.getTileCount());
+        assertEquals(TILE_SIZE, source.getMemoryUsed());
+    }
+
+    @Test
+    public void testEviction() {
+        long capacity = 1024 * 1024;
+        ConcurrentTileCache cache = new ConcurrentTileCache(capacity);
+        RenderedImage owner = owner();
+        for (int i = 0; i < 1000; i++) {
+            cache.add(owner, i, 0, tile());
+        }
+        cache.memoryControl();
+
+        assertTrue(cache.getMemoryUsed() <= capacity);
+        assertEquals(cache.getTileCount() * TILE_SIZE, cache.getMemoryUsed());
+        assertEquals(1000 - cache.getTileCount(), cache.getEvictionCount());
+        assertEquals(cache.getEvictionCount(), cache.getSources().get(0).getEvictionCount());
+    }
+
+    @Test
+    public void testRemoveTiles() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(1024 * 1024);
+        RenderedImage owner1 = owner();
+        RenderedImage owner2 = owner();
+        cache.add(owner1, 0, 0, tile());
+        cache.add(owner1, 1, 0, tile());
+        cache.add(owner2, 0, 0, tile());
+        assertEquals(2, cache.getTiles(owner1).length);
+
+        cache.remove(owner1, 0, 0);
+        assertEquals(1, cache.getTiles(owner1).length);
+
+        cache.removeTiles(owner1);
+        assertNull(cache.getTiles(owner1));
+        assertEquals(1, cache.getTileCount());
+        assertEquals(TILE_SIZE, cache.getMemoryUsed());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testSourcesDropped() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(1024 * 1024);
+        RenderedImage owner = owner();
+        RenderedOp constant = ConstantDescriptor.create(64f, 64f, new Byte[] { 1 }, null);
+        cache.add(owner, 0, 0, tile());
+        cache.add(constant, 0, 0, tile());
+        cache.add(constant, 1, 0, tile());
+        assertEquals(2, cache.getSources().size());
+
+        // the source statistics go away along with the last tile
+        cache.remove(constant, 0, 0);
+        assertEquals(2, cache.getSources().size());
+        cache.remove(constant, 1, 0);
+        List<SourceStatistics> sources = cache.getSources();
+        assertEquals(1, sources.size());
+        assertEquals("BufferedImage", sources.get(0).getName());
+
+        // a miss does not bring them back, they come back with the next tile
+        assertNull(cache.getTile(constant, 0, 0));
+        assertEquals(1, cache.getSources().size());
+        cache.add(constant, 0, 0, tile());
+        assertEquals(2, cache.getSources().size());
+
+        cache.flush();
+        assertTrue(cache.getSources().isEmpty());
+        assertTrue(cache.sources.isEmpty());
+    }
+
+    @Test
+    public void testSetMemoryCapacity() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(1024 * 1024);
+        RenderedImage owner = owner();
+        for (int i = 0; i < 10; i++) {
+            cache.add(owner, i, 0, tile());
+        }
+
+        // resizing keeps the tiles
+        cache.setMemoryCapacity(2 * 1024 * 1024);
+        assertEquals(10, cache.getTileCount());
+        assertEquals(10 * TILE_SIZE, cache.getMemoryUsed());
+        assertNotNull(cache.getTile(owner, 5, 0));
+
+        // a zero capacity releases all of them, and does not cache new ones
+        cache.setMemoryCapacity(0);
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getMemoryUsed());
+        cache.add(owner, 0, 0, tile());
+        assertEquals(0, cache.getTileCount());
+    }
+
+    @Test
+    public void testSourceName() {
+        RenderedOp constant = ConstantDescriptor.create(64f, 64f, new Byte[] { 1 }, null);
+        RenderedOp translated = TranslateDescriptor.create(constant, 10f, 10f, null, null);
+        assertEquals("Constant", ConcurrentTileCache.getSourceName(translated));
+        assertEquals("BufferedImage", ConcurrentTileCache.getSourceName(owner()));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentTileCache cache = new ConcurrentTileCache(512 * 1024);
+        final List<RenderedImage> owners = new ArrayList<RenderedImage>();
+        for (int i = 0; i < 4; i++) {
+            owners.add(owner());
+        }
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            RenderedImage owner = owners.get(random.nextInt(owners.size()));
+                            int x = random.nextInt(50);
+                            if (cache.getTile(owner, x, 0) == null) {
+                                cache.add(owner, x, 0, tile());
+                            }
+                            if (j % 100 == 0) {
+                                cache.remove(owner, random.nextInt(50), 0);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+
+        // the counters are consistent with the cache contents
+        cache.memoryControl();
+        assertEquals(cache.getTileCount() * TILE_SIZE, cache.getMemoryUsed());
+        assertEquals(8 * 2000, cache.getHitCount() + cache.getMissCount());
+        long tiles = 0;
+        for (SourceStatistics source : cache.getSources()) {
+            tiles += source.getTileCount();
+        }
+        assertEquals(cache.getTileCount(), tiles);
+    }
+}
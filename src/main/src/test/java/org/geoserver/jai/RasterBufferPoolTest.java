@@ -0,0 +1,229 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import static org.geoserver.jai.RasterBufferPool.*;
+import static org.junit.Assert.*;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.geoserver.jai.RasterBufferPool.PooledImage;
+import org.junit.Test;
+
+public class RasterBufferPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        for (int length = MIN_POOLED_LENGTH; length <= MAX_POOLED_LENGTH; length += length / 7) {
+            int sizeClass = sizeClass(length);
+            int classLength = classLength(sizeClass);
+            assertTrue(classLength >= length);
+            assertTrue(classLength <= length * 1.25 + 1);
+            assertEquals(sizeClass, sizeClass(classLength));
+            assertTrue(sizeClass < SIZE_CLASSES);
+        }
+        assertEquals(MIN_POOLED_LENGTH, classLength(sizeClass(MIN_POOLED_LENGTH)));
+        assertEquals(MAX_POOLED_LENGTH, classLength(sizeClass(MAX_POOLED_LENGTH)));
+    }
+
+    @Test
+    public void testThreadReuse() {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        Object array = pool.acquire(BYTE, 5000, false);
+        assertTrue(((byte[]) array).length >= 5000);
+        assertEquals(1, pool.getAllocationCount());
+
+        pool.release(array);
+        assertEquals(((byte[]) array).length, pool.getMemoryUsed());
+        assertSame(array, pool.acquire(BYTE, 4900, false));
+        assertEquals(1, pool.getThreadHitCount());
+        assertEquals(0, pool.getMemoryUsed());
+
+        // different type, different size class
+        assertNotSame(array, pool.acquire(SHORT, 5000, false));
+        pool.release(array);
+        assertNotSame(array, pool.acquire(BYTE, 50000, false));
+        assertEquals(4, pool.getRequestCount());
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testSharedReuse() throws Exception {
+        final RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        Object first = pool.acquire(INT, 2000, false);
+        Object second = pool.acquire(INT, 2000, false);
+        // the first one goes in the thread cache, the second one in the shared queue
+        pool.release(first);
+        pool.release(second);
+
+        final Object[] acquired = new Object[1];
+        Thread thread = new Thread() {
+            public void run() {
+                acquired[0] = pool.acquire(INT, 2000, false);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertSame(second, acquired[0]);
+        assertEquals(1, pool.getSharedHitCount());
+        assertSame(first, pool.acquire(INT, 2000, false));
+        assertEquals(1, pool.getThreadHitCount());
+    }
+
+    @Test
+    public void testClear() {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        float[] array = (float[]) pool.acquire(FLOAT, 3000, false);
+        Arrays.fill(array, 1f);
+        pool.release(array);
+        assertSame(array, pool.acquire(FLOAT, 3000, true));
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(0f, array[i], 0f);
+        }
+    }
+
+    @Test
+    public void testMemoryCapacity() {
+        RasterBufferPool pool = new RasterBufferPool(10000);
+        pool.setThreadCapacity(0);
+        Object[] arrays = new Object[5];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = pool.acquire(BYTE, 4000, false);
+        }
+        // only two fit, the others replace the pooled ones
+        int length = ((byte[]) arrays[0]).length;
+        for (int i = 0; i < arrays.length; i++) {
+            pool.release(arrays[i]);
+            assertTrue(pool.getMemoryUsed() <= 10000);
+        }
+        assertEquals(2 * length, pool.getMemoryUsed());
+        assertEquals(3, pool.getEvictionCount());
+        assertEquals(0, pool.getDropCount());
+
+        // a different size class evicts the pooled ones as well
+        pool.release(pool.acquire(SHORT, 2000, false));
+        assertEquals(4, pool.getEvictionCount());
+        assertTrue(pool.getMemoryUsed() <= 10000);
+
+        // arrays larger than the pool are dropped right away
+        pool.release(pool.acquire(DOUBLE, 2000, false));
+        assertEquals(1, pool.getDropCount());
+        assertTrue(pool.getMemoryUsed() <= 10000);
+
+        pool.setMemoryCapacity(0);
+        assertEquals(0, pool.getMemoryUsed());
+    }
+
+    @Test
+    public void testForeignArrays() {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        // does not match a size class
+        pool.release(new byte[1500]);
+        // too small
+        pool.release(new byte[100]);
+        assertEquals(0, pool.getMemoryUsed());
+        assertEquals(2, pool.getDropCount());
+
+        // matches a size class, can be reused
+        byte[] array = new byte[classLength(sizeClass(1500))];
+        pool.release(array);
+        assertSame(array, pool.acquire(BYTE, 1500, false));
+    }
+
+    @Test
+    public void testFlush() {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        for (int i = 0; i < 4; i++) {
+            pool.release(new int[classLength(sizeClass(8000))]);
+        }
+        assertTrue(pool.getMemoryUsed() > 0);
+        pool.flush();
+        assertEquals(0, pool.getMemoryUsed());
+    }
+
+    @Test
+    public void testTileFactory() {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        ConcurrentTileFactory factory = new ConcurrentTileFactory(pool);
+        SampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, 64, 64, 3, 192,
+                new int[] { 0, 1, 2 });
+
+        WritableRaster tile = factory.createTile(sm, new Point(64, 128));
+        assertEquals(64, tile.getMinX());
+        assertEquals(128, tile.getMinY());
+        assertEquals(64 * 64 * 3, tile.getDataBuffer().getSize());
+        byte[] data = ((DataBufferByte) tile.getDataBuffer()).getData();
+        tile.setSample(70, 130, 1, 255);
+
+        factory.recycleTile(tile);
+        assertEquals(data.length, factory.getMemoryUsed());
+        WritableRaster recycled = factory.createTile(sm, null);
+        assertSame(data, ((DataBufferByte) recycled.getDataBuffer()).getData());
+        assertEquals(0, recycled.getSample(6, 2, 1));
+    }
+
+    @Test
+    public void testPooledImage() {
+        RasterBufferPool pool = new RasterBufferPool(16 * 1024 * 1024);
+        int[] types = new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_INT_ARGB };
+        for (int type : types) {
+            PooledImage image = pool.createImage(300, 200, type, true);
+            assertEquals(type, image.getType());
+            assertEquals(300, image.getWidth());
+            assertEquals(200, image.getHeight());
+            assertEquals(0, image.getRaster().getSample(299, 199, 0));
+            image.setRGB(10, 10, 0xFF00FF00);
+            assertEquals(0xFF00FF00, image.getRGB(10, 10));
+
+            long used = pool.getMemoryUsed();
+            image.release();
+            long released = pool.getMemoryUsed();
+            assertTrue(released > used);
+            // releasing again has no effect
+            image.release();
+            assertEquals(released, pool.getMemoryUsed());
+        }
+        // same size, reuses the pooled pixels
+        long allocations = pool.getAllocationCount();
+        pool.createImage(300, 200, BufferedImage.TYPE_4BYTE_ABGR, false).release();
+        assertEquals(allocations, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testDoubleRelease() {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        pool.setDebug(true);
+        Object array = pool.acquire(BYTE, 2000, false);
+        pool.release(array);
+        long used = pool.getMemoryUsed();
+        pool.release(array);
+        assertEquals(used, pool.getMemoryUsed());
+        assertEquals(1, pool.getDropCount());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        RasterBufferPool pool = new RasterBufferPool(1024 * 1024);
+        pool.setDebug(true);
+        pool.acquire(BYTE, 2000, false);
+        // released arrays are not leaks
+        pool.release(pool.acquire(SHORT, 2000, false));
+        pool.flush();
+
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getLeakCount());
+    }
+}
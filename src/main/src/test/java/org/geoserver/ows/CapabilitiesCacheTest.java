@@ -0,0 +1,280 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class CapabilitiesCacheTest {
+
+    GeoServerImpl geoServer;
+
+    CapabilitiesCache cache;
+
+    CountingResponse response;
+
+    Operation getCapabilities;
+
+    @Before
+    public void setUp() {
+        geoServer = new GeoServerImpl();
+        geoServer.setCatalog(new CatalogImpl());
+        geoServer.setGlobal(geoServer.getFactory().createGlobal());
+
+        response = new CountingResponse();
+        Service service = new Service("wms", null, new Version("1.1.1"),
+                Collections.singletonList("GetCapabilities"));
+        getCapabilities = new Operation("GetCapabilities", service, null, new Object[0]);
+    }
+
+    @After
+    public void tearDown() {
+        cache.dispose();
+        SecurityContextHolder.getContext().setAuthentication(null);
+    }
+
+    Request request(String... kvp) {
+        Request request = new Request();
+        request.setGet(true);
+        MockHttpServletRequest http = new MockHttpServletRequest();
+        http.setScheme("http");
+        http.setServerName("localhost");
+        http.setServerPort(8080);
+        http.setContextPath("/geoserver");
+        request.setHttpRequest(http);
+        Map<String, Object> rawKvp = new HashMap<String, Object>();
+        for (int i = 0; i < kvp.length; i += 2) {
+            rawKvp.put(kvp[i], kvp[i + 1]);
+        }
+        request.setRawKvp(rawKvp);
+        return request;
+    }
+
+    String write(Request request, Operation operation, String result) throws IOException {
+        Response r = cache.responseDispatched(request, operation, result, response);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        r.write(result, bos, operation);
+        return bos.toString();
+    }
+
+    void bumpUpdateSequence() {
+        GeoServerInfo global = geoServer.getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        geoServer.save(global);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        assertEquals("v1", write(request("SERVICE", "WMS"), getCapabilities, "v1"));
+        assertEquals("v1", write(request("SERVICE", "WMS"), getCapabilities, "v2"));
+        assertEquals(1, response.writes);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(2, cache.getSize());
+        assertEquals(0.5, cache.getHitRatio(), 0d);
+    }
+
+    @Test
+    public void testDifferentParameters() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        write(request("SERVICE", "WMS"), getCapabilities, "v1");
+        assertEquals("v2", write(request("SERVICE", "WMS", "NAMESPACE", "topp"),
+                getCapabilities, "v2"));
+        assertEquals(2, response.writes);
+        assertEquals(2, cache.getMissCount());
+
+        // parameters that do not affect the output share the document
+        assertEquals("v1", write(request("service", "WMS", "_dc", "12345"), getCapabilities,
+                "v3"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testServiceSpecificParameters() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        write(request("SERVICE", "WCS"), getCapabilities, "full");
+        // parameters unknown to the cache, e.g. the WCS 1.0 section, are part of the key
+        assertEquals("section", write(request("SERVICE", "WCS", "SECTION",
+                "/WCS_Capabilities/Service"), getCapabilities, "section"));
+        assertEquals("vendor", write(request("SERVICE", "WCS", "VENDOR", "true"),
+                getCapabilities, "vendor"));
+        assertEquals("full", write(request("SERVICE", "WCS", "_", "12345"), getCapabilities,
+                "v4"));
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCaller() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        write(request(), getCapabilities, "anonymous");
+        SecurityContextHolder.getContext().setAuthentication(
+                new AnonymousAuthenticationToken("geoserver", "anonymous",
+                        Collections.<GrantedAuthority> singletonList(new GrantedAuthorityImpl(
+                                "ROLE_ANONYMOUS"))));
+        assertEquals("anonymous", write(request(), getCapabilities, "v2"));
+
+        // authenticated without roles is not anonymous
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("bob", "secret"));
+        assertEquals("bob", write(request(), getCapabilities, "bob"));
+
+        // access granted by role, users with the same roles share the document
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("alice", "secret"));
+        assertEquals("bob", write(request(), getCapabilities, "alice"));
+
+        // a custom access manager might grant access per user
+        cache.roleBasedAccess = false;
+        assertEquals("alice", write(request(), getCapabilities, "alice"));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testOtherOperations() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        Operation getMap = new Operation("GetMap", getCapabilities.getService(), null,
+                new Object[0]);
+        assertSame(response, cache.responseDispatched(request(), getMap, "v1", response));
+
+        Request post = request();
+        post.setGet(false);
+        assertSame(response, cache.responseDispatched(post, getCapabilities, "v1", response));
+    }
+
+    @Test
+    public void testSynchronousRebuild() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        write(request(), getCapabilities, "v1");
+        bumpUpdateSequence();
+        // out of date documents are rebuilt while the client waits
+        assertEquals("v2", write(request(), getCapabilities, "v2"));
+        assertEquals(2, cache.getMissCount());
+        assertEquals("v2", write(request(), getCapabilities, "v3"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        response = new CountingResponse() {
+            @Override
+            public void write(Object value, OutputStream output, Operation operation)
+                    throws IOException, ServiceException {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.write(value, output, operation);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return write(request(), getCapabilities, "v1");
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return write(request(), getCapabilities, "v2");
+                }
+            });
+            // the second request waits for the document being encoded by the first
+            long timeout = System.currentTimeMillis() + 10000;
+            while (cache.waits.get() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            assertEquals("v1", first.get());
+            assertEquals("v1", second.get());
+            assertEquals(1, response.writes);
+            assertEquals(1, cache.waits.get());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertTrue(cache.encoding.isEmpty());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        cache = new CapabilitiesCache(geoServer, true, 1024 * 1024);
+        write(request(), getCapabilities, "v1");
+        cache.reloaded();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals("v2", write(request(), getCapabilities, "v2"));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        cache = new CapabilitiesCache(geoServer, false, 1024 * 1024);
+        assertSame(response, cache.responseDispatched(request(), getCapabilities, "v1", response));
+        assertEquals(0, cache.getMissCount());
+    }
+
+    static class CountingResponse extends Response {
+
+        int writes;
+
+        CountingResponse() {
+            super(String.class);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return "text/xml";
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            writes++;
+            output.write(((String) value).getBytes());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.auth;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+public class ConcurrentAuthenticationCacheTest {
+
+    void fillCache(AuthenticationCache cache) {
+        cache.put("filtera", "key1", new UsernamePasswordAuthenticationToken("user1", "password1"));
+        cache.put("filtera", "key2", new UsernamePasswordAuthenticationToken("user2", "password2"));
+        cache.put("filterb", "key3", new UsernamePasswordAuthenticationToken("user3", "password3"));
+        cache.put("filterb", "key4", new UsernamePasswordAuthenticationToken("user4", "password4"));
+    }
+
+    void waitForMilliSecs(long milliSecs) {
+        try {
+            Thread.sleep(milliSecs);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void testConcurrentAuthenticationCache() {
+        // test max entries, the least recently accessed entry goes
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(5, 10, 3);
+        UsernamePasswordAuthenticationToken t1 = new UsernamePasswordAuthenticationToken(
+                "user1", "password1");
+        cache.put("filtera", "key1", t1);
+        waitForMilliSecs(5);
+        cache.put("filtera", "key2", t1);
+        waitForMilliSecs(5);
+        cache.put("filterb", "key3", t1);
+        waitForMilliSecs(5);
+        cache.put("filterb", "key4", t1);
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("filtera", "key1"));
+        assertNotNull(cache.get("filtera", "key2"));
+        assertNotNull(cache.get("filterb", "key3"));
+        assertNotNull(cache.get("filterb", "key4"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // test remove all
+        cache = new ConcurrentAuthenticationCacheImpl(5, 10, 4);
+        fillCache(cache);
+        cache.removeAll();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filterb", "key4"));
+
+        // test remove filter
+        cache = new ConcurrentAuthenticationCacheImpl(5, 10, 4);
+        fillCache(cache);
+        cache.removeAll("filtera");
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filtera", "key2"));
+        assertNotNull(cache.get("filterb", "key3"));
+        assertNotNull(cache.get("filterb", "key4"));
+
+        // test remove one entry
+        cache = new ConcurrentAuthenticationCacheImpl(5, 10, 4);
+        fillCache(cache);
+        cache.remove("filtera", "key1");
+        cache.remove("filterz", "key999");
+        assertEquals(3, cache.getSize());
+        assertNull(cache.get("filtera", "key1"));
+        assertNotNull(cache.get("filtera", "key2"));
+
+        // test live time
+        cache = new ConcurrentAuthenticationCacheImpl(5, 0, 4);
+        fillCache(cache);
+        waitForMilliSecs(10);
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filterb", "key4"));
+        assertEquals(2, cache.getExpirationCount());
+
+        // test idle time
+        cache = new ConcurrentAuthenticationCacheImpl(1, 10, 4);
+        fillCache(cache);
+        waitForMilliSecs(1);
+        assertNotNull(cache.get("filtera", "key1"));
+        waitForMilliSecs(1500);
+        assertNull(cache.get("filtera", "key1"));
+    }
+
+    @Test
+    public void testSweep() {
+        // sweep at every access
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(5, 10, 5,
+                0);
+        fillCache(cache);
+        cache.put("filtera", "key5", new UsernamePasswordAuthenticationToken("user5",
+                "password5"), 0, 0);
+        waitForMilliSecs(10);
+
+        // expired entries are removed even if nobody looks them up
+        assertNotNull(cache.get("filtera", "key1"));
+        assertEquals(4, cache.getSize());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        Authentication[] tokens = new Authentication[500];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = new UsernamePasswordAuthenticationToken("user" + i, "password" + i);
+        }
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(1000);
+        LRUAuthenticationCacheImpl lru = new LRUAuthenticationCacheImpl(1000);
+        lookUp(cache, tokens, 8, 2000);
+        lookUp(lru, tokens, 8, 2000);
+
+        // same lookups, same contents
+        int cached = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            Authentication expected = lru.get("basic", "key" + i);
+            assertSame(expected, cache.get("basic", "key" + i));
+            if (expected != null) {
+                cached++;
+            }
+        }
+        assertTrue(cached > 0);
+        assertEquals(cached, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(8 * 2000 + tokens.length, cache.getHitCount() + cache.getMissCount());
+    }
+
+    /**
+     * Looks up random users from several threads at once, caching them on a miss, and checks
+     * the cache never returns the wrong user
+     */
+    void lookUp(final AuthenticationCache cache, final Authentication[] tokens, int threads,
+            final int lookups) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        Random random = new Random(seed);
+                        start.await();
+                        for (int i = 0; i < lookups; i++) {
+                            int user = random.nextInt(tokens.length);
+                            String key = "key" + user;
+                            Authentication auth = cache.get("basic", key);
+                            if (auth == null) {
+                                cache.put("basic", key, tokens[user]);
+                            } else {
+                                assertSame(tokens[user], auth);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
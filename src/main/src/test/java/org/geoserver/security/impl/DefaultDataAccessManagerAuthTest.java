@@ -5,12 +5,21 @@
 package org.geoserver.security.impl;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.DataAccessManagerAdapter;
+import org.geoserver.security.impl.DefaultDataAccessManager.RoleDecisions;
 import org.junit.Test;
+import org.opengis.filter.Filter;
 
 
 public class DefaultDataAccessManagerAuthTest extends AbstractAuthorizationTest {
@@ -142,5 +151,63 @@ public class DefaultDataAccessManagerAuthTest extends AbstractAuthorizationTest
         // should fall back on the default and complain in the logger
         assertEquals(CatalogMode.HIDE, wo.getMode());
     }
-    
+
+    @Test
+    public void testDecisionsMemoized() throws Exception {
+        DefaultDataAccessManager manager = (DefaultDataAccessManager)
+                buildLegacyAccessManager("complex.properties");
+        assertTrue(manager.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertEquals(1, manager.decisions.byRoles.size());
+        RoleDecisions readers = manager.decisions.byUser.getIfPresent(roUser);
+        assertEquals(1, readers.size());
+
+        // another user with the same roles shares the decisions
+        Authentication reader = new TestingAuthenticationToken("reader", "secret",
+                Arrays.asList(new GrantedAuthority[] { new GeoServerRole("READER") }));
+        assertTrue(manager.canAccess(reader, statesLayer, AccessMode.READ));
+        assertEquals(1, manager.decisions.byRoles.size());
+        assertSame(readers, manager.decisions.byUser.getIfPresent(reader));
+        assertEquals(1, readers.size());
+        assertFalse(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertEquals(2, manager.decisions.byRoles.size());
+
+        // reloading the rules drops the decisions
+        manager.lastLoaded = Long.MIN_VALUE;
+        assertFalse(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertEquals(1, manager.decisions.byRoles.size());
+        assertNull(manager.decisions.byUser.getIfPresent(roUser));
+    }
+
+    @Test
+    public void testSecurityFilter() throws Exception {
+        DataAccessManager manager = buildLegacyAccessManager("complex.properties");
+        DataAccessManagerAdapter adapter = new DataAccessManagerAdapter(manager);
+        for (Authentication user : new Authentication[] { anonymous, roUser, rwUser, milUser,
+                root }) {
+            Filter layerFilter = adapter.getSecurityFilter(user, LayerInfo.class);
+            Filter resourceFilter = adapter.getSecurityFilter(user, ResourceInfo.class);
+            for (LayerInfo layer : layers) {
+                boolean expected = manager.canAccess(user, layer, AccessMode.READ);
+                assertEquals(expected, layerFilter.evaluate(layer));
+                assertEquals(expected, resourceFilter.evaluate(layer.getResource()));
+            }
+
+            Filter workspaceFilter = adapter.getSecurityFilter(user, WorkspaceInfo.class);
+            for (WorkspaceInfo ws : new WorkspaceInfo[] { toppWs, nurcWs }) {
+                boolean expected = manager.canAccess(user, ws, AccessMode.READ)
+                        || manager.canAccess(user, ws, AccessMode.ADMIN);
+                assertEquals(expected, workspaceFilter.evaluate(ws));
+            }
+        }
+        assertEquals(Filter.INCLUDE, adapter.getSecurityFilter(root, LayerInfo.class));
+    }
+
+    @Test
+    public void testSecurityFilterChallenge() throws Exception {
+        DataAccessManagerAdapter adapter = new DataAccessManagerAdapter(
+                buildLegacyAccessManager("lockedDownChallenge.properties"));
+        // in challenge mode nothing gets hidden
+        assertEquals(Filter.INCLUDE, adapter.getSecurityFilter(anonymous, LayerInfo.class));
+    }
+
 }
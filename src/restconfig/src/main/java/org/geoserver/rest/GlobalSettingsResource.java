@@ -147,6 +147,7 @@ public class GlobalSettingsResource extends AbstractCatalogResource {
                     properties.put("memoryThreshold", jaiInfo.getMemoryThreshold());
                     properties.put("imageIOCache", jaiInfo.isImageIOCache() ? "true" : "false");
                     properties.put("pngEncoderType", jaiInfo.getPngEncoderType().toString());
+                    properties.put("tileCacheType", jaiInfo.getTileCacheType().toString());
                     properties.put("jpegAcceleration", jaiInfo.isJpegAcceleration() ? "true"
                             : "false");
                     properties.put("allowNativeMosaic", jaiInfo.isAllowNativeMosaic() ? "true"
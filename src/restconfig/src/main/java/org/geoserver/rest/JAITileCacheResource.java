@@ -0,0 +1,58 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.jai.ConcurrentTileCache;
+import org.geoserver.jai.ConcurrentTileCache.SourceStatistics;
+
+/**
+ * Reports the memory usage, hit, miss and eviction counters of the concurrent JAI tile cache, as
+ * a whole and for each source.
+ */
+public class JAITileCacheResource extends MapResource {
+
+    GeoServer geoServer;
+
+    ConcurrentTileCache cache;
+
+    public JAITileCacheResource(GeoServer geoServer, ConcurrentTileCache cache) {
+        this.geoServer = geoServer;
+        this.cache = cache;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        HashMap map = new HashMap();
+        map.put("type", geoServer.getGlobal().getJAI().getTileCacheType().name());
+        map.put("memoryCapacity", cache.getMemoryCapacity());
+        map.put("memoryUsed", cache.getMemoryUsed());
+        map.put("tileCount", cache.getTileCount());
+        map.put("hitCount", cache.getHitCount());
+        map.put("missCount", cache.getMissCount());
+        map.put("evictionCount", cache.getEvictionCount());
+
+        List<Map<String, Object>> sources = new ArrayList<Map<String, Object>>();
+        for (SourceStatistics stats : cache.getSources()) {
+            Map<String, Object> source = new LinkedHashMap<String, Object>();
+            source.put("name", stats.getName());
+            source.put("tileCount", stats.getTileCount());
+            source.put("memoryUsed", stats.getMemoryUsed());
+            source.put("hitCount", stats.getHitCount());
+            source.put("missCount", stats.getMissCount());
+            source.put("evictionCount", stats.getEvictionCount());
+            sources.add(source);
+        }
+        map.put("sources", sources);
+
+        return map;
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.ResourcePoolStats;
+
+/**
+ * Reports the size, hit, miss, load time and eviction counters of the resource pool caches.
+ */
+public class ResourcePoolStatsResource extends MapResource {
+
+    ResourcePoolStats stats;
+
+    public ResourcePoolStatsResource(ResourcePoolStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        HashMap map = new HashMap();
+        map.put("caches", stats.getCaches());
+
+        return map;
+    }
+}
@@ -0,0 +1,35 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.*;
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class JAITileCacheTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        Document dom = getAsDOM("/rest/jaitilecache.xml");
+        assertNotNull(getFirstElementByTagName(dom, "type"));
+        assertNotNull(getFirstElementByTagName(dom, "hitCount"));
+        assertNotNull(getFirstElementByTagName(dom, "sources"));
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        JSON json = getAsJSON("/rest/jaitilecache.json");
+        assertTrue(json instanceof JSONObject);
+
+        JSONObject cache = (JSONObject) json;
+        assertEquals("SUN", cache.getString("type"));
+        assertTrue(cache.has("memoryCapacity"));
+        assertTrue(cache.has("evictionCount"));
+    }
+}
@@ -0,0 +1,41 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.*;
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ResourcePoolStatsTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        StyleInfo style = getCatalog().getStyleByName(StyleInfo.DEFAULT_POINT);
+        getCatalog().getResourcePool().getStyle(style);
+        getCatalog().getResourcePool().getStyle(style);
+
+        Document dom = getAsDOM("/rest/resourcepool.xml");
+        assertNotNull(getFirstElementByTagName(dom, "caches"));
+        assertNotNull(getFirstElementByTagName(dom, "dataStore"));
+        assertNotNull(getFirstElementByTagName(dom, "style"));
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        JSON json = getAsJSON("/rest/resourcepool.json");
+        assertTrue(json instanceof JSONObject);
+
+        JSONObject caches = ((JSONObject) json).getJSONObject("caches");
+        JSONObject style = caches.getJSONObject("style");
+        assertTrue(style.has("hitCount"));
+        assertTrue(style.has("averageLoadTime"));
+        assertTrue(caches.has("coverageReader"));
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.junit.Assert.assertEquals;
+
+import org.geoserver.ows.CapabilitiesCache;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wcs.test.WCSTestSupport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Checks the cached WCS 1.0 capabilities documents depend on the requested section
+ */
+public class CapabilitiesCacheTest extends WCSTestSupport {
+
+    static final String CAPABILITIES = BASEPATH
+            + "?request=GetCapabilities&service=WCS&version=1.0.0";
+
+    @BeforeClass
+    public static void enableCache() {
+        System.setProperty(CapabilitiesCache.ENABLED, "true");
+    }
+
+    @AfterClass
+    public static void disableCache() {
+        System.clearProperty(CapabilitiesCache.ENABLED);
+    }
+
+    @Test
+    public void testSection() throws Exception {
+        CapabilitiesCache cache = GeoServerExtensions.bean(CapabilitiesCache.class);
+        cache.clear();
+
+        Document full = getAsDOM(CAPABILITIES);
+        assertXpathEvaluatesTo("1", "count(//wcs:Capability)", full);
+        assertXpathEvaluatesTo("1", "count(//wcs:ContentMetadata)", full);
+
+        // the partial document is not served out of the full one
+        Document service = getAsDOM(CAPABILITIES + "&section=/WCS_Capabilities/Service");
+        assertXpathEvaluatesTo("1", "count(//wcs:Service)", service);
+        assertXpathEvaluatesTo("0", "count(//wcs:Capability)", service);
+        assertXpathEvaluatesTo("0", "count(//wcs:ContentMetadata)", service);
+
+        // and the other way around
+        full = getAsDOM(CAPABILITIES);
+        assertXpathEvaluatesTo("1", "count(//wcs:Capability)", full);
+        assertXpathEvaluatesTo("1", "count(//wcs:ContentMetadata)", full);
+
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+}
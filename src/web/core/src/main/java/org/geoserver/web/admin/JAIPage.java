@@ -22,6 +22,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.JAIInfo;
 import org.geoserver.config.JAIInfo.PngEncoderType;
+import org.geoserver.config.JAIInfo.TileCacheType;
 import org.geoserver.web.wicket.ParamResourceModel;
 
 import com.sun.media.imageioimpl.common.PackageUtil;
@@ -59,6 +60,7 @@ public class JAIPage extends ServerAdminPage {
         TextField tilePriority = new TextField("tilePriority");
         tilePriority.add(NumberValidator.POSITIVE);
         form.add(tilePriority);
+        addTileCacheEditor(form);
         form.add(new CheckBox("recycling"));
         form.add(new CheckBox("jpegAcceleration"));
         addPngEncoderEditor(form);
@@ -85,6 +87,23 @@ public class JAIPage extends ServerAdminPage {
         form.add(cancel);
     }
 
+    private void addTileCacheEditor(Form form) {
+        DropDownChoice<TileCacheType> editor = new DropDownChoice<TileCacheType>("tileCacheType",
+                Arrays.asList(TileCacheType.values()), new IChoiceRenderer<TileCacheType>() {
+
+            @Override
+            public Object getDisplayValue(TileCacheType type) {
+                return new ParamResourceModel("tileCache." + type.name(), JAIPage.this).getString();
+            }
+
+            @Override
+            public String getIdValue(TileCacheType type, int index) {
+                return type.name();
+            }
+        });
+        form.add(editor);
+    }
+
     private void addPngEncoderEditor(Form form) {
         // get the list of available encoders
         List<PngEncoderType> encoders = new ArrayList(Arrays.asList(JAIInfo.PngEncoderType.values()));
@@ -49,6 +49,7 @@ public class GWCSettingsPage extends GeoServerSecuredPage {
 
         form.add(gwcServicesPanel);
         form.add(defaultCachingOptionsPanel);
+        form.add(new HotTileCachePanel("hotTileCachePanel"));
 
         form.add(new Button("submit") {
             private static final long serialVersionUID = 1L;
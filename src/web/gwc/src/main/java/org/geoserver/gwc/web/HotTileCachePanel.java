@@ -0,0 +1,63 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.web;
+
+import java.text.NumberFormat;
+
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.panel.Panel;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.ResourceModel;
+import org.apache.wicket.model.StringResourceModel;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.layer.HotTileCache;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.StorageUnit;
+
+/**
+ * Read only panel showing the usage of the in memory tile cache
+ */
+public class HotTileCachePanel extends Panel {
+
+    private static final long serialVersionUID = 1L;
+
+    public HotTileCachePanel(final String id) {
+        super(id);
+
+        HotTileCache cache = GWC.get().getHotTileCache();
+        if (cache == null || !cache.isEnabled()) {
+            add(new Label("status", new ResourceModel("HotTileCachePanel.disabled")));
+            add(new Label("memory", ""));
+            add(new Label("requests", ""));
+            add(new Label("bytesServed", ""));
+            return;
+        }
+
+        NumberFormat percent = NumberFormat.getPercentInstance();
+        percent.setMaximumFractionDigits(1);
+        Object[] statusParams = { cache.getTileCount(), cache.getEvictionCount(),
+                cache.getInvalidationCount() };
+        Object[] memoryParams = { nice(cache.getMemoryUsed()), nice(cache.getMemoryCapacity()) };
+        Object[] requestParams = { cache.getHitCount(), cache.getMissCount(),
+                percent.format(cache.getHitRatio()) };
+        Object[] bytesParams = { nice(cache.getBytesServed()) };
+
+        add(new Label("status", message("HotTileCachePanel.status", statusParams)));
+        String memoryKey = cache.isOffHeap() ? "HotTileCachePanel.memoryOffHeap"
+                : "HotTileCachePanel.memory";
+        add(new Label("memory", message(memoryKey, memoryParams)));
+        add(new Label("requests", message("HotTileCachePanel.requests", requestParams)));
+        add(new Label("bytesServed", message("HotTileCachePanel.bytesServed", bytesParams)));
+    }
+
+    private IModel<String> message(String key, Object[] params) {
+        return new StringResourceModel(key, this, null, params);
+    }
+
+    private static String nice(long bytes) {
+        return new Quota(bytes, StorageUnit.B).toNiceString();
+    }
+}
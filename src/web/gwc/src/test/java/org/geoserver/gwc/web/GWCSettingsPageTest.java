@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.util.tester.FormTester;
 import org.geoserver.gwc.ConfigurableLockProvider;
@@ -35,6 +36,13 @@ public class GWCSettingsPageTest extends GeoServerWicketTestSupport {
 
         // print(page, true, true);
     }
+
+    @Test
+    public void testHotTileCachePanel() {
+        tester.startPage(new GWCSettingsPage());
+        tester.assertComponent("form:hotTileCachePanel", HotTileCachePanel.class);
+        tester.assertComponent("form:hotTileCachePanel:requests", Label.class);
+    }
     
     @Before
     public void cleanup() throws IOException {
@@ -4,11 +4,10 @@
  */
 package org.geoserver.wfs.json;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +19,7 @@ import net.opengis.wfs.QueryType;
 import net.opengis.wfs.GetFeatureType;
 import net.sf.json.JSONException;
 
+import org.apache.commons.io.output.WriterOutputStream;
 import org.eclipse.emf.common.util.EList;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -62,6 +62,8 @@ import com.vividsolutions.jts.geom.Geometry;
 public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
     private final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(this.getClass());
 
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
     // store the response type
     private final boolean jsonp;
 
@@ -115,8 +117,6 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             id_option = JSONType.getIdPolicy( (Map<String,String>) request.getKvp() );
         }
         // prepare to write out
-        OutputStreamWriter osw = null;
-        Writer outWriter = null;
         boolean hasGeom = false;
 
         // get feature count for request
@@ -133,14 +133,20 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
         
         try {
-            osw = new OutputStreamWriter(output, gs.getSettings().getCharset());
-            outWriter = new BufferedWriter(osw);
+            // the encoder writes UTF-8, transcode only if another charset has been configured
+            Charset charset = Charset.forName(gs.getSettings().getCharset());
+            OutputStream target = output;
+            if (!UTF8.equals(charset)) {
+                target = new WriterOutputStream(new OutputStreamWriter(output, charset), UTF8
+                        .name());
+            }
 
+            final GeoJSONStreamWriter jsonWriter = new GeoJSONStreamWriter(target,
+                    getNumDecimals(featureCollection.getFeature()));
             if (jsonp) {
-                outWriter.write(getCallbackFunction() + "(");
+                jsonWriter.raw(getCallbackFunction() + "(");
             }
 
-            final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
             jsonWriter.object().key("type").value("FeatureCollection");
             if(featureCount != null) {
                 jsonWriter.key("totalFeatures").value(featureCount);
@@ -301,10 +307,10 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             jsonWriter.endObject(); // end featurecollection
 
             if (jsonp) {
-                outWriter.write(")");
+                jsonWriter.raw(")");
             }
 
-            outWriter.flush();
+            jsonWriter.flush();
 
         } catch (JSONException jsonException) {
             ServiceException serviceException = new ServiceException("Error: "
@@ -314,6 +320,23 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
 
+    /**
+     * Returns the number of decimals used for the coordinates, the largest one configured in the
+     * feature types being encoded, or -1 if none has been configured
+     */
+    private int getNumDecimals(List<FeatureCollection> collections) {
+        int numDecimals = -1;
+        Catalog catalog = gs.getCatalog();
+        for (FeatureCollection collection : collections) {
+            // might not be a feature type, GetFeatureInfo reuses this class
+            FeatureTypeInfo meta = catalog.getFeatureTypeByName(collection.getSchema().getName());
+            if (meta != null && meta.getNumDecimals() > 0) {
+                numDecimals = Math.max(numDecimals, meta.getNumDecimals());
+            }
+        }
+        return numDecimals;
+    }
+
     private String getCallbackFunction() {
         Request request = Dispatcher.REQUEST.get();
         if (request == null) {
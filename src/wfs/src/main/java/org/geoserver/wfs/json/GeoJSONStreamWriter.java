@@ -0,0 +1,555 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+
+import net.sf.json.util.JSONUtils;
+
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streaming GeoJSON encoder, writing UTF-8 straight into a byte buffer.
+ * <p>
+ * Writes the same structure as {@link GeoJSONBuilder}, but it avoids building intermediate
+ * objects and strings: coordinates are read straight from the geometries coordinate sequences
+ * and their digits are written directly into the buffer. This keeps the allocation rate low when
+ * encoding large feature collections.
+ * </p>
+ * <p>
+ * Unlike {@link GeoJSONBuilder}, coordinates are written with the configured number of decimals,
+ * if any. Otherwise they keep their full precision, parsing them back returns the very same
+ * double: the common coordinates that need no more than 15 significant digits are written
+ * directly, the others fall back on {@link Double#toString(double)}. Trailing zeros are omitted.
+ * </p>
+ */
+public class GeoJSONStreamWriter {
+
+    /**
+     * Significant digits written directly when no number of decimals is configured, enough to
+     * round trip any coordinate that was parsed from a decimal representation of up to 15 digits
+     */
+    static final int SIGNIFICANT_DIGITS = 15;
+
+    static final int MAX_DECIMALS = 17;
+
+    static final long[] POWERS = new long[MAX_DECIMALS + 1];
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    static final byte[] NULL = "null".getBytes();
+
+    static final byte[] TRUE = "true".getBytes();
+
+    static final byte[] FALSE = "false".getBytes();
+
+    final OutputStream out;
+
+    final int numDecimals;
+
+    final byte[] buffer;
+
+    int count;
+
+    /**
+     * For each nesting level, whether the next element is the first one
+     */
+    boolean[] first = new boolean[32];
+
+    int depth;
+
+    boolean afterKey;
+
+    /**
+     * Scratch space for the digits of a number
+     */
+    final byte[] digits = new byte[20];
+
+    /**
+     * @param out The stream to write to, the writer buffers on its own
+     * @param numDecimals The number of decimals used for coordinates, or -1 to keep their full
+     *        precision
+     */
+    public GeoJSONStreamWriter(OutputStream out, int numDecimals) {
+        this(out, numDecimals, 8192);
+    }
+
+    public GeoJSONStreamWriter(OutputStream out, int numDecimals, int bufferSize) {
+        this.out = out;
+        this.numDecimals = Math.min(numDecimals, MAX_DECIMALS);
+        this.buffer = new byte[bufferSize];
+    }
+
+    public GeoJSONStreamWriter object() throws IOException {
+        separator();
+        write('{');
+        push();
+        return this;
+    }
+
+    public GeoJSONStreamWriter endObject() throws IOException {
+        write('}');
+        depth--;
+        return this;
+    }
+
+    public GeoJSONStreamWriter array() throws IOException {
+        separator();
+        write('[');
+        push();
+        return this;
+    }
+
+    public GeoJSONStreamWriter endArray() throws IOException {
+        write(']');
+        depth--;
+        return this;
+    }
+
+    public GeoJSONStreamWriter key(String key) throws IOException {
+        separator();
+        writeString(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes an attribute value. Strings, integral numbers and booleans are encoded directly,
+     * dates as ISO 8601 strings, geometries as GeoJSON geometries, everything else the same way
+     * {@link GeoJSONBuilder} does.
+     */
+    public GeoJSONStreamWriter value(Object value) throws IOException {
+        if (value == null || "null".equals(value)) {
+            // JSONBuilder encodes the "null" string as a null too
+            separator();
+            write(NULL);
+        } else if (value instanceof String) {
+            separator();
+            writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            separator();
+            write(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof java.util.Date || value instanceof Calendar) {
+            separator();
+            writeString(Converters.convert(value, String.class));
+        } else if (value instanceof Geometry) {
+            writeGeom((Geometry) value);
+        } else {
+            // floating point attributes keep the exact representation, the rest goes through
+            // the same serialization as JSONBuilder
+            separator();
+            writeRaw(JSONUtils.valueToString(value));
+        }
+        return this;
+    }
+
+    public GeoJSONStreamWriter value(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a number with the coordinate precision
+     */
+    public GeoJSONStreamWriter value(double value) throws IOException {
+        separator();
+        writeNumber(value);
+        return this;
+    }
+
+    /**
+     * Writes a geometry object, in the same way as {@link GeoJSONBuilder#writeGeom(Geometry)}
+     */
+    public GeoJSONStreamWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type");
+        separator();
+        writeString(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType == GeoJSONBuilder.MULTIGEOMETRY) {
+            key("geometries");
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeGeom(geometry.getGeometryN(i));
+            }
+            endArray();
+        } else {
+            key("coordinates");
+            switch (geometryType) {
+            case GeoJSONBuilder.POINT:
+                writeCoordinate(((Point) geometry).getCoordinateSequence(), 0,
+                        dimension(((Point) geometry).getCoordinateSequence()));
+                break;
+            case GeoJSONBuilder.LINESTRING:
+                writeCoordinates(((LineString) geometry).getCoordinateSequence());
+                break;
+            case GeoJSONBuilder.POLYGON:
+                writePolygon((Polygon) geometry);
+                break;
+            case GeoJSONBuilder.MULTIPOINT:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    CoordinateSequence cs = ((Point) geometry.getGeometryN(i))
+                            .getCoordinateSequence();
+                    writeCoordinate(cs, 0, dimension(cs));
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTILINESTRING:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writeCoordinates(((LineString) geometry.getGeometryN(i))
+                            .getCoordinateSequence());
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTIPOLYGON:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writePolygon((Polygon) geometry.getGeometryN(i));
+                }
+                endArray();
+                break;
+            }
+        }
+        return endObject();
+    }
+
+    /**
+     * Writes the "bbox" key followed by the envelope as [minX,minY,maxX,maxY]
+     */
+    public GeoJSONStreamWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        array();
+        value(env.getMinX());
+        value(env.getMinY());
+        value(env.getMaxX());
+        value(env.getMaxY());
+        return endArray();
+    }
+
+    /**
+     * Writes text as is, e.g. a JSONP callback
+     */
+    public GeoJSONStreamWriter raw(String text) throws IOException {
+        writeRaw(text);
+        return this;
+    }
+
+    /**
+     * Writes out the buffered bytes and flushes the underlying stream
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    void writeCoordinates(CoordinateSequence cs) throws IOException {
+        array();
+        int dim = dimension(cs);
+        for (int i = 0, n = cs.size(); i < n; i++) {
+            writeCoordinate(cs, i, dim);
+        }
+        endArray();
+    }
+
+    void writeCoordinate(CoordinateSequence cs, int i, int dim) throws IOException {
+        separator();
+        write('[');
+        writeNumber(cs.getX(i));
+        write(',');
+        writeNumber(cs.getY(i));
+        if (dim > 2) {
+            double z = cs.getOrdinate(i, 2);
+            if (!Double.isNaN(z)) {
+                write(',');
+                writeNumber(z);
+            }
+        }
+        write(']');
+    }
+
+    /**
+     * Same as CoordinateSequences.coordinateDimension, without the lookup of the first
+     * coordinate for the common 2D case
+     */
+    int dimension(CoordinateSequence cs) {
+        int dim = cs.getDimension();
+        if (dim > 2 && cs.size() > 0 && Double.isNaN(cs.getOrdinate(0, 2))) {
+            return 2;
+        }
+        return dim;
+    }
+
+    void separator() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else if (depth > 0) {
+            if (first[depth]) {
+                first[depth] = false;
+            } else {
+                write(',');
+            }
+        }
+    }
+
+    void push() {
+        depth++;
+        if (depth == first.length) {
+            boolean[] grown = new boolean[first.length * 2];
+            System.arraycopy(first, 0, grown, 0, first.length);
+            first = grown;
+        }
+        first[depth] = true;
+    }
+
+    void writeNumber(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+            return;
+        }
+
+        double abs = Math.abs(value);
+        int decimals = numDecimals;
+        if (decimals < 0) {
+            if (abs == 0) {
+                write('0');
+                return;
+            }
+            if (abs >= 1e15 || abs < 1e-3) {
+                // rare in coordinates, let the JDK handle exponents
+                writeRaw(JSONUtils.numberToString(value));
+                return;
+            }
+            if (abs >= 1) {
+                decimals = SIGNIFICANT_DIGITS - countDigits((long) abs);
+            } else {
+                decimals = SIGNIFICANT_DIGITS + (abs < 0.01 ? 2 : abs < 0.1 ? 1 : 0);
+            }
+        }
+
+        double scaled = abs * POWERS[decimals];
+        if (scaled >= 9e18) {
+            writeRaw(JSONUtils.numberToString(value));
+            return;
+        }
+        long units = Math.round(scaled);
+        if (numDecimals < 0 && (double) units / POWERS[decimals] != abs) {
+            // more than 15 significant digits, both the units and the power of ten are exact
+            // doubles, so the division is the value a parser would read back
+            writeRaw(JSONUtils.numberToString(value));
+            return;
+        }
+        if (units == 0) {
+            write('0');
+            return;
+        }
+        if (value < 0) {
+            write('-');
+        }
+        long power = POWERS[decimals];
+        writeLong(units / power);
+        long fraction = units % power;
+        if (fraction != 0) {
+            write('.');
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            // leading zeros of the fraction
+            for (int i = countDigits(fraction); i < decimals; i++) {
+                write('0');
+            }
+            writeLong(fraction);
+        }
+    }
+
+    static int countDigits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeRaw(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensure(n);
+        while (n > 0) {
+            buffer[count++] = digits[--n];
+        }
+    }
+
+    /**
+     * Writes a quoted and escaped string, escaping the same characters as
+     * {@link JSONUtils#quote(String)}
+     */
+    void writeString(String s) throws IOException {
+        write('"');
+        char previous = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                write('\\');
+                write(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    write('\\');
+                }
+                write(c);
+                break;
+            case '\b':
+                write('\\');
+                write('b');
+                break;
+            case '\t':
+                write('\\');
+                write('t');
+                break;
+            case '\n':
+                write('\\');
+                write('n');
+                break;
+            case '\f':
+                write('\\');
+                write('f');
+                break;
+            case '\r':
+                write('\\');
+                write('r');
+                break;
+            default:
+                if (c < ' ') {
+                    write('\\');
+                    write('u');
+                    write('0');
+                    write('0');
+                    write(HEX[(c >> 4) & 0xF]);
+                    write(HEX[c & 0xF]);
+                } else if (c < 0x80) {
+                    write(c);
+                } else {
+                    i = writeUTF8(s, i, n);
+                }
+            }
+            previous = c;
+        }
+        write('"');
+    }
+
+    /**
+     * Writes text without any escaping
+     */
+    void writeRaw(String s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                write(c);
+            } else {
+                i = writeUTF8(s, i, n);
+            }
+        }
+    }
+
+    /**
+     * Encodes the non ASCII character at the specified position, returns the position of the last
+     * char consumed
+     */
+    int writeUTF8(String s, int i, int n) throws IOException {
+        int c = s.charAt(i);
+        if (Character.isHighSurrogate((char) c) && i + 1 < n
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            c = Character.toCodePoint((char) c, s.charAt(++i));
+        }
+        ensure(4);
+        if (c < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (c < 0x10000) {
+            buffer[count++] = (byte) (0xE0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buffer[count++] = (byte) (0xF0 | (c >> 18));
+            buffer[count++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    void write(byte[] bytes) throws IOException {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    void ensure(int length) throws IOException {
+        if (count + length > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
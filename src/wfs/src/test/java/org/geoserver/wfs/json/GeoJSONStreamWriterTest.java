@@ -0,0 +1,227 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONStreamWriterTest {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    GeoJSONStreamWriter writer(int numDecimals) {
+        // small buffer to exercise the flushes
+        return new GeoJSONStreamWriter(bytes, numDecimals, 16);
+    }
+
+    String written(GeoJSONStreamWriter writer) throws Exception {
+        writer.flush();
+        return new String(bytes.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * Encodes the geometry with both the builder and the stream writer
+     */
+    void assertSameAsBuilder(String wkt) throws Exception {
+        Geometry g = new WKTReader().read(wkt);
+        StringWriter sw = new StringWriter();
+        new GeoJSONBuilder(sw).writeGeom(g);
+
+        bytes.reset();
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.writeGeom(g);
+        assertEquals(sw.toString(), written(writer));
+    }
+
+    @Test
+    public void testWriteNormal() throws Exception {
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.writeGeom(new WKTReader().read("MULTILINESTRING((0 0, 1 1))"));
+        assertEquals("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]]]}",
+                written(writer));
+    }
+
+    @Test
+    public void testWriteGeometrySubclass() throws Exception {
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.writeGeom(new MyPoint(1, 2));
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[1,2]}", written(writer));
+    }
+
+    class MyPoint extends Point {
+
+        public MyPoint(double x, double y) {
+            super(new Coordinate(x, y), new PrecisionModel(), -1);
+        }
+    }
+
+    @Test
+    public void testSameAsBuilder() throws Exception {
+        assertSameAsBuilder("POINT(2 0 20)");
+        assertSameAsBuilder("MULTIPOINT((1 2), (3 4))");
+        assertSameAsBuilder("LINESTRING(0 0 0, 0 10 1, 10 10 2, 10 0 3, 0 0 0)");
+        assertSameAsBuilder("POLYGON((0 0, 0 10, 10 10, 10 0, 0 0),(1 1, 1 2, 2 2, 2 1, 1 1))");
+        assertSameAsBuilder("MULTIPOLYGON(((0 0, 0 1, 1 1, 0 0)),((5 5, 5 6, 6 6, 5 5)))");
+        assertSameAsBuilder("GEOMETRYCOLLECTION(POINT(2 0),LINESTRING(7 1, 8 2))");
+        assertSameAsBuilder("LINESTRING(-122.5 37.25, 12.125 -45.0625)");
+        assertSameAsBuilder("LINESTRING(1234567.123456789 0.30000000000000004, "
+                + "179.99999999999997 -0.3333333333333333)");
+    }
+
+    @Test
+    public void testNumDecimals() throws Exception {
+        GeoJSONStreamWriter writer = writer(3);
+        writer.writeGeom(new WKTReader().read("LINESTRING(1.23456 -0.0004, 10.1 -7.0006)"));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[1.235,0],[10.1,-7.001]]}",
+                written(writer));
+    }
+
+    @Test
+    public void testFullPrecision() throws Exception {
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.array().value(0.1 + 0.2).value(1234567.123456789).value(0.05).value(1e20)
+                .value(Double.NaN).endArray();
+        assertEquals("[0.30000000000000004,1234567.123456789,0.05,1.0E20,null]",
+                written(writer));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            double value = (random.nextDouble() - 0.5) * 360;
+            bytes.reset();
+            GeoJSONStreamWriter writer = writer(-1);
+            writer.value(value);
+            assertEquals(value, Double.parseDouble(written(writer)), 0d);
+        }
+    }
+
+    @Test
+    public void testSameCollectionAsBuilder() throws Exception {
+        Random random = new Random(0);
+        GeometryFactory gf = new GeometryFactory();
+        Geometry[] geometries = new Geometry[200];
+        for (int i = 0; i < geometries.length; i++) {
+            Coordinate[] cs = new Coordinate[20];
+            for (int j = 0; j < cs.length; j++) {
+                cs[j] = new Coordinate(-180 + 360 * random.nextDouble(),
+                        -90 + 180 * random.nextDouble());
+            }
+            geometries[i] = gf.createLineString(cs);
+        }
+
+        StringWriter sw = new StringWriter();
+        GeoJSONBuilder builder = new GeoJSONBuilder(sw);
+        builder.object().key("type").value("FeatureCollection").key("features").array();
+        for (int i = 0; i < geometries.length; i++) {
+            builder.object().key("type").value("Feature").key("id").value("f." + i);
+            builder.key("geometry");
+            builder.writeGeom(geometries[i]);
+            builder.key("properties").object().key("name").value("feature " + i).key("value")
+                    .value(i).endObject();
+            builder.endObject();
+        }
+        builder.endArray().endObject();
+
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.object().key("type").value("FeatureCollection").key("features").array();
+        for (int i = 0; i < geometries.length; i++) {
+            writer.object().key("type").value("Feature").key("id").value("f." + i);
+            writer.key("geometry");
+            writer.writeGeom(geometries[i]);
+            writer.key("properties").object().key("name").value("feature " + i).key("value")
+                    .value(i).endObject();
+            writer.endObject();
+        }
+        writer.endArray().endObject();
+
+        // the numbers might be formatted differently, but must read back as the same values
+        JSONArray expected = JSONObject.fromObject(sw.toString()).getJSONArray("features");
+        JSONArray actual = JSONObject.fromObject(written(writer)).getJSONArray("features");
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            JSONObject ef = expected.getJSONObject(i);
+            JSONObject af = actual.getJSONObject(i);
+            assertEquals(ef.getString("id"), af.getString("id"));
+            assertEquals(ef.getJSONObject("properties"), af.getJSONObject("properties"));
+            JSONArray ec = ef.getJSONObject("geometry").getJSONArray("coordinates");
+            JSONArray ac = af.getJSONObject("geometry").getJSONArray("coordinates");
+            assertEquals(ec.size(), ac.size());
+            for (int j = 0; j < ec.size(); j++) {
+                for (int k = 0; k < 2; k++) {
+                    double value = geometries[i].getCoordinates()[j].getOrdinate(k);
+                    assertEquals(value, ec.getJSONArray(j).getDouble(k), 0d);
+                    assertEquals(value, ac.getJSONArray(j).getDouble(k), 0d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBoundingBox() throws Exception {
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.object().writeBoundingBox(new Envelope(-180, 180, -90, 90)).endObject();
+        assertEquals("{\"bbox\":[-180,-90,180,90]}", written(writer));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.object().key("a").value(1).key("b").value(Boolean.TRUE).key("c")
+                .value((Object) null).key("d").value(Long.valueOf(-42)).key("e").value(1.5f)
+                .key("f").array().object().endObject().array().endArray().endArray().endObject();
+        assertEquals("{\"a\":1,\"b\":true,\"c\":null,\"d\":-42,\"e\":1.5,\"f\":[{},[]]}",
+                written(writer));
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.object().key("s").value("a\"b\\c</d>\n\t\u0001").endObject();
+        assertEquals("{\"s\":\"a\\\"b\\\\c<\\/d>\\n\\t\\u0001\"}", written(writer));
+    }
+
+    @Test
+    public void testUTF8() throws Exception {
+        String text = "caf\u00e9 \u20ac \ud83d\ude00";
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.value(text);
+        assertEquals("\"" + text + "\"", written(writer));
+    }
+
+    @Test
+    public void testWriteDate() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        GeoJSONStreamWriter writer = writer(-1);
+        writer.object().key("date").value(new java.sql.Date(cal.getTimeInMillis())).key("cal")
+                .value(cal).endObject();
+        assertEquals("{\"date\":\"2011-10-25Z\",\"cal\":\"2011-10-25T00:00:00Z\"}",
+                written(writer));
+    }
+}
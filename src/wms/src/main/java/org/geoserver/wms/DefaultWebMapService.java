@@ -7,9 +7,14 @@ package org.geoserver.wms;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.opengis.wfs.FeatureCollectionType;
 
@@ -122,6 +127,11 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static boolean BYPASS_DIRECT = Boolean.getBoolean("org.geoserver.render.raster.direct.disable");
 
+    /**
+     * This variable is used to bypass the pooling of the drawing surfaces.
+     */
+    private static boolean BYPASS_CANVAS_POOL = Boolean.getBoolean("org.geoserver.render.canvasPool.disable");
+
     /**
      * Max number of rule filters to be used against the data source
      */
@@ -136,6 +146,22 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      * Use a global rendering pool, or use a new pool each time
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
+    
+    /**
+     * Number of threads rendering the layers of a single large map in parallel, parallel 
+     * rendering is disabled when not positive
+     */
+    private static Integer PARALLEL_RENDERING_THREADS = null;
+    
+    /**
+     * Minimum map size, in pixels, for parallel rendering to kick in
+     */
+    private static Long PARALLEL_RENDERING_MIN_PIXELS = null;
+    
+    /**
+     * The bounded pool shared by parallel map renderings
+     */
+    private static volatile ExecutorService PARALLEL_RENDERING_POOL;
 
     private GetCapabilities getCapabilities;
 
@@ -246,6 +272,23 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+        
+        // parallel rendering of large maps, disabled by default
+        if (PARALLEL_RENDERING_THREADS == null) {
+            String threads = GeoServerExtensions.getProperty("PARALLEL_RENDERING_THREADS", context);
+            if (threads == null)
+                PARALLEL_RENDERING_THREADS = 0;
+            else
+                PARALLEL_RENDERING_THREADS = Integer.valueOf(threads);
+        }
+        if (PARALLEL_RENDERING_MIN_PIXELS == null) {
+            String pixels = GeoServerExtensions.getProperty("PARALLEL_RENDERING_MIN_PIXELS", context);
+            // default to print sized maps
+            if (pixels == null)
+                PARALLEL_RENDERING_MIN_PIXELS = 4000000l;
+            else
+                PARALLEL_RENDERING_MIN_PIXELS = Long.valueOf(pixels);
+        }
     }
 
     /**
@@ -285,6 +328,35 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return !BYPASS_DIRECT;
     }
 
+    /**
+     * If true (default) the drawing surfaces of the rendered maps are backed by pooled buffers
+     * @return
+     */
+    public static boolean isCanvasPoolingEnabled() {
+        return !BYPASS_CANVAS_POOL;
+    }
+    
+    /**
+     * Returns the number of threads used to render the layers of a single large map in parallel,
+     * parallel rendering is disabled unless the PARALLEL_RENDERING_THREADS property is set to a
+     * positive value
+     * 
+     * @return
+     */
+    public static int getParallelRenderingThreads() {
+        return PARALLEL_RENDERING_THREADS == null ? 0 : PARALLEL_RENDERING_THREADS;
+    }
+    
+    /**
+     * Returns the minimum size, in pixels, of maps rendered in parallel (defaults to 4 millions,
+     * can be changed with the PARALLEL_RENDERING_MIN_PIXELS property)
+     * 
+     * @return
+     */
+    public static long getParallelRenderingMinPixels() {
+        return PARALLEL_RENDERING_MIN_PIXELS == null ? 4000000l : PARALLEL_RENDERING_MIN_PIXELS;
+    }
+
     /**
      * @see WebMapService#getCapabilities(GetCapabilitiesRequest)
      * @see GetCapabilitiesTransformer
@@ -320,12 +392,16 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
     /**
      * @see WebMapService#getMap(GetMapRequest)
      */
-    public WebMap getMap(GetMapRequest request) {
+    public WebMap getMap(final GetMapRequest request) {
         if (null == getMap) {
             throw new UnsupportedOperationException(
                     "Operation not properly configured, make sure the operation bean has been set");
         }
-        return getMap.run(request);
+        return wms.getRenderingExecutor().execute(new Callable<WebMap>() {
+            public WebMap call() throws Exception {
+                return getMap.run(request);
+            }
+        });
     }
 
     /**
@@ -343,18 +419,26 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             throw new UnsupportedOperationException(
                     "Operation not properly configured, make sure the operation bean has been set");
         }
-        return getFeatureInfo.run(request);
+        return wms.getRenderingExecutor().execute(new Callable<FeatureCollectionType>() {
+            public FeatureCollectionType call() throws Exception {
+                return getFeatureInfo.run(request);
+            }
+        });
     }
 
     /**
      * @see WebMapService#getLegendGraphic(GetLegendGraphicRequest)
      */
-    public Object getLegendGraphic(GetLegendGraphicRequest request) {
+    public Object getLegendGraphic(final GetLegendGraphicRequest request) {
         if (null == getLegendGraphic) {
             throw new UnsupportedOperationException(
                     "Operation not properly configured, make sure the operation bean has been set");
         }
-        return getLegendGraphic.run(request);
+        return wms.getRenderingExecutor().execute(new Callable<Object>() {
+            public Object call() throws Exception {
+                return getLegendGraphic.run(request);
+            }
+        });
     }
 
     public WebMap kml(GetMapRequest getMap) {
@@ -688,12 +772,53 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the app wide pool used to render the layers of large maps in parallel, or null if
+     * parallel rendering is disabled.
+     * <p>
+     * The pool has {@link #getParallelRenderingThreads()} threads and a bounded queue, once the
+     * queue is full the layers are rendered by the requesting thread itself.
+     * </p>
+     * 
+     * @return
+     */
+    public static ExecutorService getParallelRenderingPool() {
+        final int threads = getParallelRenderingThreads();
+        if (threads > 0 && PARALLEL_RENDERING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (PARALLEL_RENDERING_POOL == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60,
+                            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(threads * 2),
+                            new ThreadFactory() {
+                                AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "ParallelRendering-"
+                                            + count.incrementAndGet());
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            }, new ThreadPoolExecutor.CallerRunsPolicy());
+                    pool.allowCoreThreadTimeOut(true);
+                    PARALLEL_RENDERING_POOL = pool;
+                }
+            }
+        }
+        
+        return PARALLEL_RENDERING_POOL;
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        if (PARALLEL_RENDERING_POOL != null) {
+            PARALLEL_RENDERING_POOL.shutdown();
+            PARALLEL_RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            PARALLEL_RENDERING_POOL = null;
+        }
     }
 
 }
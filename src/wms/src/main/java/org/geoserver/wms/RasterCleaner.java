@@ -7,16 +7,27 @@ package org.geoserver.wms;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedImageAdapter;
 import javax.media.jai.RenderedImageList;
 
+import org.geoserver.jai.RasterBufferPool.PooledImage;
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.Request;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.resources.image.ImageUtilities;
 
+/**
+ * Disposes the images and coverages scheduled during a request once the request is finished.
+ * <p>
+ * The scheduled objects are kept in thread locals, {@link RasterCleanerThreadLocalTransfer} shares
+ * the request thread lists with the threads rendering on its behalf, so that whatever they schedule
+ * still gets disposed at the end of the request.
+ * </p>
+ */
 public class RasterCleaner extends AbstractDispatcherCallback {
     static final ThreadLocal<List<RenderedImage>> images = new ThreadLocal<List<RenderedImage>>();
 
@@ -34,7 +45,7 @@ public class RasterCleaner extends AbstractDispatcherCallback {
 
         List<RenderedImage> list = images.get();
         if (list == null) {
-            list = new ArrayList<RenderedImage>();
+            list = Collections.synchronizedList(new ArrayList<RenderedImage>());
             images.set(list);
         }
         list.add(image);
@@ -52,7 +63,7 @@ public class RasterCleaner extends AbstractDispatcherCallback {
 
         List<GridCoverage2D> list = coverages.get();
         if (list == null) {
-            list = new ArrayList<GridCoverage2D>();
+            list = Collections.synchronizedList(new ArrayList<GridCoverage2D>());
             coverages.set(list);
         }
         list.add(coverage);
@@ -83,12 +94,41 @@ public class RasterCleaner extends AbstractDispatcherCallback {
     }
 
     private void disposeImage(RenderedImage image) {
+        // look for the pooled canvas before the chain built on top of it gets disposed
+        PooledImage canvas = getPooledImage(image);
         if (image instanceof PlanarImage) {
             ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-        } else if (image instanceof BufferedImage) {
+        } else if (image instanceof BufferedImage && canvas != image) {
             BufferedImage bi = (BufferedImage) image;
             bi.flush();
-        } 
+        }
+        if (canvas != null) {
+            canvas.release();
+        }
+    }
+
+    /**
+     * Returns the pooled image at the bottom of the specified image, which might be wrapped in a
+     * JAI chain, or null if the image is not backed by a pool
+     */
+    public static PooledImage getPooledImage(RenderedImage image) {
+        if (image instanceof PooledImage) {
+            return (PooledImage) image;
+        } else if (image instanceof RenderedImageAdapter) {
+            return getPooledImage(((RenderedImageAdapter) image).getWrappedImage());
+        } else if (image instanceof PlanarImage) {
+            PlanarImage planar = (PlanarImage) image;
+            for (int i = 0; i < planar.getNumSources(); i++) {
+                Object source = planar.getSourceObject(i);
+                if (source instanceof RenderedImage) {
+                    PooledImage pooled = getPooledImage((RenderedImage) source);
+                    if (pooled != null) {
+                        return pooled;
+                    }
+                }
+            }
+        }
+        return null;
     }
 
     private void disposeCoverages() {
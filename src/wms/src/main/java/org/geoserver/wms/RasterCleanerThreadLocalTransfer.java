@@ -0,0 +1,71 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.threadlocals.ThreadLocalTransfer;
+import org.geotools.coverage.grid.GridCoverage2D;
+
+/**
+ * Hands the {@link RasterCleaner} lists of the request thread to the threads working on its
+ * behalf (e.g., the WMS rendering pool), so that the images and coverages they schedule for
+ * cleanup are disposed by the request thread once the request is finished, instead of staying
+ * referenced by the pool thread forever.
+ */
+public class RasterCleanerThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String IMAGES_KEY = RasterCleaner.class.getName() + "#images";
+
+    public static final String COVERAGES_KEY = RasterCleaner.class.getName() + "#coverages";
+
+    @Override
+    public void collect(Map<String, Object> storage) {
+        // the lists are emptied by RasterCleaner.finished(), which only runs for dispatched requests
+        if (Dispatcher.REQUEST.get() == null) {
+            return;
+        }
+
+        List<RenderedImage> images = RasterCleaner.images.get();
+        if (images == null) {
+            images = Collections.synchronizedList(new ArrayList<RenderedImage>());
+            RasterCleaner.images.set(images);
+        }
+        storage.put(IMAGES_KEY, images);
+
+        List<GridCoverage2D> coverages = RasterCleaner.coverages.get();
+        if (coverages == null) {
+            coverages = Collections.synchronizedList(new ArrayList<GridCoverage2D>());
+            RasterCleaner.coverages.set(coverages);
+        }
+        storage.put(COVERAGES_KEY, coverages);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(Map<String, Object> storage) {
+        List<RenderedImage> images = (List<RenderedImage>) storage.get(IMAGES_KEY);
+        if (images != null) {
+            RasterCleaner.images.set(images);
+        }
+        List<GridCoverage2D> coverages = (List<GridCoverage2D>) storage.get(COVERAGES_KEY);
+        if (coverages != null) {
+            RasterCleaner.coverages.set(coverages);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        // the lists belong to the request thread, just forget about them
+        RasterCleaner.images.remove();
+        RasterCleaner.coverages.remove();
+    }
+
+}
@@ -0,0 +1,375 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Runs the WMS rendering operations (GetMap, GetFeatureInfo, GetLegendGraphic) on a dedicated
+ * pool of threads, so that the number of concurrent renders can be sized independently of the
+ * number of HTTP threads.
+ * <p>
+ * The pool has a bounded queue, requests that cannot be queued are rejected with a
+ * <code>503</code> error instead of piling up and starving the other services. When the pool
+ * size is <code>0</code> (the default) the operations run on the request thread, but they are
+ * still accounted for.
+ * </p>
+ * <p>
+ * The CPU and queue time of each operation are accumulated in a {@link RenderingStats} object
+ * attached to the current HTTP request (see {@link #getRequestStats(HttpServletRequest)}), the
+ * pool wide counters are published through JMX as <code>org.geoserver:type=WMSRendering</code>.
+ * </p>
+ */
+public class RenderingExecutor implements RenderingExecutorMXBean {
+
+    static final Logger LOGGER = Logging.getLogger(RenderingExecutor.class);
+
+    /**
+     * The HTTP request attribute holding the {@link RenderingStats} of the request
+     */
+    public static final String STATS_ATTRIBUTE = RenderingExecutor.class.getName() + ".stats";
+
+    static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Marks the threads running a rendering operation, nested operations run inline
+     */
+    static final ThreadLocal<Boolean> RENDERING = new ThreadLocal<Boolean>();
+
+    volatile ThreadPoolExecutor executor;
+
+    AtomicInteger active = new AtomicInteger();
+
+    AtomicLong submitted = new AtomicLong();
+
+    AtomicLong completed = new AtomicLong();
+
+    AtomicLong rejected = new AtomicLong();
+
+    AtomicLong cpuTime = new AtomicLong();
+
+    AtomicLong queueTime = new AtomicLong();
+
+    /**
+     * Sets up the rendering pool, replacing the current one. Operations already running on the
+     * old pool are allowed to complete.
+     *
+     * @param poolSize The number of rendering threads, <code>0</code> to render on the request
+     *        threads
+     * @param queueSize The number of operations that can wait for a rendering thread before new
+     *        ones get rejected
+     */
+    public synchronized void configure(int poolSize, int queueSize) {
+        ThreadPoolExecutor old = executor;
+        if (poolSize > 0) {
+            BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<Runnable>(
+                    queueSize) : new SynchronousQueue<Runnable>();
+            executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, queue,
+                    new ThreadFactory() {
+                        AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "WMSRendering-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            LOGGER.config("WMS rendering pool set to " + poolSize + " threads, queue size "
+                    + queueSize);
+        } else {
+            executor = null;
+        }
+
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Shuts down the rendering pool, operations will run on the request threads from now on.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs a rendering operation and waits for its result.
+     *
+     * @throws HttpErrorCodeException with a 503 code if the rendering queue is full
+     */
+    public <T> T execute(final Callable<T> task) throws ServiceException {
+        if (RENDERING.get() != null) {
+            // nested operation, already accounted for by the outer one
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw propagate(e);
+            }
+        }
+
+        final RenderingStats stats = getRequestStats();
+        ThreadPoolExecutor pool = executor;
+        if (pool == null) {
+            submitted.incrementAndGet();
+            RENDERING.set(Boolean.TRUE);
+            try {
+                return run(task, stats, 0);
+            } catch (Exception e) {
+                throw propagate(e);
+            } finally {
+                RENDERING.remove();
+            }
+        }
+
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        final long queued = System.nanoTime();
+        int depth = pool.getQueue().size();
+        Future<T> future;
+        try {
+            future = pool.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    RENDERING.set(Boolean.TRUE);
+                    transfer.apply();
+                    try {
+                        return run(task, stats, System.nanoTime() - queued);
+                    } finally {
+                        transfer.cleanup();
+                        RENDERING.remove();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (pool.isShutdown() && executor != pool) {
+                // the pool has been reconfigured in the meantime
+                return execute(task);
+            }
+            rejected.incrementAndGet();
+            if (stats != null) {
+                stats.rejected();
+            }
+            throw new HttpErrorCodeException(503,
+                    "Too many rendering requests queued, please retry later");
+        }
+        submitted.incrementAndGet();
+        if (stats != null) {
+            stats.queued(depth);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for the rendering to complete", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    <T> T run(Callable<T> task, RenderingStats stats, long queueNanos) throws Exception {
+        active.incrementAndGet();
+        long cpuStart = currentThreadCpuTime();
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            long cpu = currentThreadCpuTime() - cpuStart;
+            long elapsed = System.nanoTime() - start;
+            active.decrementAndGet();
+            completed.incrementAndGet();
+            cpuTime.addAndGet(cpu);
+            queueTime.addAndGet(queueNanos);
+            if (stats != null) {
+                stats.completed(cpu, elapsed, queueNanos);
+            }
+        }
+    }
+
+    long currentThreadCpuTime() {
+        if (THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled()) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return 0;
+    }
+
+    RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new ServiceException(t);
+    }
+
+    /**
+     * Returns the rendering statistics of the request being dispatched, creating them if needed,
+     * or <code>null</code> if no OWS request is being dispatched.
+     */
+    RenderingStats getRequestStats() {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null || request.getHttpRequest() == null) {
+            return null;
+        }
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        synchronized (request) {
+            RenderingStats stats = getRequestStats(httpRequest);
+            if (stats == null) {
+                stats = new RenderingStats();
+                httpRequest.setAttribute(STATS_ATTRIBUTE, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Returns the rendering statistics accumulated while processing the specified request, or
+     * <code>null</code> if the request did not perform any rendering.
+     */
+    public static RenderingStats getRequestStats(HttpServletRequest request) {
+        Object stats = request.getAttribute(STATS_ATTRIBUTE);
+        return stats instanceof RenderingStats ? (RenderingStats) stats : null;
+    }
+
+    public int getPoolSize() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 0 : pool.getMaximumPoolSize();
+    }
+
+    public int getQueueDepth() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public int getActiveRenders() {
+        return active.get();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCpuTime() {
+        return TimeUnit.NANOSECONDS.toMillis(cpuTime.get());
+    }
+
+    public long getQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(queueTime.get());
+    }
+
+    /**
+     * The rendering statistics of a single request, a request can perform more than one rendering
+     * operation (e.g. animations).
+     */
+    public static class RenderingStats {
+
+        AtomicInteger count = new AtomicInteger();
+
+        AtomicInteger queueDepth = new AtomicInteger();
+
+        AtomicLong cpuTime = new AtomicLong();
+
+        AtomicLong renderingTime = new AtomicLong();
+
+        AtomicLong queueTime = new AtomicLong();
+
+        volatile boolean rejected;
+
+        void queued(int depth) {
+            int current = queueDepth.get();
+            while (depth > current && !queueDepth.compareAndSet(current, depth)) {
+                current = queueDepth.get();
+            }
+        }
+
+        void completed(long cpu, long elapsed, long queued) {
+            count.incrementAndGet();
+            cpuTime.addAndGet(cpu);
+            renderingTime.addAndGet(elapsed);
+            queueTime.addAndGet(queued);
+        }
+
+        void rejected() {
+            rejected = true;
+        }
+
+        /**
+         * Number of rendering operations performed
+         */
+        public int getCount() {
+            return count.get();
+        }
+
+        /**
+         * The largest number of operations found waiting in the queue when this request submitted
+         * its own
+         */
+        public int getQueueDepth() {
+            return queueDepth.get();
+        }
+
+        /**
+         * CPU time spent rendering, in milliseconds
+         */
+        public long getCpuTime() {
+            return TimeUnit.NANOSECONDS.toMillis(cpuTime.get());
+        }
+
+        /**
+         * Wall clock time spent rendering, in milliseconds
+         */
+        public long getRenderingTime() {
+            return TimeUnit.NANOSECONDS.toMillis(renderingTime.get());
+        }
+
+        /**
+         * Time spent waiting for a rendering thread, in milliseconds
+         */
+        public long getQueueTime() {
+            return TimeUnit.NANOSECONDS.toMillis(queueTime.get());
+        }
+
+        /**
+         * Whether a rendering operation was rejected because the queue was full
+         */
+        public boolean isRejected() {
+            return rejected;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+/**
+ * Management interface exposing the {@link RenderingExecutor} counters through JMX.
+ */
+public interface RenderingExecutorMXBean {
+
+    /**
+     * Number of rendering threads, <code>0</code> when rendering runs on the request threads.
+     */
+    int getPoolSize();
+
+    /**
+     * Number of rendering tasks waiting for a rendering thread.
+     */
+    int getQueueDepth();
+
+    /**
+     * Number of rendering tasks currently running.
+     */
+    int getActiveRenders();
+
+    /**
+     * Number of rendering tasks submitted since startup.
+     */
+    long getSubmittedCount();
+
+    /**
+     * Number of rendering tasks completed since startup, successfully or not.
+     */
+    long getCompletedCount();
+
+    /**
+     * Number of rendering tasks rejected because the queue was full.
+     */
+    long getRejectedCount();
+
+    /**
+     * Total CPU time spent rendering, in milliseconds.
+     */
+    long getCpuTime();
+
+    /**
+     * Total time rendering tasks spent waiting in the queue, in milliseconds.
+     */
+    long getQueueTime();
+}
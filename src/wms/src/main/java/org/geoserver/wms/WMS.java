@@ -125,6 +125,14 @@ public class WMS implements ApplicationContextAware {
     public static final String SCALEHINT_MAPUNITS_PIXEL = "scalehintMapunitsPixel";
     
     public static final Boolean SCALEHINT_MAPUNITS_PIXEL_DEFAULT = Boolean.FALSE;
+
+    public static final String RENDERING_POOL_SIZE = "renderingPoolSize";
+
+    public static final int RENDERING_POOL_SIZE_DEFAULT = 0;
+
+    public static final String RENDERING_QUEUE_SIZE = "renderingQueueSize";
+
+    public static final int RENDERING_QUEUE_SIZE_DEFAULT = 100;
     
     static final Logger LOGGER = Logging.getLogger(WMS.class);
 
@@ -186,6 +194,11 @@ public class WMS implements ApplicationContextAware {
      * the WMS Animator animatorExecutor service
      */
     private ExecutorService animatorExecutorService;
+
+    /**
+     * the executor running the rendering operations
+     */
+    private final RenderingExecutor renderingExecutor = new RenderingExecutor();
     
     private static final FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
 
@@ -302,6 +315,13 @@ public class WMS implements ApplicationContextAware {
         return animatorExecutorService;
     }
 
+    /**
+     * @return the executor running the GetMap, GetFeatureInfo and GetLegendGraphic operations
+     */
+    public RenderingExecutor getRenderingExecutor() {
+        return renderingExecutor;
+    }
+
     public WMSInterpolation getInterpolation() {
         return getServiceInfo().getInterpolation();
     }
@@ -493,6 +513,22 @@ public class WMS implements ApplicationContextAware {
        return getMetadataValue(LOOP_CONTINUOUSLY, LOOP_CONTINUOUSLY_DEFAULT, Boolean.class);
     }
     
+    /**
+     * Returns the number of threads rendering WMS requests, 0 means requests are rendered by the
+     * request threads
+     */
+    public int getRenderingPoolSize() {
+        return getMetadataValue(RENDERING_POOL_SIZE, RENDERING_POOL_SIZE_DEFAULT, Integer.class);
+    }
+
+    /**
+     * Returns the number of WMS requests that can wait for a rendering thread before new ones get
+     * rejected
+     */
+    public int getRenderingQueueSize() {
+        return getMetadataValue(RENDERING_QUEUE_SIZE, RENDERING_QUEUE_SIZE_DEFAULT, Integer.class);
+    }
+
     public Boolean getScalehintUnitPixel(){
         return getMetadataValue(SCALEHINT_MAPUNITS_PIXEL, SCALEHINT_MAPUNITS_PIXEL_DEFAULT, Boolean.class);
     }
@@ -48,6 +48,9 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
     public void onDispose() {
         // dispose the WMS Animator Executor Service
         shutdownAnimatorExecutorService();
+
+        // dispose the WMS rendering pool
+        this.wmsConfig.getRenderingExecutor().shutdown();
     }
 
     public void onReload() {
@@ -65,6 +68,17 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
         
         // reset WMS Animator Executor Service
         resetAnimatorExecutorService();
+
+        // reset WMS rendering pool
+        resetRenderingExecutor();
+    }
+
+    /**
+     * Sets up the rendering pool with the current WMS configuration
+     */
+    private void resetRenderingExecutor() {
+        this.wmsConfig.getRenderingExecutor().configure(this.wmsConfig.getRenderingPoolSize(),
+                this.wmsConfig.getRenderingQueueSize());
     }
 
     /**
@@ -131,6 +145,9 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
             
             // reset WMS Animator Executor Service
             resetAnimatorExecutorService();
+
+            // reset WMS rendering pool
+            resetRenderingExecutor();
         }
     }
 
@@ -4,6 +4,9 @@
  */
 package org.geoserver.wms.capabilities;
 
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.asc;
+import static org.geoserver.catalog.Predicates.equal;
 import static org.geoserver.ows.util.ResponseUtils.appendQueryString;
 import static org.geoserver.ows.util.ResponseUtils.buildSchemaURL;
 import static org.geoserver.ows.util.ResponseUtils.buildURL;
@@ -35,6 +38,7 @@ import javax.xml.transform.TransformerException;
 import org.apache.commons.lang.StringUtils;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -43,10 +47,12 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.LayerInfo.Type;
 import org.geoserver.catalog.LegendInfo;
 import org.geoserver.catalog.MetadataLinkInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.config.ContactInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.ResourceErrorHandling;
@@ -67,7 +73,8 @@ import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.Style;
 import org.geotools.xml.transform.TransformerBase;
 import org.geotools.xml.transform.Translator;
-import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
@@ -616,24 +623,25 @@ public class GetCapabilitiesTransformer extends TransformerBase {
         private void handleLayers() {
             start("Layer");
 
-            final List<LayerInfo> layers;
+            //ask for enabled and advertised to start with
+            Filter filter;
+            {
+                Filter enabled = equal("enabled", Boolean.TRUE);
+                Filter advertised = equal("advertised", Boolean.TRUE);
+                filter = and(enabled, advertised);
+            }
 
             // filter the layers if a namespace filter has been set
             if (request.getNamespace() != null) {
-                final List<LayerInfo> allLayers = wmsConfig.getLayers();
-                layers = new ArrayList<LayerInfo>();
-
-                String namespace = wmsConfig.getNamespaceByPrefix(request.getNamespace());
-                for (LayerInfo layer : allLayers) {
-                    Name name = layer.getResource().getQualifiedName();
-                    if (name.getNamespaceURI().equals(namespace)) {
-                        layers.add(layer);
-                    }
-                }
-            } else {
-                layers = wmsConfig.getLayers();
+                //build a query predicate for the namespace prefix
+                final String nsPrefix = request.getNamespace();
+                final String nsProp = "resource.namespace.prefix";
+                Filter equals = equal(nsProp, nsPrefix);
+                filter = and(filter, equals);
             }
 
+            final Catalog catalog = wmsConfig.getCatalog();
+
             WMSInfo serviceInfo = wmsConfig.getServiceInfo();
             element("Title", serviceInfo.getTitle());
             element("Abstract", serviceInfo.getAbstract());
@@ -645,7 +653,13 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             }
             handleRootCrsList(srs);
 
-            handleRootBbox(layers);
+            CloseableIterator<LayerInfo> layers;
+            layers = catalog.list(LayerInfo.class, filter);
+            try {
+                handleRootBbox(layers);
+            } finally {
+                layers.close();
+            }
 
             // handle AuthorityURL
             handleAuthorityURL(serviceInfo.getAuthorityURLs());
@@ -656,17 +670,30 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             Set<LayerInfo> layersAlreadyProcessed = new HashSet<LayerInfo>();
             
             // encode layer groups
+            CloseableIterator<LayerGroupInfo> layerGroups;
+            {
+                final Filter lgFilter = Predicates.acceptAll();
+                SortBy layerGroupOrder = asc("name");
+                layerGroups = catalog.list(LayerGroupInfo.class, lgFilter, null, null,
+                        layerGroupOrder);
+            }
             try {
-                List<LayerGroupInfo> layerGroups = wmsConfig.getLayerGroups();
-                layersAlreadyProcessed = handleLayerGroups(new ArrayList<LayerGroupInfo>(layerGroups));
+                layersAlreadyProcessed = handleLayerGroups(layerGroups);
             } catch (Exception e) {
                 throw new RuntimeException("Can't obtain Envelope of Layer-Groups: "
                         + e.getMessage(), e);
-            } 
+            } finally {
+                layerGroups.close();
+            }
             
-            // now encode each layer individually
-            LayerTree featuresLayerTree = new LayerTree(layers);
-            handleLayerTree(featuresLayerTree, layersAlreadyProcessed);
+            // now encode each layer individually, streaming them in name order
+            SortBy layerOrder = asc("name");
+            layers = catalog.list(LayerInfo.class, filter, null, null, layerOrder);
+            try {
+                handleLayerTree(layers, layersAlreadyProcessed);
+            } finally {
+                layers.close();
+            }
 
             end("Layer");
         }
@@ -720,18 +747,27 @@ public class GetCapabilitiesTransformer extends TransformerBase {
          * @param ftypes
          *            the collection of FeatureTypeInfo and CoverageInfo objects to traverse
          */
-        private void handleRootBbox(Collection<LayerInfo> layers) {
+        private void handleRootBbox(Iterator<LayerInfo> layers) {
+
+            final Envelope world = new Envelope(-180, 180, -90, 90);
 
             Envelope latlonBbox = new Envelope();
             Envelope layerBbox = null;
 
             LOGGER.finer("Collecting summarized latlonbbox and common SRS...");
 
-            for (LayerInfo layer : layers) {
+            while (layers.hasNext()) {
+                LayerInfo layer = layers.next();
                 ResourceInfo resource = layer.getResource();
                 layerBbox = resource.getLatLonBoundingBox();
-                if (layerBbox != null)
+                if (layerBbox != null) {
                     latlonBbox.expandToInclude(layerBbox);
+                }
+
+                //short cut for the case where we already reached the whole world bounds
+                if (latlonBbox.contains(world)) {
+                    break;
+                }
             }
 
             if (LOGGER.isLoggable(Level.FINE)) {
@@ -759,6 +795,27 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             return wmsExposable;   
         }
         
+        private void handleLayerTree(final Iterator<LayerInfo> layers, Set<LayerInfo> layersAlreadyProcessed) {
+            // Build a LayerTree only for the layers that have a wms path set. Process the ones that
+            // don't first, as they come
+            LayerTree nestedLayers = new LayerTree();
+
+            //handle non nested layers
+            while (layers.hasNext()) {
+                LayerInfo layer = layers.next();
+                final String path = layer.getPath();
+                if (path != null && path.length() > 0 && !"/".equals(path)) {
+                    nestedLayers.add(layer);
+                    continue;
+                }
+
+                handleTreeLayer(layer, layersAlreadyProcessed);
+            }
+
+            //handle nested layers
+            handleLayerTree(nestedLayers, layersAlreadyProcessed);
+        }
+
         /**
          * @param layerTree
          */
@@ -773,28 +830,7 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             });
 
             for (LayerInfo layer : data) {
-                // ask for enabled() instead of isEnabled() to account for disabled resource/store
-                // don't expose a geometryless layer through wms
-                if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
-                    try {
-                        mark();
-                        handleLayer(layer);
-                        commit();
-                    } catch (Exception e) {
-                        if (skipping) {
-                            reset();
-                            LOGGER.log(
-                                Level.WARNING, 
-                                "Error writing metadata; skipping layer: " + layer.getName(),
-                                e);
-                        } else {
-                            // report what layer we failed on to help the admin locate and fix it
-                            throw new ServiceException(
-                                    "Error occurred trying to write out metadata for layer: "
-                                            + layer.getName(), e);
-                        }
-                    }
-                }
+                handleTreeLayer(layer, layersAlreadyProcessed);
             }
 
             for (LayerTree childLayerTree : children) {
@@ -806,6 +842,31 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             }
         }
 
+        private void handleTreeLayer(LayerInfo layer, Set<LayerInfo> layersAlreadyProcessed) {
+            // ask for enabled() instead of isEnabled() to account for disabled resource/store
+            // don't expose a geometryless layer through wms
+            if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
+                try {
+                    mark();
+                    handleLayer(layer);
+                    commit();
+                } catch (Exception e) {
+                    if (skipping) {
+                        reset();
+                        LOGGER.log(
+                            Level.WARNING, 
+                            "Error writing metadata; skipping layer: " + layer.getName(),
+                            e);
+                    } else {
+                        // report what layer we failed on to help the admin locate and fix it
+                        throw new ServiceException(
+                                "Error occurred trying to write out metadata for layer: "
+                                        + layer.getName(), e);
+                    }
+                }
+            }
+        }
+
         /**
          * Calls super.handleFeatureType to add common FeatureType content such as Name, Title and
          * LatLonBoundingBox, and then writes WMS specific layer properties as Styles, Scale Hint,
@@ -1089,11 +1150,11 @@ public class GetCapabilitiesTransformer extends TransformerBase {
            end("Layer");
        }
        
-        protected Set<LayerInfo> handleLayerGroups(List<LayerGroupInfo> layerGroups) throws FactoryException,
+        protected Set<LayerInfo> handleLayerGroups(Iterator<LayerGroupInfo> layerGroups) throws FactoryException,
                 TransformException, IOException {
             Set<LayerInfo> layersAlreadyProcessed = new HashSet<LayerInfo>();
             
-            if (layerGroups == null || layerGroups.size() == 0) {
+            if (layerGroups == null) {
                 return layersAlreadyProcessed;
             }
             
@@ -1132,7 +1193,11 @@ public class GetCapabilitiesTransformer extends TransformerBase {
          * @param allGroups
          * @return
          */
-        private List<LayerGroupInfo> filterNestedGroups(List<LayerGroupInfo> allGroups) {
+        private List<LayerGroupInfo> filterNestedGroups(Iterator<LayerGroupInfo> iterator) {
+            List<LayerGroupInfo> allGroups = new ArrayList<LayerGroupInfo>();
+            while (iterator.hasNext()) {
+                allGroups.add(iterator.next());
+            }
             LinkedHashSet<LayerGroupInfo> result = new LinkedHashSet<LayerGroupInfo>(allGroups);
             for (LayerGroupInfo group : allGroups) {
                 for(PublishedInfo pi : group.getLayers()) {
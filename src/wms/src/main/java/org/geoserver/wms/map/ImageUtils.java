@@ -13,8 +13,10 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.awt.image.VolatileImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
@@ -28,6 +30,8 @@ import javax.imageio.ImageIO;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.TiledImage;
 
+import org.geoserver.jai.RasterBufferPool;
+import org.geoserver.jai.RasterBufferPool.PooledImage;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.image.ImageWorker;
@@ -119,6 +123,32 @@ public class ImageUtils {
         return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
 
     }
+
+    /**
+     * Same as {@link #createImage(int, int, IndexColorModel, boolean)}, but backs the image with
+     * arrays taken from the specified pool, the caller is expected to release it with
+     * {@link PooledImage#release()} once done, and to paint all of its pixels, as they are not
+     * cleared.
+     * 
+     * @param pool
+     *            the pool the arrays are taken from, if <code>null</code> the image is allocated
+     *            as usual
+     */
+    public static BufferedImage createImage(final int width, final int height,
+            final IndexColorModel palette, final boolean transparent, final RasterBufferPool pool) {
+        if (pool == null) {
+            return createImage(width, height, palette, transparent);
+        }
+
+        if (palette != null) {
+            // same layout as the interleaved raster used in the non pooled case
+            SampleModel sm = new PixelInterleavedSampleModel(palette.getTransferType(), width,
+                    height, 1, width, new int[] { 0 });
+            return pool.createImage(palette, sm, false);
+        }
+        return pool.createImage(width, height, transparent ? BufferedImage.TYPE_4BYTE_ABGR
+                : BufferedImage.TYPE_3BYTE_BGR, false);
+    }
     
     /**
      * Computes the memory usage of the buffered image used as the drawing
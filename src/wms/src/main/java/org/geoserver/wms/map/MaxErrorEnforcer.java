@@ -4,18 +4,23 @@
  */
 package org.geoserver.wms.map;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.RenderListener;
 import org.opengis.feature.simple.SimpleFeature;
 
 /**
  * Attaches itself to the renderer and ensures no more than a certain amount of errors occur, if
- * they do, the rendering process is stopped
+ * they do, the rendering process is stopped. When attached to multiple renderers working on the
+ * same map the errors are counted across all of them, and all of them are stopped.
  * @author Andrea Aime - OpenGeo
  */
 public class MaxErrorEnforcer {
 
-    GTRenderer renderer;
+    List<GTRenderer> renderers;
 
     int maxErrors;
 
@@ -30,24 +35,43 @@ public class MaxErrorEnforcer {
      * @param maxErrors
      */
     public MaxErrorEnforcer(GTRenderer renderer, int maxErrors) {
-        this.renderer = renderer;
+        this(Collections.singletonList(renderer), maxErrors);
+    }
+    
+    /**
+     * Builds a new max errors enforcer counting the errors of all the specified renderers. If
+     * maxErrors is not positive the enforcer will do nothing
+     * 
+     * @param renderers
+     * @param maxErrors
+     */
+    public MaxErrorEnforcer(List<? extends GTRenderer> renderers, int maxErrors) {
+        this.renderers = new ArrayList<GTRenderer>(renderers);
         this.maxErrors = maxErrors;
         this.errors = 0;
 
         if (maxErrors > 0) {
-            renderer.addRenderListener(new RenderListener() {
+            RenderListener listener = new RenderListener() {
 
                 public void featureRenderer(SimpleFeature feature) {
                 }
 
                 public void errorOccurred(Exception e) {
-                    errors++;
-                    lastException = e;
-                    if (errors > MaxErrorEnforcer.this.maxErrors) {
-                        MaxErrorEnforcer.this.renderer.stopRendering();
+                    synchronized (MaxErrorEnforcer.this) {
+                        errors++;
+                        lastException = e;
+                        if (errors <= MaxErrorEnforcer.this.maxErrors) {
+                            return;
+                        }
+                    }
+                    for (GTRenderer renderer : MaxErrorEnforcer.this.renderers) {
+                        renderer.stopRendering();
                     }
                 }
-            });
+            };
+            for (GTRenderer renderer : this.renderers) {
+                renderer.addRenderListener(listener);
+            }
         }
     }
 
@@ -55,7 +79,7 @@ public class MaxErrorEnforcer {
      * True if the max error threshold was exceeded
      * @return
      */
-    public boolean exceedsMaxErrors() {
+    public synchronized boolean exceedsMaxErrors() {
         return maxErrors > 0 && errors > maxErrors;
     }
     
@@ -63,7 +87,7 @@ public class MaxErrorEnforcer {
      * Returns the last exception occurred (or null if none happened)
      * @return
      */
-    public Exception getLastException() {
+    public synchronized Exception getLastException() {
         return lastException;
     }
 
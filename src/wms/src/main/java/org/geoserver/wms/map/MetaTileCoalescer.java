@@ -0,0 +1,132 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure each meta-tile is rendered once at any given time in this process. The first request
+ * for a meta-tile renders it, the requests for the same meta-tile coming in while it is being
+ * rendered wait and share the result, be they direct WMS tiled requests or tile requests going
+ * through the embedded GeoWebCache.
+ * <p>
+ * The renderer decides what the shared result is, it must be safe for concurrent read access, as
+ * all the waiting requests get the very same object.
+ * </p>
+ * <p>
+ * Set the {@code org.geoserver.wms.metaTileCoalescer.disabled} system property to render each
+ * request on its own.
+ * </p>
+ */
+public class MetaTileCoalescer implements MetaTileCoalescerMXBean {
+
+    public static final String DISABLED = "org.geoserver.wms.metaTileCoalescer.disabled";
+
+    /**
+     * The renderings in progress
+     */
+    final ConcurrentMap<Object, FutureTask<?>> rendering =
+            new ConcurrentHashMap<Object, FutureTask<?>>();
+
+    final AtomicLong renders = new AtomicLong();
+
+    final AtomicLong coalesced = new AtomicLong();
+
+    final AtomicLong failures = new AtomicLong();
+
+    final AtomicLong waitTime = new AtomicLong();
+
+    volatile boolean enabled = !Boolean.getBoolean(DISABLED);
+
+    /**
+     * Returns the result of the specified renderer, running it in the calling thread unless
+     * another request is already rendering the same meta-tile, in which case its result, or its
+     * failure, is shared
+     *
+     * @param key
+     *            identifies the meta-tile, must implement equals and hashCode
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V render(final Object key, final Callable<V> renderer) throws Exception {
+        if (!enabled) {
+            renders.incrementAndGet();
+            return renderer.call();
+        }
+
+        FutureTask<V> task = new FutureTask<V>(renderer);
+        FutureTask<?> running = rendering.putIfAbsent(key, task);
+        if (running == null) {
+            renders.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                rendering.remove(key, task);
+            }
+            return getResult(task);
+        }
+
+        coalesced.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            return (V) getResult(running);
+        } finally {
+            waitTime.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    private <V> V getResult(FutureTask<V> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getRenderCount() {
+        return renders.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    public int getActiveRenders() {
+        return rendering.size();
+    }
+
+    public double getCoalescedRate() {
+        long coalesced = this.coalesced.get();
+        long requests = coalesced + renders.get();
+        return requests == 0 ? 0 : (double) coalesced / requests;
+    }
+}
@@ -0,0 +1,49 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+/**
+ * Management interface exposing the {@link MetaTileCoalescer} counters through JMX.
+ */
+public interface MetaTileCoalescerMXBean {
+
+    /**
+     * Whether concurrent requests for the same meta-tile share a single rendering.
+     */
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Number of meta-tiles rendered since startup.
+     */
+    long getRenderCount();
+
+    /**
+     * Number of requests served by a rendering started by another request, that is, the number
+     * of renderings saved.
+     */
+    long getCoalescedCount();
+
+    /**
+     * Number of renderings that failed, along with the requests waiting on them.
+     */
+    long getFailureCount();
+
+    /**
+     * Total time spent by requests waiting on another request's rendering, in milliseconds.
+     */
+    long getWaitTime();
+
+    /**
+     * Number of meta-tiles being rendered right now.
+     */
+    int getActiveRenders();
+
+    /**
+     * Ratio of meta-tile requests served by another request's rendering.
+     */
+    double getCoalescedRate();
+}
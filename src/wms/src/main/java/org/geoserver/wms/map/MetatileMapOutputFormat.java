@@ -14,12 +14,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
 import javax.media.jai.PlanarImage;
 
+import org.geoserver.jai.RasterBufferPool.PooledImage;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapOutputFormat;
@@ -103,6 +105,8 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
     private static QuickTileCache tileCache;
 
+    private static MetaTileCoalescer coalescer;
+
     private GetMapRequest request;
 
     private RenderedImageMapOutputFormat delegate;
@@ -119,58 +123,118 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
      */
-    public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-        // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
-        // with each other
-        // (the first eventually builds the meta-tile, the second finds it ready
-        // to be used)
-        QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
-
-        synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
-
-            if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
-                        + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
-            }
+    public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException,
+            IOException {
+        // get the key that identifies the meta tile. Two threads asking for the same meta tile
+        // share a single rendering of it through the coalescer, the first builds the meta-tile,
+        // the others wait and pick their tile out of it
+        final QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
 
-            if (tile == null) {
-                // compute the meta-tile
-                if (LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
-                            + key.metaTileCoords.y+" of size w="+
-                            key.getTileSize() * key.getMetaFactor()+", h="+
-                            key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
-                    
-                }
+        RenderedImage tile = tileCache.getTile(key, request);
+        List<GridCoverage2D> renderedCoverages = null;
 
-                // alter the map definition so that we build a meta-tile instead
-                // of just the tile
-                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
-                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
-                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
-                mapContent.setTileSize(key.getTileSize());
-                
-                // adjust the bbox/width/height env vars that GetMap setup, since we
-                // are changing them under its feet
-                EnvFunction.setLocalValue("wms_bbox", mapContent.getViewport().getBounds());
-                EnvFunction.setLocalValue("wms_width", mapContent.getMapWidth());
-                EnvFunction.setLocalValue("wms_height", mapContent.getMapHeight());
-
-                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
-
-                RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile, mapContent);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
+        }
+
+        if (tile == null) {
+            RenderedMetaTile rendered;
+            try {
+                rendered = getCoalescer().render(key, new Callable<RenderedMetaTile>() {
+                    public RenderedMetaTile call() throws Exception {
+                        return renderMetaTile(key, mapContent);
+                    }
+                });
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ServiceException("Failed to build meta tile " + key, e);
+            }
+            tile = tileCache.getTile(key, request, rendered.tiles);
+            // only the request that did render reports the coverages it read
+            if (rendered.mapContent == mapContent) {
+                renderedCoverages = rendered.renderedCoverages;
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
+        }
+        RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
+        tileMap.setRenderedCoverages(renderedCoverages);
+        return tileMap;
+    }
+
+    /**
+     * Builds the meta-tile and splits it, unless another request did it in the meantime
+     */
+    RenderedMetaTile renderMetaTile(QuickTileCache.MetaTileKey key, WMSMapContent mapContent)
+            throws IOException {
+        RenderedImage[] cached = tileCache.getTiles(key);
+        if (cached != null) {
+            return new RenderedMetaTile(cached, null, null);
+        }
+
+        // compute the meta-tile
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y+" of size w="+
+                    key.getTileSize() * key.getMetaFactor()+", h="+
+                    key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
+            
+        }
+
+        // alter the map definition so that we build a meta-tile instead
+        // of just the tile
+        mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
+        mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
+        mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
+        mapContent.setTileSize(key.getTileSize());
+        
+        // adjust the bbox/width/height env vars that GetMap setup, since we
+        // are changing them under its feet
+        EnvFunction.setLocalValue("wms_bbox", mapContent.getViewport().getBounds());
+        EnvFunction.setLocalValue("wms_width", mapContent.getMapWidth());
+        EnvFunction.setLocalValue("wms_height", mapContent.getMapHeight());
+
+        RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
+
+        RenderedImage metaTile = metaTileMap.getImage();
+        RenderedImage[] tiles = split(key, metaTile, mapContent);
+        tileCache.storeTiles(key, tiles);
+        // the tiles are copies, the drawing surface can go back to its pool right away
+        PooledImage canvas = RasterCleaner.getPooledImage(metaTile);
+        if (canvas != null) {
+            canvas.release();
+        }
+        return new RenderedMetaTile(tiles, metaTileMap.getRenderedCoverages(), mapContent);
+    }
+
+    private static MetaTileCoalescer getCoalescer() {
+        if (coalescer == null) {
+            MetaTileCoalescer bean = GeoServerExtensions.bean(MetaTileCoalescer.class);
+            coalescer = bean != null ? bean : new MetaTileCoalescer();
+        }
+        return coalescer;
+    }
+
+    /**
+     * The split meta-tile, shared by all the requests waiting on its rendering
+     */
+    static class RenderedMetaTile {
+        final RenderedImage[] tiles;
+
+        final List<GridCoverage2D> renderedCoverages;
+
+        /**
+         * The map content of the request that rendered the meta-tile
+         */
+        final WMSMapContent mapContent;
+
+        RenderedMetaTile(RenderedImage[] tiles, List<GridCoverage2D> renderedCoverages,
+                WMSMapContent mapContent) {
+            this.tiles = tiles;
+            this.renderedCoverages = renderedCoverages;
+            this.mapContent = mapContent;
         }
     }
 
@@ -289,6 +353,15 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                     }                  	
                     final BufferedImage image = (BufferedImage) metaTile;
                     tile = image.getSubimage(x, y, tileSize, tileSize);                    
+                    if (image instanceof PooledImage) {
+                        // the meta tile pixels go back to the pool at the end of the request,
+                        // while the tiles are cached, copy them out
+                        BufferedImage copy = new BufferedImage(image.getColorModel(), image
+                                .getRaster().createCompatibleWritableRaster(tileSize, tileSize),
+                                image.isAlphaPremultiplied(), null);
+                        ((BufferedImage) tile).copyData(copy.getRaster());
+                        tile = copy;
+                    }
                     break;                    
                 default:
                     throw new IllegalStateException(Errors.format(ErrorKeys.ILLEGAL_ARGUMENT_$2,"metaTile class",metaTile.getClass().toString()));
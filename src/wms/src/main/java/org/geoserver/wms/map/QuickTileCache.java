@@ -13,28 +13,71 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geotools.feature.NameImpl;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
-
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.vividsolutions.jts.geom.Envelope;
 
-public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+/**
+ * Caches the tiles of the meta-tiles built for tiled WMS requests not served by GeoWebCache
+ * (<code>tiled=true</code> and <code>tilesOrigin</code>).
+ * <p>
+ * The cache is bounded by the memory used by the tiles, 128MB by default, which can be changed
+ * with the {@link #MAX_SIZE} system property (in bytes, <code>0</code> disables the cache). The
+ * meta-tiles showing a layer are evicted when the layer data is changed by a WFS transaction, or
+ * when the layer is modified or removed from the catalog. Hit, miss and eviction counts are
+ * exposed through JMX as <code>org.geoserver:type=MetaTileCache</code>.
+ * </p>
+ */
+public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler,
+        QuickTileCacheMXBean {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * System property setting the maximum amount of memory used by the cached tiles, in bytes
+     */
+    public static final String MAX_SIZE = "org.geoserver.wms.metaTileCache.maxSize";
+
+    static final long DEFAULT_MAX_SIZE = 128 * 1024 * 1024;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -58,22 +101,57 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    private Cache<MetaTileKey, CacheElement> tileCache;
+
+    private long maxSize;
+
+    private AtomicLong size = new AtomicLong();
+
+    private AtomicLong hits = new AtomicLong();
+
+    private AtomicLong misses = new AtomicLong();
+
+    private AtomicLong evictions = new AtomicLong();
 
     public QuickTileCache(GeoServer geoServer) {
+        this(getMaxSizeProperty());
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
+            }
+
+            public void reloaded() {
+                clear();
+            }
+        });
+        geoServer.getCatalog().addListener(new CatalogListener() {
+
+            public void handleAddEvent(CatalogAddEvent event) {
+                // nothing cached can refer to a new object
+            }
+
+            public void handleRemoveEvent(CatalogRemoveEvent event) {
+                invalidate(event.getSource());
+            }
+
+            public void handleModifyEvent(CatalogModifyEvent event) {
+                // the object still has the old name here
+                invalidate(event.getSource());
+            }
+
+            public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+                // in case a tile got cached while the object was being modified
+                invalidate(event.getSource());
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,6 +160,39 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    QuickTileCache(long maxSize) {
+        this.maxSize = maxSize;
+        tileCache = CacheBuilder.newBuilder().maximumWeight(Math.max(0, maxSize))
+                .weigher(new Weigher<MetaTileKey, CacheElement>() {
+                    public int weigh(MetaTileKey key, CacheElement value) {
+                        return value.weight;
+                    }
+                }).removalListener(new RemovalListener<MetaTileKey, CacheElement>() {
+                    public void onRemoval(RemovalNotification<MetaTileKey, CacheElement> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.incrementAndGet();
+                        }
+                        if (notification.getValue() != null) {
+                            size.addAndGet(-notification.getValue().weight);
+                        }
+                    }
+                }).build();
+    }
+
+    static long getMaxSizeProperty() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_SIZE + ": " + value
+                        + ", using the default instead");
+            }
+        }
+        return DEFAULT_MAX_SIZE;
     }
 
     /**
@@ -111,6 +222,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
         MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        key.layers = getLayerNames(request);
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -118,6 +230,24 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return (MetaTileKey) metaTileKeys.unique(key);
     }
 
+    /**
+     * Returns the names of the resources shown by the map, used to evict the meta-tiles showing
+     * a changed layer
+     */
+    Set<Name> getLayerNames(GetMapRequest request) {
+        Set<Name> names = new HashSet<Name>();
+        if (request.getLayers() != null) {
+            for (MapLayerInfo layer : request.getLayers()) {
+                if (layer.getType() == MapLayerInfo.TYPE_REMOTE_VECTOR) {
+                    names.add(new NameImpl(layer.getName()));
+                } else {
+                    names.add(layer.getResource().getQualifiedName());
+                }
+            }
+        }
+        return names;
+    }
+
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
         double miny = bbox.getMinY() + (metaTileCoords.y - tileCoords.y) * bbox.getHeight();
@@ -280,6 +410,12 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /**
+         * The layers in the map, not part of the key identity as they are a function of the map
+         * definition
+         */
+        Set<Name> layers = new HashSet<Name>();
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
             super();
             this.mapKey = mapKey;
@@ -334,16 +470,26 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.getIfPresent(key);
 
         if (ce == null) {
+            misses.incrementAndGet();
             return null;
         }
 
+        hits.incrementAndGet();
         return getTile(key, request, ce.tiles);
     }
 
+    /**
+     * Returns the cached tiles of a meta-tile, or {@code null}, without counting a hit or a miss
+     */
+    RenderedImage[] getTiles(MetaTileKey key) {
+        CacheElement ce = tileCache.getIfPresent(key);
+        return ce == null ? null : ce.tiles;
+    }
+
     /**
      * 
      * @param key
@@ -370,39 +516,132 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        if (maxSize <= 0) {
+            return;
+        }
+        CacheElement element = new CacheElement(tiles);
+        size.addAndGet(element.weight);
+        tileCache.put(key, element);
+    }
+
+    /**
+     * Evicts all the meta-tiles showing the specified layer. A layer name without a namespace
+     * matches the layers with the same local name in any namespace.
+     */
+    public void invalidate(Name layer) {
+        for (Iterator<MetaTileKey> it = tileCache.asMap().keySet().iterator(); it.hasNext();) {
+            MetaTileKey key = it.next();
+            for (Name name : key.layers) {
+                if (name.equals(layer)
+                        || (isEmpty(layer.getNamespaceURI()) && name.getLocalPart().equals(
+                                layer.getLocalPart()))) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    boolean isEmpty(String namespace) {
+        return namespace == null || namespace.length() == 0;
+    }
+
+    /**
+     * Evicts the meta-tiles that might be affected by a change to the specified catalog object
+     */
+    void invalidate(CatalogInfo info) {
+        if (info instanceof ResourceInfo) {
+            invalidate(((ResourceInfo) info).getQualifiedName());
+        } else if (info instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) info).getResource();
+            if (resource != null) {
+                invalidate(resource.getQualifiedName());
+            }
+        } else {
+            // styles, groups, stores and workspaces can affect any number of layers
+            clear();
+        }
+    }
+
+    /**
+     * Evicts all the meta-tiles
+     */
+    public void clear() {
+        tileCache.invalidateAll();
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getCount() {
+        return tileCache.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long requests = hits.get() + misses.get();
+        return requests == 0 ? 1.0 : (double) hits.get() / requests;
     }
 
-    class CacheElement {
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    static class CacheElement {
         RenderedImage[] tiles;
 
+        int weight;
+
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            long bytes = 0;
+            for (RenderedImage tile : tiles) {
+                int bits = 0;
+                for (int sampleSize : tile.getSampleModel().getSampleSize()) {
+                    bits += sampleSize;
+                }
+                bytes += (long) tile.getWidth() * tile.getHeight() * bits / 8;
+            }
+            this.weight = (int) Math.min(bytes, Integer.MAX_VALUE);
         }
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        // evict the meta-tiles showing the layer, the transaction might have changed any of them
+        QName name = event.getLayerName();
+        if (name == null) {
+            clear();
+        } else {
+            invalidate(new NameImpl(name.getNamespaceURI(), name.getLocalPart()));
+        }
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
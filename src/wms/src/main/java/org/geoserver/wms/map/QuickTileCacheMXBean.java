@@ -0,0 +1,51 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+/**
+ * Management interface exposing the {@link QuickTileCache} counters through JMX.
+ */
+public interface QuickTileCacheMXBean {
+
+    /**
+     * Memory used by the cached tiles, in bytes.
+     */
+    long getSize();
+
+    /**
+     * Maximum memory used by the cached tiles, in bytes.
+     */
+    long getMaxSize();
+
+    /**
+     * Number of meta-tiles currently cached.
+     */
+    long getCount();
+
+    /**
+     * Number of tile requests served from the cache.
+     */
+    long getHitCount();
+
+    /**
+     * Number of tile requests that required building a meta-tile.
+     */
+    long getMissCount();
+
+    /**
+     * Ratio of tile requests served from the cache.
+     */
+    double getHitRate();
+
+    /**
+     * Number of meta-tiles evicted because of the size bound.
+     */
+    long getEvictionCount();
+
+    /**
+     * Evicts all the meta-tiles.
+     */
+    void clear();
+}
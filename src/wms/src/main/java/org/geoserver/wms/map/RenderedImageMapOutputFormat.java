@@ -25,6 +25,10 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +48,11 @@ import javax.media.jai.operator.FormatDescriptor;
 import javax.media.jai.operator.LookupDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.jai.RasterBufferPool;
+import org.geoserver.jai.RasterBufferPool.PooledImage;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
@@ -67,6 +75,7 @@ import org.geotools.gce.imagemosaic.ImageMosaicFormat;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
 import org.geotools.map.StyleLayer;
 import org.geotools.parameter.Parameter;
 import org.geotools.referencing.CRS;
@@ -76,8 +85,12 @@ import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.resources.image.ColorUtilities;
+import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.geotools.styling.TextSymbolizer;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
@@ -162,6 +175,11 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
     /** Which format to encode the image in if one is not supplied */
     private static final String DEFAULT_MAP_FORMAT = "image/png";
 
+    /** Vendor options of the styles composing or blending their output with the layers below */
+    static final String COMPOSITE = "composite";
+
+    static final String COMPOSITE_BASE = "composite-base";
+
     /** WMS Service configuration * */
     protected final WMS wms;
 
@@ -301,7 +319,21 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // multiple featureTypeStyles against the same layer
         StreamingRenderer testRenderer = new StreamingRenderer();
         testRenderer.setMapContent(mapContent);
-        memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        long backBufferMemory = testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        memory += backBufferMemory;
+        // ... and the extra layer buffers and back buffers when rendering in parallel, if there is
+        // not enough memory for them we just fall back on sequential rendering. Composition and
+        // blending need the layers below on the same surface, and labels have to be painted on
+        // top of all the layers, so they are always sequential
+        int parallelism = usesComposition(mapContent) || usesLabels(mapContent) ? 1
+                : getRenderingParallelism(mapContent, paintArea);
+        if (parallelism > 1) {
+            long layerMemory = getDrawingSurfaceMemoryUse(paintArea.width, paintArea.height, null,
+                    true) + backBufferMemory;
+            if (maxMemory > 0 && memory + layerMemory * (parallelism - 1) > maxMemory) {
+                parallelism = 1;
+            }
+        }
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -394,10 +426,6 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = new StreamingRenderer();
-        renderer .setThreadPool(DefaultWebMapService.getRenderingPool());
-        renderer.setMapContent(mapContent);
-        renderer.setJava2DHints(hints);
 
         // setup the renderer hints
         Map<Object, Object> rendererParams = new HashMap<Object, Object>();
@@ -453,7 +481,45 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 }
             }
         }
-        renderer.setRendererHints(rendererParams);
+
+        // split the layers in groups to be rendered in parallel, the first group is painted
+        // directly on the map, the others on transparent buffers that are then composed on it
+        List<List<Layer>> groups = splitLayers(mapContent.layers(), parallelism);
+        RasterBufferPool bufferPool = groups.size() > 1 ? getCanvasPool() : null;
+        List<StreamingRenderer> renderers = new ArrayList<StreamingRenderer>();
+        List<Graphics2D> graphics = new ArrayList<Graphics2D>();
+        List<BufferedImage> buffers = new ArrayList<BufferedImage>();
+        List<MapContent> groupContents = new ArrayList<MapContent>();
+        for (int i = 0; i < groups.size(); i++) {
+            MapContent content = mapContent;
+            Graphics2D groupGraphic = graphic;
+            if (groups.size() > 1) {
+                content = buildLayerGroupContent(mapContent, groups.get(i));
+                groupContents.add(content);
+                if (i > 0) {
+                    BufferedImage buffer;
+                    if (bufferPool != null) {
+                        // the buffers are composed over the map, they have to start transparent
+                        buffer = bufferPool.createImage(paintArea.width, paintArea.height,
+                                BufferedImage.TYPE_INT_ARGB, true);
+                    } else {
+                        buffer = new BufferedImage(paintArea.width, paintArea.height,
+                                BufferedImage.TYPE_INT_ARGB);
+                    }
+                    groupGraphic = buffer.createGraphics();
+                    groupGraphic.setRenderingHints(hintsMap);
+                    buffers.add(buffer);
+                }
+            }
+
+            StreamingRenderer renderer = new StreamingRenderer();
+            renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
+            renderer.setMapContent(content);
+            renderer.setJava2DHints(hints);
+            renderer.setRendererHints(new HashMap<Object, Object>(rendererParams));
+            renderers.add(renderer);
+            graphics.add(groupGraphic);
+        }
 
         // if abort already requested bail out
         // if (this.abortRequested) {
@@ -463,25 +529,28 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         // enforce no more than x rendering errors
         int maxErrors = wms.getMaxRenderingErrors();
-        MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderer, maxErrors);
+        MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderers, maxErrors);
 
         // Add a render listener that ignores well known rendering exceptions and reports back non
         // ignorable ones
-        final RenderExceptionStrategy nonIgnorableExceptionListener;
-        nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
-        renderer.addRenderListener(nonIgnorableExceptionListener);
-        
-        onBeforeRender(renderer);
+        List<RenderExceptionStrategy> nonIgnorableExceptionListeners = new ArrayList<RenderExceptionStrategy>();
+        for (StreamingRenderer renderer : renderers) {
+            RenderExceptionStrategy nonIgnorableExceptionListener = new RenderExceptionStrategy(
+                    renderer);
+            renderer.addRenderListener(nonIgnorableExceptionListener);
+            nonIgnorableExceptionListeners.add(nonIgnorableExceptionListener);
+            
+            onBeforeRender(renderer);
+        }
 
         // setup the timeout enforcer (the enforcer is neutral when the timeout is 0)
         int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
-        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
-                graphic);
+        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderers,
+                graphics);
         timeout.start();
         try {
             // finally render the image;
-            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
-                    mapContent.getRenderingTransform());
+            paint(renderers, graphics, buffers, paintArea, mapContent);
 
             // apply watermarking
             if (layout != null) {
@@ -493,7 +562,18 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             }
         } finally {
             timeout.stop();
-            graphic.dispose();
+            for (Graphics2D g : graphics) {
+                g.dispose();
+            }
+            for (MapContent content : groupContents) {
+                disposeLayerGroupContent(content);
+            }
+            // paint does not return before all the groups are done drawing on their buffers
+            for (BufferedImage buffer : buffers) {
+                if (buffer instanceof PooledImage) {
+                    ((PooledImage) buffer).release();
+                }
+            }
         }
 
         // check if the request did timeout
@@ -504,9 +584,11 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         }
 
         // check if a non ignorable error occurred
-        if (nonIgnorableExceptionListener.exceptionOccurred()) {
-            Exception renderError = nonIgnorableExceptionListener.getException();
-            throw new ServiceException("Rendering process failed", renderError, "internalError");
+        for (RenderExceptionStrategy nonIgnorableExceptionListener : nonIgnorableExceptionListeners) {
+            if (nonIgnorableExceptionListener.exceptionOccurred()) {
+                Exception renderError = nonIgnorableExceptionListener.getException();
+                throw new ServiceException("Rendering process failed", renderError, "internalError");
+            }
         }
 
         // check if too many errors occurred
@@ -526,6 +608,220 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return map;
     }
 
+    /**
+     * Returns the number of groups of layers that should be rendered in parallel for the specified
+     * map, or 1 if the map should be rendered sequentially.
+     * <p>
+     * By default parallel rendering is used only when the PARALLEL_RENDERING_THREADS property is
+     * set and the map is at least PARALLEL_RENDERING_MIN_PIXELS large, see
+     * {@link DefaultWebMapService#getParallelRenderingThreads()}. Layers are split in contiguous
+     * groups, each rendered by its own renderer. Maps with labels or composition are always
+     * rendered sequentially, whatever this method returns, as each group would paint its labels
+     * below the layers of the following groups.
+     * </p>
+     * 
+     * @param mapContent
+     * @param paintArea
+     */
+    protected int getRenderingParallelism(WMSMapContent mapContent, Rectangle paintArea) {
+        int threads = DefaultWebMapService.getParallelRenderingThreads();
+        long pixels = (long) paintArea.width * paintArea.height;
+        if (threads <= 1 || pixels < DefaultWebMapService.getParallelRenderingMinPixels()) {
+            return 1;
+        }
+        return Math.max(1, Math.min(threads, mapContent.layers().size()));
+    }
+
+    /**
+     * Checks if any of the map styles composes or blends its output with the layers below, which
+     * cannot be done against the empty buffer of a layer group
+     */
+    static boolean usesComposition(MapContent mapContent) {
+        for (Layer layer : mapContent.layers()) {
+            if (!(layer instanceof StyleLayer) || ((StyleLayer) layer).getStyle() == null) {
+                continue;
+            }
+            for (FeatureTypeStyle fts : ((StyleLayer) layer).getStyle().featureTypeStyles()) {
+                if (isComposite(fts.getOptions())) {
+                    return true;
+                }
+                for (Rule rule : fts.rules()) {
+                    for (Symbolizer symbolizer : rule.symbolizers()) {
+                        if (isComposite(symbolizer.getOptions())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any of the map styles has labels, which a renderer paints after all of its layers
+     */
+    static boolean usesLabels(MapContent mapContent) {
+        for (Layer layer : mapContent.layers()) {
+            if (!(layer instanceof StyleLayer) || ((StyleLayer) layer).getStyle() == null) {
+                continue;
+            }
+            for (FeatureTypeStyle fts : ((StyleLayer) layer).getStyle().featureTypeStyles()) {
+                for (Rule rule : fts.rules()) {
+                    for (Symbolizer symbolizer : rule.symbolizers()) {
+                        if (symbolizer instanceof TextSymbolizer) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isComposite(Map<String, String> options) {
+        return options != null
+                && (options.containsKey(COMPOSITE) || options.containsKey(COMPOSITE_BASE));
+    }
+
+    /**
+     * Returns the pool used to render groups of layers in parallel
+     */
+    protected ExecutorService getParallelRenderingPool() {
+        return DefaultWebMapService.getParallelRenderingPool();
+    }
+
+    /**
+     * Splits the layers in the specified number of contiguous groups of similar size
+     */
+    static List<List<Layer>> splitLayers(List<Layer> layers, int groups) {
+        List<List<Layer>> result = new ArrayList<List<Layer>>();
+        int size = layers.size();
+        if (groups <= 1 || size <= 1) {
+            result.add(layers);
+            return result;
+        }
+        groups = Math.min(groups, size);
+        for (int i = 0; i < groups; i++) {
+            result.add(new ArrayList<Layer>(layers.subList(i * size / groups, (i + 1) * size
+                    / groups)));
+        }
+        return result;
+    }
+
+    /**
+     * Builds a map content holding a group of layers of the map, sharing its rendering area
+     */
+    MapContent buildLayerGroupContent(WMSMapContent mapContent, List<Layer> layers) {
+        MapContent content = new MapContent();
+        content.getViewport().setBounds(mapContent.getRenderingArea());
+        for (Layer layer : layers) {
+            content.addLayer(layer);
+        }
+        return content;
+    }
+
+    void disposeLayerGroupContent(MapContent content) {
+        // the layers are still owned by the original map content, remove them so that they
+        // don't get disposed along with the group
+        for (Layer layer : new ArrayList<Layer>(content.layers())) {
+            content.removeLayer(layer);
+        }
+        content.dispose();
+    }
+
+    /**
+     * Paints the map. The first renderer paints in the calling thread, the others in the parallel
+     * rendering pool, their buffers are then composed in order on the first graphics
+     */
+    void paint(final List<StreamingRenderer> renderers, List<Graphics2D> graphics,
+            List<BufferedImage> buffers, final Rectangle paintArea, WMSMapContent mapContent) {
+        final ReferencedEnvelope renderingArea = mapContent.getRenderingArea();
+        final AffineTransform renderingTransform = mapContent.getRenderingTransform();
+        if (renderers.size() == 1) {
+            renderers.get(0).paint(graphics.get(0), paintArea, renderingArea, renderingTransform);
+            return;
+        }
+
+        ExecutorService pool = getParallelRenderingPool();
+        // the pool threads need the request, security context and the like to access the data.
+        // When the pool is saturated a group runs in the calling thread, which already has them
+        // and must keep them once the group is painted
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        final Thread submitter = Thread.currentThread();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int i = 1; i < renderers.size(); i++) {
+                final StreamingRenderer renderer = renderers.get(i);
+                final Graphics2D g = graphics.get(i);
+                if (pool != null) {
+                    futures.add(pool.submit(new Runnable() {
+                        public void run() {
+                            if (Thread.currentThread() == submitter) {
+                                renderer.paint(g, paintArea, renderingArea, renderingTransform);
+                                return;
+                            }
+                            transfer.apply();
+                            try {
+                                renderer.paint(g, paintArea, renderingArea, renderingTransform);
+                            } finally {
+                                transfer.cleanup();
+                            }
+                        }
+                    }));
+                } else {
+                    renderer.paint(g, paintArea, renderingArea, renderingTransform);
+                    futures.add(null);
+                }
+            }
+
+            renderers.get(0).paint(graphics.get(0), paintArea, renderingArea, renderingTransform);
+            for (int i = 0; i < futures.size(); i++) {
+                Future<?> future = futures.get(i);
+                if (future != null) {
+                    future.get();
+                }
+                graphics.get(0).drawImage(buffers.get(i), 0, 0, null);
+            }
+        } catch (InterruptedException e) {
+            stopRendering(renderers, futures);
+            throw new ServiceException("Rendering process was interrupted", e);
+        } catch (ExecutionException e) {
+            stopRendering(renderers, futures);
+            throw new ServiceException("Rendering process failed", e.getCause(), "internalError");
+        } catch (RuntimeException e) {
+            stopRendering(renderers, futures);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the renderers and waits for the groups still painting in the pool, so that their
+     * buffers can be released
+     */
+    void stopRendering(List<StreamingRenderer> renderers, List<Future<?>> futures) {
+        for (StreamingRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (future != null) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Allows subclasses to customize the renderer before the paint method gets invoked
      * 
@@ -643,6 +939,10 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
      * Sets up a {@link BufferedImage#TYPE_4BYTE_ABGR} if the paletteInverter is not provided, or a
      * indexed image otherwise. Subclasses may override this method should they need a special kind
      * of image
+     * <p>
+     * The image is backed by the {@link #getCanvasPool() canvas pool}, if any, and returns its
+     * pixels to it when the map built on top of it is disposed.
+     * </p>
      * 
      * @param width
      * @param height
@@ -652,7 +952,18 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
     protected RenderedImage prepareImage(int width, int height, IndexColorModel palette,
             boolean transparent) {
         return ImageUtils.createImage(width, height, isPaletteSupported() ? palette : null,
-                transparent && isTransparencySupported());
+                transparent && isTransparencySupported(), getCanvasPool());
+    }
+
+    /**
+     * Returns the pool backing the drawing surfaces, or null if they should be allocated on each
+     * request
+     */
+    protected RasterBufferPool getCanvasPool() {
+        if (!DefaultWebMapService.isCanvasPoolingEnabled()) {
+            return null;
+        }
+        return GeoServerExtensions.bean(RasterBufferPool.class);
     }
 
     /**
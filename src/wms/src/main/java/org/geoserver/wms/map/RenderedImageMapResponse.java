@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapOutputFormat;
@@ -26,6 +27,7 @@ import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
 import org.geoserver.wms.map.quantize.LRUColorIndexer;
 import org.geoserver.wms.map.quantize.Quantizer;
+import org.geoserver.wms.map.quantize.QuantizerExecutor;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.palette.InverseColorMapOp;
@@ -177,7 +179,10 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                     indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
                     // build the palette and grab the optimized color indexer
-                    indexer = new Quantizer(256).subsample().buildColorIndexer(image);
+                    QuantizerExecutor executor = GeoServerExtensions.bean(QuantizerExecutor.class);
+                    indexer = new Quantizer(256).subsample()
+                            .executor(executor != null ? executor.getExecutor() : null)
+                            .buildColorIndexer(image);
                 }
 
                 // if we have an indexer transform the image
@@ -5,6 +5,9 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -13,21 +16,27 @@ import org.geotools.renderer.GTRenderer;
 /**
  * An utility class that can be used to set a strict timeout on rendering operations:
  * if the timeout elapses, the renderer will be asked to stop rendering and the graphics
- * will be disposed of to make extra sure the renderer cannot keep going on.
+ * will be disposed of to make extra sure the renderer cannot keep going on. When a map is
+ * rendered by several renderers in parallel, all of them are stopped.
  * @author Andrea Aime - OpenGeo
  */
 public class RenderingTimeoutEnforcer {
     
     long timeout;
-    GTRenderer renderer;
-    Graphics graphics;
+    List<GTRenderer> renderers;
+    List<Graphics> graphics;
     Timer timer;
-    boolean timedOut = false;
+    volatile boolean timedOut = false;
 
     public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics) {
+        this(timeout, Collections.singletonList(renderer), Collections.singletonList(graphics));
+    }
+    
+    public RenderingTimeoutEnforcer(long timeout, List<? extends GTRenderer> renderers,
+            List<? extends Graphics> graphics) {
         this.timeout = timeout;
-        this.renderer = renderer;
-        this.graphics = graphics;
+        this.renderers = new ArrayList<GTRenderer>(renderers);
+        this.graphics = new ArrayList<Graphics>(graphics);
     }
 
     /**
@@ -71,11 +80,15 @@ public class RenderingTimeoutEnforcer {
             timedOut = true;
             
             // ask gently...
-            renderer.stopRendering();
+            for (GTRenderer renderer : renderers) {
+                renderer.stopRendering();
+            }
             // ... but also be rude for extra measure (coverage rendering is
             // an atomic call to the graphics, it cannot be stopped
             // by the above)
-            graphics.dispose();
+            for (Graphics g : graphics) {
+                g.dispose();
+            }
             
         }
         
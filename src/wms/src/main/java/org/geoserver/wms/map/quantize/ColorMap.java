@@ -87,7 +87,7 @@ final class ColorMap implements Iterable<ColorEntry> {
 
 
     /**
-     * Increments the counter associated to the specified color by one
+     * Increments the counter associated to the specified color by the given amount
      */
     public void increment(int r, int g, int b, int a, int increment) {
         int color = color(r, g, b, a);
@@ -98,7 +98,7 @@ final class ColorMap implements Iterable<ColorEntry> {
         for (ColorEntry e = table[index]; e != null; e = e.next) {
             scanCount++;
             if (e.color == color) {
-                e.value++;
+                e.value += increment;
                 return;
             }
         }
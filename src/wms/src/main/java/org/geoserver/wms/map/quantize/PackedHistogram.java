@@ -8,8 +8,18 @@ import static org.geoserver.wms.map.quantize.ColorUtils.*;
 
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
 
@@ -19,224 +29,247 @@ import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
  * shift on each color component in order to reduce the unique color count. Most vector maps with
  * alpha channel and antialiasing don't actually need the shift, but satellite and aerial imagery
  * often does
- * 
+ * <p>
+ * Large images are scanned in parallel, split in horizontal stripes, each worker accumulating its
+ * own color map, which are then merged. The histogram itself is kept in primitive arrays, sorted
+ * as packed <code>long</code> keys, to avoid allocating an object per color.
+ * </p>
+ *
  * @author Andrea Aime - GeoSolutions
- * 
+ *
  */
 class PackedHistogram {
 
+    static final Logger LOGGER = Logger.getLogger("Quantizer");
+
     static final int ALPHA_THRESHOLD = 5;
 
     /**
-     * An entry in the histogram
+     * Images with less pixels than this are scanned by the calling thread alone
      */
-    static final class HistogramBin {
-        int color;
-
-        long count;
-
-        public HistogramBin(int color, long count) {
-            this.color = color;
-            this.count = count;
-        }
-
-    }
+    static final int PARALLEL_THRESHOLD = 512 * 512;
 
     /**
-     * Compares two colors based on a specific color component (determined by the subclass)
+     * The number of pixels scanned by a single work unit, roughly
      */
-    static abstract class ColorComparator implements Comparator<HistogramBin> {
-
-        @Override
-        public int compare(HistogramBin p1, HistogramBin p2) {
-            int c1 = getComponent(p1);
-            int c2 = getComponent(p2);
-            if (c1 != c2) {
-                return c1 - c2;
-            } else {
-                return compareLong(p1.count, p2.count);
-            }
-        }
+    static final int STRIPE_PIXELS = 128 * 1024;
 
-        abstract protected int getComponent(HistogramBin p2);
-
-    }
+    /**
+     * The default number of workers scanning a large image
+     */
+    static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
 
     /**
-     * Enumerates the comparators for the various color components
+     * Enumerates the color components the histogram can be sorted on
      */
     public enum SortComponent {
-        Red(new ColorComparator() {
-
-            @Override
-            protected final int getComponent(HistogramBin pe) {
-                return red(pe.color);
-            }
-
-        }), Green(new ColorComparator() {
-
-            @Override
-            protected final int getComponent(HistogramBin pe) {
-                return green(pe.color);
-            }
+        Red(16), Green(8), Blue(0), Alpha(24);
 
-        }), Blue(new ColorComparator() {
+        final int bitShift;
 
-            @Override
-            protected final int getComponent(HistogramBin pe) {
-                return blue(pe.color);
-            }
-
-        }), Alpha(new ColorComparator() {
-
-            @Override
-            protected final int getComponent(HistogramBin pe) {
-                return alpha(pe.color);
-            }
-
-        });
-
-        ColorComparator comparator;
+        private SortComponent(int bitShift) {
+            this.bitShift = bitShift;
+        }
 
-        private SortComponent(ColorComparator comparator) {
-            this.comparator = comparator;
+        final int getComponent(int color) {
+            return (color >> bitShift) & 0xFF;
         }
     };
 
     private int shift = 0;
 
-    private HistogramBin[] histogram;
+    /**
+     * The packed colors
+     */
+    private int[] colors;
+
+    /**
+     * The pixel count of each color
+     */
+    private int[] counts;
 
-    ColorMap colorMap;
+    /**
+     * Scratch areas used when sorting
+     */
+    private long[] keys;
+
+    private int[] sorted;
 
     PackedHistogram(RenderedImage image, int stepX, int stepY) {
-        // build a reduced map of the colors
-        colorMap = new ColorMap();
-
-        final int minX = image.getMinTileX();
-        final int maxX = minX + image.getNumXTiles();
-        final int minY = image.getMinTileY();
-        final int maxY = minY + image.getNumYTiles();
-        this.shift = 0;
-        for (int x = minX; x < maxX; x++) {
-            for (int y = minY; y < maxY; y++) {
-                Raster tile = image.getTile(x, y);
-                shift = updateColorMap(image, tile, colorMap, shift, stepX, stepY);
-            }
-        }
+        this(image, stepX, stepY, null, 1);
+    }
 
-        // turn it into an array for indexed access and reduced memory consumption
-        histogram = new HistogramBin[colorMap.size()];
+    /**
+     * Builds the histogram, scanning large images with up to <code>parallelism</code> workers.
+     * The calling thread always takes part in the scan, so a busy executor only makes the scan
+     * less parallel, never blocks it. A null executor means a serial scan.
+     */
+    PackedHistogram(RenderedImage image, int stepX, int stepY, ExecutorService executor,
+            int parallelism) {
+        List<Stripe> stripes = getStripes(image, stepX, stepY);
+        long pixels = (long) image.getWidth() * image.getHeight() / (stepX * stepY);
+        int workers = pixels < PARALLEL_THRESHOLD || executor == null ? 1 : Math.min(
+                parallelism, stripes.size());
+
+        Partial partial = scan(image, stripes, stepX, stepY, executor, workers);
+        this.shift = partial.shift;
+
+        // turn it into sorted arrays for indexed access and reduced memory consumption. The
+        // colors are sorted so that the median cut does not depend on the color map iteration
+        // order, which depends on the order the colors were added
+        ColorMap colorMap = partial.colorMap;
+        int size = colorMap.size();
+        keys = new long[size];
         int i = 0;
         for (ColorEntry ce : colorMap) {
-            histogram[i++] = new HistogramBin(ce.color, ce.value);
+            keys[i++] = ((ce.color & 0xFFFFFFFFL) << 32) | ce.value;
+        }
+        Arrays.sort(keys);
+        colors = new int[size];
+        counts = new int[size];
+        sorted = new int[size];
+        for (i = 0; i < size; i++) {
+            colors[i] = (int) (keys[i] >>> 32);
+            counts[i] = (int) keys[i];
         }
-        // System.out.println("Histogram stats");
-        // colorMap.printStats();
     }
 
-    private int updateColorMap(RenderedImage image, Raster tile, ColorMap colorMap, int shift,
-            int stepX, int stepY) {
-        final int minX = Math.max(tile.getMinX(), image.getMinX());
-        final int maxX = Math.min(tile.getWidth() + tile.getMinX(),
-                image.getMinX() + image.getWidth());
-        final int minY = Math.max(tile.getMinY(), image.getMinY());
-        final int maxY = Math.min(tile.getHeight() + tile.getMinY(),
-                image.getMinY() + image.getHeight());
-        int bands = tile.getNumBands();
-        int[] pixel = new int[bands];
-        for (int x = minX; x < maxX; x += stepX) {
-            for (int y = minY; y < maxY; y += stepY) {
-                // grab the pixel and the color
-                tile.getPixel(x, y, pixel);
-                int red, green, blue, alpha;
-
-                if(bands == 1 || bands == 2) {
-                    red = green = blue = pixel[0];
-                    alpha = bands == 2 ? pixel[1] : 255;
-                } else  {
-                    red = pixel[0];
-                    green = pixel[1];
-                    blue = pixel[2];
-                    alpha = bands == 4 ? pixel[3] : 255;
+    /**
+     * Splits the image in stripes, each within a single tile
+     */
+    List<Stripe> getStripes(RenderedImage image, int stepX, int stepY) {
+        List<Stripe> stripes = new ArrayList<Stripe>();
+        final int minTileX = image.getMinTileX();
+        final int maxTileX = minTileX + image.getNumXTiles();
+        final int minTileY = image.getMinTileY();
+        final int maxTileY = minTileY + image.getNumYTiles();
+        for (int tx = minTileX; tx < maxTileX; tx++) {
+            for (int ty = minTileY; ty < maxTileY; ty++) {
+                int minX = Math.max(image.getMinX(), image.getTileGridXOffset() + tx
+                        * image.getTileWidth());
+                int maxX = Math.min(image.getMinX() + image.getWidth(),
+                        image.getTileGridXOffset() + (tx + 1) * image.getTileWidth());
+                int minY = Math.max(image.getMinY(), image.getTileGridYOffset() + ty
+                        * image.getTileHeight());
+                int maxY = Math.min(image.getMinY() + image.getHeight(),
+                        image.getTileGridYOffset() + (ty + 1) * image.getTileHeight());
+                if (maxX <= minX || maxY <= minY) {
+                    continue;
                 }
 
-                // normalize colors with very low alpha = 0 to just one
-                if (alpha <= ALPHA_THRESHOLD) {
-                    red = 255;
-                    green = 255;
-                    blue = 255;
-                    alpha = 0;
+                // the number of rows in a stripe is a multiple of the row step, so that every
+                // stripe scans the same rows as a single scan of the tile would
+                int rows = Math.max(1, STRIPE_PIXELS / (maxX - minX));
+                rows = Math.max(stepY, rows - rows % stepY);
+                for (int y = minY; y < maxY; y += rows) {
+                    stripes.add(new Stripe(tx, ty, minX, maxX, y, Math.min(maxY, y + rows)));
                 }
+            }
+        }
+        return stripes;
+    }
 
-                if (shift > 0) {
-                    red = shift(red, shift);
-                    green = shift(green, shift);
-                    blue = shift(blue, shift);
-                    alpha = shift(alpha, shift);
+    /**
+     * Scans the stripes with the given number of workers, the calling thread being one of them,
+     * and merges their color maps
+     */
+    Partial scan(final RenderedImage image, final List<Stripe> stripes, final int stepX,
+            final int stepY, ExecutorService executor, int workers) {
+        final AtomicInteger next = new AtomicInteger();
+        List<Helper> helpers = new ArrayList<Helper>();
+        for (int i = 1; i < workers; i++) {
+            Helper helper = new Helper() {
+
+                @Override
+                Partial scan() {
+                    return PackedHistogram.this.scan(image, stripes, next, stepX, stepY);
                 }
-                colorMap.increment(red, green, blue, alpha);
+            };
+            try {
+                helper.future = executor.submit(helper);
+            } catch (RejectedExecutionException e) {
+                // shutting down, the calling thread will do the work
+                break;
+            }
+            helpers.add(helper);
+        }
 
-                if (colorMap.size() > Short.MAX_VALUE) {
-                    shift++;
-                    shiftColorMap(colorMap);
-                }
+        Partial result = scan(image, stripes, next, stepX, stepY);
+        for (Helper helper : helpers) {
+            // if the helper did not start yet, the work is done already, don't wait for it
+            if (helper.started.compareAndSet(false, true)) {
+                helper.future.cancel(false);
+                continue;
+            }
+            try {
+                result.merge(helper.future.get());
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while building the color histogram", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to build the color histogram", e.getCause());
             }
         }
 
-        return shift;
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Scanned " + stripes.size() + " stripes with " + workers + " workers");
+        }
+        return result;
     }
 
     /**
-     * Shifts every color in the map by one more bit and repacks the color map accordingly
-     * 
-     * @param colorMap
+     * A scan run by a pool thread. The pool might be busy, so the calling thread takes over the
+     * helpers that did not start in time (a running task cannot be told apart from a queued one
+     * by its {@link Future} alone)
      */
-    private void shiftColorMap(ColorMap colorMap) {
-        ColorMap shifted = new ColorMap();
-        for (ColorEntry entry : colorMap) {
-            int color = entry.color;
-            int count = entry.value;
-            int alpha = shift(alpha(color), 1);
-            int red = shift(red(color), 1);
-            int green = shift(green(color), 1);
-            int blue = shift(blue(color), 1);
+    static abstract class Helper implements Callable<Partial> {
+        final AtomicBoolean started = new AtomicBoolean();
 
-            shifted.increment(red, green, blue, alpha, count);
-        }
+        Future<Partial> future;
 
-        assert countPixels(colorMap) == countPixels(shifted);
+        @Override
+        public Partial call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                return null;
+            }
+            return scan();
+        }
 
-        colorMap.reset(shifted);
+        abstract Partial scan();
     }
 
-    private long countPixels(ColorMap colorMap) {
-        long sum = 0;
-        for (ColorEntry entry : colorMap) {
-            sum += entry.value;
+    /**
+     * Scans stripes until there are none left
+     */
+    Partial scan(RenderedImage image, List<Stripe> stripes, AtomicInteger next, int stepX,
+            int stepY) {
+        Partial partial = new Partial();
+        int i;
+        while ((i = next.getAndIncrement()) < stripes.size()) {
+            Stripe s = stripes.get(i);
+            Raster tile = image.getTile(s.tileX, s.tileY);
+            partial.add(tile, s, stepX, stepY);
         }
-
-        return sum;
+        return partial;
     }
 
     public int size() {
-        return histogram.length;
+        return colors.length;
     }
 
     long pixelCount() {
         long count = 0;
-        for (HistogramBin bin : histogram) {
-            count += bin.count;
+        for (int c : counts) {
+            count += c;
         }
         return count;
     }
 
     public int getPackedColor(int i) {
-        return histogram[i].color;
+        return colors[i];
     }
 
     public int getColor(int i) {
-        int color = histogram[i].color;
+        int color = colors[i];
         if (shift > 0) {
             int alpha = unshift(alpha(color), shift);
             int red = unshift(red(color), shift);
@@ -248,11 +281,35 @@ class PackedHistogram {
     }
 
     public long getCount(int i) {
-        return histogram[i].count;
+        return counts[i];
     }
 
+    /**
+     * Sorts the colors between start (inclusive) and end (exclusive) on the specified component,
+     * and then on the pixel count. The sort is stable.
+     */
     public void sort(int start, int end, SortComponent sort) {
-        Arrays.sort(histogram, start, end, sort.comparator);
+        final int length = end - start;
+        if (length < 2) {
+            return;
+        }
+
+        // pack the component, the count and the position in a single long, 8 + 31 + 16 bits
+        // (the histogram never holds more than Short.MAX_VALUE colors)
+        for (int i = 0; i < length; i++) {
+            int color = colors[start + i];
+            keys[i] = ((long) sort.getComponent(color) << 47) | ((long) counts[start + i] << 16)
+                    | i;
+        }
+        Arrays.sort(keys, 0, length);
+
+        // apply the permutation
+        for (int i = 0; i < length; i++) {
+            int source = start + (int) (keys[i] & 0xFFFF);
+            sorted[i] = colors[source];
+            counts[start + i] = (int) ((keys[i] >>> 16) & 0x7FFFFFFF);
+        }
+        System.arraycopy(sorted, 0, colors, start, length);
     }
 
     public int getShift() {
@@ -260,7 +317,156 @@ class PackedHistogram {
     }
 
     public void clear() {
-        histogram = null;
+        colors = null;
+        counts = null;
+        keys = null;
+        sorted = null;
+    }
+
+    /**
+     * A horizontal stripe of a tile
+     */
+    static final class Stripe {
+        final int tileX;
+
+        final int tileY;
+
+        final int minX;
+
+        final int maxX;
+
+        final int minY;
+
+        final int maxY;
+
+        Stripe(int tileX, int tileY, int minX, int maxX, int minY, int maxY) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+        }
+    }
+
+    /**
+     * The color map accumulated by a single worker, along with the shift it had to apply
+     */
+    static final class Partial {
+        ColorMap colorMap = new ColorMap();
+
+        int shift;
+
+        int[] row;
+
+        void add(Raster tile, Stripe s, int stepX, int stepY) {
+            final int width = s.maxX - s.minX;
+            final int bands = tile.getNumBands();
+            if (row == null || row.length < width * bands) {
+                row = new int[width * bands];
+            }
+            final int pixelStep = stepX * bands;
+            final int end = width * bands;
+            for (int y = s.minY; y < s.maxY; y += stepY) {
+                // grab a whole row at a time, much cheaper than pixel by pixel
+                tile.getPixels(s.minX, y, width, 1, row);
+                for (int p = 0; p < end; p += pixelStep) {
+                    int red, green, blue, alpha;
+                    if (bands == 1 || bands == 2) {
+                        red = green = blue = row[p];
+                        alpha = bands == 2 ? row[p + 1] : 255;
+                    } else {
+                        red = row[p];
+                        green = row[p + 1];
+                        blue = row[p + 2];
+                        alpha = bands == 4 ? row[p + 3] : 255;
+                    }
+
+                    // normalize colors with very low alpha = 0 to just one
+                    if (alpha <= ALPHA_THRESHOLD) {
+                        red = 255;
+                        green = 255;
+                        blue = 255;
+                        alpha = 0;
+                    }
+
+                    if (shift > 0) {
+                        red = shift(red, shift);
+                        green = shift(green, shift);
+                        blue = shift(blue, shift);
+                        alpha = shift(alpha, shift);
+                    }
+                    colorMap.increment(red, green, blue, alpha);
+
+                    if (colorMap.size() > Short.MAX_VALUE) {
+                        shift++;
+                        shiftColorMap(colorMap);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the counts of another partial color map to this one, bringing both to the same
+         * shift first
+         */
+        void merge(Partial other) {
+            if (other.colorMap.size() > colorMap.size()) {
+                // merge the smaller into the larger
+                ColorMap cm = colorMap;
+                int s = shift;
+                colorMap = other.colorMap;
+                shift = other.shift;
+                other.colorMap = cm;
+                other.shift = s;
+            }
+            while (shift < other.shift) {
+                shift++;
+                shiftColorMap(colorMap);
+            }
+            for (ColorEntry entry : other.colorMap) {
+                int delta = shift - other.shift;
+                int color = entry.color;
+                colorMap.increment(shift(red(color), delta), shift(green(color), delta),
+                        shift(blue(color), delta), shift(alpha(color), delta), entry.value);
+                if (colorMap.size() > Short.MAX_VALUE) {
+                    shift++;
+                    shiftColorMap(colorMap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shifts every color in the map by one more bit and repacks the color map accordingly
+     *
+     * @param colorMap
+     */
+    static void shiftColorMap(ColorMap colorMap) {
+        ColorMap shifted = new ColorMap();
+        for (ColorEntry entry : colorMap) {
+            int color = entry.color;
+            int count = entry.value;
+            int alpha = shift(alpha(color), 1);
+            int red = shift(red(color), 1);
+            int green = shift(green(color), 1);
+            int blue = shift(blue(color), 1);
+
+            shifted.increment(red, green, blue, alpha, count);
+        }
+
+        assert countPixels(colorMap) == countPixels(shifted);
+
+        colorMap.reset(shifted);
+    }
+
+    static long countPixels(ColorMap colorMap) {
+        long sum = 0;
+        for (ColorEntry entry : colorMap) {
+            sum += entry.value;
+        }
+
+        return sum;
     }
 
 }
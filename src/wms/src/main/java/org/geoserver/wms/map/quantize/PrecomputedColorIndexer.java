@@ -0,0 +1,123 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.geoserver.wms.map.quantize.ColorUtils.*;
+
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Maps colors to the palette through a table precomputed from the histogram used to build the
+ * palette. When there is no subsampling every color found in the image can be also found in the
+ * table, so the lookup is a single probe in a primitive open addressing hash table.
+ * <p>
+ * The table is read only, so lookups do not need any synchronization and can be performed by
+ * many threads computing tiles at the same time. Colors missing from the table are searched in the
+ * palette and cached in a separate, synchronized color map.
+ * </p>
+ */
+public class PrecomputedColorIndexer implements ColorIndexer {
+
+    /**
+     * The value of an empty slot
+     */
+    static final short EMPTY = -1;
+
+    int shift;
+
+    int mask;
+
+    int[] keys;
+
+    /**
+     * The palette index associated to the key, or {@link #EMPTY}
+     */
+    short[] values;
+
+    SimpleColorIndexer delegate;
+
+    ColorMap misses = new ColorMap(64);
+
+    /**
+     * Builds a new {@link PrecomputedColorIndexer}
+     *
+     * @param colors The target palette
+     * @param packedColors The colors of the histogram, shifted
+     * @param indexes The palette index of each histogram color
+     * @param shift The bit shift applied while building the histogram
+     */
+    public PrecomputedColorIndexer(byte[][] colors, int[] packedColors, int[] indexes, int shift) {
+        this.delegate = new SimpleColorIndexer(colors);
+        this.shift = shift;
+
+        // keep the load factor under 0.5, probing sequences stay short
+        int capacity = 16;
+        while (capacity < packedColors.length * 2) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.keys = new int[capacity];
+        this.values = new short[capacity];
+        Arrays.fill(values, EMPTY);
+        for (int i = 0; i < packedColors.length; i++) {
+            int slot = slot(packedColors[i]);
+            keys[slot] = packedColors[i];
+            values[slot] = (short) indexes[i];
+        }
+    }
+
+    /**
+     * Returns the slot holding the color, or the empty slot where it would go
+     */
+    int slot(int color) {
+        int h = color * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (values[slot] != EMPTY && keys[slot] != color) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    public IndexColorModel toIndexColorModel() {
+        return delegate.toIndexColorModel();
+    }
+
+    public int getClosestIndex(int r, int g, int b, int a) {
+        int sr = r;
+        int sg = g;
+        int sb = b;
+        int sa = a;
+        // same normalization as the histogram, before the shift
+        if (a <= PackedHistogram.ALPHA_THRESHOLD) {
+            sr = 255;
+            sg = 255;
+            sb = 255;
+            sa = 0;
+        }
+        if (shift > 0) {
+            sr = sr >> shift;
+            sg = sg >> shift;
+            sb = sb >> shift;
+            sa = sa >> shift;
+        }
+
+        int slot = slot(color(sr, sg, sb, sa));
+        short value = values[slot];
+        if (value != EMPTY) {
+            return value;
+        }
+
+        synchronized (misses) {
+            int idx = misses.get(sr, sg, sb, sa);
+            if (idx < 0) {
+                idx = delegate.getClosestIndex(r, g, b, a) & 0xFF;
+                misses.put(sr, sg, sb, sa, idx);
+            }
+            return idx;
+        }
+    }
+
+}
@@ -12,10 +12,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
 import org.geoserver.wms.map.quantize.PackedHistogram.SortComponent;
 
 /**
@@ -36,9 +36,19 @@ public class Quantizer {
 
     int maxColors;
 
+    ExecutorService executor;
+
     public Quantizer(int maxColors) {
         this.maxColors = maxColors;
     }
+
+    /**
+     * Scans large images in parallel, with the help of the executor threads
+     */
+    public Quantizer executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
     
     /**
      * Enables logarithmic subsampling
@@ -63,7 +73,8 @@ public class Quantizer {
             subsx = 1;
             subsy = 1;
         }
-        PackedHistogram histogram = new PackedHistogram(image, subsx, subsy);
+        PackedHistogram histogram = new PackedHistogram(image, subsx, subsy, executor,
+                PackedHistogram.PARALLELISM);
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Found " + histogram.size() + " unique colors with shift "
                     + histogram.getShift());
@@ -204,11 +215,13 @@ public class Quantizer {
             rgba[3][i] = pe.a;
         }
 
-        // prepare the reverse map
+        // prepare the reverse map, from every color in the histogram to its palette entry
         ColorIndexer simpleMapper = new SimpleColorIndexer(rgba);
-        ColorMap colorMap = histogram.colorMap;
-        for (ColorEntry ce : colorMap) {
-            int color = ce.color;
+        final int size = histogram.size();
+        int[] packedColors = new int[size];
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            int color = histogram.getPackedColor(i);
             int r = red(color);
             int g = green(color);
             int b = blue(color);
@@ -219,14 +232,14 @@ public class Quantizer {
                 b = unshift(b, shift);
                 a = unshift(a, shift);
             }
-            int idx = simpleMapper.getClosestIndex(r, g, b, a) & 0xFF;
-            ce.value = idx;
+            packedColors[i] = color;
+            indexes[i] = simpleMapper.getClosestIndex(r, g, b, a) & 0xFF;
         }
 
         // dumpPalette(rgba);
 
-        ColorIndexer delegate = new MappedColorIndexer(rgba, colorMap, shift);
-        return new CachingColorIndexer(delegate);
+        // read only lookup table, no need for the synchronized caching wrapper
+        return new PrecomputedColorIndexer(rgba, packedColors, indexes, shift);
     }
 
     /**
@@ -0,0 +1,57 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Holds the pool of threads helping the {@link Quantizer} scan large images in parallel, see
+ * {@link Quantizer#executor(ExecutorService)}. The pool is created on first use and shut down
+ * along with the application context.
+ * 
+ * @author Andrea Aime - GeoSolutions
+ */
+public class QuantizerExecutor implements DisposableBean {
+
+    private ExecutorService executor;
+
+    private boolean destroyed;
+
+    /**
+     * Returns the histogram worker pool, or null if the application is shutting down
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (destroyed) {
+            return null;
+        }
+        if (executor == null) {
+            // the calling thread always takes part in the scan
+            int threads = Math.max(1, PackedHistogram.PARALLELISM - 1);
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setNameFormat("Quantizer histogram worker %d").setDaemon(true).build());
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the pool, the scans in progress complete on their calling threads
+     */
+    public void destroy() throws Exception {
+        ExecutorService executor;
+        synchronized (this) {
+            destroyed = true;
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
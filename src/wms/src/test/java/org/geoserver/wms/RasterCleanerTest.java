@@ -0,0 +1,43 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class RasterCleanerTest extends WMSTestSupport {
+
+    @Test
+    public void testTiledRequestOnRenderingPool() throws Exception {
+        RenderingExecutor executor = getWMS().getRenderingExecutor();
+        // a single thread, so that we can look at its thread locals afterwards
+        executor.configure(1, 10);
+        try {
+            getAsImage("wms?LAYERS=cite%3ALakes&STYLES=&FORMAT=image%2Fpng&TILED=true"
+                    + "&TILESORIGIN=0.0006%2C-0.0018&SERVICE=WMS&VERSION=1.1.1&REQUEST=GetMap"
+                    + "&SRS=EPSG%3A4326&BBOX=0.0006,-0.0018,0.0031,0.0007&WIDTH=256&HEIGHT=256",
+                    "image/png");
+
+            executor.execute(new Callable<Object>() {
+                public Object call() throws Exception {
+                    assertTrue(Thread.currentThread().getName().startsWith("WMSRendering-"));
+                    assertEmpty(RasterCleaner.images.get());
+                    assertEmpty(RasterCleaner.coverages.get());
+                    return null;
+                }
+            });
+        } finally {
+            executor.configure(WMS.RENDERING_POOL_SIZE_DEFAULT, WMS.RENDERING_QUEUE_SIZE_DEFAULT);
+        }
+    }
+
+    void assertEmpty(List<?> list) {
+        assertTrue(list == null || list.isEmpty());
+    }
+}
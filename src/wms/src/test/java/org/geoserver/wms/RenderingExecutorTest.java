@@ -0,0 +1,176 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.RenderingExecutor.RenderingStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class RenderingExecutorTest {
+
+    RenderingExecutor executor;
+
+    Request request;
+
+    @Before
+    public void setUp() {
+        executor = new RenderingExecutor();
+        request = new Request();
+        request.setHttpRequest(new MockHttpServletRequest());
+        Dispatcher.REQUEST.set(request);
+    }
+
+    @After
+    public void tearDown() {
+        Dispatcher.REQUEST.remove();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testInline() throws Exception {
+        final Thread caller = Thread.currentThread();
+        String result = executor.execute(new Callable<String>() {
+            public String call() throws Exception {
+                assertSame(caller, Thread.currentThread());
+                return "result";
+            }
+        });
+        assertEquals("result", result);
+        assertEquals(1, executor.getSubmittedCount());
+        assertEquals(1, executor.getCompletedCount());
+        assertEquals(0, executor.getActiveRenders());
+
+        RenderingStats stats = RenderingExecutor.getRequestStats(request.getHttpRequest());
+        assertNotNull(stats);
+        assertEquals(1, stats.getCount());
+        assertEquals(0, stats.getQueueTime());
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        executor.configure(2, 10);
+        final Thread caller = Thread.currentThread();
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Callable<Object>() {
+                public Object call() throws Exception {
+                    assertFalse(caller == Thread.currentThread());
+                    assertTrue(Thread.currentThread().getName().startsWith("WMSRendering-"));
+                    // the request is available to the rendering thread
+                    assertSame(request, Dispatcher.REQUEST.get());
+                    return null;
+                }
+            });
+        }
+        assertEquals(2, executor.getPoolSize());
+        assertEquals(3, executor.getCompletedCount());
+        assertEquals(3, RenderingExecutor.getRequestStats(request.getHttpRequest()).getCount());
+    }
+
+    @Test
+    public void testNested() throws Exception {
+        executor.configure(1, 0);
+        executor.execute(new Callable<Object>() {
+            public Object call() throws Exception {
+                // would deadlock if submitted to the single thread pool
+                return executor.execute(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return null;
+                    }
+                });
+            }
+        });
+        assertEquals(1, executor.getCompletedCount());
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        executor.configure(1, 10);
+        try {
+            executor.execute(new Callable<Object>() {
+                public Object call() throws Exception {
+                    throw new ServiceException("failed", "code");
+                }
+            });
+            fail("Should have thrown the service exception");
+        } catch (ServiceException e) {
+            assertEquals("code", e.getCode());
+        }
+
+        try {
+            executor.execute(new Callable<Object>() {
+                public Object call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail("Should have wrapped the checked exception");
+        } catch (ServiceException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(2, executor.getCompletedCount());
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        executor.configure(1, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> busy = requests.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return executor.execute(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            started.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            return null;
+                        }
+                    });
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(1, executor.getActiveRenders());
+
+            try {
+                executor.execute(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return null;
+                    }
+                });
+                fail("The rendering thread is busy and the queue has no room");
+            } catch (HttpErrorCodeException e) {
+                assertEquals(503, e.getErrorCode());
+            }
+            assertEquals(1, executor.getRejectedCount());
+            assertTrue(RenderingExecutor.getRequestStats(request.getHttpRequest()).isRejected());
+
+            release.countDown();
+            busy.get();
+        } finally {
+            requests.shutdown();
+        }
+    }
+}
@@ -7,33 +7,48 @@ package org.geoserver.wms.capabilities;
 import static junit.framework.Assert.*;
 import static org.custommonkey.xmlunit.XMLAssert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.custommonkey.xmlunit.SimpleNamespaceContext;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.custommonkey.xmlunit.XpathEngine;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.Keyword;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.config.ContactInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ResourceErrorHandling;
 import org.geoserver.config.impl.ContactInfoImpl;
 import org.geoserver.config.impl.GeoServerImpl;
 import org.geoserver.config.impl.GeoServerInfoImpl;
+import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.wms.ExtendedCapabilitiesProvider;
 import org.geoserver.wms.GetCapabilitiesRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSInfoImpl;
 import org.geoserver.wms.WMSTestSupport;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -49,6 +64,11 @@ import org.xml.sax.helpers.NamespaceSupport;
  */
 public class GetCapabilitiesTransformerTest {
 
+    static final String SLD = "<StyledLayerDescriptor version=\"1.0.0\" "
+            + "xmlns=\"http://www.opengis.net/sld\"><NamedLayer><Name>raster</Name><UserStyle>"
+            + "<Title>raster</Title><FeatureTypeStyle><Rule><RasterSymbolizer/></Rule>"
+            + "</FeatureTypeStyle></UserStyle></NamedLayer></StyledLayerDescriptor>";
+
     private XpathEngine XPATH;
 
     /** default base url to feed a GetCapabilitiesTransformer with for it to append the DTD location */
@@ -89,6 +109,11 @@ public class GetCapabilitiesTransformerTest {
 
     private WMS wmsConfig;
 
+    /**
+     * the data directory of the raster layers, if any
+     */
+    private File data;
+
     /**
      * Sets up the configuration objects with default values. Since they're live, specific tests can
      * modify their state before running the assertions
@@ -118,6 +143,13 @@ public class GetCapabilitiesTransformerTest {
         XPATH = XMLUnit.newXpathEngine();
     }
 
+    @After
+    public void tearDown() throws Exception {
+        if (data != null) {
+            FileUtils.deleteQuietly(data);
+        }
+    }
+
     @Test
     public void testHeader() throws Exception {
         GetCapabilitiesTransformer tr;
@@ -298,4 +330,126 @@ public class GetCapabilitiesTransformerTest {
                         dom);
         assertEquals(1, list.getLength());
     }
+
+    @Test
+    public void testLayerOrderAndVisibility() throws Exception {
+        CoverageStoreInfo store = createRasterStore();
+        NamespaceInfo ns = catalog.getNamespaceByPrefix("test");
+        StyleInfo style = catalog.getStyleByName("raster");
+
+        // added out of order, the layers are listed by name
+        addLayer(ns, store, style, "charlie", true, true);
+        addLayer(ns, store, style, "alpha", true, true);
+        addLayer(ns, store, style, "bravo", true, true);
+        // these are filtered out by the catalog query
+        addLayer(ns, store, style, "disabled", false, true);
+        addLayer(ns, store, style, "hidden", true, false);
+
+        GetCapabilitiesTransformer tr = new GetCapabilitiesTransformer(wmsConfig, baseUrl,
+                mapFormats, legendFormats, null);
+        Document dom = WMSTestSupport.transform(req, tr);
+        NodeList names = XPATH.getMatchingNodes(
+                "/WMT_MS_Capabilities/Capability/Layer/Layer/Name", dom);
+        assertEquals(3, names.getLength());
+        assertEquals("test:alpha", names.item(0).getTextContent());
+        assertEquals("test:bravo", names.item(1).getTextContent());
+        assertEquals("test:charlie", names.item(2).getTextContent());
+    }
+
+    @Test
+    public void testManyLayers() throws Exception {
+        CoverageStoreInfo store = createRasterStore();
+        NamespaceInfo ns = catalog.getNamespaceByPrefix("test");
+        StyleInfo style = catalog.getStyleByName("raster");
+
+        // spread over a grid, so that the root bounds have to be computed out of all of them
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 400; i++) {
+            double x = -180 + (i % 360);
+            double y = -90 + i / 360;
+            addLayer(ns, store, style, "layer" + i, true, true, new ReferencedEnvelope(x, x + 1,
+                    y, y + 1, DefaultGeographicCRS.WGS84));
+            expected.add("test:layer" + i);
+        }
+        Collections.sort(expected);
+
+        GetCapabilitiesTransformer tr = new GetCapabilitiesTransformer(wmsConfig, baseUrl,
+                mapFormats, legendFormats, null);
+        Document dom = WMSTestSupport.transform(req, tr);
+        NodeList names = XPATH.getMatchingNodes(
+                "/WMT_MS_Capabilities/Capability/Layer/Layer/Name", dom);
+        List<String> actual = new ArrayList<String>();
+        for (int i = 0; i < names.getLength(); i++) {
+            actual.add(names.item(i).getTextContent());
+        }
+        assertEquals(expected, actual);
+
+        String bbox = "/WMT_MS_Capabilities/Capability/Layer/LatLonBoundingBox/";
+        assertEquals(-180, Double.parseDouble(XPATH.evaluate(bbox + "@minx", dom)), 0d);
+        assertEquals(-90, Double.parseDouble(XPATH.evaluate(bbox + "@miny", dom)), 0d);
+        assertEquals(180, Double.parseDouble(XPATH.evaluate(bbox + "@maxx", dom)), 0d);
+        assertEquals(-88, Double.parseDouble(XPATH.evaluate(bbox + "@maxy", dom)), 0d);
+    }
+
+    /**
+     * Adds a workspace, a raster style and a coverage store to the catalog, all named "test"
+     */
+    CoverageStoreInfo createRasterStore() throws IOException {
+        data = File.createTempFile("capabilities", "data", new File("./target"));
+        data.delete();
+        FileUtils.writeStringToFile(new File(data, "styles/raster.sld"), SLD, "UTF-8");
+        catalog.setResourceLoader(new GeoServerResourceLoader(data));
+        geosInfo.setResourceErrorHandling(ResourceErrorHandling.SKIP_MISCONFIGURED_LAYERS);
+
+        CatalogFactory factory = catalog.getFactory();
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("test");
+        catalog.add(ws);
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix("test");
+        ns.setURI("http://geoserver.org/test");
+        catalog.add(ns);
+        StyleInfo style = factory.createStyle();
+        style.setName("raster");
+        style.setFilename("raster.sld");
+        catalog.add(style);
+        CoverageStoreInfo store = factory.createCoverageStore();
+        store.setName("store");
+        store.setType("GeoTIFF");
+        store.setWorkspace(ws);
+        store.setEnabled(true);
+        store.setURL("file:data/test.tiff");
+        catalog.add(store);
+        return store;
+    }
+
+    void addLayer(NamespaceInfo ns, CoverageStoreInfo store, StyleInfo style, String name,
+            boolean enabled, boolean advertised) {
+        addLayer(ns, store, style, name, enabled, advertised, new ReferencedEnvelope(0, 1, 0, 1,
+                DefaultGeographicCRS.WGS84));
+    }
+
+    void addLayer(NamespaceInfo ns, CoverageStoreInfo store, StyleInfo style, String name,
+            boolean enabled, boolean advertised, ReferencedEnvelope bounds) {
+        CatalogFactory factory = catalog.getFactory();
+        CoverageInfo coverage = factory.createCoverage();
+        coverage.setName(name);
+        coverage.setNativeName(name);
+        coverage.setTitle(name);
+        coverage.setNamespace(ns);
+        coverage.setStore(store);
+        coverage.setSRS("EPSG:4326");
+        coverage.setNativeCRS(DefaultGeographicCRS.WGS84);
+        coverage.setNativeBoundingBox(bounds);
+        coverage.setLatLonBoundingBox(bounds);
+        catalog.add(coverage);
+
+        LayerInfo layer = factory.createLayer();
+        layer.setResource(coverage);
+        layer.setDefaultStyle(style);
+        layer.setEnabled(enabled);
+        layer.setAdvertised(advertised);
+        catalog.add(layer);
+    }
+
 }
@@ -0,0 +1,172 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetaTileCoalescerTest {
+
+    private MetaTileCoalescer coalescer;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        coalescer = new MetaTileCoalescer();
+        coalescer.setEnabled(true);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Renders the same key from several threads while the first rendering is blocked
+     */
+    private List<Future<Object>> renderConcurrently(final Object key, final int requests,
+            final Callable<Object> renderer) throws Exception {
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> blocking = new Callable<Object>() {
+            public Object call() throws Exception {
+                rendering.countDown();
+                release.await();
+                return renderer.call();
+            }
+        };
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        results.add(executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return coalescer.render(key, blocking);
+            }
+        }));
+        assertTrue(rendering.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < requests; i++) {
+            results.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return coalescer.render(key, blocking);
+                }
+            }));
+        }
+        // wait for the followers to join the rendering in progress
+        for (int i = 0; i < 500 && coalescer.getCoalescedCount() < requests - 1; i++) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        return results;
+    }
+
+    @Test
+    public void testSharedRendering() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        List<Future<Object>> results = renderConcurrently("meta", 5, new Callable<Object>() {
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                return new Object();
+            }
+        });
+        Object first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<Object> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getRenderCount());
+        assertEquals(4, coalescer.getCoalescedCount());
+        assertEquals(0.8, coalescer.getCoalescedRate(), 1e-9);
+        assertEquals(0, coalescer.getActiveRenders());
+
+        // once done, the next request renders again
+        coalescer.render("meta", new Callable<Object>() {
+            public Object call() throws Exception {
+                return calls.incrementAndGet();
+            }
+        });
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testDifferentKeys() throws Exception {
+        assertEquals("a", coalescer.render("a", new Callable<String>() {
+            public String call() throws Exception {
+                // a different meta-tile does not wait on this one
+                return "a" + coalescer.render("b", new Callable<String>() {
+                    public String call() throws Exception {
+                        return "";
+                    }
+                });
+            }
+        }));
+        assertEquals(2, coalescer.getRenderCount());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testSharedFailure() throws Exception {
+        List<Future<Object>> results = renderConcurrently("meta", 3, new Callable<Object>() {
+            public Object call() throws Exception {
+                throw new IOException("failed");
+            }
+        });
+        for (Future<Object> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the rendering failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(1, coalescer.getRenderCount());
+        assertEquals(3, coalescer.getFailureCount());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        coalescer.setEnabled(false);
+        final AtomicInteger calls = new AtomicInteger();
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        final CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            results.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return coalescer.render("meta", new Callable<Object>() {
+                        public Object call() throws Exception {
+                            started.countDown();
+                            // all three render at the same time
+                            started.await(5, TimeUnit.SECONDS);
+                            return calls.incrementAndGet();
+                        }
+                    });
+                }
+            }));
+        }
+        for (Future<Object> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(3, calls.get());
+        assertEquals(3, coalescer.getRenderCount());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+}
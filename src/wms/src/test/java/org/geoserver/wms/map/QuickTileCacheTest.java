@@ -5,10 +5,17 @@
 package org.geoserver.wms.map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.feature.NameImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -66,4 +73,54 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    @Test
+    public void testInvalidateLayer() {
+        MetaTileKey topp = key("topp", "states", 0);
+        MetaTileKey sf = key("sf", "roads", 0);
+        cache.storeTiles(topp, tiles());
+        cache.storeTiles(sf, tiles());
+        assertEquals(2, cache.getCount());
+        assertEquals(2 * 9 * 256 * 256 * 4, cache.getSize());
+
+        cache.invalidate(new NameImpl("http://sf", "states"));
+        assertEquals(2, cache.getCount());
+
+        cache.invalidate(new NameImpl("http://topp", "states"));
+        assertEquals(1, cache.getCount());
+        assertEquals(9 * 256 * 256 * 4, cache.getSize());
+
+        // no namespace, matches any
+        cache.invalidate(new NameImpl("roads"));
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        // room for eight meta tiles
+        QuickTileCache cache = new QuickTileCache(8 * 9 * 256 * 256 * 4);
+        for (int i = 0; i < 40; i++) {
+            cache.storeTiles(key("topp", "states", i), tiles());
+        }
+        assertTrue(cache.getCount() <= 8);
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertEquals(40 - cache.getCount(), cache.getEvictionCount());
+    }
+
+    MetaTileKey key(String prefix, String layer, int x) {
+        MapKey mapKey = new MapKey("layers=" + prefix + ":" + layer, 1, new Point2D.Double(0, 0));
+        MetaTileKey key = new MetaTileKey(mapKey, new Point(x * 3, 0), new ReferencedEnvelope(
+                x * 768, (x + 1) * 768, 0, 768, null));
+        key.layers.add(new NameImpl("http://" + prefix, layer));
+        return key;
+    }
+
+    RenderedImage[] tiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
 }
@@ -5,16 +5,28 @@
 package org.geoserver.wms.map;
 
 import static org.geoserver.data.test.SystemTestData.STREAMS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,7 +36,10 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.jai.RasterBufferPool;
+import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
 import org.geoserver.wms.GetMapRequest;
@@ -36,15 +51,21 @@ import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.IllegalAttributeException;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.IllegalFilterException;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
+import org.geotools.map.StyleLayer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
 import org.geotools.util.logging.Logging;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.opengis.filter.FilterFactory;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
 
@@ -299,6 +320,238 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         return image;
     }
 
+    @Test
+    public void testParallelRendering() throws Exception {
+        RenderedImageMap sequentialMap = rasterMapProducer.produceMap(buildMultiLayerMap());
+        BufferedImage sequential = (BufferedImage) sequentialMap.getImage();
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            RenderedImageMap parallelMap = new ParallelRasterMapProducer(getWMS(), pool, 3)
+                    .produceMap(buildMultiLayerMap());
+            BufferedImage parallel = (BufferedImage) parallelMap.getImage();
+            assertNotBlank("testParallelRendering", parallel);
+
+            // without antialiasing composing the layer buffers gives back the very same image
+            assertEquals(sequential.getWidth(), parallel.getWidth());
+            assertEquals(sequential.getHeight(), parallel.getHeight());
+            for (int x = 0; x < sequential.getWidth(); x++) {
+                for (int y = 0; y < sequential.getHeight(); y++) {
+                    assertEquals(sequential.getRGB(x, y), parallel.getRGB(x, y));
+                }
+            }
+            parallelMap.dispose();
+        } finally {
+            sequentialMap.dispose();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRenderingError() throws Exception {
+        final WMSMapContent map = buildMultiLayerMap();
+        final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(STREAMS.getNamespaceURI(),
+                STREAMS.getLocalPart());
+        DecoratingFeatureSource source = new DecoratingFeatureSource(
+                (SimpleFeatureSource) ftInfo.getFeatureSource(null, null)) {
+            @Override
+            public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+                throw new RuntimeException(new IOException("fake IO exception"));
+            }
+        };
+        map.addLayer(new FeatureLayer(source, getCatalog().getStyleByName("line").getStyle()));
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        ParallelRasterMapProducer producer = new ParallelRasterMapProducer(getWMS(), pool, 2);
+        producer.canvasPool = new RasterBufferPool(16 * 1024 * 1024);
+        try {
+            producer.produceMap(map);
+            fail("Expected ServiceException");
+        } catch (ServiceException e) {
+            // the buffer of the failed group went back to the pool
+            assertEquals(1, producer.canvasPool.getReleaseCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRenderingThreadLocals() throws Exception {
+        final WMSMapContent map = buildMultiLayerMap();
+        final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(STREAMS.getNamespaceURI(),
+                STREAMS.getLocalPart());
+        final List<WorkspaceInfo> workspaces = new ArrayList<WorkspaceInfo>();
+        SimpleFeatureSource featureSource = (SimpleFeatureSource) ftInfo.getFeatureSource(null,
+                null);
+        DecoratingFeatureSource source = new DecoratingFeatureSource(featureSource) {
+            @Override
+            public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+                workspaces.add(LocalWorkspace.get());
+                return super.getFeatures(query);
+            }
+        };
+        map.addLayer(new FeatureLayer(source, getCatalog().getStyleByName("line").getStyle()));
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        WorkspaceInfo workspace = ftInfo.getStore().getWorkspace();
+        LocalWorkspace.set(workspace);
+        try {
+            // the last layer is painted by the pool
+            new ParallelRasterMapProducer(getWMS(), pool, 2).produceMap(map).dispose();
+            assertFalse(workspaces.isEmpty());
+            for (WorkspaceInfo ws : workspaces) {
+                assertSame(workspace, ws);
+            }
+        } finally {
+            LocalWorkspace.remove();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRenderingCallerRuns() throws Exception {
+        final WMSMapContent map = buildMultiLayerMap();
+        final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(STREAMS.getNamespaceURI(),
+                STREAMS.getLocalPart());
+        final List<WorkspaceInfo> workspaces = new ArrayList<WorkspaceInfo>();
+        SimpleFeatureSource featureSource = (SimpleFeatureSource) ftInfo.getFeatureSource(null,
+                null);
+        DecoratingFeatureSource source = new DecoratingFeatureSource(featureSource) {
+            @Override
+            public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+                workspaces.add(LocalWorkspace.get());
+                return super.getFeatures(query);
+            }
+        };
+        map.addLayer(new FeatureLayer(source, getCatalog().getStyleByName("line").getStyle()));
+
+        // a saturated pool runs the groups in the calling thread
+        ExecutorService pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
+        final CountDownLatch release = new CountDownLatch(1);
+        pool.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return release.await(30, TimeUnit.SECONDS);
+            }
+        });
+        WorkspaceInfo workspace = ftInfo.getStore().getWorkspace();
+        LocalWorkspace.set(workspace);
+        try {
+            new ParallelRasterMapProducer(getWMS(), pool, 2).produceMap(map).dispose();
+            assertFalse(workspaces.isEmpty());
+            for (WorkspaceInfo ws : workspaces) {
+                assertSame(workspace, ws);
+            }
+            // the request thread keeps its own thread locals
+            assertSame(workspace, LocalWorkspace.get());
+        } finally {
+            release.countDown();
+            LocalWorkspace.remove();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRenderingComposition() throws Exception {
+        WMSMapContent map = buildMultiLayerMap();
+        StyleLayer layer = (StyleLayer) map.layers().get(2);
+        DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+        layer.getStyle().accept(duplicator);
+        Style style = (Style) duplicator.getCopy();
+        style.featureTypeStyles().get(0).getOptions().put("composite", "multiply");
+        layer.setStyle(style);
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+        try {
+            // blending against an empty buffer would lose the layers below
+            new ParallelRasterMapProducer(getWMS(), pool, 3).produceMap(map).dispose();
+            assertEquals(0, pool.getTaskCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRenderingLabels() throws Exception {
+        WMSMapContent map = buildMultiLayerMap();
+        StyleLayer layer = (StyleLayer) map.layers().get(0);
+        DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+        layer.getStyle().accept(duplicator);
+        Style style = (Style) duplicator.getCopy();
+        StyleFactory sf = CommonFactoryFinder.getStyleFactory(null);
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        TextSymbolizer text = sf.createTextSymbolizer();
+        text.setLabel(ff.property("ID"));
+        style.featureTypeStyles().get(0).rules().get(0).symbolizers().add(text);
+        layer.setStyle(style);
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+        try {
+            // the labels of the bottom layer would end up below the other layers
+            new ParallelRasterMapProducer(getWMS(), pool, 3).produceMap(map).dispose();
+            assertEquals(0, pool.getTaskCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    WMSMapContent buildMultiLayerMap() throws Exception {
+        Catalog catalog = getCatalog();
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(getMapFormat());
+        request.getFormatOptions().put("antialias", "none");
+
+        final WMSMapContent map = new WMSMapContent();
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+        map.setBgColor(Color.white);
+        map.setTransparent(false);
+        map.setRequest(request);
+        map.getViewport().setBounds(new ReferencedEnvelope(-0.005, 0.005, -0.005, 0.005,
+                DefaultGeographicCRS.WGS84));
+
+        for (QName name : new QName[] { MockData.BASIC_POLYGONS, MockData.LAKES, MockData.STREAMS }) {
+            FeatureTypeInfo info = catalog.getFeatureTypeByName(name.getNamespaceURI(),
+                    name.getLocalPart());
+            Style style = catalog.getLayerByName(info.prefixedName()).getDefaultStyle().getStyle();
+            map.addLayer(new FeatureLayer(info.getFeatureSource(null, null), style));
+        }
+        return map;
+    }
+
+    /**
+     * Renders the layers in the specified number of groups on the provided pool
+     */
+    private static class ParallelRasterMapProducer extends RenderedImageMapOutputFormat {
+
+        ExecutorService pool;
+
+        int parallelism;
+
+        RasterBufferPool canvasPool;
+
+        public ParallelRasterMapProducer(WMS wms, ExecutorService pool, int parallelism) {
+            super("image/gif", new String[] { "image/gif" }, wms);
+            this.pool = pool;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        protected int getRenderingParallelism(WMSMapContent mapContent, Rectangle paintArea) {
+            return parallelism;
+        }
+
+        @Override
+        protected ExecutorService getParallelRenderingPool() {
+            return pool;
+        }
+
+        @Override
+        protected RasterBufferPool getCanvasPool() {
+            return canvasPool != null ? canvasPool : super.getCanvasPool();
+        }
+    }
+
     /**
      * This dummy producer adds no functionality to DefaultRasterMapOutputFormat, just implements a
      * void formatImageOutputStream to have a concrete class over which test that
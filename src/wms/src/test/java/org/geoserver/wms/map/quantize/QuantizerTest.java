@@ -6,17 +6,26 @@ package org.geoserver.wms.map.quantize;
 
 import static org.junit.Assert.*;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
+import java.awt.geom.GeneralPath;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import javax.media.jai.PlanarImage;
 
 import org.geotools.image.test.ImageAssert;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 public class QuantizerTest {
@@ -25,6 +34,21 @@ public class QuantizerTest {
         ColorIndexerDescriptor.register();
     }
 
+    QuantizerExecutor quantizerExecutor;
+
+    ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        quantizerExecutor = new QuantizerExecutor();
+        executor = quantizerExecutor.getExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        quantizerExecutor.destroy();
+    }
+
     @Test
     public void testThreeColors() {
         BufferedImage bi = new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR);
@@ -169,6 +193,168 @@ public class QuantizerTest {
         assertImagesSimilar(bi, indexed, 250);
     }
 
+    @Test
+    public void testParallelHistogram() throws Exception {
+        // large enough to be split in several stripes and have its colors shifted
+        final int SIZE = 1024;
+        BufferedImage bi = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D gr = bi.createGraphics();
+        gr.setRenderingHints(new RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON));
+        for (int i = 0; i < SIZE; i += 4) {
+            gr.setColor(Color.getHSBColor(i / (float) SIZE, 1f, 1f));
+            gr.drawLine(0, i, SIZE, SIZE - i);
+            gr.setColor(new Color(i % 256, 255 - i % 256, (i * 7) % 256, i % 256));
+            gr.fillOval(i, i / 2, 50, 50);
+        }
+        gr.dispose();
+
+        assertParallelHistogram(bi);
+
+        // the same histogram, the same palette
+        IndexColorModel icm1 = new Quantizer(256).buildColorIndexer(bi).toIndexColorModel();
+        IndexColorModel icm2 = new Quantizer(256).executor(executor).buildColorIndexer(bi)
+                .toIndexColorModel();
+        assertEquals(icm1, icm2);
+    }
+
+    @Test
+    public void testExecutorShutdown() throws Exception {
+        BufferedImage bi = buildMap(1024, false);
+        PackedHistogram expected = new PackedHistogram(bi, 1, 1);
+
+        // scans started after the shutdown run on the calling thread alone
+        quantizerExecutor.destroy();
+        assertNull(quantizerExecutor.getExecutor());
+        assertTrue(executor.isShutdown());
+        PackedHistogram histogram = new PackedHistogram(bi, 1, 1, executor, 4);
+        assertEquals(expected.size(), histogram.size());
+        assertEquals(expected.pixelCount(), histogram.pixelCount());
+    }
+
+    @Test
+    public void testVectorMap() {
+        assertQuantizedMap(buildMap(512, false), 30);
+    }
+
+    @Test
+    public void testTranslucentMap() {
+        assertQuantizedMap(buildMap(512, true), 25);
+    }
+
+    @Test
+    public void testTranslucentGradient() {
+        BufferedImage bi = new BufferedImage(512, 512, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D gr = bi.createGraphics();
+        gr.setPaint(new GradientPaint(0, 0, Color.RED, 512, 512, new Color(0, 0, 255, 128)));
+        gr.fillRect(0, 0, 512, 512);
+        gr.dispose();
+        assertQuantizedMap(bi, 35);
+    }
+
+    /**
+     * Checks the histogram does not depend on the number of threads scanning the image
+     */
+    private void assertParallelHistogram(RenderedImage image) {
+        int pixels = image.getWidth() * image.getHeight();
+        PackedHistogram serial = new PackedHistogram(image, 1, 1);
+        PackedHistogram parallel = new PackedHistogram(image, 1, 1, executor, 4);
+        assertEquals(pixels, serial.pixelCount());
+        assertEquals(pixels, parallel.pixelCount());
+        assertEquals(serial.getShift(), parallel.getShift());
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.getPackedColor(i), parallel.getPackedColor(i));
+            assertEquals(serial.getCount(i), parallel.getCount(i));
+        }
+    }
+
+    /**
+     * Quantizes the image and checks the peak signal to noise ratio of the result
+     */
+    private void assertQuantizedMap(BufferedImage image, double minPsnr) {
+        assertParallelHistogram(image);
+
+        ColorIndexer indexer = new Quantizer(256).buildColorIndexer(image);
+        RenderedImage indexed = ColorIndexerDescriptor.create(image, indexer, null);
+        IndexColorModel icm = indexer.toIndexColorModel();
+        assertTrue(icm.getMapSize() <= 256);
+
+        double mse = meanSquareError(image, indexed, icm);
+        double psnr = mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+        assertTrue("PSNR " + psnr + " dB is too low", psnr >= minPsnr);
+    }
+
+    /**
+     * Renders a synthetic map: antialiased polygons and lines, and labels
+     */
+    private BufferedImage buildMap(int size, boolean translucent) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Random random = new Random(size);
+        int alpha = translucent ? 128 : 255;
+
+        // polygons
+        for (int i = 0; i < 100; i++) {
+            GeneralPath path = new GeneralPath();
+            path.moveTo(random.nextInt(size), random.nextInt(size));
+            for (int j = 0; j < 5; j++) {
+                path.lineTo(random.nextInt(size), random.nextInt(size));
+            }
+            path.closePath();
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    alpha));
+            g.fill(path);
+            g.setColor(Color.DARK_GRAY);
+            g.draw(path);
+        }
+
+        // roads
+        for (int i = 0; i < 150; i++) {
+            g.setStroke(new BasicStroke(1 + random.nextInt(4)));
+            g.setColor(i % 2 == 0 ? Color.ORANGE : Color.WHITE);
+            g.drawLine(random.nextInt(size), random.nextInt(size), random.nextInt(size),
+                    random.nextInt(size));
+        }
+
+        // labels
+        g.setFont(new Font("Serif", Font.PLAIN, 12));
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < 250; i++) {
+            g.drawString("Label " + i, random.nextInt(size), random.nextInt(size));
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Mean square error over premultiplied colors, so that the color of transparent pixels, which
+     * is not visible, does not count
+     */
+    private double meanSquareError(BufferedImage source, RenderedImage indexed,
+            IndexColorModel icm) {
+        Raster raster = indexed.getData();
+        double sum = 0;
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int expected = source.getRGB(x, y);
+                int actual = icm.getRGB(raster.getSample(x, y, 0));
+                int ea = expected >>> 24;
+                int aa = actual >>> 24;
+                sum += (ea - aa) * (ea - aa);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int diff = (((expected >> shift) & 0xFF) * ea - ((actual >> shift) & 0xFF)
+                            * aa) / 255;
+                    sum += diff * diff;
+                }
+            }
+        }
+        return sum / ((double) source.getWidth() * source.getHeight() * 4);
+    }
+
     /**
      * Checks two images are visually equal given a certain maximum color distance. For a
      * better tool you might want to check out {@link ImageAssert}, but that works only with RGB
@@ -40,6 +40,8 @@ import org.geoserver.config.GeoServerInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
+import org.geoserver.jai.RasterBufferPool;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wms.GetMap;
 import org.geoserver.wms.WMS;
@@ -295,6 +297,30 @@ public class GetMapIntegrationTest extends WMSTestSupport {
     }
 
 
+    @Test
+    public void testPalettedCanvasReleased() throws Exception {
+        RasterBufferPool pool = GeoServerExtensions.bean(RasterBufferPool.class);
+        pool.setDebug(true);
+        try {
+            long releases = pool.getReleaseCount();
+            long leaks = pool.getLeakCount();
+            // less than 256 colors, the canvas ends up wrapped in a JAI chain
+            MockHttpServletResponse response = getAsServletResponse("wms?bbox=" + bbox
+                    + "&styles=&layers=" + layers + "&Format=image/png&palette=safe"
+                    + "&request=GetMap&width=550&height=250&srs=EPSG:4326");
+            assertEquals("image/png", response.getContentType());
+            assertTrue(pool.getReleaseCount() > releases);
+
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertEquals(leaks, pool.getLeakCount());
+        } finally {
+            pool.setDebug(false);
+        }
+    }
+
     @Test
     public void testPng8Opaque() throws Exception {
         MockHttpServletResponse response = getAsServletResponse("wms?bbox=" + bbox